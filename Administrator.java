@@ -6,6 +6,11 @@ import java.io.*;
  * Implements serialization for persistent storage
  */
 public class Administrator extends Staff {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = 3041513477001230823L;
+
     
     /**
      * Constructs a new Administrator with the specified attributes.
@@ -20,36 +25,39 @@ public class Administrator extends Staff {
         super(id, role, name, gender, age);
     }
 
+    /**
+     * Constructs an Administrator with existing credentials, used when loading saved data
+     *
+     * @param id The unique identifier for the administrator
+     * @param role The role/position of the administrator
+     * @param name The full name of the administrator
+     * @param gender The gender of the administrator
+     * @param age The age of the administrator
+     * @param password The stored password hash
+     * @param firstLogin Whether the administrator has yet to log in for the first time
+     */
+    Administrator(String id, String role, String name, String gender, int age, String password, boolean firstLogin) {
+        super(id, role, name, gender, age, password, firstLogin);
+    }
+
     /**
      * Deserializes administrator data from a file.
      * 
+     * @param file The file to read
      * @return ArrayList of Administrator objects, or null if deserialization fails
      */
-    protected static ArrayList<Administrator> deserialize() {
-        ArrayList<Administrator> allAdministrators = null;
-        try (FileInputStream fis = new FileInputStream("administrator.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allAdministrators = (ArrayList<Administrator>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        return allAdministrators;
+    protected static ArrayList<Administrator> deserialize(File file) {
+        return Staff.decodeAll(file, Administrator::new);
     }
 
     /**
      * Serializes administrator data to a file.
      * 
      * @param allAdministrators List of administrators to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(ArrayList<Administrator> allAdministrators) {
-        try (FileOutputStream fos = new FileOutputStream("administrator.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(allAdministrators);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(ArrayList<Administrator> allAdministrators, File file) {
+        return Staff.encodeAll(file, allAdministrators);
     }
 }
\ No newline at end of file
@@ -50,24 +50,19 @@ public class AdministratorManageStaffManager {
         }
         
         String newRole;
-        String rolePrefix;
         switch(roleChoice) {
             case 1:
                 newRole = "Doctor";
-                rolePrefix = "D";
                 break;
             case 2:
                 newRole = "Pharmacist";
-                rolePrefix = "P";
                 break;
             case 3:
                 newRole = "Administrator";
-                rolePrefix = "A";
                 break;
             default:
                 System.out.println("Invalid role choice!");
                 newRole = "none";
-                rolePrefix = "none";
                 break;
         }
         if (newRole.equals("none")) {
@@ -95,15 +90,8 @@ public class AdministratorManageStaffManager {
         }
         String newGender = genderChoice == 1 ? "Male" : "Female";
 
-        // Get highest existing ID for this role
-        int maxId = db.getAllUsers().stream()
-            .filter(user -> user.getRole().equals(newRole))
-            .map(user -> Integer.parseInt(user.getId().substring(1)))
-            .max(Integer::compareTo)
-            .orElse(0);
-        
-        // Create new id with +1 to maxid
-        String newId = String.format("%s%03d", rolePrefix, maxId + 1);
+        // Next ID of this role's sequence, never one of a removed staff member
+        String newId = db.getIdAllocator().next(HMSIdAllocator.Sequence.forRole(newRole));
 
         // Create staff
         Staff newStaff;
@@ -116,7 +104,7 @@ public class AdministratorManageStaffManager {
         }
 
         // Add to allUsers
-        db.getAllUsers().add(newStaff);
+        db.addStaff(newStaff);
         System.out.println("Staff member added successfully with ID: " + newId);
         
     }
@@ -129,10 +117,10 @@ public class AdministratorManageStaffManager {
         String staffIdToUpdate = scanner.nextLine();
         
         // Find staff member
-        User staffToUpdate = db.getAllUsers().stream()
-            .filter(user -> user.getId().equals(staffIdToUpdate) && !user.getRole().equals("Patient"))
-            .findFirst()
-            .orElse(null);
+        User staffToUpdate = db.getUserRegistry().get(staffIdToUpdate);
+        if (staffToUpdate != null && staffToUpdate.getRole().equals("Patient")) {
+            staffToUpdate = null;
+        }
 
         if (staffToUpdate == null) {
             System.out.println("Staff member not found!");       
@@ -152,10 +140,10 @@ public class AdministratorManageStaffManager {
         String staffIdToRemove = scanner.nextLine();
         
         // Find staff member
-        User staffToRemove = db.getAllUsers().stream()
-            .filter(user -> user.getId().equals(staffIdToRemove) && !user.getRole().equals("Patient"))
-            .findFirst()
-            .orElse(null);
+        User staffToRemove = db.getUserRegistry().get(staffIdToRemove);
+        if (staffToRemove != null && staffToRemove.getRole().equals("Patient")) {
+            staffToRemove = null;
+        }
 
         if (staffToRemove == null) {
             System.out.println("Staff member not found!");
@@ -165,12 +153,8 @@ public class AdministratorManageStaffManager {
         // If staff is doctor, cannot remove if pending appointments
         if (staffToRemove.getRole().equals("Doctor")) {
             // Check for pending or scheduled appointments
-            boolean hasPendingAppointments = db.getAllAppointments().stream()
-                .anyMatch(d -> 
-                    d.getDoctorId().equals(staffIdToRemove) 
-                    && (d.getAppointmentStatus().equals(Appointment.AppointmentStatus.PENDING) 
-                    || d.getAppointmentStatus().equals(Appointment.AppointmentStatus.SCHEDULED)
-                    || d.getAppointmentStatus().equals(Appointment.AppointmentStatus.OPEN)));
+            boolean hasPendingAppointments = !db.getAppointmentIndex().forDoctor(staffIdToRemove,
+                Appointment.AppointmentStatus.PENDING, Appointment.AppointmentStatus.SCHEDULED, Appointment.AppointmentStatus.OPEN).isEmpty();
             
             if (hasPendingAppointments) {
                 System.out.println("Cannot remove doctor with open, pending or scheduled appointments!");
@@ -196,7 +180,7 @@ public class AdministratorManageStaffManager {
 
         if (confirm.equalsIgnoreCase("y")) {
             // Remove staff
-            db.getAllUsers().remove(staffToRemove);
+            db.removeUser(staffToRemove);
             System.out.println("Staff member removed successfully!");
         } else {
             System.out.println("Staff removal cancelled.");
@@ -1,6 +1,10 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Scanner;
-import java.util.stream.Collectors;
 /**
 Handles administrative tasks in the hospital system like managing appointments, inventory, and approvals
 */
@@ -9,15 +13,138 @@ public class AdministratorManager implements ICheckMedicineExists, IViewMedicine
     private final HMSDatabase db = HMSDatabase.getInstance();
     // Use scanner singleton
     private final Scanner scanner = HMSInput.getInstance().getScanner();
+    // Number of appointments shown for the upcoming view
+    private static final int UPCOMING_LIMIT = 20;
    /**
-    * Displays all appointments in the system
-    * Lists complete details of every appointment regardless of status
+    * Displays the appointments for today, this week, a date range, the next upcoming ones, or all of them
+    * Lists complete details of each appointment regardless of status, a page at a time
+    * @throws NumberFormatException Caught internally when non-numeric input is provided
     */
     public void viewAppointmentDetails() {
-        // View all appointment details
-        System.out.println("\n----APPOINTMENTS DETAILS----");
-        for (Appointment appointment : db.getAllAppointments()) {
-            appointment.print();
+        System.out.println("View which appointments?");
+        System.out.println("1. Today");
+        System.out.println("2. This week");
+        System.out.println("3. Date range");
+        System.out.println("4. Next " + UPCOMING_LIMIT + " upcoming");
+        System.out.println("5. All");
+        System.out.println("6. Statistics");
+        int choice;
+        while (true) {
+            try {
+                System.out.print("Enter your choice: ");
+                choice = Integer.parseInt(scanner.nextLine());
+                if (choice >= 1 && choice <= 6) {
+                    break;
+                }
+                System.out.println("Invalid choice");
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid input. Please enter a valid choice");
+            }
+        }
+
+        LocalDate today = LocalDate.now();
+        List<Appointment> appointments;
+        switch (choice) {
+            case 1:
+                appointments = db.getAppointmentIndex().onDates(today, today);
+                break;
+            case 2:
+                LocalDate monday = today.with(DayOfWeek.MONDAY);
+                appointments = db.getAppointmentIndex().onDates(monday, monday.plusDays(6));
+                break;
+            case 3:
+                LocalDate from = readDate("From which date? (dd/MM/yy):");
+                LocalDate to = readDate("Up to which date? (dd/MM/yy):");
+                appointments = db.getAppointmentIndex().onDates(from, to);
+                break;
+            case 4:
+                appointments = db.getAppointmentIndex().upcoming(LocalDateTime.now(), UPCOMING_LIMIT);
+                break;
+            case 6:
+                viewAppointmentStatistics();
+                return;
+            default:
+                appointments = db.getAllAppointments();
+                break;
+        }
+
+        // View appointment details
+        if (appointments.isEmpty()) {
+            System.out.println("There are no appointments");
+            return;
+        }
+        HMSPager.browse("\n----APPOINTMENTS DETAILS----", HMSPager.of(appointments), (appointment, n) -> appointment.print());
+    }
+   /**
+    * Shows the number of appointments of each status over a date range, in total and per doctor, and the busiest day
+    */
+    private void viewAppointmentStatistics() {
+        LocalDate from = readDate("From which date? (dd/MM/yy):");
+        LocalDate to = readDate("Up to which date? (dd/MM/yy):");
+        if (to.isBefore(from)) {
+            System.out.println("The end date is before the start date");
+            return;
+        }
+        AppointmentTable table = db.getAppointmentIndex().table();
+        Appointment.AppointmentStatus[] statuses = Appointment.AppointmentStatus.values();
+
+        System.out.println("\n----APPOINTMENT STATISTICS----");
+        int[] totals = table.countByStatus(from, to);
+        StringBuilder header = new StringBuilder(String.format("%-24s", "Doctor"));
+        StringBuilder total = new StringBuilder(String.format("%-24s", "All doctors"));
+        for (Appointment.AppointmentStatus status : statuses) {
+            header.append(String.format(" %10s", status));
+            total.append(String.format(" %10d", totals[status.ordinal()]));
+        }
+        System.out.println(header);
+        int[][] byDoctor = table.countByDoctor(from, to);
+        for (int d = 0; d < byDoctor.length; d++) {
+            StringBuilder row = new StringBuilder(String.format("%-24s", table.getDoctorId(d) + " " + table.getDoctorName(d)));
+            for (Appointment.AppointmentStatus status : statuses) {
+                row.append(String.format(" %10d", byDoctor[d][status.ordinal()]));
+            }
+            System.out.println(row);
+        }
+        System.out.println(total);
+
+        // Busiest day by appointments booked by patients
+        int[] byDay = table.countByDay(from, to, Appointment.AppointmentStatus.PENDING,
+            Appointment.AppointmentStatus.SCHEDULED, Appointment.AppointmentStatus.COMPLETED);
+        int busiest = 0;
+        for (int i = 1; i < byDay.length; i++) {
+            if (byDay[i] > byDay[busiest]) {
+                busiest = i;
+            }
+        }
+        if (byDay.length > 0 && byDay[busiest] > 0) {
+            System.out.println("Busiest day: " + from.plusDays(busiest).format(DateTimeFormatter.ofPattern("dd/MM/yy"))
+                + " (" + byDay[busiest] + " booked)");
+        }
+        int[] bySlot = table.countBySlot(from, to, Appointment.AppointmentStatus.PENDING,
+            Appointment.AppointmentStatus.SCHEDULED, Appointment.AppointmentStatus.COMPLETED);
+        busiest = 0;
+        for (int i = 1; i < bySlot.length; i++) {
+            if (bySlot[i] > bySlot[busiest]) {
+                busiest = i;
+            }
+        }
+        if (bySlot[busiest] > 0) {
+            System.out.println("Busiest time: " + SlotCalendar.timeOf(busiest) + " (" + bySlot[busiest] + " booked)");
+        }
+    }
+   /**
+    * Reads a date in dd/MM/yy format, asking again until it is valid
+    * @param prompt The question to ask
+    * @return LocalDate The date entered
+    */
+    private LocalDate readDate(String prompt) {
+        while (true) {
+            try {
+                System.out.println(prompt);
+                return LocalDate.parse(scanner.nextLine(), DateTimeFormatter.ofPattern("dd/MM/yy"));
+            } catch (DateTimeParseException e) {
+                System.out.println("Invalid date format. Please use dd/MM/yy (e.g., 25/12/23)");
+            }
         }
     }
    /**
@@ -57,31 +184,40 @@ public class AdministratorManager implements ICheckMedicineExists, IViewMedicine
     * @throws NumberFormatException Caught internally when non-numeric input is provided
     */
     public void approveReplenishmentRequests() {
-        // Approve Replenishment Requests
+        // Approve Replenishment Requests, one page at a time
+        ReplenishmentQueue pendingRequests = db.getReplenishmentQueue();
+        HMSPager<ReplenishmentRequest> pager = new HMSPager<>(pendingRequests, HMSPager.DEFAULT_PAGE_SIZE);
         while (true) {
-            // Get all not approved replenishment requests
-            List<ReplenishmentRequest> pendingRequests = db.getAllReplenishmentRequests()
-                .stream()
-                .filter(r -> r.getStatus().equals(ReplenishmentRequest.ReplenishmentRequestStatus.PENDING))
-                .collect(Collectors.toList());
-        
-            if (pendingRequests.isEmpty()) {
+            if (pendingRequests.size() == 0) {
                 System.out.println("There are no pending requests");
                 break;
             }
-            System.out.println("\n----PENDING REQUESTS----");
+            List<ReplenishmentRequest> page = pager.currentPage();
+            int first = pager.getCursor() + 1;
+            int last = pager.getCursor() + page.size();
+            boolean paged = pendingRequests.size() > HMSPager.DEFAULT_PAGE_SIZE;
+            System.out.println("\n----PENDING REQUESTS" + (paged ? " " + pager.describe(page) : "") + "----");
 
-            // Display all pending requests with index numbers
-            for (int i = 0; i < pendingRequests.size(); i++) {
-                System.out.println("\nRequest " + (i + 1) + ":");
-                pendingRequests.get(i).print();
-            }
+            // Display the page of pending requests with index numbers
+            pager.print(page, (request, n) -> {
+                System.out.println("\nRequest " + n + ":");
+                request.print();
+            });
             int requestNum;
             while (true) {
                 try {
-                    System.out.println("Enter request number to approve (1-" + pendingRequests.size() + ", 0 to quit): ");
-                    String enteredChoice = scanner.nextLine();
-                    requestNum = Integer.parseInt(enteredChoice);
+                    System.out.println("Enter request number to approve (" + first + "-" + last
+                        + (paged ? ", n for next page, p for previous page" : "") + ", 0 to quit): ");
+                    String enteredChoice = scanner.nextLine().trim();
+                    if (paged && enteredChoice.equalsIgnoreCase("n")) {
+                        requestNum = -1;
+                    }
+                    else if (paged && enteredChoice.equalsIgnoreCase("p")) {
+                        requestNum = -2;
+                    }
+                    else {
+                        requestNum = Integer.parseInt(enteredChoice);
+                    }
                     break;
                 } catch (NumberFormatException e) {
                     System.out.println("Invalid input. Please enter a number");
@@ -91,27 +227,50 @@ public class AdministratorManager implements ICheckMedicineExists, IViewMedicine
             if (requestNum == 0) {
                 break;
             }
+            // Next page
+            else if (requestNum == -1) {
+                if (!pager.next()) {
+                    System.out.println("This is the last page");
+                }
+            }
+            // Previous page
+            else if (requestNum == -2) {
+                if (!pager.previous()) {
+                    System.out.println("This is the first page");
+                }
+            }
             // Invalid
-            else if (requestNum < 1 || requestNum > pendingRequests.size()) {
+            else if (requestNum < first || requestNum > last) {
                 System.out.println("Invalid request number");
                 break;
             }
             // Update request and medicine
             else {
-                ReplenishmentRequest selectedRequest = pendingRequests.get(requestNum - 1);
-                
-                // Approve request
-                selectedRequest.approveRequest();
-                System.out.println("Request approved");
-
-                // Replenish medicine amount
-                String medicineName = selectedRequest.getMedicineName();
-                int replenishAmount = selectedRequest.getRequestAmount();
-                Medicine foundMedicine = db.getAllMedicines().get(medicineName);
-                foundMedicine.replenishStock(replenishAmount);
-                System.out.println("Stock for " + medicineName + " has been replenished with " + replenishAmount + " units");
+                ReplenishmentRequest selectedRequest = page.get(requestNum - first);
+                if (approveRequest(selectedRequest)) {
+                    System.out.println("Request approved");
+                    System.out.println("Stock for " + selectedRequest.getMedicineName() + " has been replenished with "
+                        + selectedRequest.getRequestAmount() + " units");
+                }
+                else {
+                    System.out.println("This request has already been approved");
+                }
             }
         }
         
     }
+  /**
+    * Approves a replenishment request and adds the requested amount to the medicine's stock
+    * The stock is only replenished by the session that approves the request, so a request approved by two administrators at once is counted once
+    * @param request The pending request
+    * @return boolean True if the request was approved, false if it was no longer pending
+    */
+    public boolean approveRequest(ReplenishmentRequest request) {
+        if (!request.approveRequest()) {
+            return false;
+        }
+        Medicine foundMedicine = db.getAllMedicines().get(request.getMedicineName());
+        foundMedicine.replenishStock(request.getRequestAmount());
+        return true;
+    }
 }
@@ -17,6 +17,7 @@ public class AdministratorUI extends AbstractAuthMenu{
         System.out.println("4. Approve Replenishment Requests");
         System.out.println("5. Change Password");
         System.out.println("6. Logout");
+        System.out.println("(Last saved " + HMSDatabase.getInstance().getCheckpointer().getTimeSinceLastCheckpoint().getSeconds() + "s ago)");
     }
    /**
     * Launches the main administrator interface 
@@ -69,6 +70,8 @@ public class AdministratorUI extends AbstractAuthMenu{
                 case 5:
                     newAdminManager.changePassword((User) admin);
                 case 6:
+                    // Save this session's changes in the background
+                    HMSDatabase.getInstance().getCheckpointer().requestCheckpoint();
                     loggedIn = false;
                     return;
                 default:
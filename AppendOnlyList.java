@@ -0,0 +1,86 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+* List that can only grow, for data that is appended and never removed (appointments, replenishment requests)
+* Elements are kept in fixed-size chunks, so appending never copies the elements already in the list
+* Appends are serialized, reads take no lock: a reader sees every element appended before the size it read, and iterating while another session appends never throws ConcurrentModificationException
+*
+* @param <T> Type of the elements
+*/
+public class AppendOnlyList<T> extends AbstractList<T> implements RandomAccess {
+    /** Number of elements per chunk, as a power of two */
+    private static final int CHUNK_BITS = 10;
+
+    /** Number of elements per chunk */
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /** Chunks of elements, grown by copying the (small) array of chunks */
+    private volatile Object[][] chunks = new Object[4][];
+
+    /** Number of elements, written after the element so a reader never sees an empty position */
+    private volatile int size;
+
+    /**
+     * Constructs an empty list
+     */
+    public AppendOnlyList() {
+    }
+
+    /**
+     * Constructs a list holding the elements of a collection
+     * @param elements The elements, in the collection's iteration order
+     */
+    public AppendOnlyList(Collection<? extends T> elements) {
+        for (T element : elements) {
+            add(element);
+        }
+    }
+
+    /**
+     * Appends an element
+     * @param element The element to append
+     * @return boolean Always true
+     */
+    @Override
+    public synchronized boolean add(T element) {
+        int index = size;
+        int chunk = index >>> CHUNK_BITS;
+        Object[][] current = chunks;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            chunks = current;
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new Object[CHUNK_SIZE];
+        }
+        current[chunk][index & (CHUNK_SIZE - 1)] = element;
+        size = index + 1;
+        return true;
+    }
+
+    /**
+     * Gets an element
+     * @param index Position of the element
+     * @return T The element
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return (T) chunks[index >>> CHUNK_BITS][index & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Gets the number of elements appended so far
+     * @return int Number of elements
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -1,47 +1,101 @@
 import java.time.*;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.io.*;
 
 /**
  * This class manages medical appointments between doctors and patients in the system
  * Implements Serializable for persistent storage
+ * Appointments are stored compactly, as there can be millions of slots: the ID as a number, doctor and patient references shared between appointments,
+ * the date as an epoch day, the time as minutes since midnight, and the status and patient as one State shared between appointments. The getters rebuild the usual values
+ * Status changes are compare-and-set on the State, so of two sessions changing the same appointment (e.g. requesting the same slot) one succeeds and the other is told, without either blocking
  */
-public class Appointment implements Serializable {
+public class Appointment implements Serializable, IRenderable {
     /**
-     * Unique identifier for the appointment.
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
      */
-    private String appointmentId;
+    private static final long serialVersionUID = 2494419331461625089L;
 
     /**
-     * ID of the patient. Empty string indicates available slot.
+     * Fields of data files written with ObjectOutputStream, which readObject and writeObject map to and from the compact fields below.
      */
-    private String patientId;
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("appointmentId", String.class),
+        new ObjectStreamField("patientId", String.class),
+        new ObjectStreamField("doctorId", String.class),
+        new ObjectStreamField("doctorName", String.class),
+        new ObjectStreamField("appointmentDate", LocalDate.class),
+        new ObjectStreamField("appointmentTime", LocalTime.class),
+        new ObjectStreamField("appointmentStatus", AppointmentStatus.class)
+    };
 
     /**
-     * ID of the doctor assigned to this appointment.
+     * Shared doctor references, one per doctor ID and name, so appointment slots do not each hold their own copies.
      */
-    private String doctorId;
+    private static final Map<DoctorRef, DoctorRef> DOCTORS = new ConcurrentHashMap<>();
 
     /**
-     * Name of the doctor conducting the appointment.
+     * Appointment statuses by ordinal.
      */
-    private String doctorName;
+    private static final AppointmentStatus[] STATUSES = AppointmentStatus.values();
 
     /**
-     * Date of the appointment.
+     * Shared states without a patient, by status ordinal.
      */
-    private LocalDate appointmentDate;
+    private static final State[] UNBOOKED = new State[STATUSES.length];
 
     /**
-     * Time of the appointment.
+     * Shared states of each patient, by status ordinal.
      */
-    private LocalTime appointmentTime;
+    private static final Map<String, State[]> BOOKED = new ConcurrentHashMap<>();
+
+    static {
+        for (AppointmentStatus status : STATUSES) {
+            UNBOOKED[status.ordinal()] = new State(status, null);
+        }
+    }
+
+    /**
+     * Compare-and-set of the state field.
+     */
+    private static final AtomicReferenceFieldUpdater<Appointment, State> STATE =
+        AtomicReferenceFieldUpdater.newUpdater(Appointment.class, State.class, "state");
 
     /**
-     * Current status of the appointment (OPEN, SCHEDULED, PENDING, COMPLETED, or CANCELLED).
+     * Number of the appointment ID given out by the ID allocator, 0 if the appointment has a legacyId instead.
      */
-    private AppointmentStatus appointmentStatus;
+    private long idNumber;
+
+    /**
+     * ID of an appointment from before the ID allocator (a UUID), null for sequence IDs.
+     */
+    private String legacyId;
+
+    /**
+     * Doctor assigned to this appointment, shared with the doctor's other appointments.
+     */
+    private DoctorRef doctor;
+
+    /**
+     * Date of the appointment, in days since 1970-01-01.
+     */
+    private int appointmentDay;
+
+    /**
+     * Time of the appointment, in minutes since midnight.
+     */
+    private short appointmentMinute;
+
+    /**
+     * Current status of the appointment and ID of its patient, shared with the patient's other appointments in that status. Only changed by compare-and-set.
+     */
+    private volatile State state;
+
+    /**
+     * Position of the appointment in AppointmentIndex, which keeps index results in creation order.
+     */
+    transient long indexOrder;
     /**
      * Status of appointments in the scheduling system.
      */
@@ -69,12 +123,108 @@ public class Appointment implements Serializable {
         /**
          * Time slot is available
          */
-        OPEN
+        OPEN;
+
+        /**
+         * Checks whether an appointment in this status can move to another one.
+         * An open slot can be requested or cancelled, a request accepted or declined, a scheduled appointment completed,
+         * and a patient can withdraw a request or scheduled appointment. Completed and cancelled appointments are final.
+         * 
+         * @param next The status to move to
+         * @return true if the change is allowed
+         */
+        public boolean canBecome(AppointmentStatus next) {
+            switch (this) {
+                case OPEN:
+                    return next == PENDING || next == CANCELLED;
+                case PENDING:
+                    return next == SCHEDULED || next == OPEN;
+                case SCHEDULED:
+                    return next == COMPLETED || next == OPEN;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Checks whether an appointment in this status belongs to a patient.
+         * 
+         * @return true for requested, scheduled and completed appointments
+         */
+        public boolean isBooked() {
+            return this == PENDING || this == SCHEDULED || this == COMPLETED;
+        }
+    }
+
+    /**
+     * The status of an appointment together with its patient, so a transition can compare and change both at once.
+     * States are immutable and shared, one per status without a patient and one per status for each patient, so they cost an appointment only its reference.
+     */
+    static final class State {
+        final AppointmentStatus status;
+        final String patientId;
+
+        private State(AppointmentStatus status, String patientId) {
+            this.status = status;
+            this.patientId = patientId;
+        }
+
+        /**
+         * Gets the shared state of a status and patient.
+         * 
+         * @param status The status
+         * @param patientId The patient ID, or null if no patient is scheduled
+         * @return State The shared state
+         */
+        static State of(AppointmentStatus status, String patientId) {
+            if (patientId == null) {
+                return UNBOOKED[status.ordinal()];
+            }
+            State[] states = BOOKED.get(patientId);
+            if (states == null) {
+                State[] created = new State[STATUSES.length];
+                for (AppointmentStatus s : STATUSES) {
+                    created[s.ordinal()] = new State(s, patientId);
+                }
+                states = BOOKED.putIfAbsent(patientId, created);
+                if (states == null) {
+                    states = created;
+                }
+            }
+            return states[status.ordinal()];
+        }
+    }
+
+    /**
+     * The ID and name of a doctor as recorded on their appointment slots.
+     */
+    private static final class DoctorRef {
+        private final String id;
+        private final String name;
+
+        DoctorRef(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof DoctorRef)) {
+                return false;
+            }
+            DoctorRef other = (DoctorRef) o;
+            return Objects.equals(id, other.id) && Objects.equals(name, other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, name);
+        }
     }
 
     /**
      * Constructs a new Appointment with the specified doctor information and time slot.
-     * Generates a unique UUID for the appointment and sets initial status to OPEN.
+     * Takes the next appointment ID from the ID allocator and sets initial status to OPEN.
      *
      * @param doctorId The unique identifier of the doctor
      * @param doctorName The name of the doctor
@@ -82,56 +232,160 @@ public class Appointment implements Serializable {
      * @param appointmentTime The time of the appointment
      */
     public Appointment(String doctorId, String doctorName, LocalDate appointmentDate, LocalTime appointmentTime) {
-        this.appointmentId = UUID.randomUUID().toString();
-        this.doctorId = doctorId;
-        this.doctorName = doctorName;
-        this.appointmentDate = appointmentDate;
-        this.appointmentTime = appointmentTime;
-        this.appointmentStatus = AppointmentStatus.OPEN;
+        this(HMSDatabase.getInstance().getIdAllocator().next(HMSIdAllocator.Sequence.APPOINTMENT), doctorId, doctorName, appointmentDate, appointmentTime);
+    }
+
+    /**
+     * Constructs an open Appointment with an existing ID, used when replaying the journal.
+     *
+     * @param appointmentId The unique identifier of the appointment
+     * @param doctorId The unique identifier of the doctor
+     * @param doctorName The name of the doctor
+     * @param appointmentDate The date of the appointment
+     * @param appointmentTime The time of the appointment
+     */
+    Appointment(String appointmentId, String doctorId, String doctorName, LocalDate appointmentDate, LocalTime appointmentTime) {
+        setId(appointmentId);
+        this.doctor = doctorRef(doctorId, doctorName);
+        this.appointmentDay = (int) appointmentDate.toEpochDay();
+        this.appointmentMinute = (short) (appointmentTime.getHour() * 60 + appointmentTime.getMinute());
+        this.state = State.of(AppointmentStatus.OPEN, null);
+    }
+
+    /**
+     * Stores an appointment ID, as its number if it is one the ID allocator gives out.
+     */
+    private void setId(String appointmentId) {
+        if (HMSIdAllocator.isSequenceId(appointmentId) && appointmentId.charAt(0) != '0') {
+            this.idNumber = Long.parseLong(appointmentId);
+            this.legacyId = null;
+        }
+        else {
+            this.idNumber = 0;
+            this.legacyId = appointmentId;
+        }
+    }
+
+    /**
+     * Gets the shared reference of a doctor.
+     */
+    private static DoctorRef doctorRef(String doctorId, String doctorName) {
+        DoctorRef ref = new DoctorRef(doctorId, doctorName);
+        DoctorRef shared = DOCTORS.putIfAbsent(ref, ref);
+        return shared == null ? ref : shared;
+    }
+
+    /**
+     * Reads an appointment written with ObjectOutputStream, in the field layout from before the compact fields.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        LocalDate date = (LocalDate) fields.get("appointmentDate", null);
+        LocalTime time = (LocalTime) fields.get("appointmentTime", null);
+        AppointmentStatus status = (AppointmentStatus) fields.get("appointmentStatus", AppointmentStatus.OPEN);
+        setId((String) fields.get("appointmentId", null));
+        this.doctor = doctorRef((String) fields.get("doctorId", null), (String) fields.get("doctorName", null));
+        this.appointmentDay = (int) date.toEpochDay();
+        this.appointmentMinute = (short) (time.getHour() * 60 + time.getMinute());
+        this.state = State.of(status, (String) fields.get("patientId", null));
+    }
+
+    /**
+     * Writes an appointment for ObjectOutputStream in the field layout from before the compact fields.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        State current = this.state;
+        fields.put("appointmentId", getAppointmentId());
+        fields.put("patientId", current.patientId);
+        fields.put("doctorId", getDoctorId());
+        fields.put("doctorName", getDoctorName());
+        fields.put("appointmentDate", getAppointmentDate());
+        fields.put("appointmentTime", getAppointmentTime());
+        fields.put("appointmentStatus", current.status);
+        out.writeFields();
     }
 
     /**
      * Deserializes appointments from a file.
      * 
+     * @param file The file to read
      * @return ArrayList of Appointment objects, or null if deserialization fails
      */
-    protected static ArrayList<Appointment> deserialize() {
-        ArrayList<Appointment> allAppointments = null;
-        try (FileInputStream fis = new FileInputStream("appointments.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allAppointments = (ArrayList<Appointment>) ois.readObject();
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
-        } catch (ClassNotFoundException cnfe) {
-            cnfe.printStackTrace();
-        }
-        return allAppointments;
+    protected static ArrayList<Appointment> deserialize(File file) {
+        return HMSCodec.read(file, in -> {
+            int count = in.readVarInt();
+            ArrayList<Appointment> allAppointments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                allAppointments.add(decode(in));
+            }
+            return allAppointments;
+        });
     }
 
     /**
      * Serializes appointments to a file.
      * 
      * @param allAppointments List of appointments to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(ArrayList<Appointment> allAppointments) {
-        try (FileOutputStream fos = new FileOutputStream("appointments.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(allAppointments);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(ArrayList<Appointment> allAppointments, File file) {
+        return HMSCodec.write(file, out -> {
+            out.writeVarInt(allAppointments.size());
+            for (Appointment a : allAppointments) {
+                a.encode(out);
+            }
+        });
+    }
+
+    /**
+     * Writes this appointment in the binary snapshot format.
+     * 
+     * @param out The writer to write to
+     * @throws IOException If writing fails
+     */
+    void encode(HMSCodec.Writer out) throws IOException {
+        State current = this.state;
+        out.writeString(getAppointmentId());
+        out.writeRef(this.doctor.id);
+        out.writeRef(this.doctor.name);
+        out.writeDate(getAppointmentDate());
+        out.writeTime(getAppointmentTime());
+        out.writeByte(current.status.ordinal());
+        out.writeRef(current.patientId);
+    }
+
+    /**
+     * Reads an appointment written by encode.
+     * 
+     * @param in The reader to read from
+     * @return The decoded Appointment
+     * @throws IOException If reading fails
+     */
+    static Appointment decode(HMSCodec.Reader in) throws IOException {
+        Appointment a = new Appointment(in.readString(), in.readRef(), in.readRef(), in.readDate(), in.readTime());
+        AppointmentStatus status = STATUSES[in.readByte()];
+        a.state = State.of(status, in.readRef());
+        return a;
     }
 
     /**
      * Gets the unique identifier of this appointment.
      * 
-     * @return The appointment's UUID as a String
+     * @return The appointment's ID as a String
      */
     public String getAppointmentId() {
-        return this.appointmentId;
+        return this.legacyId != null || this.idNumber == 0 ? this.legacyId : Long.toString(this.idNumber);
+    }
+
+    /**
+     * Replaces an ID from before the ID allocator existed, the caller rekeys whatever refers to the appointment
+     *
+     * @param appointmentId The new appointment ID
+     */
+    void migrateId(String appointmentId) {
+        setId(appointmentId);
     }
 
     /**
@@ -141,7 +395,7 @@ public class Appointment implements Serializable {
      * @return The patient's ID, or empty string if no patient is scheduled
      */
     public String getPatientId() {
-        return this.patientId;
+        return this.state.patientId;
     }
 
     /**
@@ -150,7 +404,16 @@ public class Appointment implements Serializable {
      * @return The doctor's ID
      */
     public String getDoctorId() {
-        return this.doctorId;
+        return this.doctor.id;
+    }
+
+    /**
+     * Gets the name of the doctor assigned to this appointment.
+     * 
+     * @return The doctor's name
+     */
+    public String getDoctorName() {
+        return this.doctor.name;
     }
 
     /**
@@ -159,7 +422,7 @@ public class Appointment implements Serializable {
      * @return The appointment date as a LocalDate object
      */
     public LocalDate getAppointmentDate() {
-        return this.appointmentDate;
+        return LocalDate.ofEpochDay(this.appointmentDay);
     }
 
     /**
@@ -168,7 +431,25 @@ public class Appointment implements Serializable {
      * @return The appointment time as a LocalTime object
      */
     public LocalTime getAppointmentTime() {
-        return this.appointmentTime;
+        return LocalTime.of(this.appointmentMinute / 60, this.appointmentMinute % 60);
+    }
+
+    /**
+     * Gets the date of the appointment without making a LocalDate, for ordering and indexing.
+     * 
+     * @return int The appointment date in days since 1970-01-01
+     */
+    int getAppointmentDay() {
+        return this.appointmentDay;
+    }
+
+    /**
+     * Gets the time of the appointment without making a LocalTime, for ordering and indexing.
+     * 
+     * @return int The appointment time in minutes since midnight
+     */
+    int getAppointmentMinute() {
+        return this.appointmentMinute;
     }
 
     /**
@@ -178,70 +459,155 @@ public class Appointment implements Serializable {
      * @return The current AppointmentStatus enum value of the appointment
      */
     public AppointmentStatus getAppointmentStatus() {
-        return this.appointmentStatus;
+        return this.state.status;
     }
 
     /**
-     * Schedules a patient for this appointment.
+     * Gets the status and patient of the appointment as one consistent pair, for the journal and the appointment index.
+     * 
+     * @return State The current state
+     */
+    State getState() {
+        return this.state;
+    }
+
+    /**
+     * Requests this open slot for a patient.
      * 
      * @param patientId The ID of the patient to schedule
-     * @return true if scheduling is successful
+     * @return true if scheduling is successful, false if the slot is no longer open
      */
     public boolean schedulePatient(String patientId) {
-        this.patientId = patientId;
-        this.appointmentStatus = AppointmentStatus.PENDING;
-        return true;
+        return patientId != null && transition(AppointmentStatus.OPEN, null, AppointmentStatus.PENDING, patientId);
     }
 
     /**
-     * Resets the appointment slot to open status.
+     * Resets a requested or scheduled appointment slot to open status, whichever patient has it.
      * 
-     * @return true if reset is successful
+     * @return true if reset is successful, false if the slot was not requested or scheduled
      */
     public boolean resetSlot() {
-        this.patientId = null;
-        this.appointmentStatus = AppointmentStatus.OPEN;
-        return true;
+        return transition(null, null, AppointmentStatus.OPEN, null);
+    }
+
+    /**
+     * Resets a patient's requested or scheduled appointment slot to open status.
+     * Fails if the slot has been opened and requested by another patient since, so a patient only ever cancels their own appointment.
+     * 
+     * @param patientId The ID of the patient cancelling
+     * @return true if reset is successful, false if the slot is no longer requested or scheduled by the patient
+     */
+    public boolean resetSlot(String patientId) {
+        return patientId != null && transition(null, patientId, AppointmentStatus.OPEN, null);
     }
 
     /**
      * Approves a pending appointment, sets its status to SCHEDULED.
      * 
-     * @return true if approval is successful
+     * @return true if approval is successful, false if the appointment is no longer pending
      */
     public boolean approveSlot() {
-        this.appointmentStatus = AppointmentStatus.SCHEDULED;
-        return true;
+        return transition(AppointmentStatus.PENDING, null, AppointmentStatus.SCHEDULED, null);
+    }
+
+    /**
+     * Approves a patient's pending request, sets its status to SCHEDULED.
+     * 
+     * @param patientId The ID of the patient whose request the doctor saw
+     * @return true if approval is successful, false if the appointment is no longer pending for that patient
+     */
+    public boolean approveSlot(String patientId) {
+        return patientId != null && transition(AppointmentStatus.PENDING, patientId, AppointmentStatus.SCHEDULED, null);
     }
 
     /**
      * Declines a pending appointment, sets its status to OPEN.
      * 
-     * @return true if decline is successful
+     * @return true if decline is successful, false if the appointment is no longer pending
      */
     public boolean declineSlot() {
-        this.appointmentStatus = AppointmentStatus.OPEN;
-        return true;
+        return transition(AppointmentStatus.PENDING, null, AppointmentStatus.OPEN, null);
+    }
+
+    /**
+     * Declines a patient's pending request, sets its status to OPEN.
+     * 
+     * @param patientId The ID of the patient whose request the doctor saw
+     * @return true if decline is successful, false if the appointment is no longer pending for that patient
+     */
+    public boolean declineSlot(String patientId) {
+        return patientId != null && transition(AppointmentStatus.PENDING, patientId, AppointmentStatus.OPEN, null);
     }
 
     /**
-     * Marks the appointment as cancelled.
+     * Marks an open appointment slot as cancelled.
      * 
-     * @return true if cancellation is successful
+     * @return true if cancellation is successful, false if the slot is no longer open
      */
     public boolean cancelSlot() {
-        this.appointmentStatus = AppointmentStatus.CANCELLED;
-        return true;
+        return transition(AppointmentStatus.OPEN, null, AppointmentStatus.CANCELLED, null);
     }
 
     /**
      * Marks the appointment as completed.
      * 
-     * @return true if completion is successful
+     * @return true if completion is successful, false if the appointment is no longer scheduled
      */
     public boolean completeSlot() {
-        this.appointmentStatus = AppointmentStatus.COMPLETED;
-        return true;
+        return transition(AppointmentStatus.SCHEDULED, null, AppointmentStatus.COMPLETED, null);
+    }
+
+    /**
+     * Restores the status and patient of this appointment from the journal.
+     * 
+     * @param appointmentStatus The recorded status
+     * @param patientId The recorded patient ID, or null if no patient is scheduled
+     */
+    void restoreState(AppointmentStatus appointmentStatus, String patientId) {
+        State previous = STATE.getAndSet(this, State.of(appointmentStatus, patientId));
+        HMSDatabase.getInstance().getAppointmentIndex().update(this, previous);
+    }
+
+    /**
+     * Moves the appointment to a new status, recording the change in the journal and the appointment index.
+     * The status and patient are checked and changed by one compare-and-set, and checked again if another session changed them in between,
+     * so of two sessions making conflicting changes (e.g. requesting the same slot) exactly one succeeds, and neither waits for the other.
+     * The patient is kept while the appointment stays booked and cleared when it is not.
+     * 
+     * @param from The status the change must be made from, or null for any status that can become the new one
+     * @param bookedBy The patient the appointment must belong to, or null for any patient
+     * @param to The new status, which the current status must be able to become (see AppointmentStatus.canBecome)
+     * @param patientId The patient booking the appointment, when an unbooked slot becomes booked
+     * @return true if the change is made, false if the appointment is in another status or belongs to another patient
+     */
+    private boolean transition(AppointmentStatus from, String bookedBy, AppointmentStatus to, String patientId) {
+        while (true) {
+            State current = this.state;
+            if ((from != null && current.status != from) || !current.status.canBecome(to)
+                    || (bookedBy != null && !bookedBy.equals(current.patientId))) {
+                return false;
+            }
+            State next = State.of(to, !to.isBooked() ? null : current.status.isBooked() ? current.patientId : patientId);
+            if (STATE.compareAndSet(this, current, next)) {
+                // The journal and index read the appointment's state again, so if a later change overtakes this one they still end on the latest state
+                // On a booking partition's writer they are updated once for the writer's whole batch (see BookingPartitions),
+                // except within a transaction, whose journal entries must all be written when it commits
+                if (HMSTransaction.isActive() || !BookingPartitions.defer(this, current)) {
+                    HMSDatabase db = HMSDatabase.getInstance();
+                    db.getJournal().logAppointmentState(this);
+                    db.getAppointmentIndex().update(this, current);
+                }
+                // The restored state is recorded, as a snapshot written meanwhile may already hold the new one
+                HMSTransaction.onUndo(() -> {
+                    if (STATE.compareAndSet(this, next, current)) {
+                        HMSDatabase db = HMSDatabase.getInstance();
+                        db.getJournal().logAppointmentState(this);
+                        db.getAppointmentIndex().update(this, next);
+                    }
+                });
+                return true;
+            }
+        }
     }
 
     /**
@@ -261,13 +627,24 @@ public class Appointment implements Serializable {
      * Includes doctor's name, doctor's ID, patient's ID, appointment date, appointment time, and appointment status.
      */
     public void print() {
-        System.out.println("Doctor: " + this.doctorName);
-        System.out.println("DoctorId: " + this.doctorId);
-        if (this.patientId != null) {
-            System.out.println("PatientId: " + this.patientId);
+        HMSOutput.getInstance().print(this);
+    }
+
+    /**
+     * Renders the details of the appointment, the same ones print shows.
+     * 
+     * @param r The renderer to render the fields with
+     */
+    @Override
+    public void render(HMSRenderer r) {
+        r.field("Doctor", this.doctor.name);
+        r.field("DoctorId", this.doctor.id);
+        State current = this.state;
+        if (current.patientId != null) {
+            r.field("PatientId", current.patientId);
         }
-        System.out.println("Date: " + this.appointmentDate.format(DateTimeFormatter.ofPattern("dd/MM/yy")));
-        System.out.println("Time: " + this.appointmentTime);
-        System.out.println("Status: " + this.appointmentStatus);
+        r.field("Date", getAppointmentDate());
+        r.field("Time", getAppointmentTime());
+        r.field("Status", current.status);
     }
 }
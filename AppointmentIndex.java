@@ -0,0 +1,650 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Secondary indexes over all appointments, so lookups by doctor, patient, status or slot do not scan the whole appointment history
+ * Appointments are added through HMSDatabase.addAppointment, and the Appointment state transitions keep the status and patient indexes up to date
+ * Results are returned in the order the appointments were created, the same order as HMSDatabase.getAllAppointments
+ * Each doctor also has a SlotCalendar of half-hour slot bitmaps, for constant time conflict checks and free/busy views
+ * Open appointments are also kept ordered by date and time, so the earliest open slots are found without a scan
+ * All appointments are kept in a concurrent date and time ordered set, so date range and upcoming queries read without taking the index lock
+ * Counts and groupings scan an AppointmentTable, a column-oriented copy made on demand
+ * Lookups share a read lock, so sessions only wait for each other while an appointment is added or changes
+ */
+public class AppointmentIndex {
+    /** Orders appointments by when they were added to the index */
+    private static final Comparator<Appointment> CREATION_ORDER = Comparator.comparingLong(a -> a.indexOrder);
+
+    /** Orders appointments by date and time, then by when they were added to the index */
+    private static final Comparator<Appointment> SLOT_ORDER = Comparator.comparingInt(Appointment::getAppointmentDay)
+        .thenComparingInt(Appointment::getAppointmentMinute).thenComparing(CREATION_ORDER);
+
+    /** Guards the indexes below except byTime, lookups share the read lock so they do not wait for each other */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Order given to the next appointment added */
+    private long nextOrder = 1;
+
+    /** Appointments by ID */
+    private final Map<String, Appointment> byId = new HashMap<>();
+
+    /** Appointments by doctor ID, then by status */
+    private final Map<String, EnumMap<Appointment.AppointmentStatus, TreeSet<Appointment>>> byDoctor = new HashMap<>();
+
+    /** Appointments by patient ID, only those with a patient */
+    private final Map<String, TreeSet<Appointment>> byPatient = new HashMap<>();
+
+    /** Appointments by status */
+    private final EnumMap<Appointment.AppointmentStatus, TreeSet<Appointment>> byStatus = new EnumMap<>(Appointment.AppointmentStatus.class);
+
+    /** Appointments by doctor, date and time, there can be several when slots were cancelled and created again */
+    private final Map<Slot, List<Appointment>> bySlot = new HashMap<>();
+
+    /** Slot calendar of each doctor by doctor ID */
+    private final Map<String, SlotCalendar> calendars = new HashMap<>();
+
+    /** All appointments by date and time, read without locking since an appointment's date and time never change */
+    private final ConcurrentSkipListSet<Appointment> byTime = new ConcurrentSkipListSet<>(SLOT_ORDER);
+
+    /** Open appointments by date and time */
+    private final TreeMap<LocalDateTime, TreeSet<Appointment>> openSlots = new TreeMap<>();
+
+    /** Open appointments of each doctor by date and time, keyed by doctor ID */
+    private final Map<String, TreeMap<LocalDateTime, TreeSet<Appointment>>> openSlotsByDoctor = new HashMap<>();
+
+    /** Column-oriented copy of the appointments, null until asked for or once the appointments change */
+    private volatile AppointmentTable table;
+
+    /**
+     * A doctor's appointment slot
+     */
+    private static final class Slot {
+        private final String doctorId;
+        private final int day;
+        private final int minute;
+
+        Slot(String doctorId, LocalDate date, LocalTime time) {
+            this(doctorId, (int) date.toEpochDay(), time.getHour() * 60 + time.getMinute());
+        }
+
+        Slot(Appointment a) {
+            this(a.getDoctorId(), a.getAppointmentDay(), a.getAppointmentMinute());
+        }
+
+        private Slot(String doctorId, int day, int minute) {
+            this.doctorId = doctorId;
+            this.day = day;
+            this.minute = minute;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Slot)) {
+                return false;
+            }
+            Slot other = (Slot) o;
+            return doctorId.equals(other.doctorId) && day == other.day && minute == other.minute;
+        }
+
+        @Override
+        public int hashCode() {
+            return (doctorId.hashCode() * 31 + day) * 31 + minute;
+        }
+    }
+
+    /**
+     * Replaces the indexed appointments, used after loading
+     * @param appointments All appointments, in creation order
+     */
+    public void rebuild(List<Appointment> appointments) {
+        lock.writeLock().lock();
+        try {
+            nextOrder = 1;
+            byId.clear();
+            byDoctor.clear();
+            byPatient.clear();
+            byStatus.clear();
+            bySlot.clear();
+            calendars.clear();
+            openSlots.clear();
+            openSlotsByDoctor.clear();
+            byTime.clear();
+            table = null;
+            for (Appointment a : appointments) {
+                add(a);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a new appointment to the indexes
+     * @param a The appointment to add
+     */
+    public void add(Appointment a) {
+        lock.writeLock().lock();
+        try {
+            a.indexOrder = nextOrder++;
+            byId.put(a.getAppointmentId(), a);
+            bySlot.computeIfAbsent(new Slot(a), k -> new ArrayList<>(1)).add(a);
+            byTime.add(a);
+            Appointment.State state = a.getState();
+            insert(a, state.status, state.patientId);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves an appointment after its status or patient changed
+     * Appointments that are not in the index (e.g. created outside the database) are ignored
+     * The appointment is indexed under the state it has now rather than the one the change made, so when two changes are indexed out of order the later state still wins
+     *
+     * @param a The appointment that changed
+     * @param previous Its status and patient before the change
+     */
+    void update(Appointment a, Appointment.State previous) {
+        lock.writeLock().lock();
+        try {
+            if (byId.get(a.getAppointmentId()) != a) {
+                return;
+            }
+            Appointment.State current = a.getState();
+            remove(a, previous.status, previous.patientId);
+            insert(a, current.status, current.patientId);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves several appointments after their status or patient changed, taking the index once for all of them
+     *
+     * @param changes The appointments that changed, each with its status and patient before the change
+     */
+    void updateAll(Map<Appointment, Appointment.State> changes) {
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Appointment, Appointment.State> change : changes.entrySet()) {
+                Appointment a = change.getKey();
+                if (byId.get(a.getAppointmentId()) != a) {
+                    continue;
+                }
+                Appointment.State current = a.getState();
+                remove(a, change.getValue().status, change.getValue().patientId);
+                insert(a, current.status, current.patientId);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets an appointment by ID
+     * @param appointmentId The appointment ID
+     * @return Appointment The appointment, or null if there is none
+     */
+    public Appointment get(String appointmentId) {
+        lock.readLock().lock();
+        try {
+            return byId.get(appointmentId);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets a doctor's appointments
+     * @param doctorId The doctor's ID
+     * @param statuses Statuses to include, all statuses if none are given
+     * @return List of matching appointments in creation order
+     */
+    public List<Appointment> forDoctor(String doctorId, Appointment.AppointmentStatus... statuses) {
+        lock.readLock().lock();
+        try {
+            EnumMap<Appointment.AppointmentStatus, TreeSet<Appointment>> doctorAppointments = byDoctor.get(doctorId);
+            if (doctorAppointments == null) {
+                return Collections.emptyList();
+            }
+            if (statuses.length == 0) {
+                statuses = Appointment.AppointmentStatus.values();
+            }
+            List<TreeSet<Appointment>> sets = new ArrayList<>(statuses.length);
+            for (Appointment.AppointmentStatus status : statuses) {
+                sets.add(doctorAppointments.get(status));
+            }
+            return merge(sets);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets a patient's appointments
+     * @param patientId The patient's ID
+     * @param statuses Statuses to include, all statuses if none are given
+     * @return List of matching appointments in creation order
+     */
+    public List<Appointment> forPatient(String patientId, Appointment.AppointmentStatus... statuses) {
+        lock.readLock().lock();
+        try {
+            TreeSet<Appointment> patientAppointments = byPatient.get(patientId);
+            if (patientAppointments == null) {
+                return Collections.emptyList();
+            }
+            List<Appointment> result = new ArrayList<>(patientAppointments.size());
+            for (Appointment a : patientAppointments) {
+                if (statuses.length == 0 || hasStatus(a, statuses)) {
+                    result.add(a);
+                }
+            }
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets all appointments with a status
+     * @param status The status
+     * @return List of matching appointments in creation order
+     */
+    public List<Appointment> withStatus(Appointment.AppointmentStatus status) {
+        lock.readLock().lock();
+        try {
+            TreeSet<Appointment> set = byStatus.get(status);
+            return set == null ? Collections.emptyList() : new ArrayList<>(set);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the first appointment in a doctor's slot
+     * @param doctorId The doctor's ID
+     * @param date The appointment date
+     * @param time The appointment time
+     * @param statuses Statuses to accept, all statuses if none are given
+     * @return Appointment The earliest created matching appointment, or null if there is none
+     */
+    public Appointment atSlot(String doctorId, LocalDate date, LocalTime time, Appointment.AppointmentStatus... statuses) {
+        lock.readLock().lock();
+        try {
+            List<Appointment> slotAppointments = bySlot.get(new Slot(doctorId, date, time));
+            if (slotAppointments == null) {
+                return null;
+            }
+            for (Appointment a : slotAppointments) {
+                if (statuses.length == 0 || hasStatus(a, statuses)) {
+                    return a;
+                }
+            }
+            return null;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the appointments between two points in time
+     * @param from Earliest date and time to include
+     * @param to Date and time to stop before
+     * @param statuses Statuses to include, all statuses if none are given
+     * @return List of matching appointments ordered by date and time
+     */
+    public List<Appointment> between(LocalDateTime from, LocalDateTime to, Appointment.AppointmentStatus... statuses) {
+        List<Appointment> result = new ArrayList<>();
+        if (!from.isBefore(to)) {
+            return result;
+        }
+        for (Appointment a : byTime.subSet(probe(from), probe(to))) {
+            if (statuses.length == 0 || hasStatus(a, statuses)) {
+                result.add(a);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the appointments on a range of dates
+     * @param from First date to include
+     * @param to Last date to include
+     * @param statuses Statuses to include, all statuses if none are given
+     * @return List of matching appointments ordered by date and time
+     */
+    public List<Appointment> onDates(LocalDate from, LocalDate to, Appointment.AppointmentStatus... statuses) {
+        return between(from.atStartOfDay(), to.plusDays(1).atStartOfDay(), statuses);
+    }
+
+    /**
+     * Gets the next appointments from a point in time
+     * @param from Earliest date and time to include
+     * @param limit Maximum number of appointments to return
+     * @param statuses Statuses to include, all statuses if none are given
+     * @return List of up to limit matching appointments ordered by date and time
+     */
+    public List<Appointment> upcoming(LocalDateTime from, int limit, Appointment.AppointmentStatus... statuses) {
+        List<Appointment> result = new ArrayList<>(Math.min(Math.max(limit, 0), 64));
+        if (limit <= 0) {
+            return result;
+        }
+        for (Appointment a : byTime.tailSet(probe(from))) {
+            if (statuses.length == 0 || hasStatus(a, statuses)) {
+                result.add(a);
+                if (result.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the earliest open appointment slots
+     * @param from First date to search, or null to search from the earliest slot
+     * @param to Last date to search, or null for no end date
+     * @param earliest Earliest time of day to accept, or null for any time
+     * @param latest Latest time of day to accept (inclusive), or null for any time
+     * @param doctorIds Doctors to search, or null for all doctors
+     * @param limit Maximum number of slots to return
+     * @return List of up to limit open appointments, ordered by date and time
+     */
+    public List<Appointment> earliestOpen(LocalDate from, LocalDate to, LocalTime earliest, LocalTime latest,
+            Collection<String> doctorIds, int limit) {
+        LocalTime start = earliest == null ? LocalTime.MIN : earliest;
+        LocalTime end = latest == null ? LocalTime.MAX : latest;
+        List<Appointment> result = new ArrayList<>(Math.min(limit, 64));
+        if (limit <= 0 || start.isAfter(end)) {
+            return result;
+        }
+        lock.readLock().lock();
+        try {
+            if (doctorIds == null) {
+                collectOpen(openSlots, from, to, start, end, limit, result);
+                return result;
+            }
+            // Take the earliest slots of each doctor, then keep the earliest of those
+            for (String doctorId : new HashSet<>(doctorIds)) {
+                TreeMap<LocalDateTime, TreeSet<Appointment>> doctorSlots = openSlotsByDoctor.get(doctorId);
+                if (doctorSlots != null) {
+                    collectOpen(doctorSlots, from, to, start, end, limit, result);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        result.sort(SLOT_ORDER);
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Checks whether a doctor's slot is taken by an appointment that is not cancelled
+     * @param doctorId The doctor's ID
+     * @param date The appointment date
+     * @param time The appointment time
+     * @return boolean True if the slot is taken, false otherwise
+     */
+    public boolean isOccupied(String doctorId, LocalDate date, LocalTime time) {
+        lock.readLock().lock();
+        try {
+            SlotCalendar calendar = calendars.get(doctorId);
+            return calendar != null && calendar.isOccupied(date, time);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the status of a doctor's slot
+     * @param doctorId The doctor's ID
+     * @param date The appointment date
+     * @param time The appointment time
+     * @return AppointmentStatus Status of the slot, preferring an appointment that is not cancelled, or null if it has no appointment
+     */
+    public Appointment.AppointmentStatus slotStatus(String doctorId, LocalDate date, LocalTime time) {
+        lock.readLock().lock();
+        try {
+            SlotCalendar calendar = calendars.get(doctorId);
+            return calendar == null ? null : calendar.statusAt(date, time);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the taken half-hour slots of a doctor's day
+     * @param doctorId The doctor's ID
+     * @param date The date
+     * @return long Bitmap with bit n set if slot n (see SlotCalendar.slotOf) is taken
+     */
+    public long occupancy(String doctorId, LocalDate date) {
+        lock.readLock().lock();
+        try {
+            SlotCalendar calendar = calendars.get(doctorId);
+            return calendar == null ? 0 : calendar.occupancy(date);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the taken half-hour slots of every day of a doctor's month
+     * @param doctorId The doctor's ID
+     * @param month The month
+     * @return long[] Occupancy bitmap of each day, index 0 for the first of the month
+     */
+    public long[] occupancy(String doctorId, YearMonth month) {
+        lock.readLock().lock();
+        try {
+            SlotCalendar calendar = calendars.get(doctorId);
+            return calendar == null ? new long[month.lengthOfMonth()] : calendar.occupancy(month);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets a column-oriented copy of all appointments for counting and grouping, built again only after the appointments changed
+     * @return AppointmentTable The appointments as a table
+     */
+    public AppointmentTable table() {
+        lock.readLock().lock();
+        try {
+            // Sessions asking at the same time may each build one, any of them is current
+            AppointmentTable current = table;
+            if (current == null) {
+                current = new AppointmentTable(byId.values());
+                table = current;
+            }
+            return current;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an appointment to the status, patient and calendar indexes
+     */
+    private void insert(Appointment a, Appointment.AppointmentStatus status, String patientId) {
+        table = null;
+        calendars.computeIfAbsent(a.getDoctorId(), k -> new SlotCalendar()).set(a.getAppointmentDate(), a.getAppointmentTime(), status);
+        if (status == Appointment.AppointmentStatus.OPEN) {
+            LocalDateTime dateTime = a.getAppointmentDate().atTime(a.getAppointmentTime());
+            openSlots.computeIfAbsent(dateTime, k -> new TreeSet<>(CREATION_ORDER)).add(a);
+            openSlotsByDoctor.computeIfAbsent(a.getDoctorId(), k -> new TreeMap<>())
+                .computeIfAbsent(dateTime, k -> new TreeSet<>(CREATION_ORDER)).add(a);
+        }
+        byDoctor.computeIfAbsent(a.getDoctorId(), k -> new EnumMap<>(Appointment.AppointmentStatus.class))
+            .computeIfAbsent(status, k -> new TreeSet<>(CREATION_ORDER)).add(a);
+        byStatus.computeIfAbsent(status, k -> new TreeSet<>(CREATION_ORDER)).add(a);
+        if (patientId != null) {
+            byPatient.computeIfAbsent(patientId, k -> new TreeSet<>(CREATION_ORDER)).add(a);
+        }
+    }
+
+    /**
+     * Removes an appointment from the status, patient and calendar indexes
+     */
+    private void remove(Appointment a, Appointment.AppointmentStatus status, String patientId) {
+        SlotCalendar calendar = calendars.get(a.getDoctorId());
+        if (calendar != null && !slotHasOther(a, status)) {
+            calendar.clear(a.getAppointmentDate(), a.getAppointmentTime(), status);
+        }
+        if (status == Appointment.AppointmentStatus.OPEN) {
+            LocalDateTime dateTime = a.getAppointmentDate().atTime(a.getAppointmentTime());
+            removeOpen(openSlots, dateTime, a);
+            TreeMap<LocalDateTime, TreeSet<Appointment>> doctorSlots = openSlotsByDoctor.get(a.getDoctorId());
+            if (doctorSlots != null) {
+                removeOpen(doctorSlots, dateTime, a);
+            }
+        }
+        EnumMap<Appointment.AppointmentStatus, TreeSet<Appointment>> doctorAppointments = byDoctor.get(a.getDoctorId());
+        if (doctorAppointments != null && doctorAppointments.get(status) != null) {
+            doctorAppointments.get(status).remove(a);
+        }
+        if (byStatus.get(status) != null) {
+            byStatus.get(status).remove(a);
+        }
+        if (patientId != null && byPatient.get(patientId) != null) {
+            TreeSet<Appointment> patientAppointments = byPatient.get(patientId);
+            patientAppointments.remove(a);
+            if (patientAppointments.isEmpty()) {
+                byPatient.remove(patientId);
+            }
+        }
+    }
+
+    /**
+     * Makes a search key for the date and time ordered set that sorts before every appointment at that date and time
+     */
+    private static Appointment probe(LocalDateTime dateTime) {
+        // Appointments are kept to the minute, so from part way through a minute the next minute is the first one included
+        LocalDateTime minute = dateTime.truncatedTo(ChronoUnit.MINUTES);
+        if (!minute.equals(dateTime)) {
+            dateTime = minute.plusMinutes(1);
+        }
+        Appointment probe = new Appointment(null, null, null, dateTime.toLocalDate(), dateTime.toLocalTime());
+        probe.indexOrder = Long.MIN_VALUE;
+        return probe;
+    }
+
+    /**
+     * Removes an appointment from a map of open slots, dropping the time if no appointment is left
+     */
+    private static void removeOpen(Map<LocalDateTime, TreeSet<Appointment>> slots, LocalDateTime dateTime, Appointment a) {
+        TreeSet<Appointment> atTime = slots.get(dateTime);
+        if (atTime != null && atTime.remove(a) && atTime.isEmpty()) {
+            slots.remove(dateTime);
+        }
+    }
+
+    /**
+     * Adds the earliest open slots within a date range and time of day window to a list, skipping straight to the window on each day
+     */
+    private static void collectOpen(NavigableMap<LocalDateTime, TreeSet<Appointment>> slots, LocalDate from, LocalDate to,
+            LocalTime start, LocalTime end, int limit, List<Appointment> result) {
+        int collected = 0;
+        Map.Entry<LocalDateTime, TreeSet<Appointment>> e = from == null ? slots.firstEntry() : slots.ceilingEntry(from.atTime(start));
+        while (e != null && collected < limit) {
+            LocalDate date = e.getKey().toLocalDate();
+            LocalTime time = e.getKey().toLocalTime();
+            if (to != null && date.isAfter(to)) {
+                break;
+            }
+            if (time.isBefore(start)) {
+                e = slots.ceilingEntry(date.atTime(start));
+            }
+            else if (time.isAfter(end)) {
+                e = slots.ceilingEntry(date.plusDays(1).atTime(start));
+            }
+            else {
+                for (Appointment a : e.getValue()) {
+                    if (collected == limit) {
+                        break;
+                    }
+                    result.add(a);
+                    collected++;
+                }
+                e = slots.higherEntry(e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Checks whether another appointment in the same slot has a status, in which case the slot keeps that status in the calendar
+     */
+    private boolean slotHasOther(Appointment a, Appointment.AppointmentStatus status) {
+        List<Appointment> slotAppointments = bySlot.get(new Slot(a));
+        if (slotAppointments != null) {
+            for (Appointment other : slotAppointments) {
+                if (other != a && other.getAppointmentStatus() == status) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merges sets of appointments into one list in creation order
+     */
+    private static List<Appointment> merge(List<TreeSet<Appointment>> sets) {
+        List<Appointment> result = new ArrayList<>();
+        int nonEmpty = 0;
+        for (TreeSet<Appointment> set : sets) {
+            if (set != null && !set.isEmpty()) {
+                result.addAll(set);
+                nonEmpty++;
+            }
+        }
+        if (nonEmpty > 1) {
+            result.sort(CREATION_ORDER);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether an appointment has one of the given statuses
+     */
+    private static boolean hasStatus(Appointment a, Appointment.AppointmentStatus[] statuses) {
+        for (Appointment.AppointmentStatus status : statuses) {
+            if (a.getAppointmentStatus() == status) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
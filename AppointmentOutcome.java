@@ -1,8 +1,4 @@
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.File;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.HashMap;
@@ -12,7 +8,12 @@ import java.util.Map;
  * Represents the outcome of a medical appointment, including services provided and consultation notes.
  * This class implements Serializable for persistent storage of appointment outcomes.
  */
-public class AppointmentOutcome implements Serializable {
+public class AppointmentOutcome implements Serializable, IRenderable {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = 4434464316782757126L;
+
     /**
      * ID of the appointment.
      */
@@ -36,7 +37,7 @@ public class AppointmentOutcome implements Serializable {
     /**
      * Total cost of the appointment including services.
      */
-    private double appointmentCost;
+    private volatile double appointmentCost;
 
     /**
      * Base cost for any appointment before additional services.
@@ -44,17 +45,16 @@ public class AppointmentOutcome implements Serializable {
     public static final double APPOINTMENT_BASE_COST = 20;
     /**
      * Constructs a new AppointmentOutcome with the specified details.
-     * The outcomeDateTime is automatically set to the current time.
      *
      * @param appointmentId The unique identifier of the associated appointment
-     * @param outcomeDateTime The date and time of the outcome (automatically set)
+     * @param outcomeDateTime The date and time of the outcome
      * @param servicesProvided Description of medical services provided during the appointment
      * @param consultationNotes Detailed notes from the consultation
      */
     public AppointmentOutcome(String appointmentId, LocalDateTime outcomeDateTime, 
             String servicesProvided, String consultationNotes) {
         this.appointmentId = appointmentId;
-        this.outcomeDateTime = LocalDateTime.now();
+        this.outcomeDateTime = outcomeDateTime;
         this.servicesProvided = servicesProvided;
         this.consultationNotes = consultationNotes;
         // Standard cost of appointment
@@ -64,35 +64,58 @@ public class AppointmentOutcome implements Serializable {
     /**
      * Deserializes appointment outcomes from a file.
      * 
+     * @param file The file to read
      * @return Map of appointment IDs to their outcomes, or null if deserialization fails
      */
-    protected static Map<String, AppointmentOutcome> deserialize() {
-        Map<String, AppointmentOutcome> allAppointmentOutcomes = null;
-        try (FileInputStream fis = new FileInputStream("appointmentOutcomes.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allAppointmentOutcomes = (Map<String, AppointmentOutcome>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        return allAppointmentOutcomes;
+    protected static Map<String, AppointmentOutcome> deserialize(File file) {
+        return HMSCodec.read(file, in -> {
+            int count = in.readVarInt();
+            Map<String, AppointmentOutcome> allAppointmentOutcomes = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                AppointmentOutcome ao = new AppointmentOutcome(in.readString(), in.readDateTime(), in.readString(), in.readString());
+                ao.appointmentCost = in.readDouble();
+                allAppointmentOutcomes.put(ao.appointmentId, ao);
+            }
+            return allAppointmentOutcomes;
+        });
     }
 
     /**
      * Serializes appointment outcomes to a file.
-     * Creates a new HashMap to ensure serializability.
      * 
      * @param allAppointmentOutcomes Map of appointment outcomes to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(Map<String, AppointmentOutcome> allAppointmentOutcomes) {
-        try (FileOutputStream fos = new FileOutputStream("appointmentOutcomes.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(new HashMap<>(allAppointmentOutcomes));
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(Map<String, AppointmentOutcome> allAppointmentOutcomes, File file) {
+        return HMSCodec.write(file, out -> {
+            out.writeVarInt(allAppointmentOutcomes.size());
+            for (AppointmentOutcome ao : allAppointmentOutcomes.values()) {
+                out.writeString(ao.appointmentId);
+                out.writeDateTime(ao.outcomeDateTime);
+                out.writeString(ao.servicesProvided);
+                out.writeString(ao.consultationNotes);
+                out.writeDouble(ao.appointmentCost);
+            }
+        });
+    }
+
+    /**
+     * Gets the ID of the appointment this outcome belongs to.
+     * 
+     * @return String The appointment ID
+     */
+    public String getAppointmentId() {
+        return this.appointmentId;
+    }
+
+    /**
+     * Points the outcome at its appointment's new ID after an ID migration.
+     * 
+     * @param appointmentId The new appointment ID
+     */
+    void migrateAppointmentId(String appointmentId) {
+        this.appointmentId = appointmentId;
     }
 
     /**
@@ -137,8 +160,30 @@ public class AppointmentOutcome implements Serializable {
      * 
      * @param newAppointmentCost The new total cost to set for the appointment
      */
-    public void setAppointmentCost(double newAppointmentCost) {
+    public synchronized void setAppointmentCost(double newAppointmentCost) {
+        double previousCost = this.appointmentCost;
         this.appointmentCost = newAppointmentCost;
+        HMSDatabase.getInstance().getJournal().logOutcomeCost(this);
+        // The restored cost is recorded, as a snapshot written meanwhile may already hold the new one
+        HMSTransaction.onUndo(() -> {
+            synchronized (this) {
+                this.appointmentCost = previousCost;
+            }
+            HMSDatabase.getInstance().getJournal().logOutcomeCost(this);
+        });
+    }
+
+    /**
+     * Renders the outcome details shown with a completed appointment
+     *
+     * @param r The renderer to render the fields with
+     */
+    @Override
+    public void render(HMSRenderer r) {
+        r.field("Outcome Date Time", this.outcomeDateTime);
+        r.field("Services Provided", this.servicesProvided);
+        r.field("Cost of Appointment", String.valueOf(this.appointmentCost));
+        r.field("Consultation Notes", this.consultationNotes);
     }
 
     /**
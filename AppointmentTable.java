@@ -0,0 +1,213 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+* Column-oriented copy of the appointments for counting and grouping
+* Each appointment is a row across four primitive columns (doctor, day, half-hour slot and status), so aggregations scan flat arrays instead of following a pointer per field of every Appointment
+* A table is a snapshot, AppointmentIndex.table() builds a new one once the appointments have changed
+*/
+public class AppointmentTable {
+    /** Appointment statuses by ordinal */
+    private static final Appointment.AppointmentStatus[] STATUSES = Appointment.AppointmentStatus.values();
+
+    /** Doctor IDs by doctor ordinal, in ID order */
+    private final String[] doctorIds;
+
+    /** Doctor names by doctor ordinal */
+    private final String[] doctorNames;
+
+    /** Doctor ordinal of each row */
+    private final int[] doctor;
+
+    /** Date of each row, in days since 1970-01-01 */
+    private final int[] day;
+
+    /** Half-hour slot of each row, 0 to 47 */
+    private final byte[] slot;
+
+    /** Status ordinal of each row */
+    private final byte[] status;
+
+    /** Number of rows */
+    private final int size;
+
+    /**
+     * Builds a table of appointments
+     * @param appointments The appointments, in any order
+     */
+    public AppointmentTable(Collection<Appointment> appointments) {
+        // Doctor ordinals follow doctor IDs, so per-doctor results come out sorted
+        Map<String, String> doctors = new HashMap<>();
+        for (Appointment a : appointments) {
+            doctors.putIfAbsent(a.getDoctorId(), a.getDoctorName());
+        }
+        doctorIds = doctors.keySet().toArray(new String[0]);
+        Arrays.sort(doctorIds);
+        doctorNames = new String[doctorIds.length];
+        Map<String, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < doctorIds.length; i++) {
+            doctorNames[i] = doctors.get(doctorIds[i]);
+            ordinals.put(doctorIds[i], i);
+        }
+
+        size = appointments.size();
+        doctor = new int[size];
+        day = new int[size];
+        slot = new byte[size];
+        status = new byte[size];
+        int row = 0;
+        for (Appointment a : appointments) {
+            doctor[row] = ordinals.get(a.getDoctorId());
+            day[row] = a.getAppointmentDay();
+            slot[row] = (byte) (a.getAppointmentMinute() / 30);
+            status[row] = (byte) a.getAppointmentStatus().ordinal();
+            row++;
+        }
+    }
+
+    /**
+     * Gets the number of appointments in the table
+     * @return int Number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of doctors with appointments in the table
+     * @return int Number of doctor ordinals
+     */
+    public int getDoctorCount() {
+        return doctorIds.length;
+    }
+
+    /**
+     * Gets the ID of a doctor
+     * @param ordinal The doctor ordinal, as indexed in countByDoctor
+     * @return String The doctor's ID
+     */
+    public String getDoctorId(int ordinal) {
+        return doctorIds[ordinal];
+    }
+
+    /**
+     * Gets the name of a doctor as recorded on their appointments
+     * @param ordinal The doctor ordinal, as indexed in countByDoctor
+     * @return String The doctor's name
+     */
+    public String getDoctorName(int ordinal) {
+        return doctorNames[ordinal];
+    }
+
+    /**
+     * Counts the appointments of each status in a date range
+     * @param from First date to count
+     * @param to Last date to count
+     * @return int[] Count of each status, indexed by status ordinal
+     */
+    public int[] countByStatus(LocalDate from, LocalDate to) {
+        int first = dayOf(from);
+        int last = dayOf(to);
+        int[] counts = new int[STATUSES.length];
+        for (int i = 0; i < size; i++) {
+            int d = day[i];
+            if (d >= first && d <= last) {
+                counts[status[i]]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the appointments of each doctor and status in a date range
+     * @param from First date to count
+     * @param to Last date to count
+     * @return int[][] Count of each status, indexed by doctor ordinal then by status ordinal
+     */
+    public int[][] countByDoctor(LocalDate from, LocalDate to) {
+        int first = dayOf(from);
+        int last = dayOf(to);
+        int statuses = STATUSES.length;
+        // One flat array, so each row updates a single counter
+        int[] flat = new int[doctorIds.length * statuses];
+        for (int i = 0; i < size; i++) {
+            int d = day[i];
+            if (d >= first && d <= last) {
+                flat[doctor[i] * statuses + status[i]]++;
+            }
+        }
+        int[][] counts = new int[doctorIds.length][];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new int[statuses];
+            System.arraycopy(flat, i * statuses, counts[i], 0, statuses);
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the appointments on each day of a date range
+     * @param from First date to count
+     * @param to Last date to count
+     * @param statuses Statuses to count, all statuses if none are given
+     * @return int[] Count of each day, index 0 being from
+     */
+    public int[] countByDay(LocalDate from, LocalDate to, Appointment.AppointmentStatus... statuses) {
+        int first = dayOf(from);
+        int last = dayOf(to);
+        int[] counts = new int[Math.max(0, last - first + 1)];
+        int mask = mask(statuses);
+        for (int i = 0; i < size; i++) {
+            int d = day[i];
+            if (d >= first && d <= last && (mask & (1 << status[i])) != 0) {
+                counts[d - first]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the appointments in each half-hour slot of the day over a date range
+     * @param from First date to count
+     * @param to Last date to count
+     * @param statuses Statuses to count, all statuses if none are given
+     * @return int[] Count of each slot, indexed by SlotCalendar slot number
+     */
+    public int[] countBySlot(LocalDate from, LocalDate to, Appointment.AppointmentStatus... statuses) {
+        int first = dayOf(from);
+        int last = dayOf(to);
+        int[] counts = new int[SlotCalendar.SLOTS_PER_DAY];
+        int mask = mask(statuses);
+        for (int i = 0; i < size; i++) {
+            int d = day[i];
+            if (d >= first && d <= last && (mask & (1 << status[i])) != 0) {
+                counts[slot[i]]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the bit mask of a set of statuses, all statuses if none are given
+     */
+    private static int mask(Appointment.AppointmentStatus... statuses) {
+        if (statuses.length == 0) {
+            return (1 << STATUSES.length) - 1;
+        }
+        int mask = 0;
+        for (Appointment.AppointmentStatus s : statuses) {
+            mask |= 1 << s.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the day number of a date, clamped to the range of the day column
+     */
+    private static int dayOf(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, epochDay));
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+
+/**
+* Carries out appointment changes one doctor at a time: requests, approvals, declines, cancellations, completions and new slots
+* go to the mailbox of the doctor's partition, and the partition's single writer thread makes them in the order they arrive
+* Changes to the same doctor's appointments therefore never race (e.g. checking the calendar before adding a slot needs no lock),
+* and sessions working with doctors in different partitions never wait for each other
+* Doctors are spread over a fixed number of partitions, one per core unless set with -Dhms.booking.partitions
+* With 0 partitions, changes are made on the session's own thread holding the doctor's lock (see HMSDatabase.lockFor) instead,
+* which saves handing each change to another thread where there are too few cores for the writers to run alongside the sessions
+*
+* The writer takes everything waiting in its mailbox at once, and publishes the batch's appointment changes to the journal and the
+* appointment index together, with one journal flush and one hold of the index instead of one per change (group commit)
+* Sessions are answered once their change is published, so a booking is always in the index by the time the patient is told
+*/
+public class BookingPartitions {
+    /** Default number of partitions */
+    public static final int DEFAULT_PARTITIONS = Runtime.getRuntime().availableProcessors();
+
+    /** Largest number of changes a writer makes before publishing them */
+    private static final int MAX_BATCH = 256;
+
+    /** The partitions, each with its own mailbox and writer */
+    private final Partition[] partitions;
+
+    /** Database whose locks are used when there are no partitions */
+    private final HMSDatabase db;
+
+    /**
+     * Creates the partitions and starts their writers
+     * @param db The database the appointments are in
+     * @param count Number of partitions, 0 to make changes on the sessions' threads
+     */
+    public BookingPartitions(HMSDatabase db, int count) {
+        this.db = db;
+        partitions = new Partition[Math.max(0, count)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition(i);
+            partitions[i].start();
+        }
+    }
+
+    /**
+     * Gets the number of partitions
+     * @return int Number of partitions
+     */
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * Makes a change to a doctor's appointments on the doctor's partition, and waits until it is made and published
+     * A change made from the partition's own writer (i.e. within another change) is made straight away
+     *
+     * @param doctorId ID of the doctor whose appointments the change is to
+     * @param change The change, returning false if it could not be made (e.g. the slot was taken)
+     * @return boolean The change's result
+     */
+    public boolean apply(String doctorId, BooleanSupplier change) {
+        if (partitions.length == 0) {
+            Lock lock = db.lockFor(doctorId);
+            lock.lock();
+            try {
+                return change.getAsBoolean();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        Partition partition = partitionOf(doctorId);
+        if (Thread.currentThread() == partition) {
+            return change.getAsBoolean();
+        }
+        Task task = new Task(change);
+        partition.mailbox.add(task);
+        try {
+            return task.result.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the partition a doctor's appointments are changed on
+     */
+    private Partition partitionOf(String doctorId) {
+        int h = doctorId.hashCode();
+        return partitions[Math.floorMod(h ^ (h >>> 16), partitions.length)];
+    }
+
+    /**
+     * Holds back the publication of an appointment change made on a partition's writer until the writer's batch is done
+     * Called by Appointment after each change of status
+     *
+     * @param a The appointment that changed
+     * @param previous Its status and patient before the change
+     * @return boolean True if the change will be published with the batch, false if the caller is not a writer and must publish it itself
+     */
+    static boolean defer(Appointment a, Appointment.State previous) {
+        Thread current = Thread.currentThread();
+        if (!(current instanceof Partition)) {
+            return false;
+        }
+        // The first change in the batch tells the index where the appointment was, the journal and index read where it is now
+        ((Partition) current).changed.putIfAbsent(a, previous);
+        return true;
+    }
+
+    /**
+     * A change waiting in a mailbox, and its result once made
+     */
+    private static final class Task {
+        final BooleanSupplier change;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Task(BooleanSupplier change) {
+            this.change = change;
+        }
+    }
+
+    /**
+     * A mailbox and the single writer thread that empties it
+     */
+    private static final class Partition extends Thread {
+        /** Changes waiting to be made */
+        final BlockingQueue<Task> mailbox = new LinkedBlockingQueue<>();
+
+        /** Changes being made */
+        private final List<Task> batch = new ArrayList<>(MAX_BATCH);
+
+        /** Appointments changed by the batch, with their state before the batch */
+        final Map<Appointment, Appointment.State> changed = new IdentityHashMap<>();
+
+        Partition(int index) {
+            super("hms-booking-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            HMSDatabase db = HMSDatabase.getInstance();
+            while (true) {
+                try {
+                    batch.add(mailbox.take());
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                mailbox.drainTo(batch, MAX_BATCH - 1);
+                boolean[] results = new boolean[batch.size()];
+                RuntimeException[] failures = new RuntimeException[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        results[i] = batch.get(i).change.getAsBoolean();
+                    }
+                    catch (RuntimeException e) {
+                        failures[i] = e;
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    db.getJournal().logAppointmentStates(changed.keySet());
+                    db.getAppointmentIndex().updateAll(changed);
+                    changed.clear();
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    if (failures[i] != null) {
+                        batch.get(i).result.completeExceptionally(failures[i]);
+                    }
+                    else {
+                        batch.get(i).result.complete(results[i]);
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+}
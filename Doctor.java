@@ -6,6 +6,11 @@ import java.io.*;
  * Implements serialization for persistent storage
  */
 public class Doctor extends Staff {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = -1387850911033364090L;
+
     
     /**
      * Constructs a new Doctor with the specified attributes.
@@ -20,36 +25,39 @@ public class Doctor extends Staff {
         super(id, role, name, gender, age);
     }
 
+    /**
+     * Constructs a Doctor with existing credentials, used when loading saved data
+     *
+     * @param id The unique identifier for the doctor
+     * @param role The role/position of the doctor
+     * @param name The full name of the doctor
+     * @param gender The gender of the doctor
+     * @param age The age of the doctor
+     * @param password The stored password hash
+     * @param firstLogin Whether the doctor has yet to log in for the first time
+     */
+    Doctor(String id, String role, String name, String gender, int age, String password, boolean firstLogin) {
+        super(id, role, name, gender, age, password, firstLogin);
+    }
+
     /**
      * Deserializes doctor data from a file.
      * 
+     * @param file The file to read
      * @return ArrayList of Doctor objects, or null if deserialization fails
      */
-    protected static ArrayList<Doctor> deserialize() {
-        ArrayList<Doctor> allDoctors = null;
-        try (FileInputStream fis = new FileInputStream("doctor.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allDoctors = (ArrayList<Doctor>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        return allDoctors;
+    protected static ArrayList<Doctor> deserialize(File file) {
+        return Staff.decodeAll(file, Doctor::new);
     }
 
     /**
      * Serializes doctor data to a file.
      * 
      * @param allDoctors List of doctors to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(ArrayList<Doctor> allDoctors) {
-        try (FileOutputStream fos = new FileOutputStream("doctor.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(allDoctors);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(ArrayList<Doctor> allDoctors, File file) {
+        return Staff.encodeAll(file, allDoctors);
     }
 }
\ No newline at end of file
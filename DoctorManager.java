@@ -21,9 +21,7 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
     */
     public void viewMedicalRecord(User d) {
         // Get all patients associated with doctor
-        List<String> patientIds = db.getAllAppointments().stream()
-            .filter(a -> 
-            a.getDoctorId().equals(((Doctor) d).getId())) 
+        List<String> patientIds = db.getAppointmentIndex().forDoctor(d.getId()).stream()
             .map(a -> a.getPatientId())
             .distinct() 
             .collect(Collectors.toList());
@@ -33,14 +31,14 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
         }
         else {
             // Get patient objects from patientId
-            List<Patient> patients = db.getAllUsers().stream()
-                .filter(user -> patientIds.contains(user.getId()))
+            List<Patient> patients = patientIds.stream()
+                .map(patientId -> db.getUserRegistry().get(patientId))
+                .filter(user -> user instanceof Patient)
                 .map(user -> (Patient) user)
                 .collect(Collectors.toList());
             
-            System.out.println("----PATIENT RECORDS----");
             // Print each patient details
-            for (Patient p : patients) {
+            HMSPager.browse("----PATIENT RECORDS----", HMSPager.of(patients), (p, n) -> {
                 p.print();
                 ArrayList<MedicalRecord> medRecords = db.getAllMedicalRecords().getOrDefault(p.getId(), null);
                 if (medRecords == null) {
@@ -52,7 +50,7 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
                         System.out.println("");
                     }
                 }
-            }
+            });
         }
     }
     /**
@@ -66,18 +64,15 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
         String patientId = scanner.nextLine();
 
         // Find patient from patientId from allUsers
-        Patient patient = (Patient) db.getAllUsers().stream()
-            .filter(user -> user.getId().equals(patientId))
-            .findFirst()
-            .orElse(null);
+        User user = db.getUserRegistry().get(patientId);
+        Patient patient = user instanceof Patient ? (Patient) user : null;
 
         if (patient == null) {
             System.out.println("Patient does not exist");
         }
         else {
-            Appointment appointment = db.getAllAppointments().stream()
-                .filter(a -> a.getPatientId() != null)
-                .filter(a -> a.getDoctorId().equals(d.getId()) && a.getPatientId().equals(patientId))
+            Appointment appointment = db.getAppointmentIndex().forPatient(patientId).stream()
+                .filter(a -> a.getDoctorId().equals(d.getId()))
                 .findFirst()
                 .orElse(null);
             if (appointment == null) {
@@ -91,7 +86,7 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
                 String treatment = scanner.nextLine();
 
                 MedicalRecord newMedicalRecord = MedicalRecord.createRecord(patientId, diagnosis, treatment);
-                db.getAllMedicalRecords().computeIfAbsent(patientId, k -> new ArrayList<>()).add(newMedicalRecord);
+                db.addMedicalRecord(newMedicalRecord);
 
                 System.out.println("Medical record successfully updated");
             }
@@ -103,24 +98,17 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
     */
     public void viewPersonalSchedule(Doctor d) {
         // View appointment slots (both confirmed and not confirmed)
-        List<Appointment> doctorAppointments = db.getAllAppointments()
-            .stream()
-            .filter(a -> 
-                a.getDoctorId().equals(d.getId())
-                && !a.getAppointmentStatus().equals(Appointment.AppointmentStatus.COMPLETED)
-                && !a.getAppointmentStatus().equals(Appointment.AppointmentStatus.CANCELLED))
-            .collect(Collectors.toList());
+        List<Appointment> doctorAppointments = db.getAppointmentIndex().forDoctor(d.getId(),
+            Appointment.AppointmentStatus.OPEN, Appointment.AppointmentStatus.PENDING, Appointment.AppointmentStatus.SCHEDULED);
 
         if (doctorAppointments.isEmpty()) {
             System.out.println("You have no appointment slots");
         }
         else {
-            System.out.println("----YOUR APPOINTMENT SLOTS----");
-            int count = 1;
-            for (Appointment a : doctorAppointments) {
-                System.out.println("SLOT " + count++ + "");
+            HMSPager.browse("----YOUR APPOINTMENT SLOTS----", HMSPager.of(doctorAppointments), (a, n) -> {
+                System.out.println("SLOT " + n + "");
                 a.print();
-            }
+            });
         }
     }
     /**
@@ -177,37 +165,38 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
         final LocalDate finalParsedDate = parsedDate;
         final LocalTime finalParsedTime = parsedTime;
 
-        // Find if appointment already exists
-        boolean alreadyExists = db.getAllAppointments()
-            .stream()
-            .filter(a -> a.getDoctorId().equals(d.getId()) 
-                && a.getAppointmentDate().equals(finalParsedDate) 
-                && a.getAppointmentTime().equals(finalParsedTime)
-                && !a.getAppointmentStatus().equals(Appointment.AppointmentStatus.CANCELLED))
-            .findFirst()
-            .isPresent();
-        
-        if (alreadyExists) {
+        if (!createSlot(d, finalParsedDate, finalParsedTime)) {
             System.out.println("You already have an existing appointment slot at that time");
         }
         else {
-            // Create new slot and add to allAppointments
-            db.getAllAppointments().add(Appointment.createSlot(d, parsedDate, parsedTime));
             System.out.println("Appointment slot successfully created.");
         }
     }
     /**
+    * Creates an appointment slot for a doctor unless the doctor already has an appointment at that time
+    * The check and the creation are made on the doctor's booking partition, so two sessions of the same doctor cannot both create the slot
+    * @param d The doctor creating the slot
+    * @param date The date of the slot
+    * @param time The time of the slot
+    * @return boolean True if the slot was created, false if the time is taken
+    */
+    public boolean createSlot(Doctor d, LocalDate date, LocalTime time) {
+        return db.getBookingPartitions().apply(d.getId(), () -> {
+            if (db.getAppointmentIndex().isOccupied(d.getId(), date, time)) {
+                return false;
+            }
+            db.addAppointment(Appointment.createSlot(d, date, time));
+            return true;
+        });
+    }
+    /**
     * Manages pending appointment requests for a doctor to accept or decline and update the appointment status accordingly
     * @param d The doctor processing the appointment requests
     */
     public void acceptOrDeclineAppointmentRequests(Doctor d) {
         // Accept or decline appointment requests
         // Get appointments that are pending and belong to doctor
-        List<Appointment> pendingAppointments = db.getAllAppointments()
-            .stream()
-            .filter(a -> a.getDoctorId().equals(d.getId())
-                && a.getAppointmentStatus().equals(Appointment.AppointmentStatus.PENDING))
-            .collect(Collectors.toList());
+        List<Appointment> pendingAppointments = db.getAppointmentIndex().forDoctor(d.getId(), Appointment.AppointmentStatus.PENDING);
 
         if (pendingAppointments.isEmpty()) {
             // If no pending appointments
@@ -218,6 +207,8 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
             System.out.println("----YOUR PENDING APPOINTMENT SLOTS----");
             int count = 1;
             for (Appointment a : pendingAppointments) {
+                // The request shown, which is the one accepted or declined even if the patient withdraws it and another requests the slot meanwhile
+                String patientId = a.getPatientId();
                 System.out.println("SLOT " + count++ + "");
                 a.print();
                 System.out.println("Accept appointment? (y/n)");
@@ -226,13 +217,11 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
                 while (true) {
                     String yesNo = scanner.nextLine().trim().toLowerCase();
                     if (yesNo.equals("y")) {
-                        a.approveSlot();
-                        System.out.println("Appointment accepted");
+                        System.out.println(db.getBookingPartitions().apply(d.getId(), () -> a.approveSlot(patientId)) ? "Appointment accepted" : "The patient has withdrawn this request");
                         break;
                     }
                     else if (yesNo.equals("n")) {
-                        a.resetSlot();
-                        System.out.println("Appointment declined");
+                        System.out.println(db.getBookingPartitions().apply(d.getId(), () -> a.declineSlot(patientId)) ? "Appointment declined" : "The patient has withdrawn this request");
                         break;
                     }
                     else {
@@ -250,19 +239,13 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
    @Override
     public void viewScheduledAppointments(User d) {
         // View appointment slots (confirmed only)
-        List<Appointment> confirmedAppointments = db.getAllAppointments()
-            .stream()
-            .filter(a -> a.getDoctorId().equals(d.getId()) && a.getAppointmentStatus().equals(Appointment.AppointmentStatus.SCHEDULED))
-            .collect(Collectors.toList());
+        List<Appointment> confirmedAppointments = db.getAppointmentIndex().forDoctor(d.getId(), Appointment.AppointmentStatus.SCHEDULED);
 
         if (confirmedAppointments.isEmpty()) {
             System.out.println("You have no upcoming appointment slots");
         }
         else {
-            System.out.println("----YOUR UPCOMING APPOINTMENT SLOTS----");
-            for (Appointment a : confirmedAppointments) {
-                a.print();
-            }
+            HMSPager.browse("----YOUR UPCOMING APPOINTMENT SLOTS----", HMSPager.of(confirmedAppointments), (a, n) -> a.print());
         }
     }
     /**
@@ -306,14 +289,7 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
         final LocalTime finalParsedTime = parsedTime;
 
         // Find Appointment
-        Appointment appointment = db.getAllAppointments()
-        .stream()
-        .filter(a -> a.getDoctorId().equals(d.getId()) 
-            && a.getAppointmentDate().equals(finalParsedDate) 
-            && a.getAppointmentTime().equals(finalParsedTime)
-            && a.getAppointmentStatus().equals(Appointment.AppointmentStatus.SCHEDULED))
-        .findFirst()
-        .orElse(null);
+        Appointment appointment = db.getAppointmentIndex().atSlot(d.getId(), finalParsedDate, finalParsedTime, Appointment.AppointmentStatus.SCHEDULED);
         
         // If not found
         if (Objects.isNull(appointment)) {
@@ -349,20 +325,38 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
         System.out.println("Are there any consultation notes?:");
         String consultationNotes = scanner.nextLine();
 
-        // Create new appointment outcome
-        db.getAllAppointmentOutcomes().put(appointment.getAppointmentId(), AppointmentOutcome.createOutcome(appointment, servicesProvided, consultationNotes));
-        
-        // Associate all prescriptions in list to appointment
-        for (Prescription prescription : prescribedMedicationsList) {
-            db.getAllPrescriptions().computeIfAbsent(appointment.getAppointmentId(), k -> new ArrayList<>()).add(prescription);
+        if (!recordOutcome(appointment, servicesProvided, consultationNotes, prescribedMedicationsList)) {
+            System.out.println("The appointment is no longer scheduled, the outcome was not recorded");
+            return;
         }
 
-        // Set appointment to completed
-        appointment.completeSlot();
-
         System.out.println("Appointment outcome created");
     }
     /**
+    * Records the outcome and prescriptions of a scheduled appointment and marks it completed, all or nothing (see HMSTransaction)
+    * Runs on the doctor's booking partition, so the patient cannot cancel it meanwhile, and if it is no longer scheduled when it is
+    * marked completed the outcome and prescriptions are undone, so only one outcome is ever recorded and none is left without its appointment
+    * @param appointment The scheduled appointment
+    * @param servicesProvided The services provided
+    * @param consultationNotes The consultation notes
+    * @param prescriptions The prescriptions for the appointment
+    * @return boolean True if the outcome was recorded, false if the appointment is no longer scheduled
+    */
+    public boolean recordOutcome(Appointment appointment, String servicesProvided, String consultationNotes, List<Prescription> prescriptions) {
+        return db.getBookingPartitions().apply(appointment.getDoctorId(), () -> HMSTransaction.run(appointment.getAppointmentId(), () -> {
+            // Create new appointment outcome, first so the prescriptions are queued by its time
+            db.addAppointmentOutcome(AppointmentOutcome.createOutcome(appointment, servicesProvided, consultationNotes));
+
+            // Associate all prescriptions in list to appointment
+            for (Prescription prescription : prescriptions) {
+                db.addPrescription(prescription);
+            }
+
+            // Set appointment to completed, unless the patient cancelled it or another session completed it first
+            return appointment.completeSlot();
+        }));
+    }
+    /**
     * Cancels an open (unbooked) appointment slot (only allows cancellation of appointments that are still open and haven't been booked by patients)
     * @param d The doctor cancelling the appointment
     * @throws DateTimeParseException Caught internally for invalid date/time formats
@@ -400,23 +394,17 @@ public class DoctorManager implements IViewMedicalRecord, IViewScheduledAppointm
         final LocalTime finalParsedTime = parsedTime;
 
         // Find slot
-        Appointment appointment = db.getAllAppointments()
-            .stream()
-            .filter(a -> 
-                a.getAppointmentStatus().equals(Appointment.AppointmentStatus.OPEN) 
-                && a.getDoctorId().equals(d.getId()) 
-                && a.getAppointmentDate().equals(finalParsedDate) 
-                && a.getAppointmentTime().equals(finalParsedTime))
-            .findFirst()
-            .orElse(null);
+        Appointment appointment = db.getAppointmentIndex().atSlot(d.getId(), finalParsedDate, finalParsedTime, Appointment.AppointmentStatus.OPEN);
         
         if (appointment == null) {
             System.out.println("No appointment slot found to cancel");
             return;
         }
+        else if (!db.getBookingPartitions().apply(d.getId(), appointment::cancelSlot)) {
+            // A patient requested it in the meantime
+            System.out.println("That appointment slot has just been requested and can no longer be cancelled");
+        }
         else {
-            // Schedule slot
-            appointment.cancelSlot();
             System.out.println("Appointment slot successfully cancelled");
         }
     }
@@ -88,6 +88,8 @@ public class DoctorUI extends AbstractAuthMenu {
                     newDoctorManager.changePassword((User) d);
                     break;
                 case 10:
+                    // Save this session's changes in the background
+                    HMSDatabase.getInstance().getCheckpointer().requestCheckpoint();
                     loggedIn = false;
                     return;
                 default:
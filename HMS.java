@@ -1,3 +1,10 @@
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Scanner;
+import java.util.StringJoiner;
+import java.util.function.Supplier;
 /**
 * Main class for the Hospital Management System (HMS)
 */
@@ -8,16 +15,24 @@ public class HMS {
     *
     * @param args Command-line arguments. 
     *             If args[0] is "initialize", the system will be initialized with fresh data.
+    *             If args[0] is "export", appointments are exported and the system exits: export <csv|ndjson> <file> [from date] [to date]
+    *             If args[0] is "serve", sessions are served over TCP until "stop" is entered on the console: serve [port]
+    *             If args[0] is "api", the JSON API is served over HTTP until "stop" is entered on the console: api [port]
     *             Otherwise, existing data will be loaded from storage.
     *             
     * Flow:
+    * - Buffers console output
     * - Obtains singleton instance of HMSDatabase
     * - Checks for initialization flag
     * - Loads existing data if not initializing
-    * - Launches user interface
+    * - Starts background checkpoints
+    * - Launches user interface, or serves it to each TCP connection, or serves the JSON API
     * - Saves data before exit
     */
     public static void main(String[] args) {
+        // Buffer console output, written out once per screen
+        HMSOutput.getInstance().install();
+
         // Get instance of HMSDatabase
         HMSDatabase db = HMSDatabase.getInstance();
 
@@ -36,13 +51,140 @@ public class HMS {
             }
         }
 
-        // Create instance of HMSUI
-        HMSUI newHMSUI = new HMSUI();
+        // Export
+        if (args.length > 0 && args[0].equals("export")) {
+            export(db, args);
+            return;
+        }
+
+        // Save in the background while the session runs
+        db.getCheckpointer().start(Long.getLong("hms.checkpoint.interval", HMSCheckpointer.DEFAULT_INTERVAL_SECONDS));
 
-        // Launch HMS UI
-        newHMSUI.launchMenu();
+        // Serve terminal sessions over TCP
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args);
+        }
+        // Serve the JSON API over HTTP
+        else if (args.length > 0 && args[0].equals("api")) {
+            api(args);
+        }
+        else {
+            // Create instance of HMSUI
+            HMSUI newHMSUI = new HMSUI();
+
+            // Launch HMS UI
+            newHMSUI.launchMenu();
+        }
 
         System.out.println("Saving HMS");
+        db.getCheckpointer().stop();
         db.save();
+        if (!db.getLastSkippedFiles().isEmpty()) {
+            StringJoiner skipped = new StringJoiner(", ");
+            for (HMSDatabase.DataFile f : db.getLastSkippedFiles()) {
+                skipped.add(f.getFileName());
+            }
+            System.out.println("Skipped unchanged files: " + skipped);
+        }
+    }
+
+   /**
+    * Serves HMS sessions over TCP until "stop" is entered on the console or the console is closed, see HMSServer
+    *
+    * @param args "serve", and optionally the port to listen on
+    */
+    private static void serve(String[] args) {
+        HMSServer server;
+        try {
+            server = new HMSServer(args.length > 1 ? Integer.parseInt(args[1]) : HMSServer.DEFAULT_PORT);
+        }
+        catch (NumberFormatException e) {
+            System.out.println("Invalid port: " + args[1]);
+            return;
+        }
+        catch (IOException e) {
+            System.out.println("Could not open the server port: " + e.getMessage());
+            return;
+        }
+        server.start();
+        System.out.println("Serving HMS on localhost:" + server.getPort()
+            + (server.usesVirtualThreads() ? " (virtual threads)" : " (platform threads)"));
+        waitForStop(() -> server.getSessionCount() + " sessions connected, " + server.getServedCount() + " served");
+        System.out.println("Stopping server");
+        server.stop();
+    }
+
+   /**
+    * Serves the JSON API over HTTP until "stop" is entered on the console or the console is closed, see HMSApi
+    *
+    * @param args "api", and optionally the port to listen on
+    */
+    private static void api(String[] args) {
+        HMSApi api;
+        try {
+            api = new HMSApi(args.length > 1 ? Integer.parseInt(args[1]) : HMSApi.DEFAULT_PORT);
+        }
+        catch (NumberFormatException e) {
+            System.out.println("Invalid port: " + args[1]);
+            return;
+        }
+        catch (IOException e) {
+            System.out.println("Could not open the API port: " + e.getMessage());
+            return;
+        }
+        api.start();
+        System.out.println("Serving the HMS API on http://localhost:" + api.getPort() + "/api/"
+            + (api.usesVirtualThreads() ? " (virtual threads)" : " (platform threads)"));
+        waitForStop(() -> api.getRequestCount() + " requests served");
+        System.out.println("Stopping API");
+        api.stop();
+    }
+
+   /**
+    * Reads console commands until "stop" is entered or the console is closed, "status" prints the server's status
+    *
+    * @param status Describes the server's status
+    */
+    private static void waitForStop(Supplier<String> status) {
+        Scanner scanner = HMSInput.getInstance().getScanner();
+        while (true) {
+            System.out.println("Enter stop to shut down, or status to show the server status: ");
+            if (!scanner.hasNextLine()) {
+                return;
+            }
+            String command = scanner.nextLine().trim();
+            if (command.equalsIgnoreCase("stop")) {
+                return;
+            }
+            else if (command.equalsIgnoreCase("status")) {
+                System.out.println(status.get());
+            }
+        }
+    }
+
+   /**
+    * Exports appointments joined with their outcomes and prescriptions, see HMSExporter
+    *
+    * @param db The loaded database
+    * @param args "export", the format (csv or ndjson), the output file, and optionally the first and last appointment dates to include (yyyy-mm-dd)
+    */
+    private static void export(HMSDatabase db, String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java HMS export <csv|ndjson> <file> [from date] [to date]");
+            return;
+        }
+        try {
+            HMSExporter.Format format = HMSExporter.Format.parse(args[1]);
+            LocalDate from = args.length > 3 ? LocalDate.parse(args[3]) : null;
+            LocalDate to = args.length > 4 ? LocalDate.parse(args[4]) : null;
+            int exported = HMSExporter.export(db, format, new File(args[2]), from, to);
+            System.out.println("Exported " + exported + " appointments to " + args[2]);
+        }
+        catch (IllegalArgumentException | DateTimeParseException e) {
+            System.out.println("Invalid export option: " + e.getMessage());
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
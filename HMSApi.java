@@ -0,0 +1,894 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* JSON API over HTTP for kiosks and web front ends, served by the JDK's built-in HttpServer on the loopback address
+* Every request authenticates with HTTP Basic authentication as a user of the system (ID and password), and can only do what that user's menus allow
+* Lists are streamed as a JSON array one entity at a time through HMSRenderer, so a long list is never built up in memory, and actions answer with a small JSON object
+* Parameters are read from the query string and, for POST, from a form-encoded body; dates are yyyy-mm-dd and times HH:mm
+* Requests run on virtual threads when the Java runtime has them (see HMSServer), otherwise on a cached pool of platform threads
+*
+* GET  /api/slots                                   Earliest open slots (from, to, doctor, earliest, latest, limit)
+* POST /api/slots                                   Doctor creates a slot (date, time)
+* GET  /api/appointments                            The user's appointments, all of them for administrators (status, from, to)
+* POST /api/appointments/{id}/request               Patient requests a slot
+* POST /api/appointments/{id}/cancel                Patient cancels their appointment, or doctor cancels an open slot
+* POST /api/appointments/{id}/accept                Doctor accepts a request
+* POST /api/appointments/{id}/decline               Doctor declines a request
+* POST /api/appointments/{id}/outcome               Doctor records the outcome (services, notes, medication and quantity for each prescription)
+* GET  /api/outcomes                                Outcomes of completed appointments, each followed by its prescriptions (from, to)
+* GET  /api/prescriptions                           Pending prescriptions, oldest first (offset, limit)
+* POST /api/prescriptions/{appointment id}/{n}/dispense   Pharmacist dispenses a prescription
+* GET  /api/medicines                               Medicine inventory
+* POST /api/medicines/{name}/alert-level            Administrator sets the low stock alert level (level)
+* GET  /api/replenishment-requests                  Replenishment requests (status)
+* POST /api/replenishment-requests                  Pharmacist requests a low stock medicine (medicine, amount)
+* POST /api/replenishment-requests/{n}/approve      Administrator approves a request
+*/
+public class HMSApi implements IHashPassword {
+    /** Default port, overridden on the command line */
+    public static final int DEFAULT_PORT = 8080;
+
+    /** Number of connections waiting to be accepted before new ones are refused */
+    private static final int BACKLOG = 1024;
+
+    /** Size of the buffer a list is streamed through */
+    private static final int BUFFER_SIZE = 1 << 14;
+
+    /** Largest form body accepted */
+    private static final int MAX_BODY = 1 << 16;
+
+    /** Number of slots or prescriptions listed when no limit is given */
+    private static final int DEFAULT_LIMIT = 10;
+
+    /** Largest number of slots or prescriptions listed at once */
+    private static final int MAX_LIMIT = 1000;
+
+    /** Dates an open-ended date range is searched from and to */
+    private static final LocalDate FIRST_DATE = LocalDate.of(1900, 1, 1);
+    private static final LocalDate LAST_DATE = LocalDate.of(9999, 12, 31);
+
+    static {
+        // The JDK server leaves Nagle's algorithm on by default, so each small response on a kept-alive connection waits for the client's delayed ACK (about 40ms)
+        // Read once when the first server is created, and left alone if set on the command line
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    // Use database singleton
+    private final HMSDatabase db = HMSDatabase.getInstance();
+    private final DoctorManager doctorManager = new DoctorManager();
+    private final PharmacistManager pharmacistManager = new PharmacistManager();
+    private final AdministratorManager administratorManager = new AdministratorManager();
+
+    /** The HTTP server */
+    private final HttpServer server;
+
+    /** Runs the requests */
+    private final ExecutorService executor;
+
+    /** True if requests run on virtual threads */
+    private final boolean virtualThreads;
+
+    /** Number of requests received since the server started */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * A request that cannot be carried out, answered with an HTTP status and an error message
+     */
+    private static final class ApiException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Opens the HTTP port
+     * @param port The port to listen on, or 0 for any free port
+     * @throws IOException If the port cannot be opened
+     */
+    public HMSApi(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        server.createContext("/api/", this::handle);
+        ExecutorService virtual = HMSServer.newVirtualThreadExecutor();
+        virtualThreads = virtual != null;
+        executor = virtualThreads ? virtual : Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "hms-api");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Gets the port the API listens on
+     * @return int The port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Checks whether requests run on virtual threads
+     * @return boolean True for virtual threads, false for platform threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Gets the number of requests received since the server started
+     * @return long Number of requests
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Starts serving requests in the background
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops serving requests, giving those in progress a second to finish
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Handles one request, answering errors as {"error": message}
+     * @param exchange The request and its response
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        boolean aborted = false;
+        try {
+            User user = authenticate(exchange);
+            String path = exchange.getRequestURI().getPath().substring("/api/".length());
+            String[] segments = path.isEmpty() ? new String[0] : path.split("/");
+            Map<String, List<String>> params = params(exchange);
+            route(exchange, exchange.getRequestMethod(), user, segments, params);
+        }
+        catch (ApiException e) {
+            if (e.status == 401) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"HMS\"");
+            }
+            send(exchange, e.status, "error", e.getMessage());
+        }
+        catch (UncheckedIOException e) {
+            // The client went away while a list was streamed
+        }
+        catch (RuntimeException e) {
+            System.err.println("Internal error in " + exchange.getRequestMethod() + " " + exchange.getRequestURI());
+            e.printStackTrace();
+            if (exchange.getResponseCode() == -1) {
+                send(exchange, 500, "error", "Internal error");
+            }
+            else {
+                // A list was being streamed, the connection is dropped so the client sees the response fail rather than end early
+                aborted = true;
+                throw new IOException("Response aborted", e);
+            }
+        }
+        finally {
+            if (!aborted) {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Sends a request to the endpoint for its method and path
+     */
+    private void route(HttpExchange exchange, String method, User user, String[] path, Map<String, List<String>> params)
+            throws IOException, ApiException {
+        boolean get = method.equals("GET");
+        boolean post = method.equals("POST");
+        String resource = path.length > 0 ? path[0] : "";
+        switch (resource) {
+            case "slots":
+                if (get && path.length == 1) {
+                    listSlots(exchange, params);
+                    return;
+                }
+                if (post && path.length == 1) {
+                    createSlot(exchange, user, params);
+                    return;
+                }
+                break;
+            case "appointments":
+                if (get && path.length == 1) {
+                    listAppointments(exchange, user, params);
+                    return;
+                }
+                if (post && path.length == 3) {
+                    updateAppointment(exchange, user, path[1], path[2], params);
+                    return;
+                }
+                break;
+            case "outcomes":
+                if (get && path.length == 1) {
+                    listOutcomes(exchange, user, params);
+                    return;
+                }
+                break;
+            case "prescriptions":
+                if (get && path.length == 1) {
+                    listPrescriptions(exchange, user, params);
+                    return;
+                }
+                if (post && path.length == 4 && path[3].equals("dispense")) {
+                    dispensePrescription(exchange, user, path[1], path[2]);
+                    return;
+                }
+                break;
+            case "medicines":
+                if (get && path.length == 1) {
+                    listMedicines(exchange, user);
+                    return;
+                }
+                if (post && path.length == 3 && path[2].equals("alert-level")) {
+                    setAlertLevel(exchange, user, path[1], params);
+                    return;
+                }
+                break;
+            case "replenishment-requests":
+                if (get && path.length == 1) {
+                    listReplenishmentRequests(exchange, user, params);
+                    return;
+                }
+                if (post && path.length == 1) {
+                    createReplenishmentRequest(exchange, user, params);
+                    return;
+                }
+                if (post && path.length == 3 && path[2].equals("approve")) {
+                    approveReplenishmentRequest(exchange, user, path[1]);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        throw new ApiException(404, "No endpoint for " + method + " /api/" + String.join("/", path));
+    }
+
+    /**
+     * Lists the earliest open slots, as the patient slot search does
+     */
+    private void listSlots(HttpExchange exchange, Map<String, List<String>> params) throws IOException, ApiException {
+        LocalDate from = dateParam(params, "from", LocalDate.now());
+        LocalDate to = dateParam(params, "to", null);
+        LocalTime earliest = timeParam(params, "earliest", null);
+        LocalTime latest = timeParam(params, "latest", null);
+        List<String> doctors = params.get("doctor");
+        Collection<String> doctorIds = null;
+        if (doctors != null && doctors.size() == 1
+                && (doctors.get(0).equalsIgnoreCase("Male") || doctors.get(0).equalsIgnoreCase("Female"))) {
+            doctorIds = new ArrayList<>();
+            for (User u : db.getUserRegistry().withRole("Doctor")) {
+                if (doctors.get(0).equalsIgnoreCase(u.getGender())) {
+                    doctorIds.add(u.getId());
+                }
+            }
+        }
+        else if (doctors != null) {
+            doctorIds = doctors;
+        }
+        int limit = intParam(params, "limit", DEFAULT_LIMIT, 1, MAX_LIMIT);
+        JsonList list = new JsonList(exchange);
+        for (Appointment a : db.getAppointmentIndex().earliestOpen(from, to, earliest, latest, doctorIds, limit)) {
+            list.add(a, a.getAppointmentId());
+        }
+        list.end();
+    }
+
+    /**
+     * Creates a slot for the doctor making the request
+     */
+    private void createSlot(HttpExchange exchange, User user, Map<String, List<String>> params) throws IOException, ApiException {
+        requireRole(user, "Doctor");
+        LocalDate date = dateParam(params, "date", null);
+        LocalTime time = timeParam(params, "time", null);
+        if (date == null || time == null) {
+            throw new ApiException(400, "date and time are required");
+        }
+        if (time.getMinute() % 30 != 0 || time.getSecond() != 0) {
+            throw new ApiException(400, "Please choose a time with minutes in 30-minute intervals (00 or 30)");
+        }
+        if (date.atTime(time).isBefore(LocalDateTime.now())) {
+            throw new ApiException(400, "Cannot create appointments in the past");
+        }
+        if (!doctorManager.createSlot((Doctor) user, date, time)) {
+            throw new ApiException(409, "You already have an existing appointment slot at that time");
+        }
+        Appointment a = db.getAppointmentIndex().atSlot(user.getId(), date, time, Appointment.AppointmentStatus.OPEN);
+        send(exchange, 201, "id", a == null ? null : a.getAppointmentId());
+    }
+
+    /**
+     * Lists a patient's or doctor's pending and scheduled appointments, or any appointments for an administrator
+     */
+    private void listAppointments(HttpExchange exchange, User user, Map<String, List<String>> params) throws IOException, ApiException {
+        Appointment.AppointmentStatus[] statuses = statusParam(params);
+        List<Appointment> appointments;
+        switch (user.getRole()) {
+            case "Patient":
+                appointments = db.getAppointmentIndex().forPatient(user.getId(), statuses.length == 0
+                    ? new Appointment.AppointmentStatus[] {Appointment.AppointmentStatus.PENDING, Appointment.AppointmentStatus.SCHEDULED} : statuses);
+                break;
+            case "Doctor":
+                appointments = db.getAppointmentIndex().forDoctor(user.getId(), statuses.length == 0
+                    ? new Appointment.AppointmentStatus[] {Appointment.AppointmentStatus.PENDING, Appointment.AppointmentStatus.SCHEDULED} : statuses);
+                break;
+            case "Administrator":
+                LocalDate from = dateParam(params, "from", null);
+                LocalDate to = dateParam(params, "to", null);
+                if (from == null && to == null) {
+                    listAll(exchange, statuses);
+                    return;
+                }
+                appointments = db.getAppointmentIndex().onDates(from == null ? FIRST_DATE : from, to == null ? LAST_DATE : to, statuses);
+                break;
+            default:
+                throw new ApiException(403, "Pharmacists have no appointments");
+        }
+        JsonList list = new JsonList(exchange);
+        for (Appointment a : appointments) {
+            list.add(a, a.getAppointmentId());
+        }
+        list.end();
+    }
+
+    /**
+     * Streams every appointment of the given statuses straight from the database, in creation order
+     */
+    private void listAll(HttpExchange exchange, Appointment.AppointmentStatus... statuses) throws IOException {
+        JsonList list = new JsonList(exchange);
+        for (Appointment a : db.getAllAppointments()) {
+            // Check the status and render the appointment as one, never halfway through a transaction changing it
+            String rendered = HMSTransaction.read(a.getAppointmentId(), () ->
+                statuses.length == 0 || Arrays.asList(statuses).contains(a.getAppointmentStatus()) ? json(a, a.getAppointmentId()) : null);
+            if (rendered != null) {
+                list.add(rendered);
+            }
+        }
+        list.end();
+    }
+
+    /**
+     * Carries out an action on an appointment, for the patient who booked it or the doctor it is with
+     */
+    private void updateAppointment(HttpExchange exchange, User user, String appointmentId, String action, Map<String, List<String>> params)
+            throws IOException, ApiException {
+        Appointment a = db.getAppointmentIndex().get(appointmentId);
+        boolean patient = user.getRole().equals("Patient");
+        boolean doctor = user.getRole().equals("Doctor");
+        // Appointments of other users are reported as missing, the same as in the menus
+        if (a == null || (doctor && !a.getDoctorId().equals(user.getId()))
+                || (patient && !action.equals("request") && !user.getId().equals(a.getPatientId()))) {
+            throw new ApiException(404, "No appointment " + appointmentId);
+        }
+        switch (action) {
+            case "request":
+                requireRole(user, "Patient");
+                if (!db.getBookingPartitions().apply(a.getDoctorId(), () -> a.schedulePatient(user.getId()))) {
+                    throw new ApiException(409, "That appointment slot is no longer available");
+                }
+                send(exchange, 200, "result", "Appointment slot successfully requested");
+                return;
+            case "cancel":
+                if (patient) {
+                    if (!db.getBookingPartitions().apply(a.getDoctorId(), () -> a.resetSlot(user.getId()))) {
+                        throw new ApiException(409, "That appointment can no longer be cancelled");
+                    }
+                }
+                else {
+                    requireRole(user, "Doctor");
+                    if (!db.getBookingPartitions().apply(a.getDoctorId(), a::cancelSlot)) {
+                        throw new ApiException(409, "Only open appointment slots can be cancelled");
+                    }
+                }
+                send(exchange, 200, "result", "Appointment slot successfully cancelled");
+                return;
+            case "accept":
+                requireRole(user, "Doctor");
+                if (!db.getBookingPartitions().apply(a.getDoctorId(), a::approveSlot)) {
+                    throw new ApiException(409, "The patient has withdrawn this request");
+                }
+                send(exchange, 200, "result", "Appointment accepted");
+                return;
+            case "decline":
+                requireRole(user, "Doctor");
+                if (!db.getBookingPartitions().apply(a.getDoctorId(), a::declineSlot)) {
+                    throw new ApiException(409, "The patient has withdrawn this request");
+                }
+                send(exchange, 200, "result", "Appointment declined");
+                return;
+            case "outcome":
+                requireRole(user, "Doctor");
+                recordOutcome(exchange, a, params);
+                return;
+            default:
+                throw new ApiException(404, "No appointment action " + action);
+        }
+    }
+
+    /**
+     * Records the outcome of a scheduled appointment, with one prescription for each medication and quantity pair
+     */
+    private void recordOutcome(HttpExchange exchange, Appointment a, Map<String, List<String>> params) throws IOException, ApiException {
+        List<String> medications = params.getOrDefault("medication", Collections.emptyList());
+        List<String> quantities = params.getOrDefault("quantity", Collections.emptyList());
+        if (medications.size() != quantities.size()) {
+            throw new ApiException(400, "Each medication needs a quantity");
+        }
+        List<Prescription> prescriptions = new ArrayList<>();
+        for (int i = 0; i < medications.size(); i++) {
+            if (!db.getAllMedicines().containsKey(medications.get(i))) {
+                throw new ApiException(400, "This medication does not exist: " + medications.get(i));
+            }
+            int quantity;
+            try {
+                quantity = Integer.parseInt(quantities.get(i));
+            }
+            catch (NumberFormatException e) {
+                throw new ApiException(400, "Invalid quantity: " + quantities.get(i));
+            }
+            if (quantity <= 0) {
+                throw new ApiException(400, "Invalid quantity: " + quantity);
+            }
+            prescriptions.add(Prescription.createPrescription(a.getAppointmentId(), medications.get(i), quantity));
+        }
+        String services = param(params, "services");
+        String notes = param(params, "notes");
+        if (!doctorManager.recordOutcome(a, services == null ? "" : services, notes == null ? "" : notes, prescriptions)) {
+            throw new ApiException(409, "The appointment is no longer scheduled, the outcome was not recorded");
+        }
+        send(exchange, 200, "result", "Appointment outcome created");
+    }
+
+    /**
+     * Lists the outcomes of completed appointments, the patient's own or a doctor's, or all of them for pharmacists and administrators
+     */
+    private void listOutcomes(HttpExchange exchange, User user, Map<String, List<String>> params) throws IOException, ApiException {
+        LocalDate from = dateParam(params, "from", null);
+        LocalDate to = dateParam(params, "to", null);
+        List<Appointment> completed;
+        switch (user.getRole()) {
+            case "Patient":
+                completed = db.getAppointmentIndex().forPatient(user.getId(), Appointment.AppointmentStatus.COMPLETED);
+                break;
+            case "Doctor":
+                completed = db.getAppointmentIndex().forDoctor(user.getId(), Appointment.AppointmentStatus.COMPLETED);
+                break;
+            default:
+                completed = db.getAppointmentIndex().withStatus(Appointment.AppointmentStatus.COMPLETED);
+                break;
+        }
+        JsonList list = new JsonList(exchange);
+        for (Appointment a : completed) {
+            if ((from != null && a.getAppointmentDate().isBefore(from)) || (to != null && a.getAppointmentDate().isAfter(to))) {
+                continue;
+            }
+            // Render the outcome and its prescriptions as one, never halfway through a transaction recording or dispensing them
+            List<String> rendered = HMSTransaction.read(a.getAppointmentId(), () -> {
+                List<String> entities = new ArrayList<>();
+                AppointmentOutcome ao = db.getAllAppointmentOutcomes().get(a.getAppointmentId());
+                if (ao == null) {
+                    return entities;
+                }
+                entities.add(json(ao, a.getAppointmentId()));
+                List<Prescription> pList = db.getAllPrescriptions().get(a.getAppointmentId());
+                if (pList != null) {
+                    for (int i = 0; i < pList.size(); i++) {
+                        entities.add(json(pList.get(i), a.getAppointmentId() + "/" + i));
+                    }
+                }
+                return entities;
+            });
+            for (String entity : rendered) {
+                list.add(entity);
+            }
+        }
+        list.end();
+    }
+
+    /**
+     * Lists a page of the pending prescription queue
+     */
+    private void listPrescriptions(HttpExchange exchange, User user, Map<String, List<String>> params) throws IOException, ApiException {
+        requireRole(user, "Pharmacist");
+        int offset = intParam(params, "offset", 0, 0, Integer.MAX_VALUE);
+        int limit = intParam(params, "limit", DEFAULT_LIMIT, 1, MAX_LIMIT);
+        JsonList list = new JsonList(exchange);
+        for (Prescription p : db.getPrescriptionQueue().page(offset, limit)) {
+            List<Prescription> pList = db.getAllPrescriptions().get(p.getAppointmentId());
+            list.add(p, p.getAppointmentId() + "/" + (pList == null ? -1 : pList.indexOf(p)));
+        }
+        list.end();
+    }
+
+    /**
+     * Dispenses a prescription, given by its appointment and its position among the appointment's prescriptions
+     */
+    private void dispensePrescription(HttpExchange exchange, User user, String appointmentId, String index) throws IOException, ApiException {
+        requireRole(user, "Pharmacist");
+        List<Prescription> pList = db.getAllPrescriptions().get(appointmentId);
+        int i = parseIndex(index);
+        if (pList == null || i >= pList.size()) {
+            throw new ApiException(404, "No prescription " + appointmentId + "/" + index);
+        }
+        PharmacistManager.DispenseResult result = pharmacistManager.dispense(pList.get(i));
+        switch (result) {
+            case DISPENSED:
+                send(exchange, 200, "result", result.getMessage());
+                return;
+            case ALREADY_DISPENSED:
+                throw new ApiException(409, result.getMessage());
+            default:
+                // A medicine or outcome removed since the prescription was made
+                throw new ApiException(404, result.getMessage());
+        }
+    }
+
+    /**
+     * Lists the medicine inventory
+     */
+    private void listMedicines(HttpExchange exchange, User user) throws IOException, ApiException {
+        requireRole(user, "Pharmacist", "Administrator");
+        JsonList list = new JsonList(exchange);
+        for (Medicine m : db.getAllMedicines().values()) {
+            list.add(m, m.getMedicineName());
+        }
+        list.end();
+    }
+
+    /**
+     * Sets a medicine's low stock alert level
+     */
+    private void setAlertLevel(HttpExchange exchange, User user, String medicineName, Map<String, List<String>> params) throws IOException, ApiException {
+        requireRole(user, "Administrator");
+        Medicine m = db.getAllMedicines().get(medicineName);
+        if (m == null) {
+            throw new ApiException(404, "No medicine " + medicineName);
+        }
+        int level = intParam(params, "level", -1, 0, Integer.MAX_VALUE);
+        if (level < 0) {
+            throw new ApiException(400, "level is required");
+        }
+        m.setAlertLevel(level);
+        send(exchange, 200, "result", "Alert level for " + medicineName + " updated to " + level);
+    }
+
+    /**
+     * Lists the replenishment requests, optionally of one status
+     */
+    private void listReplenishmentRequests(HttpExchange exchange, User user, Map<String, List<String>> params) throws IOException, ApiException {
+        requireRole(user, "Pharmacist", "Administrator");
+        String status = param(params, "status");
+        ReplenishmentRequest.ReplenishmentRequestStatus wanted;
+        try {
+            wanted = status == null ? null : ReplenishmentRequest.ReplenishmentRequestStatus.valueOf(status.toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            throw new ApiException(400, "Invalid status: " + status);
+        }
+        List<ReplenishmentRequest> all = db.getAllReplenishmentRequests();
+        JsonList list = new JsonList(exchange);
+        for (int i = 0; i < all.size(); i++) {
+            ReplenishmentRequest r = all.get(i);
+            if (wanted == null || r.getStatus() == wanted) {
+                list.add(r, String.valueOf(i));
+            }
+        }
+        list.end();
+    }
+
+    /**
+     * Requests more of a medicine whose stock is low
+     */
+    private void createReplenishmentRequest(HttpExchange exchange, User user, Map<String, List<String>> params) throws IOException, ApiException {
+        requireRole(user, "Pharmacist");
+        String medicineName = param(params, "medicine");
+        Medicine m = medicineName == null ? null : db.getAllMedicines().get(medicineName);
+        if (m == null) {
+            throw new ApiException(404, "No medicine " + medicineName);
+        }
+        int amount = intParam(params, "amount", 0, 1, Integer.MAX_VALUE);
+        if (amount <= 0) {
+            throw new ApiException(400, "amount is required");
+        }
+        if (!m.checkStockLevel()) {
+            throw new ApiException(409, "This medicine does not have low stock level");
+        }
+        ReplenishmentRequest r = ReplenishmentRequest.createReplenishmentRequest(user.getId(), medicineName, amount);
+        db.addReplenishmentRequest(r);
+        send(exchange, 201, "id", String.valueOf(db.getAllReplenishmentRequests().indexOf(r)));
+    }
+
+    /**
+     * Approves a replenishment request and replenishes the medicine
+     */
+    private void approveReplenishmentRequest(HttpExchange exchange, User user, String index) throws IOException, ApiException {
+        requireRole(user, "Administrator");
+        List<ReplenishmentRequest> all = db.getAllReplenishmentRequests();
+        int i = parseIndex(index);
+        if (i >= all.size()) {
+            throw new ApiException(404, "No replenishment request " + index);
+        }
+        if (!administratorManager.approveRequest(all.get(i))) {
+            throw new ApiException(409, "This request has already been approved");
+        }
+        send(exchange, 200, "result", "Request approved");
+    }
+
+    /**
+     * Finds the user named by the request's Basic authorization
+     * @return User The authenticated user
+     * @throws ApiException 401 if the credentials are missing or wrong, 403 if the user must first change their password in the console
+     */
+    private User authenticate(HttpExchange exchange) throws ApiException {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.regionMatches(true, 0, "Basic ", 0, 6)) {
+            throw new ApiException(401, "Log in with your user ID and password");
+        }
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(header.substring(6).trim()), StandardCharsets.UTF_8);
+        }
+        catch (IllegalArgumentException e) {
+            throw new ApiException(401, "Log in with your user ID and password");
+        }
+        int colon = credentials.indexOf(':');
+        User u = colon < 0 ? null : db.getUserRegistry().get(credentials.substring(0, colon));
+        if (u == null || !verifyPassword(credentials.substring(colon + 1), u.getPassword())) {
+            throw new ApiException(401, "Unsuccessful login");
+        }
+        if (u.getFirstLogin()) {
+            throw new ApiException(403, "Log in from the console first to change your password");
+        }
+        return u;
+    }
+
+    /**
+     * Checks that a user has one of the given roles
+     */
+    private static void requireRole(User user, String... roles) throws ApiException {
+        for (String role : roles) {
+            if (user.getRole().equals(role)) {
+                return;
+            }
+        }
+        throw new ApiException(403, "Not available to " + user.getRole() + "s");
+    }
+
+    /**
+     * Reads the parameters of the query string and of a form-encoded POST body
+     */
+    private static Map<String, List<String>> params(HttpExchange exchange) throws IOException, ApiException {
+        Map<String, List<String>> params = new LinkedHashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        if (exchange.getRequestMethod().equals("POST")) {
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] body = in.readNBytes(MAX_BODY + 1);
+                if (body.length > MAX_BODY) {
+                    throw new ApiException(413, "Request body too large");
+                }
+                parseForm(new String(body, StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Parses name=value pairs separated by &amp;
+     */
+    private static void parseForm(String form, Map<String, List<String>> params) throws ApiException {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        try {
+            for (String pair : form.split("&")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                int eq = pair.indexOf('=');
+                String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                params.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            throw new ApiException(400, "Invalid parameters");
+        }
+    }
+
+    /** Gets the first value of a parameter, or null */
+    private static String param(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /** Gets a date parameter (yyyy-mm-dd), or a default if it is missing or blank */
+    private static LocalDate dateParam(Map<String, List<String>> params, String name, LocalDate defaultDate) throws ApiException {
+        String value = param(params, name);
+        if (value == null || value.isBlank()) {
+            return defaultDate;
+        }
+        try {
+            return LocalDate.parse(value.trim());
+        }
+        catch (DateTimeParseException e) {
+            throw new ApiException(400, "Invalid " + name + ", please use yyyy-mm-dd");
+        }
+    }
+
+    /** Gets a time parameter (HH:mm), or a default if it is missing or blank */
+    private static LocalTime timeParam(Map<String, List<String>> params, String name, LocalTime defaultTime) throws ApiException {
+        String value = param(params, name);
+        if (value == null || value.isBlank()) {
+            return defaultTime;
+        }
+        try {
+            return LocalTime.parse(value.trim());
+        }
+        catch (DateTimeParseException e) {
+            throw new ApiException(400, "Invalid " + name + ", please use HH:mm");
+        }
+    }
+
+    /** Gets a whole number parameter within a range, or a default if it is missing */
+    private static int intParam(Map<String, List<String>> params, String name, int defaultValue, int min, int max) throws ApiException {
+        String value = param(params, name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n < min || n > max) {
+                throw new ApiException(400, name + " must be between " + min + " and " + max);
+            }
+            return n;
+        }
+        catch (NumberFormatException e) {
+            throw new ApiException(400, "Invalid " + name + ": " + value);
+        }
+    }
+
+    /** Gets the appointment status parameters */
+    private static Appointment.AppointmentStatus[] statusParam(Map<String, List<String>> params) throws ApiException {
+        List<String> values = params.getOrDefault("status", Collections.emptyList());
+        Appointment.AppointmentStatus[] statuses = new Appointment.AppointmentStatus[values.size()];
+        for (int i = 0; i < statuses.length; i++) {
+            try {
+                statuses[i] = Appointment.AppointmentStatus.valueOf(values.get(i).toUpperCase());
+            }
+            catch (IllegalArgumentException e) {
+                throw new ApiException(400, "Invalid status: " + values.get(i));
+            }
+        }
+        return statuses;
+    }
+
+    /** Parses a position in a list from the path */
+    private static int parseIndex(String index) throws ApiException {
+        try {
+            int i = Integer.parseInt(index);
+            if (i >= 0) {
+                return i;
+            }
+        }
+        catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new ApiException(404, "No item " + index);
+    }
+
+    /** Renders an entity with its ID as one JSON object */
+    private static String json(IRenderable entity, String id) {
+        StringBuilder json = new StringBuilder(256);
+        HMSRenderer.json(json).render(entity, id);
+        return json.toString();
+    }
+
+    /**
+     * Sends a JSON object with one string field
+     */
+    private static void send(HttpExchange exchange, int status, String key, String value) throws IOException {
+        StringBuilder json = new StringBuilder(64).append("{\"").append(key).append("\":");
+        HMSExporter.json(json, value);
+        byte[] body = json.append("}\n").toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * JSON array response, streamed with chunked encoding as the entities are added
+     * The array is only completed by end, so a list that fails part way is left unfinished for handle to abort
+     */
+    private static final class JsonList {
+        private final Writer out;
+        private final HMSRenderer json;
+        private boolean empty = true;
+
+        JsonList(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), BUFFER_SIZE);
+            json = HMSRenderer.json(out);
+            out.write('[');
+        }
+
+        /**
+         * Adds an entity to the array
+         * @param entity The entity
+         * @param id The ID the entity is referred to by in other requests
+         */
+        void add(IRenderable entity, String id) throws IOException {
+            if (!empty) {
+                out.write(',');
+            }
+            empty = false;
+            json.render(entity, id);
+        }
+
+        /**
+         * Adds an entity already rendered as JSON to the array
+         * @param rendered The rendered entity
+         */
+        void add(String rendered) throws IOException {
+            if (!empty) {
+                out.write(',');
+            }
+            empty = false;
+            out.write(rendered);
+        }
+
+        /**
+         * Completes the array once every entity is added
+         */
+        void end() throws IOException {
+            out.write("]\n");
+            out.close();
+        }
+
+    }
+}
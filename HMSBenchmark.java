@@ -0,0 +1,1480 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+* Benchmarks for the Hospital Management System's data handling, run from the command line
+* Usage: java HMSBenchmark codec [number of appointments...]
+*        java HMSBenchmark csv [number of patient rows...]
+*        java HMSBenchmark calendar [number of appointments...]
+*        java HMSBenchmark slots [number of appointments...]
+*        java HMSBenchmark render [number of appointments...]
+*        java HMSBenchmark heap [number of appointments...]
+*        java HMSBenchmark table [number of appointments...]
+*        java HMSBenchmark stress [number of threads...]
+*        java HMSBenchmark contention [number of threads...]
+*        java HMSBenchmark bookings [number of doctors...]
+*        java HMSBenchmark transactions [number of threads...]
+*        java HMSBenchmark sessions [number of connections...]
+*        java HMSBenchmark api [number of clients...]
+*/
+public class HMSBenchmark {
+    /** Number of doctors the generated appointments are spread across */
+    private static final int DOCTORS = 50;
+
+    /** Number of patients the generated appointments are booked by */
+    private static final int PATIENTS = 20000;
+
+    /** Number of times each table benchmark query runs, the fastest run is reported */
+    private static final int TABLE_ROUNDS = 20;
+
+    /** Number of operations each stress test run performs, shared between its threads */
+    private static final int STRESS_OPERATIONS = 400_000;
+
+    /** Number of slots the threads of a contention test race for */
+    private static final int CONTENTION_SLOTS = 8;
+
+    /** Number of booking attempts each contention test run makes, shared between its threads */
+    private static final int CONTENTION_ATTEMPTS = 2_000_000;
+
+    /** Number of sessions of a bookings test */
+    private static final int BOOKING_SESSIONS = 32;
+
+    /** Number of slots of each doctor in a bookings test */
+    private static final int BOOKING_SLOTS = 64;
+
+    /** Number of booking attempts each bookings test run makes, shared between its sessions */
+    private static final int BOOKING_ATTEMPTS = 640_000;
+
+    /** Number of appointments each transactions test run records an outcome for, shared between its threads */
+    private static final int TRANSACTION_APPOINTMENTS = 20_000;
+
+    /** Number of doctors the appointments of a transactions test are spread across */
+    private static final int TRANSACTION_DOCTORS = 16;
+
+    /** Every this many appointments of a transactions test is left open, so recording its outcome is undone */
+    private static final int TRANSACTION_UNDONE_EVERY = 5;
+
+    /** Number of requests each API load test run sends, shared between its clients, after as many again to warm up */
+    private static final int API_REQUESTS = 40_000;
+
+    /**
+     * Runs the benchmark named by the first argument
+     *
+     * @param args The benchmark name followed by its parameters
+     * @throws Exception If a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java HMSBenchmark codec [number of appointments...]");
+            System.out.println("       java HMSBenchmark csv [number of patient rows...]");
+            System.out.println("       java HMSBenchmark calendar [number of appointments...]");
+            System.out.println("       java HMSBenchmark slots [number of appointments...]");
+            System.out.println("       java HMSBenchmark render [number of appointments...]");
+            System.out.println("       java HMSBenchmark heap [number of appointments...]");
+            System.out.println("       java HMSBenchmark table [number of appointments...]");
+            System.out.println("       java HMSBenchmark stress [number of threads...]");
+            System.out.println("       java HMSBenchmark contention [number of threads...]");
+            System.out.println("       java HMSBenchmark bookings [number of doctors...]");
+            System.out.println("       java HMSBenchmark transactions [number of threads...]");
+            System.out.println("       java HMSBenchmark sessions [number of connections...]");
+            System.out.println("       java HMSBenchmark api [number of clients...]");
+            return;
+        }
+        switch (args[0]) {
+            case "codec":
+                benchmarkCodec(sizes(args, 100_000, 1_000_000));
+                break;
+            case "csv":
+                benchmarkCsv(sizes(args, 100_000, 1_000_000));
+                break;
+            case "calendar":
+                benchmarkCalendar(sizes(args, 100_000, 1_000_000));
+                break;
+            case "slots":
+                benchmarkSlots(sizes(args, 100_000, 1_000_000));
+                break;
+            case "render":
+                benchmarkRender(sizes(args, 10_000, 100_000));
+                break;
+            case "heap":
+                benchmarkHeap(sizes(args, 100_000, 1_000_000));
+                break;
+            case "table":
+                benchmarkTable(sizes(args, 100_000, 1_000_000));
+                break;
+            case "stress":
+                benchmarkStress(sizes(args, 1, 4, 16, 64));
+                break;
+            case "contention":
+                benchmarkContention(sizes(args, 1, 4, 16, 64));
+                break;
+            case "bookings":
+                benchmarkBookings(sizes(args, 1, 4, 16, 64));
+                break;
+            case "transactions":
+                benchmarkTransactions(sizes(args, 1, 4, 16, 64));
+                break;
+            case "sessions":
+                benchmarkSessions(sizes(args, 100, 1000, 5000));
+                break;
+            case "api":
+                benchmarkApi(sizes(args, 1, 8, 32, 128));
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + args[0]);
+                break;
+        }
+    }
+
+    /**
+     * Compares saving and loading appointments with ObjectOutputStream (the previous format) and HMSCodec
+     *
+     * @param sizes Numbers of appointments to test with
+     * @throws IOException If the temporary files cannot be written
+     */
+    private static void benchmarkCodec(int[] sizes) throws IOException {
+        File dir = Files.createTempDirectory("hms-bench").toFile();
+        System.out.printf("%-12s %-14s %12s %12s %14s%n", "Appointments", "Format", "Save (ms)", "Load (ms)", "Size (bytes)");
+        for (int size : sizes) {
+            ArrayList<Appointment> appointments = generateAppointments(size, 42);
+
+            // Previous format: default serialization of the whole list, unbuffered
+            File legacyFile = new File(dir, "legacy.dat");
+            long start = System.nanoTime();
+            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(legacyFile))) {
+                oos.writeObject(appointments);
+            }
+            long legacySave = System.nanoTime() - start;
+            start = System.nanoTime();
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(legacyFile))) {
+                ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            long legacyLoad = System.nanoTime() - start;
+            print(size, "Serializable", legacySave, legacyLoad, legacyFile.length());
+
+            // Binary codec
+            File codecFile = new File(dir, "codec.dat");
+            start = System.nanoTime();
+            Appointment.serialize(appointments, codecFile);
+            long codecSave = System.nanoTime() - start;
+            start = System.nanoTime();
+            ArrayList<Appointment> loaded = Appointment.deserialize(codecFile);
+            long codecLoad = System.nanoTime() - start;
+            print(size, "HMSCodec", codecSave, codecLoad, codecFile.length());
+
+            if (loaded == null || loaded.size() != size) {
+                throw new IOException("Codec round trip lost appointments");
+            }
+            legacyFile.delete();
+            codecFile.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Compares importing a patient CSV with Scanner (the previous initialize path) and HMSCsvImporter
+     *
+     * @param sizes Numbers of patient rows to test with
+     * @throws IOException If the temporary files cannot be written or read
+     */
+    private static void benchmarkCsv(int[] sizes) throws IOException {
+        File dir = Files.createTempDirectory("hms-bench").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-12s %-14s %12s %14s%n", "Rows", "Reader", "Import (ms)", "Rows/s");
+        try {
+            for (int size : sizes) {
+                File csv = new File(dir, "Patient_List.csv");
+                writePatientCsv(csv, size, 42);
+
+                // Previous path: Scanner with a regex delimiter, into an intermediate list
+                long start = System.nanoTime();
+                ArrayList<Patient> scanned = new ArrayList<>();
+                try (Scanner scanner = new Scanner(csv, "UTF-8")) {
+                    scanner.nextLine();
+                    scanner.useDelimiter(",|\\n");
+                    while (scanner.hasNext()) {
+                        String id = scanner.next();
+                        String name = scanner.next();
+                        LocalDate dob = LocalDate.parse(scanner.next());
+                        String gender = scanner.next();
+                        String bloodType = scanner.next();
+                        String contact = scanner.next();
+                        scanned.add(new Patient(id, "Patient", name, gender, bloodType, dob, contact));
+                    }
+                }
+                ArrayList<User> scannedUsers = new ArrayList<>(scanned);
+                long scannerNanos = System.nanoTime() - start;
+                printRows(size, "Scanner", scannerNanos);
+
+                // Streaming importer, parsing chunks in parallel
+                start = System.nanoTime();
+                ArrayList<User> imported = new ArrayList<>();
+                HMSCsvImporter.Report report = HMSCsvImporter.importFile(csv, 6, fields -> new Patient(fields[0], "Patient", fields[1], fields[3],
+                    fields[4], LocalDate.parse(fields[2]), fields[5]), imported::add, executor);
+                long importerNanos = System.nanoTime() - start;
+                printRows(size, "HMSCsvImporter", importerNanos);
+
+                if (imported.size() != size || scannedUsers.size() != size || report.getRejected() != 0) {
+                    throw new IOException("CSV import lost rows");
+                }
+                csv.delete();
+            }
+        }
+        finally {
+            executor.shutdown();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Compares slot conflict checks and a month of free/busy computed by scanning all appointments (the previous path) and from the slot calendars
+     *
+     * @param sizes Numbers of appointments to test with
+     * @throws IOException If the calendar disagrees with the scan
+     */
+    private static void benchmarkCalendar(int[] sizes) throws IOException {
+        final int lookups = 1000;
+        System.out.printf("%-12s %-14s %16s %16s%n", "Appointments", "Lookup", "Conflict (us)", "Month (us)");
+        for (int size : sizes) {
+            ArrayList<Appointment> appointments = generateAppointments(size, 42);
+            AppointmentIndex index = new AppointmentIndex();
+            index.rebuild(appointments);
+            Random random = new Random(7);
+            String[] doctorIds = new String[lookups];
+            LocalDate[] dates = new LocalDate[lookups];
+            LocalTime[] times = new LocalTime[lookups];
+            for (int i = 0; i < lookups; i++) {
+                doctorIds[i] = String.format("D%03d", random.nextInt(DOCTORS) + 1);
+                dates[i] = LocalDate.of(2020, 1, 1).plusDays(random.nextInt(2000));
+                times[i] = LocalTime.of(8, 0).plusMinutes(30L * random.nextInt(20));
+            }
+            YearMonth month = YearMonth.of(2021, 6);
+
+            // Previous path: stream over every appointment, comparing doctor, date and time
+            int scanHits = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                final int n = i;
+                if (appointments.stream().anyMatch(a -> a.getDoctorId().equals(doctorIds[n]) && a.getAppointmentDate().equals(dates[n])
+                        && a.getAppointmentTime().equals(times[n]) && a.getAppointmentStatus() != Appointment.AppointmentStatus.CANCELLED)) {
+                    scanHits++;
+                }
+            }
+            long scanConflict = (System.nanoTime() - start) / lookups;
+            start = System.nanoTime();
+            long[] scanMonth = new long[month.lengthOfMonth()];
+            for (Appointment a : appointments) {
+                if (a.getDoctorId().equals("D001") && YearMonth.from(a.getAppointmentDate()).equals(month)
+                        && a.getAppointmentStatus() != Appointment.AppointmentStatus.CANCELLED) {
+                    scanMonth[a.getAppointmentDate().getDayOfMonth() - 1] |= 1L << SlotCalendar.slotOf(a.getAppointmentTime());
+                }
+            }
+            long scanMonthNanos = System.nanoTime() - start;
+            System.out.printf("%-12d %-14s %16.2f %16.2f%n", size, "Scan", scanConflict / 1e3, scanMonthNanos / 1e3);
+
+            // Slot calendar bitmaps
+            int calendarHits = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                if (index.isOccupied(doctorIds[i], dates[i], times[i])) {
+                    calendarHits++;
+                }
+            }
+            long calendarConflict = (System.nanoTime() - start) / lookups;
+            start = System.nanoTime();
+            long[] calendarMonth = index.occupancy("D001", month);
+            long calendarMonthNanos = System.nanoTime() - start;
+            System.out.printf("%-12d %-14s %16.2f %16.2f%n", size, "SlotCalendar", calendarConflict / 1e3, calendarMonthNanos / 1e3);
+
+            if (scanHits != calendarHits || !Arrays.equals(scanMonth, calendarMonth)) {
+                throw new IOException("Slot calendar does not match the appointments");
+            }
+        }
+    }
+
+    /**
+     * Compares finding the earliest open slots by filtering and sorting all appointments (the previous path) and with AppointmentIndex.earliestOpen
+     *
+     * @param sizes Numbers of appointments to test with
+     * @throws IOException If the index returns different slots from the scan
+     */
+    private static void benchmarkSlots(int[] sizes) throws IOException {
+        final int searches = 200;
+        final int limit = 10;
+        System.out.printf("%-12s %-14s %16s%n", "Appointments", "Search", "Per search (us)");
+        for (int size : sizes) {
+            ArrayList<Appointment> appointments = generateAppointments(size, 42);
+            AppointmentIndex index = new AppointmentIndex();
+            index.rebuild(appointments);
+            Random random = new Random(7);
+            LocalDate[] froms = new LocalDate[searches];
+            LocalTime[] earliest = new LocalTime[searches];
+            List<List<String>> doctors = new ArrayList<>();
+            for (int i = 0; i < searches; i++) {
+                froms[i] = LocalDate.of(2020, 1, 1).plusDays(random.nextInt(2000));
+                earliest[i] = LocalTime.of(8 + random.nextInt(8), 0);
+                doctors.add(i % 2 == 0 ? null : Arrays.asList(String.format("D%03d", random.nextInt(DOCTORS) + 1),
+                    String.format("D%03d", random.nextInt(DOCTORS) + 1)));
+            }
+            Comparator<Appointment> slotOrder = Comparator.comparing(Appointment::getAppointmentDate).thenComparing(Appointment::getAppointmentTime);
+
+            // Previous path: filter every appointment, then sort what is left
+            List<List<Appointment>> scanned = new ArrayList<>(searches);
+            long start = System.nanoTime();
+            for (int i = 0; i < searches; i++) {
+                final int n = i;
+                scanned.add(appointments.stream()
+                    .filter(a -> a.getAppointmentStatus() == Appointment.AppointmentStatus.OPEN
+                        && !a.getAppointmentDate().isBefore(froms[n])
+                        && !a.getAppointmentTime().isBefore(earliest[n]) && !a.getAppointmentTime().isAfter(earliest[n].plusHours(2))
+                        && (doctors.get(n) == null || doctors.get(n).contains(a.getDoctorId())))
+                    .sorted(slotOrder)
+                    .limit(limit)
+                    .collect(Collectors.toList()));
+            }
+            System.out.printf("%-12d %-14s %16.2f%n", size, "Scan", (System.nanoTime() - start) / 1e3 / searches);
+
+            // Ordered open slot index
+            List<List<Appointment>> indexed = new ArrayList<>(searches);
+            start = System.nanoTime();
+            for (int i = 0; i < searches; i++) {
+                indexed.add(index.earliestOpen(froms[i], null, earliest[i], earliest[i].plusHours(2), doctors.get(i), limit));
+            }
+            System.out.printf("%-12d %-14s %16.2f%n", size, "Index", (System.nanoTime() - start) / 1e3 / searches);
+
+            for (int i = 0; i < searches; i++) {
+                if (scanned.get(i).size() != indexed.get(i).size()) {
+                    throw new IOException("Slot search returned a different number of slots");
+                }
+                for (int j = 0; j < scanned.get(i).size(); j++) {
+                    if (slotOrder.compare(scanned.get(i).get(j), indexed.get(i).get(j)) != 0) {
+                        throw new IOException("Slot search returned different slots");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares printing appointments with a println per field to a console like System.out (the previous print methods)
+     * and rendering them through HMSRenderer into a buffered stream, as text and as JSON lines
+     *
+     * @param sizes Numbers of appointments to test with
+     * @throws IOException If the null device cannot be opened
+     */
+    private static void benchmarkRender(int[] sizes) throws IOException {
+        File devNull = new File(System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
+        PrintStream stdout = System.out;
+        stdout.printf("%-12s %-16s %12s %16s%n", "Appointments", "Renderer", "Render (ms)", "Appointments/s");
+        for (int size : sizes) {
+            ArrayList<Appointment> appointments = generateAppointments(size, 42);
+
+            // Previous path: System.out as the JVM sets it up, flushing every line
+            long legacyNanos;
+            try (PrintStream console = new PrintStream(new BufferedOutputStream(new FileOutputStream(devNull), 128), true)) {
+                System.setOut(console);
+                long start = System.nanoTime();
+                for (Appointment a : appointments) {
+                    printLegacy(a);
+                }
+                legacyNanos = System.nanoTime() - start;
+            }
+            finally {
+                System.setOut(stdout);
+            }
+            printRender(size, "println", legacyNanos);
+
+            for (String format : new String[] {"text", "json"}) {
+                try (PrintStream buffered = new PrintStream(new BufferedOutputStream(new FileOutputStream(devNull), 1 << 16), false)) {
+                    HMSRenderer r = format.equals("text") ? HMSRenderer.text(buffered) : HMSRenderer.json(buffered);
+                    long start = System.nanoTime();
+                    for (Appointment a : appointments) {
+                        r.render(a);
+                    }
+                    buffered.flush();
+                    printRender(size, "HMSRenderer " + format, System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    /** Prints an appointment the way Appointment.print did before HMSRenderer */
+    private static void printLegacy(Appointment a) {
+        System.out.println("Doctor: " + a.getDoctorName());
+        System.out.println("DoctorId: " + a.getDoctorId());
+        if (a.getPatientId() != null) {
+            System.out.println("PatientId: " + a.getPatientId());
+        }
+        System.out.println("Date: " + a.getAppointmentDate().format(DateTimeFormatter.ofPattern("dd/MM/yy")));
+        System.out.println("Time: " + a.getAppointmentTime());
+        System.out.println("Status: " + a.getAppointmentStatus());
+    }
+
+    /** Prints one render result row */
+    private static void printRender(int size, String renderer, long nanos) {
+        System.out.printf("%-12d %-16s %12.1f %16.0f%n", size, renderer, nanos / 1e6, size / (nanos / 1e9));
+    }
+
+    /**
+     * Compares the heap retained by loaded appointments in the compact layout with the layout from before it
+     * (one String ID, doctor and patient strings, a LocalDate, a LocalTime and a status reference per appointment)
+     * Both are loaded from the same snapshot file, so doctor and patient strings are shared the way the codec shares them
+     *
+     * @param sizes Numbers of appointments to test with
+     * @throws IOException If the temporary file cannot be written
+     */
+    private static void benchmarkHeap(int[] sizes) throws IOException {
+        File dir = Files.createTempDirectory("hms-bench").toFile();
+        System.out.printf("%-12s %-14s %14s %16s%n", "Appointments", "Layout", "Heap (MB)", "Per appointment");
+        for (int size : sizes) {
+            File file = new File(dir, "appointments.dat");
+            Appointment.serialize(generateAppointments(size, 42), file);
+
+            // Previous layout, rebuilt field by field from a loaded snapshot
+            long base = usedHeap();
+            ArrayList<Appointment> loaded = Appointment.deserialize(file);
+            List<LegacyAppointment> legacy = new ArrayList<>(size);
+            for (Appointment a : loaded) {
+                legacy.add(new LegacyAppointment(a));
+            }
+            loaded = null;
+            long legacyBytes = usedHeap() - base;
+            printHeap(size, "Previous", legacyBytes);
+            if (legacy.size() != size) {
+                throw new IOException("Lost appointments");
+            }
+            legacy = null;
+
+            base = usedHeap();
+            loaded = Appointment.deserialize(file);
+            long compactBytes = usedHeap() - base;
+            printHeap(size, "Compact", compactBytes);
+            if (loaded == null || loaded.size() != size) {
+                throw new IOException("Lost appointments");
+            }
+            loaded = null;
+            System.out.printf("%-12d %-14s %14s %15.0f%%%n", size, "Saved", "", 100.0 * (legacyBytes - compactBytes) / legacyBytes);
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /** Fields of an appointment as Appointment held them before the compact layout */
+    private static final class LegacyAppointment {
+        final String appointmentId;
+        final String patientId;
+        final String doctorId;
+        final String doctorName;
+        final LocalDate appointmentDate;
+        final LocalTime appointmentTime;
+        final Appointment.AppointmentStatus appointmentStatus;
+
+        LegacyAppointment(Appointment a) {
+            // The ID, date and time were read into new objects for every appointment, the other strings were shared by the codec
+            this.appointmentId = new String(a.getAppointmentId());
+            this.patientId = a.getPatientId();
+            this.doctorId = a.getDoctorId();
+            this.doctorName = a.getDoctorName();
+            this.appointmentDate = a.getAppointmentDate();
+            this.appointmentTime = a.getAppointmentTime();
+            this.appointmentStatus = a.getAppointmentStatus();
+        }
+    }
+
+    /** Gets the heap in use after collecting garbage */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /** Prints one heap result row */
+    private static void printHeap(int size, String layout, long bytes) {
+        System.out.printf("%-12d %-14s %14.1f %16.1f%n", size, layout, bytes / 1e6, (double) bytes / size);
+    }
+
+    /**
+     * Compares counting and grouping appointments with streams over the Appointment list and with scans of an AppointmentTable
+     * Each query runs a few times to warm up before it is timed, and the results of the two are checked against each other
+     *
+     * @param sizes Numbers of appointments to test with
+     * @throws IOException If the two disagree
+     */
+    private static void benchmarkTable(int[] sizes) throws IOException {
+        LocalDate from = LocalDate.of(2021, 1, 1);
+        LocalDate to = LocalDate.of(2021, 12, 31);
+        Appointment.AppointmentStatus[] booked = {Appointment.AppointmentStatus.PENDING,
+            Appointment.AppointmentStatus.SCHEDULED, Appointment.AppointmentStatus.COMPLETED};
+        System.out.printf("%-12s %-12s %-10s %14s%n", "Appointments", "Query", "Method", "Per query (ms)");
+        for (int size : sizes) {
+            ArrayList<Appointment> appointments = generateAppointments(size, 42);
+            long start = System.nanoTime();
+            AppointmentTable table = new AppointmentTable(appointments);
+            printTable(size, "build", "Table", System.nanoTime() - start);
+
+            // By status
+            Map<Appointment.AppointmentStatus, Long> streamStatus = null;
+            int[] tableStatus = null;
+            long streamNanos = Long.MAX_VALUE;
+            long tableNanos = Long.MAX_VALUE;
+            for (int round = 0; round < TABLE_ROUNDS; round++) {
+                start = System.nanoTime();
+                streamStatus = appointments.stream()
+                    .filter(a -> !a.getAppointmentDate().isBefore(from) && !a.getAppointmentDate().isAfter(to))
+                    .collect(Collectors.groupingBy(Appointment::getAppointmentStatus, Collectors.counting()));
+                streamNanos = Math.min(streamNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                tableStatus = table.countByStatus(from, to);
+                tableNanos = Math.min(tableNanos, System.nanoTime() - start);
+            }
+            for (Appointment.AppointmentStatus status : Appointment.AppointmentStatus.values()) {
+                if (streamStatus.getOrDefault(status, 0L) != tableStatus[status.ordinal()]) {
+                    throw new IOException("Status counts differ for " + status);
+                }
+            }
+            printTable(size, "status", "Stream", streamNanos);
+            printTable(size, "status", "Table", tableNanos);
+
+            // By doctor and status
+            Map<String, Map<Appointment.AppointmentStatus, Long>> streamDoctor = null;
+            int[][] tableDoctor = null;
+            streamNanos = Long.MAX_VALUE;
+            tableNanos = Long.MAX_VALUE;
+            for (int round = 0; round < TABLE_ROUNDS; round++) {
+                start = System.nanoTime();
+                streamDoctor = appointments.stream()
+                    .filter(a -> !a.getAppointmentDate().isBefore(from) && !a.getAppointmentDate().isAfter(to))
+                    .collect(Collectors.groupingBy(Appointment::getDoctorId,
+                        Collectors.groupingBy(Appointment::getAppointmentStatus, Collectors.counting())));
+                streamNanos = Math.min(streamNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                tableDoctor = table.countByDoctor(from, to);
+                tableNanos = Math.min(tableNanos, System.nanoTime() - start);
+            }
+            for (int d = 0; d < table.getDoctorCount(); d++) {
+                Map<Appointment.AppointmentStatus, Long> counts = streamDoctor.getOrDefault(table.getDoctorId(d), new HashMap<>());
+                for (Appointment.AppointmentStatus status : Appointment.AppointmentStatus.values()) {
+                    if (counts.getOrDefault(status, 0L) != tableDoctor[d][status.ordinal()]) {
+                        throw new IOException("Doctor counts differ for " + table.getDoctorId(d));
+                    }
+                }
+            }
+            printTable(size, "doctor", "Stream", streamNanos);
+            printTable(size, "doctor", "Table", tableNanos);
+
+            // Booked appointments by day
+            Map<LocalDate, Long> streamDay = null;
+            int[] tableDay = null;
+            streamNanos = Long.MAX_VALUE;
+            tableNanos = Long.MAX_VALUE;
+            Set<Appointment.AppointmentStatus> bookedSet = EnumSet.copyOf(Arrays.asList(booked));
+            for (int round = 0; round < TABLE_ROUNDS; round++) {
+                start = System.nanoTime();
+                streamDay = appointments.stream()
+                    .filter(a -> bookedSet.contains(a.getAppointmentStatus()))
+                    .filter(a -> !a.getAppointmentDate().isBefore(from) && !a.getAppointmentDate().isAfter(to))
+                    .collect(Collectors.groupingBy(Appointment::getAppointmentDate, Collectors.counting()));
+                streamNanos = Math.min(streamNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                tableDay = table.countByDay(from, to, booked);
+                tableNanos = Math.min(tableNanos, System.nanoTime() - start);
+            }
+            for (int i = 0; i < tableDay.length; i++) {
+                if (streamDay.getOrDefault(from.plusDays(i), 0L) != tableDay[i]) {
+                    throw new IOException("Day counts differ for " + from.plusDays(i));
+                }
+            }
+            printTable(size, "day", "Stream", streamNanos);
+            printTable(size, "day", "Table", tableNanos);
+        }
+    }
+
+    /** Prints one table result row */
+    private static void printTable(int size, String query, String method, long nanos) {
+        System.out.printf("%-12d %-12s %-10s %14.2f%n", size, query, method, nanos / 1e6);
+    }
+
+    /**
+     * Runs sessions on many threads at once against the shared database: patients booking and cancelling slots,
+     * doctors accepting and declining requests and creating slots, pharmacists dispensing prescriptions,
+     * administrators approving replenishment requests, and readers querying the appointment index
+     * Each run checks afterwards that no update was lost or applied twice
+     * The journal is suspended, so the data files of the working directory are not touched
+     *
+     * @param threadCounts Numbers of threads to test with
+     * @throws Exception If a session fails or an invariant does not hold
+     */
+    private static void benchmarkStress(int[] threadCounts) throws Exception {
+        HMSDatabase db = HMSDatabase.getInstance();
+        db.getJournal().setSuspended(true);
+        System.out.printf("%-8s %12s %12s %14s  %s%n", "Threads", "Operations", "Time (ms)", "Ops/s", "Invariants");
+        int run = 0;
+        for (int threads : threadCounts) {
+            run++;
+            StressRun stress = new StressRun(db, "S" + run + "-", new Random(run));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<?>> sessions = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final long seed = 31L * run + t;
+                final int operations = STRESS_OPERATIONS / threads;
+                sessions.add(executor.submit(() -> {
+                    go.await();
+                    stress.session(new Random(seed), operations);
+                    return null;
+                }));
+            }
+            long start = System.nanoTime();
+            try {
+                go.countDown();
+                for (Future<?> session : sessions) {
+                    session.get();
+                }
+            }
+            finally {
+                executor.shutdown();
+            }
+            long nanos = System.nanoTime() - start;
+            stress.check();
+            System.out.printf("%-8d %12d %12.1f %14.0f  %s%n", threads, (long) STRESS_OPERATIONS / threads * threads,
+                nanos / 1e6, STRESS_OPERATIONS / (nanos / 1e9), "OK");
+        }
+    }
+
+    /**
+     * Runs many threads racing for the same few slots: each thread repeatedly requests a random one of them as its own patient,
+     * and withdraws the request whenever it got it, so most attempts lose to another thread
+     * Reports the attempts per second and the share won, and checks that no slot was ever held by two patients at once
+     * and that every slot ends open in both the appointments and the index
+     * The journal is suspended, so the data files of the working directory are not touched
+     *
+     * @param threadCounts Numbers of threads to test with
+     * @throws Exception If a thread fails or a slot was double booked
+     */
+    private static void benchmarkContention(int[] threadCounts) throws Exception {
+        HMSDatabase db = HMSDatabase.getInstance();
+        db.getJournal().setSuspended(true);
+        Doctor doctor = new Doctor("CD001", "Doctor", "Contention Doctor", "Male", 40, "", false);
+        db.getUserRegistry().add(doctor);
+        System.out.printf("%-8s %12s %12s %14s %10s  %s%n", "Threads", "Attempts", "Time (ms)", "Attempts/s", "Won (%)", "Invariants");
+        int run = 0;
+        for (int threads : threadCounts) {
+            run++;
+            List<Appointment> slots = new ArrayList<>();
+            for (int i = 0; i < CONTENTION_SLOTS; i++) {
+                Appointment a = Appointment.createSlot(doctor, LocalDate.of(2040, 1, 1).plusDays(run), LocalTime.of(8, 0).plusMinutes(30L * i));
+                db.addAppointment(a);
+                slots.add(a);
+            }
+            // Thread holding each slot, -1 if none
+            AtomicIntegerArray holder = new AtomicIntegerArray(CONTENTION_SLOTS);
+            for (int i = 0; i < CONTENTION_SLOTS; i++) {
+                holder.set(i, -1);
+            }
+            AtomicLong won = new AtomicLong();
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<?>> racers = new ArrayList<>();
+            int attempts = CONTENTION_ATTEMPTS / threads;
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                final long seed = 31L * run + t;
+                final String patientId = "C" + run + "-" + t;
+                racers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    go.await();
+                    for (int n = 0; n < attempts; n++) {
+                        int i = random.nextInt(CONTENTION_SLOTS);
+                        Appointment slot = slots.get(i);
+                        if (!slot.schedulePatient(patientId)) {
+                            continue;
+                        }
+                        won.incrementAndGet();
+                        if (!holder.compareAndSet(i, -1, thread)) {
+                            throw new IOException("Slot " + slot.getAppointmentId() + " booked by " + patientId + " while held by thread " + holder.get(i));
+                        }
+                        if (!patientId.equals(slot.getPatientId())) {
+                            throw new IOException("Slot " + slot.getAppointmentId() + " booked by " + patientId + " shows patient " + slot.getPatientId());
+                        }
+                        holder.set(i, -1);
+                        if (!slot.resetSlot(patientId)) {
+                            throw new IOException("Slot " + slot.getAppointmentId() + " could not be withdrawn by " + patientId);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            long start = System.nanoTime();
+            try {
+                go.countDown();
+                for (Future<?> racer : racers) {
+                    racer.get();
+                }
+            }
+            finally {
+                executor.shutdown();
+            }
+            long nanos = System.nanoTime() - start;
+            List<Appointment> open = db.getAppointmentIndex().forDoctor(doctor.getId(), Appointment.AppointmentStatus.OPEN);
+            for (Appointment a : slots) {
+                if (a.getAppointmentStatus() != Appointment.AppointmentStatus.OPEN || a.getPatientId() != null || !open.contains(a)) {
+                    throw new IOException("Slot " + a.getAppointmentId() + " ended " + a.getAppointmentStatus() + " for " + a.getPatientId());
+                }
+            }
+            if (!db.getAppointmentIndex().forDoctor(doctor.getId(), Appointment.AppointmentStatus.PENDING).isEmpty()) {
+                throw new IOException("Index still has pending requests");
+            }
+            long total = (long) attempts * threads;
+            System.out.printf("%-8d %12d %12.1f %14.0f %10.1f  %s%n", threads, total, nanos / 1e6, total / (nanos / 1e9), 100.0 * won.get() / total, "OK");
+        }
+    }
+
+    /**
+     * Runs many sessions requesting and withdrawing slots spread over a number of doctors: with each session changing the
+     * appointments itself, through BookingPartitions with no partitions (each change holding the doctor's lock), and through the
+     * database's booking partitions
+     * Reports the attempts per second of each, and checks that every slot ends open in both the appointments and the index
+     * The journal is suspended, so the data files of the working directory are not touched
+     *
+     * @param doctorCounts Numbers of doctors to test with
+     * @throws Exception If a session fails or a slot does not end open
+     */
+    private static void benchmarkBookings(int[] doctorCounts) throws Exception {
+        HMSDatabase db = HMSDatabase.getInstance();
+        db.getJournal().setSuspended(true);
+        BookingPartitions[] modes = {null, new BookingPartitions(db, 0), db.getBookingPartitions()};
+        String[] modeNames = {"Direct", "Locked", "Partitioned"};
+        System.out.println(BOOKING_SESSIONS + " sessions, " + db.getBookingPartitions().getPartitionCount() + " booking partitions");
+        System.out.printf("%-8s %-12s %12s %12s %14s  %s%n", "Doctors", "Changes", "Attempts", "Time (ms)", "Attempts/s", "Invariants");
+        int run = 0;
+        for (int doctorCount : doctorCounts) {
+            for (int mode = 0; mode < modes.length; mode++) {
+                final BookingPartitions partitions = modes[mode];
+                run++;
+                Doctor[] doctors = new Doctor[doctorCount];
+                List<List<Appointment>> slots = new ArrayList<>();
+                for (int d = 0; d < doctorCount; d++) {
+                    doctors[d] = new Doctor("BK" + run + "-" + d, "Doctor", "Doctor " + d, "Male", 40, "", false);
+                    db.getUserRegistry().add(doctors[d]);
+                    List<Appointment> doctorSlots = new ArrayList<>();
+                    for (int i = 0; i < BOOKING_SLOTS; i++) {
+                        Appointment a = Appointment.createSlot(doctors[d], LocalDate.of(2040, 1, 1).plusDays(i / 20), LocalTime.of(8, 0).plusMinutes(30L * (i % 20)));
+                        db.addAppointment(a);
+                        doctorSlots.add(a);
+                    }
+                    slots.add(doctorSlots);
+                }
+                ExecutorService executor = Executors.newFixedThreadPool(BOOKING_SESSIONS);
+                CountDownLatch go = new CountDownLatch(1);
+                List<Future<?>> sessions = new ArrayList<>();
+                int attempts = BOOKING_ATTEMPTS / BOOKING_SESSIONS;
+                for (int s = 0; s < BOOKING_SESSIONS; s++) {
+                    final long seed = 31L * run + s;
+                    final String patientId = "BK" + run + "-P" + s;
+                    sessions.add(executor.submit(() -> {
+                        Random random = new Random(seed);
+                        go.await();
+                        for (int n = 0; n < attempts; n++) {
+                            int d = random.nextInt(doctorCount);
+                            Appointment slot = slots.get(d).get(random.nextInt(BOOKING_SLOTS));
+                            String doctorId = doctors[d].getId();
+                            boolean won = partitions != null
+                                ? partitions.apply(doctorId, () -> slot.schedulePatient(patientId))
+                                : slot.schedulePatient(patientId);
+                            if (won && !(partitions != null
+                                    ? partitions.apply(doctorId, () -> slot.resetSlot(patientId))
+                                    : slot.resetSlot(patientId))) {
+                                throw new IOException("Slot " + slot.getAppointmentId() + " could not be withdrawn by " + patientId);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                long start = System.nanoTime();
+                try {
+                    go.countDown();
+                    for (Future<?> session : sessions) {
+                        session.get();
+                    }
+                }
+                finally {
+                    executor.shutdown();
+                }
+                long nanos = System.nanoTime() - start;
+                for (int d = 0; d < doctorCount; d++) {
+                    List<Appointment> open = db.getAppointmentIndex().forDoctor(doctors[d].getId(), Appointment.AppointmentStatus.OPEN);
+                    if (open.size() != BOOKING_SLOTS) {
+                        throw new IOException("Index has " + open.size() + " open slots of " + doctors[d].getId() + ", expected " + BOOKING_SLOTS);
+                    }
+                    for (Appointment a : slots.get(d)) {
+                        if (a.getAppointmentStatus() != Appointment.AppointmentStatus.OPEN) {
+                            throw new IOException("Slot " + a.getAppointmentId() + " ended " + a.getAppointmentStatus());
+                        }
+                    }
+                }
+                long total = (long) attempts * BOOKING_SESSIONS;
+                System.out.printf("%-8d %-12s %12d %12.1f %14.0f  %s%n", doctorCount, modeNames[mode],
+                    total, nanos / 1e6, total / (nanos / 1e9), "OK");
+            }
+        }
+    }
+
+    /**
+     * Records outcomes with two prescriptions each for many appointments from a number of threads, each thread dispensing the
+     * prescriptions of its outcomes straight away, while a reader thread checks random appointments
+     * Every fifth appointment is left open, so completing it fails and its outcome and prescriptions are undone
+     * The reader reads each appointment both through HMSTransaction.read, which must never see a half-applied transaction,
+     * and directly, counting the torn reads (e.g. an outcome without its prescriptions, or a cost without its dispensed prescription)
+     * Checks afterwards that each appointment has all of its transactions or none, and that the stock matches what was dispensed
+     * The journal is suspended, so the data files of the working directory are not touched
+     *
+     * @param threadCounts Numbers of threads to test with
+     * @throws Exception If a thread fails, a transaction was half applied or a consistent read was torn
+     */
+    private static void benchmarkTransactions(int[] threadCounts) throws Exception {
+        HMSDatabase db = HMSDatabase.getInstance();
+        db.getJournal().setSuspended(true);
+        DoctorManager doctorManager = new DoctorManager();
+        PharmacistManager pharmacistManager = new PharmacistManager();
+        Doctor[] doctors = new Doctor[TRANSACTION_DOCTORS];
+        for (int d = 0; d < TRANSACTION_DOCTORS; d++) {
+            doctors[d] = new Doctor("TX" + d, "Doctor", "Doctor " + d, "Male", 40, "", false);
+            db.getUserRegistry().add(doctors[d]);
+        }
+        System.out.printf("%-8s %12s %12s %14s %10s %12s %12s  %s%n", "Threads", "Transactions", "Time (ms)", "Tx/s",
+            "Undone", "Reads", "Torn reads", "Invariants");
+        int run = 0;
+        for (int threads : threadCounts) {
+            run++;
+            Medicine medicine = new Medicine("TX" + run + " Medicine", 1.5, 1_000_000, 10);
+            db.getAllMedicines().put(medicine.getMedicineName(), medicine);
+            List<Appointment> appointments = new ArrayList<>();
+            for (int i = 0; i < TRANSACTION_APPOINTMENTS; i++) {
+                Appointment a = Appointment.createSlot(doctors[i % TRANSACTION_DOCTORS],
+                    LocalDate.of(2050, 1, 1).plusDays(1000L * run + i / TRANSACTION_DOCTORS / 20),
+                    LocalTime.of(8, 0).plusMinutes(30L * (i / TRANSACTION_DOCTORS % 20)));
+                db.addAppointment(a);
+                if (i % TRANSACTION_UNDONE_EVERY != 0) {
+                    a.restoreState(Appointment.AppointmentStatus.SCHEDULED, "TX" + run + "-P" + i);
+                }
+                appointments.add(a);
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+            CountDownLatch go = new CountDownLatch(1);
+            AtomicLong transactions = new AtomicLong();
+            AtomicLong dispensedQuantity = new AtomicLong();
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                final long seed = 31L * run + t;
+                writers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    go.await();
+                    for (int i = first; i < TRANSACTION_APPOINTMENTS; i += threads) {
+                        Appointment a = appointments.get(i);
+                        List<Prescription> prescriptions = Arrays.asList(
+                            Prescription.createPrescription(a.getAppointmentId(), medicine.getMedicineName(), 1 + random.nextInt(3)),
+                            Prescription.createPrescription(a.getAppointmentId(), medicine.getMedicineName(), 1 + random.nextInt(3)));
+                        boolean recorded = doctorManager.recordOutcome(a, "Consultation", "None", prescriptions);
+                        transactions.incrementAndGet();
+                        if (recorded != (i % TRANSACTION_UNDONE_EVERY != 0)) {
+                            throw new IOException("Outcome of " + a.getAppointmentId() + " was " + (recorded ? "" : "not ") + "recorded while " + a.getAppointmentStatus());
+                        }
+                        if (!recorded) {
+                            continue;
+                        }
+                        for (Prescription p : prescriptions) {
+                            PharmacistManager.DispenseResult result = pharmacistManager.dispense(p);
+                            if (result != PharmacistManager.DispenseResult.DISPENSED) {
+                                throw new IOException("Prescription of " + a.getAppointmentId() + " could not be dispensed: " + result.getMessage());
+                            }
+                            transactions.incrementAndGet();
+                            dispensedQuantity.addAndGet(p.getQuantity());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            AtomicLong reads = new AtomicLong();
+            AtomicLong tornReads = new AtomicLong();
+            final long readerSeed = 17L * run;
+            Future<?> reader = executor.submit(() -> {
+                Random random = new Random(readerSeed);
+                go.await();
+                while (!writers.stream().allMatch(Future::isDone)) {
+                    Appointment a = appointments.get(random.nextInt(TRANSACTION_APPOINTMENTS));
+                    if (!HMSTransaction.read(a.getAppointmentId(), () -> isWhole(db, a, medicine))) {
+                        throw new IOException("Read a half-applied transaction on " + a.getAppointmentId());
+                    }
+                    boolean whole;
+                    try {
+                        whole = isWhole(db, a, medicine);
+                    }
+                    catch (RuntimeException e) {
+                        whole = false;
+                    }
+                    if (!whole) {
+                        tornReads.incrementAndGet();
+                    }
+                    reads.incrementAndGet();
+                }
+                return null;
+            });
+            long start = System.nanoTime();
+            try {
+                go.countDown();
+                for (Future<?> writer : writers) {
+                    writer.get();
+                }
+                reader.get();
+            }
+            finally {
+                executor.shutdown();
+            }
+            long nanos = System.nanoTime() - start;
+            for (int i = 0; i < TRANSACTION_APPOINTMENTS; i++) {
+                Appointment a = appointments.get(i);
+                boolean undone = i % TRANSACTION_UNDONE_EVERY == 0;
+                if (!isWhole(db, a, medicine) || (a.getAppointmentStatus() == Appointment.AppointmentStatus.COMPLETED) == undone) {
+                    throw new IOException("Appointment " + a.getAppointmentId() + " ended " + a.getAppointmentStatus() + " with a half-applied transaction");
+                }
+            }
+            for (Prescription p : db.getPrescriptionQueue().page(0, db.getPrescriptionQueue().size())) {
+                if (p.getMedication().equals(medicine.getMedicineName())) {
+                    throw new IOException("Prescription of " + p.getAppointmentId() + " is still queued");
+                }
+            }
+            if (medicine.getStock() != 1_000_000 - dispensedQuantity.get()) {
+                throw new IOException("Stock is " + medicine.getStock() + ", expected " + (1_000_000 - dispensedQuantity.get()));
+            }
+            System.out.printf("%-8d %12d %12.1f %14.0f %10d %12d %12d  %s%n", threads, transactions.get(), nanos / 1e6,
+                transactions.get() / (nanos / 1e9), TRANSACTION_APPOINTMENTS / TRANSACTION_UNDONE_EVERY, reads.get(), tornReads.get(), "OK");
+        }
+    }
+
+    /**
+     * Checks that an appointment of the transactions test has all of its transactions or none: no outcome and no prescriptions
+     * while not completed, otherwise its outcome, both prescriptions, and a cost covering exactly the prescriptions dispensed
+     */
+    private static boolean isWhole(HMSDatabase db, Appointment a, Medicine medicine) {
+        AppointmentOutcome ao = db.getAllAppointmentOutcomes().get(a.getAppointmentId());
+        List<Prescription> pList = db.getAllPrescriptions().get(a.getAppointmentId());
+        if (a.getAppointmentStatus() != Appointment.AppointmentStatus.COMPLETED) {
+            return ao == null && pList == null;
+        }
+        if (ao == null || pList == null || pList.size() != 2) {
+            return false;
+        }
+        double cost = AppointmentOutcome.APPOINTMENT_BASE_COST;
+        for (Prescription p : pList) {
+            if (p.getStatus() == Prescription.Status.DISPENSED) {
+                cost += medicine.getMedicineCost() * p.getQuantity();
+            }
+        }
+        return ao.getAppointmentCost() == cost;
+    }
+
+    /**
+     * Data of one stress test run, with the count of each successful update so the final state can be checked
+     */
+    private static final class StressRun {
+        /** Number of doctors */
+        private static final int DOCTORS = 20;
+        /** Number of open slots created up front */
+        private static final int SLOTS = 4000;
+        /** Number of completed appointments with an outcome and a prescription */
+        private static final int OUTCOMES = 2000;
+        /** Number of pending replenishment requests */
+        private static final int REQUESTS = 2000;
+        /** Stock of each medicine at the start */
+        private static final int STOCK = 1_000_000;
+
+        private final HMSDatabase db;
+        private final DoctorManager doctorManager = new DoctorManager();
+        private final PharmacistManager pharmacistManager = new PharmacistManager();
+        private final AdministratorManager administratorManager = new AdministratorManager();
+        private final Doctor[] doctors = new Doctor[DOCTORS];
+        private final Medicine[] medicines = new Medicine[5];
+        private final List<Appointment> slots = new ArrayList<>();
+        private final List<Prescription> prescriptions = new ArrayList<>();
+        private final List<ReplenishmentRequest> requests = new ArrayList<>();
+        /** Bookings minus reopenings of each slot, 1 for a booked slot and 0 for an open one */
+        private final AtomicIntegerArray booked;
+        /** Number of times each prescription was dispensed */
+        private final AtomicIntegerArray dispensed;
+        /** Number of times each request was approved */
+        private final AtomicIntegerArray approved;
+        /** Number of slots created by doctors during the run */
+        private final AtomicLong created = new AtomicLong();
+        /** Day the doctors create their slots on */
+        private final LocalDate createDay = LocalDate.of(2031, 1, 1);
+
+        StressRun(HMSDatabase db, String prefix, Random random) {
+            this.db = db;
+            for (int m = 0; m < medicines.length; m++) {
+                medicines[m] = new Medicine(prefix + "Medicine " + m, 0.5 * (m + 1), STOCK, 10);
+                db.getAllMedicines().put(medicines[m].getMedicineName(), medicines[m]);
+            }
+            for (int d = 0; d < DOCTORS; d++) {
+                doctors[d] = new Doctor(prefix + String.format("D%03d", d + 1), "Doctor", "Doctor " + (d + 1), "Male", 40);
+            }
+            LocalDate firstDay = LocalDate.of(2030, 1, 1);
+            for (int i = 0; i < SLOTS; i++) {
+                Appointment a = Appointment.createSlot(doctors[i % DOCTORS], firstDay.plusDays(i / DOCTORS / 20),
+                    LocalTime.of(8, 0).plusMinutes(30L * (i / DOCTORS % 20)));
+                db.addAppointment(a);
+                slots.add(a);
+            }
+            for (int i = 0; i < OUTCOMES; i++) {
+                Appointment a = Appointment.createSlot(doctors[i % DOCTORS], LocalDate.of(2020, 1, 1).plusDays(i / DOCTORS / 20),
+                    LocalTime.of(8, 0).plusMinutes(30L * (i / DOCTORS % 20)));
+                db.addAppointment(a);
+                a.restoreState(Appointment.AppointmentStatus.COMPLETED, "P" + (1000 + i));
+                db.addAppointmentOutcome(AppointmentOutcome.createOutcome(a, "Consultation", "None"));
+                Prescription p = Prescription.createPrescription(a.getAppointmentId(),
+                    medicines[random.nextInt(medicines.length)].getMedicineName(), 1 + random.nextInt(5));
+                db.addPrescription(p);
+                prescriptions.add(p);
+            }
+            for (int i = 0; i < REQUESTS; i++) {
+                ReplenishmentRequest r = ReplenishmentRequest.createReplenishmentRequest(prefix + "P001",
+                    medicines[random.nextInt(medicines.length)].getMedicineName(), 1 + random.nextInt(100));
+                db.addReplenishmentRequest(r);
+                requests.add(r);
+            }
+            booked = new AtomicIntegerArray(SLOTS);
+            dispensed = new AtomicIntegerArray(OUTCOMES);
+            approved = new AtomicIntegerArray(REQUESTS);
+        }
+
+        /**
+         * Performs random operations as one session
+         */
+        void session(Random random, int operations) {
+            for (int op = 0; op < operations; op++) {
+                int choice = random.nextInt(100);
+                if (choice < 30) {
+                    // Patient books a slot
+                    int i = random.nextInt(SLOTS);
+                    if (slots.get(i).schedulePatient("P" + (1000 + random.nextInt(PATIENTS)))) {
+                        booked.incrementAndGet(i);
+                    }
+                }
+                else if (choice < 40) {
+                    // Patient cancels their booking
+                    int i = random.nextInt(SLOTS);
+                    if (slots.get(i).resetSlot()) {
+                        booked.decrementAndGet(i);
+                    }
+                }
+                else if (choice < 55) {
+                    // Doctor accepts or declines a request
+                    int i = random.nextInt(SLOTS);
+                    if (random.nextBoolean()) {
+                        slots.get(i).approveSlot();
+                    }
+                    else if (slots.get(i).declineSlot()) {
+                        booked.decrementAndGet(i);
+                    }
+                }
+                else if (choice < 65) {
+                    // Pharmacist dispenses a prescription
+                    int i = random.nextInt(OUTCOMES);
+                    if (pharmacistManager.dispense(prescriptions.get(i)) == PharmacistManager.DispenseResult.DISPENSED) {
+                        dispensed.incrementAndGet(i);
+                    }
+                }
+                else if (choice < 70) {
+                    // Administrator approves a replenishment request
+                    int i = random.nextInt(REQUESTS);
+                    if (administratorManager.approveRequest(requests.get(i))) {
+                        approved.incrementAndGet(i);
+                    }
+                }
+                else if (choice < 72) {
+                    // Doctor creates a slot, the same slots are tried by many sessions
+                    Doctor d = doctors[random.nextInt(DOCTORS)];
+                    if (doctorManager.createSlot(d, createDay.plusDays(random.nextInt(5)), LocalTime.of(8, 0).plusMinutes(30L * random.nextInt(20)))) {
+                        created.incrementAndGet();
+                    }
+                }
+                else if (choice < 90) {
+                    // Patient looks for open slots
+                    db.getAppointmentIndex().earliestOpen(LocalDate.of(2030, 1, 1), null, null, null,
+                        Arrays.asList(doctors[random.nextInt(DOCTORS)].getId()), 10);
+                }
+                else {
+                    // Doctor views their schedule
+                    db.getAppointmentIndex().forDoctor(doctors[random.nextInt(DOCTORS)].getId(),
+                        Appointment.AppointmentStatus.PENDING, Appointment.AppointmentStatus.SCHEDULED);
+                }
+            }
+        }
+
+        /**
+         * Checks that the final state matches the updates the sessions made
+         */
+        void check() throws IOException {
+            for (int i = 0; i < SLOTS; i++) {
+                boolean open = slots.get(i).getAppointmentStatus() == Appointment.AppointmentStatus.OPEN;
+                if (booked.get(i) != (open ? 0 : 1)) {
+                    throw new IOException("Slot " + slots.get(i).getAppointmentId() + " was booked " + booked.get(i) + " times but is " + slots.get(i).getAppointmentStatus());
+                }
+            }
+            for (Appointment.AppointmentStatus status : Appointment.AppointmentStatus.values()) {
+                long scanned = db.getAllAppointments().stream().filter(a -> a.getAppointmentStatus() == status).count();
+                if (db.getAppointmentIndex().withStatus(status).size() != scanned) {
+                    throw new IOException("Index has a different number of " + status + " appointments from the list");
+                }
+            }
+            long slotsCreated = 0;
+            for (Doctor d : doctors) {
+                for (int day = 0; day < 5; day++) {
+                    for (int slot = 0; slot < 20; slot++) {
+                        LocalDate date = createDay.plusDays(day);
+                        LocalTime time = LocalTime.of(8, 0).plusMinutes(30L * slot);
+                        long atSlot = db.getAllAppointments().stream()
+                            .filter(a -> a.getDoctorId().equals(d.getId()) && a.getAppointmentDate().equals(date) && a.getAppointmentTime().equals(time))
+                            .count();
+                        if (atSlot > 1) {
+                            throw new IOException("Slot created twice for " + d.getId() + " at " + date + " " + time);
+                        }
+                        slotsCreated += atSlot;
+                    }
+                }
+            }
+            if (slotsCreated != created.get()) {
+                throw new IOException("Created " + created.get() + " slots but found " + slotsCreated);
+            }
+            long[] expectedStock = new long[medicines.length];
+            Arrays.fill(expectedStock, STOCK);
+            for (int i = 0; i < OUTCOMES; i++) {
+                Prescription p = prescriptions.get(i);
+                boolean isDispensed = p.getStatus() == Prescription.Status.DISPENSED;
+                if (dispensed.get(i) != (isDispensed ? 1 : 0)) {
+                    throw new IOException("Prescription for " + p.getAppointmentId() + " was dispensed " + dispensed.get(i) + " times");
+                }
+                Medicine m = db.getAllMedicines().get(p.getMedication());
+                double expectedCost = AppointmentOutcome.APPOINTMENT_BASE_COST + (isDispensed ? m.getMedicineCost() * p.getQuantity() : 0);
+                if (db.getAllAppointmentOutcomes().get(p.getAppointmentId()).getAppointmentCost() != expectedCost) {
+                    throw new IOException("Outcome cost of " + p.getAppointmentId() + " does not match its dispensed prescription");
+                }
+                if (isDispensed) {
+                    expectedStock[Arrays.asList(medicines).indexOf(m)] -= p.getQuantity();
+                }
+            }
+            for (int i = 0; i < REQUESTS; i++) {
+                ReplenishmentRequest r = requests.get(i);
+                boolean isApproved = r.getStatus() == ReplenishmentRequest.ReplenishmentRequestStatus.APPROVED;
+                if (approved.get(i) != (isApproved ? 1 : 0)) {
+                    throw new IOException("Replenishment request " + i + " was approved " + approved.get(i) + " times");
+                }
+                if (isApproved) {
+                    expectedStock[Arrays.asList(medicines).indexOf(db.getAllMedicines().get(r.getMedicineName()))] += r.getRequestAmount();
+                }
+            }
+            for (int m = 0; m < medicines.length; m++) {
+                if (medicines[m].getStock() != expectedStock[m]) {
+                    throw new IOException("Stock of " + medicines[m].getMedicineName() + " is " + medicines[m].getStock() + ", expected " + expectedStock[m]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens many terminal sessions to an HMSServer and leaves them idle at the main menu, as users who have walked away from their terminal
+     * Reports the time until every session has shown its menu, the heap each idle session holds, and the number of live platform threads
+     *
+     * @param counts Numbers of connections to test with
+     * @throws IOException If a connection fails
+     */
+    private static void benchmarkSessions(int[] counts) throws IOException {
+        PrintStream stdout = System.out;
+        // Sessions write through HMSOutput, which only routes System.out once installed
+        HMSOutput.getInstance().install();
+        HMSServer server = new HMSServer(0);
+        server.start();
+        stdout.println("Sessions run on " + (server.usesVirtualThreads() ? "virtual threads" : "platform threads"));
+        stdout.printf("%-12s %12s %16s %10s%n", "Connections", "Time (ms)", "Heap/session (B)", "Threads");
+        byte[] prompt = "Enter your choice: ".getBytes(StandardCharsets.UTF_8);
+        for (int count : counts) {
+            long heapBefore = usedHeap();
+            List<Socket> sockets = new ArrayList<>(count);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sockets.add(new Socket(InetAddress.getLoopbackAddress(), server.getPort()));
+            }
+            for (Socket socket : sockets) {
+                readUntil(socket, prompt);
+            }
+            long nanos = System.nanoTime() - start;
+            long heap = usedHeap() - heapBefore;
+            stdout.printf("%-12d %12.1f %16d %10d%n", count, nanos / 1e6, heap / count, Thread.activeCount());
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            while (server.getSessionCount() > 0) {
+                Thread.onSpinWait();
+            }
+        }
+        server.stop();
+    }
+
+    /** Reads from a socket until a byte sequence has been read */
+    private static void readUntil(Socket socket, byte[] end) throws IOException {
+        InputStream in = socket.getInputStream();
+        int matched = 0;
+        while (matched < end.length) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Session closed before its menu was shown");
+            }
+            matched = b == end[matched] ? matched + 1 : (b == end[0] ? 1 : 0);
+        }
+    }
+
+    /**
+     * Load tests the HTTP API: clients each send one request at a time over keep-alive connections, a mix of patients searching
+     * and requesting slots, cancelling, and pharmacists listing the inventory and dispensing
+     * Reports requests per second and the median and 99th percentile latency, the journal is suspended so no data files are written
+     *
+     * @param clientCounts Numbers of concurrent clients to test with
+     * @throws Exception If the API cannot be started or a request fails with a server error
+     */
+    private static void benchmarkApi(int[] clientCounts) throws Exception {
+        HMSDatabase db = HMSDatabase.getInstance();
+        db.getJournal().setSuspended(true);
+        IHashPassword hasher = new IHashPassword() { };
+        String password = hasher.hashPassword("bench");
+        int maxClients = Arrays.stream(clientCounts).max().orElse(1);
+        Doctor[] doctors = new Doctor[DOCTORS];
+        for (int d = 0; d < DOCTORS; d++) {
+            doctors[d] = new Doctor(String.format("BD%03d", d + 1), "Doctor", "Doctor " + (d + 1), "Male", 40, password, false);
+            db.getUserRegistry().add(doctors[d]);
+        }
+        for (int i = 0; i < maxClients; i++) {
+            db.getUserRegistry().add(new Patient("BP" + i, "Patient", "Patient " + i, "Female", password, false,
+                "O+", LocalDate.of(1980, 1, 1), "patient" + i + "@example.com", ""));
+        }
+        db.getUserRegistry().add(new Pharmacist("BPH1", "Pharmacist", "Pharmacist", "Female", 30, password, false));
+        Medicine medicine = new Medicine("Bench Medicine", 1.5, Integer.MAX_VALUE / 2, 10);
+        db.getAllMedicines().put(medicine.getMedicineName(), medicine);
+        List<Appointment> slots = new ArrayList<>();
+        LocalDate firstDay = LocalDate.now().plusYears(5);
+        for (int i = 0; i < 20_000; i++) {
+            Appointment a = Appointment.createSlot(doctors[i % DOCTORS], firstDay.plusDays(i / DOCTORS / 20),
+                LocalTime.of(8, 0).plusMinutes(30L * (i / DOCTORS % 20)));
+            db.addAppointment(a);
+            slots.add(a);
+        }
+        List<String> prescriptions = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            Appointment a = Appointment.createSlot(doctors[i % DOCTORS], LocalDate.of(2020, 1, 1).plusDays(i / DOCTORS / 20),
+                LocalTime.of(8, 0).plusMinutes(30L * (i / DOCTORS % 20)));
+            db.addAppointment(a);
+            a.restoreState(Appointment.AppointmentStatus.COMPLETED, "BP0");
+            db.addAppointmentOutcome(AppointmentOutcome.createOutcome(a, "Consultation", "None"));
+            db.addPrescription(Prescription.createPrescription(a.getAppointmentId(), medicine.getMedicineName(), 1));
+            prescriptions.add(a.getAppointmentId() + "/0");
+        }
+
+        HMSApi api = new HMSApi(0);
+        api.start();
+        String base = "http://localhost:" + api.getPort() + "/api/";
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(4);
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(clientExecutor)
+            .build();
+        System.out.println("Requests run on " + (api.usesVirtualThreads() ? "virtual threads" : "platform threads"));
+        System.out.printf("%-8s %10s %12s %10s %10s %8s%n", "Clients", "Requests", "Requests/s", "p50 (ms)", "p99 (ms)", "Errors");
+        try {
+            for (int clients : clientCounts) {
+                for (int round = 0; round < 2; round++) {
+                    ExecutorService executor = Executors.newFixedThreadPool(clients);
+                    List<Future<long[]>> results = new ArrayList<>();
+                    int perClient = API_REQUESTS / clients;
+                    AtomicLong errors = new AtomicLong();
+                    long start = System.nanoTime();
+                    for (int c = 0; c < clients; c++) {
+                        final int n = c;
+                        results.add(executor.submit(() -> {
+                            Random random = new Random(n);
+                            String patient = "Basic " + Base64.getEncoder().encodeToString(("BP" + n + ":bench").getBytes(StandardCharsets.UTF_8));
+                            String pharmacist = "Basic " + Base64.getEncoder().encodeToString("BPH1:bench".getBytes(StandardCharsets.UTF_8));
+                            long[] latencies = new long[perClient];
+                            for (int r = 0; r < perClient; r++) {
+                                int choice = random.nextInt(100);
+                                HttpRequest.Builder request;
+                                if (choice < 50) {
+                                    request = HttpRequest.newBuilder(URI.create(base + "slots?limit=10&doctor="
+                                        + doctors[random.nextInt(DOCTORS)].getId())).header("Authorization", patient).GET();
+                                }
+                                else if (choice < 70) {
+                                    request = HttpRequest.newBuilder(URI.create(base + "appointments/"
+                                        + slots.get(random.nextInt(slots.size())).getAppointmentId() + "/request"))
+                                        .header("Authorization", patient).POST(HttpRequest.BodyPublishers.noBody());
+                                }
+                                else if (choice < 80) {
+                                    request = HttpRequest.newBuilder(URI.create(base + "appointments"))
+                                        .header("Authorization", patient).GET();
+                                }
+                                else if (choice < 90) {
+                                    request = HttpRequest.newBuilder(URI.create(base + "medicines"))
+                                        .header("Authorization", pharmacist).GET();
+                                }
+                                else {
+                                    request = HttpRequest.newBuilder(URI.create(base + "prescriptions/"
+                                        + prescriptions.get(random.nextInt(prescriptions.size())) + "/dispense"))
+                                        .header("Authorization", pharmacist).POST(HttpRequest.BodyPublishers.noBody());
+                                }
+                                long sent = System.nanoTime();
+                                HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+                                latencies[r] = System.nanoTime() - sent;
+                                // 409 is an expected answer, the slot or prescription was taken by another client
+                                if (response.statusCode() >= 500 || (response.statusCode() >= 400 && response.statusCode() != 409)) {
+                                    errors.incrementAndGet();
+                                }
+                            }
+                            return latencies;
+                        }));
+                    }
+                    long[] all = new long[perClient * clients];
+                    int k = 0;
+                    for (Future<long[]> result : results) {
+                        for (long latency : result.get()) {
+                            all[k++] = latency;
+                        }
+                    }
+                    long nanos = System.nanoTime() - start;
+                    executor.shutdown();
+                    // The first round warms up
+                    if (round == 1) {
+                        Arrays.sort(all);
+                        System.out.printf("%-8d %10d %12.0f %10.2f %10.2f %8d%n", clients, all.length, all.length / (nanos / 1e9),
+                            all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6, errors.get());
+                    }
+                }
+            }
+        }
+        finally {
+            clientExecutor.shutdown();
+            api.stop();
+        }
+    }
+
+    /**
+     * Writes a patient CSV in the same layout as Patient_List.csv (UTF-8 byte order mark, CRLF line endings)
+     *
+     * @param file The file to write
+     * @param rows Number of patient rows
+     * @param seed Seed for the random generator
+     * @throws IOException If the file cannot be written
+     */
+    private static void writePatientCsv(File file, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        String[] bloodTypes = {"A+", "A-", "B+", "B-", "AB+", "AB-", "O+", "O-"};
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write("\uFEFFPatient ID,Name,Date of Birth,Gender,Blood Type,Contact Information");
+            for (int i = 0; i < rows; i++) {
+                out.write("\r\n");
+                out.write("P" + (1000 + i) + ",Patient " + i + "," + LocalDate.of(1940, 1, 1).plusDays(random.nextInt(30000)) + ","
+                    + (random.nextBoolean() ? "Male" : "Female") + "," + bloodTypes[random.nextInt(bloodTypes.length)]
+                    + ",patient" + i + "@example.com");
+            }
+        }
+    }
+
+    /**
+     * Generates appointments spread over doctors, dates and half-hour slots, with a mix of statuses
+     *
+     * @param count Number of appointments to generate
+     * @param seed Seed for the random generator
+     * @return ArrayList of generated appointments
+     */
+    static ArrayList<Appointment> generateAppointments(int count, long seed) {
+        Random random = new Random(seed);
+        Appointment.AppointmentStatus[] statuses = Appointment.AppointmentStatus.values();
+        LocalDate firstDay = LocalDate.of(2020, 1, 1);
+        ArrayList<Appointment> appointments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int doctor = random.nextInt(DOCTORS);
+            Appointment a = new Appointment(
+                String.format("D%03d", doctor + 1),
+                "Doctor " + (doctor + 1),
+                firstDay.plusDays(random.nextInt(2000)),
+                LocalTime.of(8, 0).plusMinutes(30L * random.nextInt(20)));
+            Appointment.AppointmentStatus status = statuses[random.nextInt(statuses.length)];
+            String patientId = status == Appointment.AppointmentStatus.OPEN ? null : "P" + (1000 + random.nextInt(PATIENTS));
+            a.restoreState(status, patientId);
+            appointments.add(a);
+        }
+        return appointments;
+    }
+
+    /** Parses the sizes given after the benchmark name, or returns the defaults */
+    private static int[] sizes(String[] args, int... defaults) {
+        if (args.length < 2) {
+            return defaults;
+        }
+        int[] sizes = new int[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+        return sizes;
+    }
+
+    /** Prints one CSV import result row */
+    private static void printRows(int size, String reader, long nanos) {
+        System.out.printf("%-12d %-14s %12.1f %14.0f%n", size, reader, nanos / 1e6, size / (nanos / 1e9));
+    }
+
+    /** Prints one result row */
+    private static void print(int size, String format, long saveNanos, long loadNanos, long bytes) {
+        System.out.printf("%-12d %-14s %12.1f %12.1f %14d%n", size, format, saveNanos / 1e6, loadNanos / 1e6, bytes);
+    }
+}
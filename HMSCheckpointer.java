@@ -0,0 +1,94 @@
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+* Saves HMSDatabase snapshots in the background, so the interactive session never waits for a full save
+* Checkpoints run on an interval and whenever requested (e.g. on logout); requests that arrive while one is already queued are coalesced into a single save
+*/
+public class HMSCheckpointer {
+    /** Default number of seconds between checkpoints, overridden with -Dhms.checkpoint.interval */
+    public static final long DEFAULT_INTERVAL_SECONDS = 60;
+
+    /** Single background thread that performs the saves */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "hms-checkpoint");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** True while a checkpoint is queued but has not started yet */
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    /** Time of the last successful checkpoint (or of loading the data) in milliseconds */
+    private volatile long lastCheckpointMillis = System.currentTimeMillis();
+
+    /** Database to checkpoint */
+    private final HMSDatabase db;
+
+    /**
+     * Creates a checkpointer for a database
+     * @param db The database to checkpoint
+     */
+    public HMSCheckpointer(HMSDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Starts periodic checkpoints
+     * @param intervalSeconds Number of seconds between checkpoints
+     */
+    public void start(long intervalSeconds) {
+        lastCheckpointMillis = System.currentTimeMillis();
+        executor.scheduleWithFixedDelay(this::requestCheckpoint, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Requests a checkpoint without waiting for it
+     * Does nothing if a checkpoint is already queued, as that one will include the latest changes
+     */
+    public void requestCheckpoint() {
+        if (pending.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::checkpoint);
+            } catch (RejectedExecutionException e) {
+                // Stopped, the final save on exit covers the changes
+                pending.set(false);
+            }
+        }
+    }
+
+    /**
+     * Saves the database on the background thread
+     */
+    private void checkpoint() {
+        // Clear first, so a request arriving during the save queues another one
+        pending.set(false);
+        if (db.save()) {
+            lastCheckpointMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Gets how long ago the last successful checkpoint finished
+     * @return Duration Time since the last checkpoint
+     */
+    public Duration getTimeSinceLastCheckpoint() {
+        return Duration.ofMillis(System.currentTimeMillis() - lastCheckpointMillis);
+    }
+
+    /**
+     * Stops periodic checkpoints and waits for a checkpoint in progress to finish
+     */
+    public void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
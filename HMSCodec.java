@@ -0,0 +1,340 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+* Compact versioned binary format used for the entity snapshot files
+* Each file is [magic][version][entity data], where entity data is written by the codec of the entity class (see e.g. Appointment.encode)
+* Strings are length-prefixed UTF-8, numbers are variable-length, dates are epoch days and enums are ordinals
+* Strings that repeat across records (doctor, patient and medicine references) are written once per file and then referenced by index
+*/
+public class HMSCodec {
+    /** Magic number at the start of every snapshot file ("HMSB") */
+    public static final int MAGIC = 0x484D5342;
+
+    /** Version of the format written by this codec */
+    public static final int VERSION = 1;
+
+    /** First two bytes of a file written by ObjectOutputStream (the format used before this codec) */
+    private static final int LEGACY_MAGIC = 0xACED;
+
+    /** Size of the read and write buffers */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writes the entity data of a file
+     */
+    public interface Encoder {
+        void encode(Writer out) throws IOException;
+    }
+
+    /**
+     * Reads the entity data of a file
+     */
+    public interface Decoder<T> {
+        T decode(Reader in) throws IOException;
+    }
+
+    /**
+     * Writes a snapshot file in the binary format
+     * The data is written to a temporary file and synced to disk before it is renamed over the target, so the target is never left half-written
+     *
+     * @param file The file to write
+     * @param encoder Writes the entity data
+     * @return boolean True if the file was written, false otherwise
+     */
+    public static boolean write(File file, Encoder encoder) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream os = new FileOutputStream(temp)) {
+                Writer out = new Writer(os);
+                encoder.encode(out);
+                out.flush();
+                os.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Reads a snapshot file
+     * Files written with ObjectOutputStream by earlier versions are still read, and are rewritten in the binary format on the next save
+     *
+     * @param file The file to read
+     * @param decoder Reads the entity data
+     * @return The decoded data, or null if reading fails
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T read(File file, Decoder<T> decoder) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            is.mark(2);
+            int header = (is.read() << 8) | is.read();
+            is.reset();
+            if (header == LEGACY_MAGIC) {
+                ObjectInputStream ois = new ObjectInputStream(is);
+                return (T) ois.readObject();
+            }
+            return decoder.decode(new Reader(is));
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Writes primitives, strings and dates in the binary format
+     */
+    public static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+
+        /**
+         * Creates a writer and writes the file header
+         * @param os Stream to write to
+         * @throws IOException If the header cannot be written
+         */
+        public Writer(OutputStream os) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        /** Writes an unsigned int in 1-5 bytes, 7 bits at a time */
+        public void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        /** Writes an unsigned long in 1-10 bytes, 7 bits at a time */
+        public void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        /** Writes a signed int, small negative values stay small */
+        public void writeSignedVarInt(int value) throws IOException {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        /** Writes a signed long, small negative values stay small */
+        public void writeSignedVarLong(long value) throws IOException {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /** Writes a single byte, used for enum ordinals */
+        public void writeByte(int value) throws IOException {
+            out.writeByte(value);
+        }
+
+        /** Writes a boolean */
+        public void writeBoolean(boolean value) throws IOException {
+            out.writeBoolean(value);
+        }
+
+        /** Writes a double */
+        public void writeDouble(double value) throws IOException {
+            out.writeDouble(value);
+        }
+
+        /** Writes a length-prefixed string, which may be null */
+        public void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            out.write(bytes);
+        }
+
+        /**
+         * Writes a string that is likely to repeat, such as an ID or a name
+         * The first occurrence is written in full, later ones as an index into the strings already written
+         */
+        public void writeRef(String s) throws IOException {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            Integer index = dictionary.get(s);
+            if (index != null) {
+                writeVarInt(index + 2);
+                return;
+            }
+            dictionary.put(s, dictionary.size());
+            writeVarInt(1);
+            writeString(s);
+        }
+
+        /** Writes a date as its epoch day */
+        public void writeDate(LocalDate date) throws IOException {
+            writeSignedVarLong(date.toEpochDay());
+        }
+
+        /** Writes a time as its second of the day */
+        public void writeTime(LocalTime time) throws IOException {
+            writeVarInt(time.toSecondOfDay());
+        }
+
+        /** Writes a date and time as epoch seconds and nanoseconds */
+        public void writeDateTime(LocalDateTime dateTime) throws IOException {
+            writeSignedVarLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+            writeVarInt(dateTime.getNano());
+        }
+
+        /** Flushes buffered data to the underlying stream */
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads primitives, strings and dates written by Writer
+     */
+    public static class Reader {
+        private final DataInputStream in;
+        private final ArrayList<String> dictionary = new ArrayList<>();
+
+        /**
+         * Creates a reader and checks the file header
+         * @param is Stream to read from
+         * @throws IOException If the header is missing or the version is not supported
+         */
+        public Reader(InputStream is) throws IOException {
+            this.in = new DataInputStream(is instanceof BufferedInputStream ? is : new BufferedInputStream(is, BUFFER_SIZE));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an HMS data file");
+            }
+            int version = in.readUnsignedByte();
+            if (version > VERSION) {
+                throw new IOException("Unsupported HMS data file version " + version);
+            }
+        }
+
+        /** Reads an int written by writeVarInt */
+        public int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable-length int");
+        }
+
+        /** Reads a long written by writeVarLong */
+        public long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable-length long");
+        }
+
+        /** Reads an int written by writeSignedVarInt */
+        public int readSignedVarInt() throws IOException {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /** Reads a long written by writeSignedVarLong */
+        public long readSignedVarLong() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /** Reads a single byte */
+        public int readByte() throws IOException {
+            return in.readUnsignedByte();
+        }
+
+        /** Reads a boolean */
+        public boolean readBoolean() throws IOException {
+            return in.readBoolean();
+        }
+
+        /** Reads a double */
+        public double readDouble() throws IOException {
+            return in.readDouble();
+        }
+
+        /** Reads a string written by writeString */
+        public String readString() throws IOException {
+            int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Reads a string written by writeRef, repeated strings share one instance */
+        public String readRef() throws IOException {
+            int tag = readVarInt();
+            if (tag == 0) {
+                return null;
+            }
+            if (tag == 1) {
+                String s = readString();
+                dictionary.add(s);
+                return s;
+            }
+            if (tag - 2 >= dictionary.size()) {
+                throw new IOException("Unknown string reference " + (tag - 2));
+            }
+            return dictionary.get(tag - 2);
+        }
+
+        /** Reads a date written by writeDate */
+        public LocalDate readDate() throws IOException {
+            return LocalDate.ofEpochDay(readSignedVarLong());
+        }
+
+        /** Reads a time written by writeTime */
+        public LocalTime readTime() throws IOException {
+            return LocalTime.ofSecondOfDay(readVarInt());
+        }
+
+        /** Reads a date and time written by writeDateTime */
+        public LocalDateTime readDateTime() throws IOException {
+            long epochSecond = readSignedVarLong();
+            return LocalDateTime.ofEpochSecond(epochSecond, readVarInt(), ZoneOffset.UTC);
+        }
+    }
+}
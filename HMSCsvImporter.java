@@ -0,0 +1,357 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+* Streaming importer for the CSV files used to initialize the Hospital Management System
+* The file is read in large chunks that end on a row boundary, and chunks are parsed into records in parallel while the next chunk is read
+* Records are handed to the caller in file order, so only a few chunks are ever held in memory
+* Handles a UTF-8 byte order mark, CRLF or LF line endings, blank lines and quoted fields (which may contain commas, quotes as "" and line breaks)
+* Rows that cannot be parsed are reported with their line number instead of stopping the import
+*/
+public class HMSCsvImporter {
+    /** Size of each chunk read from the file */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /** Number of errors kept in full, later ones are only counted */
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    /**
+     * Turns the fields of one row into a record
+     * Throw any exception (e.g. IllegalArgumentException or DateTimeParseException) to reject the row
+     */
+    public interface RowParser<T> {
+        T parse(String[] fields) throws Exception;
+    }
+
+    /**
+     * Summary of an import: how many rows were imported and which rows were rejected
+     */
+    public static class Report {
+        private final String fileName;
+        private int imported;
+        private int rejected;
+        private final List<String> errors = new ArrayList<>();
+
+        Report(String fileName) {
+            this.fileName = fileName;
+        }
+
+        /**
+         * Gets the number of rows imported
+         * @return int Number of rows imported
+         */
+        public int getImported() {
+            return this.imported;
+        }
+
+        /**
+         * Gets the number of rows rejected
+         * @return int Number of rows rejected
+         */
+        public int getRejected() {
+            return this.rejected;
+        }
+
+        /**
+         * Gets the error messages of the first rejected rows, as "line N: message"
+         * @return List of error messages
+         */
+        public List<String> getErrors() {
+            return this.errors;
+        }
+
+        /**
+         * Prints the number of rows imported and the errors of any rejected rows
+         */
+        public void print() {
+            System.out.println("Imported " + imported + " rows from " + fileName + (rejected > 0 ? ", rejected " + rejected : ""));
+            for (String error : errors) {
+                System.out.println("  " + fileName + " " + error);
+            }
+            if (rejected > errors.size()) {
+                System.out.println("  ... and " + (rejected - errors.size()) + " more");
+            }
+        }
+
+        private void reject(String error) {
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(error);
+            }
+            rejected++;
+        }
+    }
+
+    /**
+     * Rows of one chunk after parsing
+     */
+    private static class ParsedChunk<T> {
+        private final List<T> records = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+    }
+
+    /**
+     * Imports a CSV file, skipping its header row
+     *
+     * @param file The CSV file to read
+     * @param columns Number of columns every row must have
+     * @param parser Turns the fields of a row into a record
+     * @param consumer Receives the records in file order, on the calling thread
+     * @param executor Executor that parses the chunks
+     * @return Report Summary of the import
+     * @throws IOException If the file cannot be read
+     */
+    public static <T> Report importFile(File file, int columns, RowParser<T> parser, Consumer<T> consumer, ExecutorService executor) throws IOException {
+        Report report = new Report(file.getName());
+        // Bound the chunks in flight, so memory does not grow with the file
+        int maxInFlight = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+        ArrayDeque<Future<ParsedChunk<T>>> inFlight = new ArrayDeque<>();
+
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] carry = new byte[0];
+            int line = 1;
+            boolean first = true;
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1 || carry.length > 0) {
+                byte[] data;
+                if (read == -1) {
+                    data = carry;
+                }
+                else {
+                    data = new byte[carry.length + read];
+                    System.arraycopy(carry, 0, data, 0, carry.length);
+                    System.arraycopy(buffer, 0, data, carry.length, read);
+                }
+                int start = 0;
+                if (first) {
+                    first = false;
+                    start = skipBom(data);
+                    // The header row
+                    int headerEnd = rowEnd(data, start, data.length, read == -1);
+                    if (headerEnd < 0) {
+                        carry = data;
+                        first = true;
+                        continue;
+                    }
+                    line += countLines(data, start, headerEnd);
+                    start = headerEnd;
+                }
+
+                // Split after the last complete row, the rest is carried into the next chunk
+                int end = read == -1 ? data.length : lastRowEnd(data, start);
+                if (end > start) {
+                    byte[] chunk = Arrays.copyOfRange(data, start, end);
+                    int chunkLine = line;
+                    inFlight.add(executor.submit(() -> parseChunk(chunk, chunkLine, columns, parser)));
+                    line += countLines(data, start, end);
+                }
+                carry = Arrays.copyOfRange(data, end, data.length);
+                if (read == -1) {
+                    carry = new byte[0];
+                }
+
+                while (inFlight.size() >= maxInFlight) {
+                    drain(inFlight.poll(), consumer, report);
+                }
+            }
+        }
+        finally {
+            // Deliver the chunks still being parsed
+            while (!inFlight.isEmpty()) {
+                drain(inFlight.poll(), consumer, report);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Hands the records of a parsed chunk to the consumer and adds its errors to the report
+     */
+    private static <T> void drain(Future<ParsedChunk<T>> future, Consumer<T> consumer, Report report) throws IOException {
+        ParsedChunk<T> chunk;
+        try {
+            chunk = future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Failed to parse chunk", e.getCause());
+        }
+        for (T record : chunk.records) {
+            consumer.accept(record);
+        }
+        report.imported += chunk.records.size();
+        for (String error : chunk.errors) {
+            report.reject(error);
+        }
+    }
+
+    /**
+     * Parses every row of a chunk, collecting rejected rows as errors
+     *
+     * @param chunk Bytes of complete rows
+     * @param firstLine Line number of the first row in the chunk
+     */
+    private static <T> ParsedChunk<T> parseChunk(byte[] chunk, int firstLine, int columns, RowParser<T> parser) {
+        ParsedChunk<T> parsed = new ParsedChunk<>();
+        String text = new String(chunk, StandardCharsets.UTF_8);
+        int n = text.length();
+        int line = firstLine;
+        int i = 0;
+        while (i < n) {
+            int rowLine = line;
+            // Parse one row into a fresh array, the parser may keep it
+            String[] fields = new String[columns];
+            int count = 0;
+            while (true) {
+                String field;
+                if (i < n && text.charAt(i) == '"') {
+                    // Quoted field, "" is a literal quote
+                    StringBuilder quoted = new StringBuilder();
+                    i++;
+                    while (i < n) {
+                        char c = text.charAt(i++);
+                        if (c == '"') {
+                            if (i < n && text.charAt(i) == '"') {
+                                quoted.append('"');
+                                i++;
+                                continue;
+                            }
+                            break;
+                        }
+                        if (c == '\n') {
+                            line++;
+                        }
+                        quoted.append(c);
+                    }
+                    // Anything between the closing quote and the next separator is kept
+                    int start = i;
+                    while (i < n && !isSeparator(text.charAt(i))) {
+                        i++;
+                    }
+                    field = start == i ? quoted.toString() : quoted.append(text, start, i).toString();
+                }
+                else {
+                    int start = i;
+                    while (i < n && !isSeparator(text.charAt(i))) {
+                        i++;
+                    }
+                    field = text.substring(start, i);
+                }
+                if (count < columns) {
+                    fields[count] = field;
+                }
+                count++;
+                if (i < n && text.charAt(i) == ',') {
+                    i++;
+                    continue;
+                }
+                break;
+            }
+            // End of row: CRLF, LF, CR or end of chunk
+            if (i < n && text.charAt(i) == '\r') {
+                i++;
+            }
+            if (i < n && text.charAt(i) == '\n') {
+                i++;
+            }
+            line++;
+
+            if (count == 1 && fields[0].trim().isEmpty()) {
+                // Blank line
+                continue;
+            }
+            if (count != columns) {
+                parsed.errors.add("line " + rowLine + ": expected " + columns + " columns but found " + count);
+                continue;
+            }
+            try {
+                parsed.records.add(parser.parse(fields));
+            }
+            catch (Exception e) {
+                parsed.errors.add("line " + rowLine + ": " + e.getMessage());
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Checks whether a character ends a field
+     */
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * Gets the offset after a UTF-8 byte order mark, or 0 if there is none
+     */
+    private static int skipBom(byte[] data) {
+        if (data.length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+            return 3;
+        }
+        return 0;
+    }
+
+    /**
+     * Finds the end of the row starting at an offset, i.e. the offset after its line break
+     * @return int The end of the row, or -1 if the row is not complete in the data (unless atEnd)
+     */
+    private static int rowEnd(byte[] data, int start, int limit, boolean atEnd) {
+        boolean quoted = false;
+        for (int i = start; i < limit; i++) {
+            byte b = data[i];
+            if (b == '"') {
+                quoted = !quoted;
+            }
+            else if (b == '\n' && !quoted) {
+                return i + 1;
+            }
+        }
+        return atEnd ? limit : -1;
+    }
+
+    /**
+     * Finds the end of the last complete row in the data, tracking quotes so line breaks inside quoted fields are not row ends
+     * @return int Offset after the last row break outside quotes, or start if there is none
+     */
+    private static int lastRowEnd(byte[] data, int start) {
+        boolean quoted = false;
+        int end = start;
+        for (int i = start; i < data.length; i++) {
+            byte b = data[i];
+            if (b == '"') {
+                quoted = !quoted;
+            }
+            else if (b == '\n' && !quoted) {
+                end = i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Counts the line breaks in a range of bytes
+     */
+    private static int countLines(byte[] data, int start, int end) {
+        int lines = 0;
+        for (int i = start; i < end; i++) {
+            if (data[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
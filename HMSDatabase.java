@@ -1,78 +1,223 @@
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 /**
 * Singleton class that serves as the central data repository for the Hospital Management System
 * Manages all system data including users, appointments, medical records, prescriptions and medicine inventory
+* The database is shared by concurrent sessions: the collections can be read without locking while other sessions add to them,
+* additions are serialized on the database, and check-then-act sequences on an entity take the entity's lock (see lockFor)
+* Changes to a doctor's appointments are made on the doctor's booking partition instead (see getBookingPartitions)
+* Compound changes to an appointment's outcome, prescriptions and status are made in full or not at all (see HMSTransaction)
 */
 public class HMSDatabase {
-    // Singleton instance
-    private static HMSDatabase instance;
+    /** Number of striped locks handed out by lockFor */
+    private static final int LOCK_STRIPES = 64;
 
-    /** List of all users in the system */
-    private ArrayList<User> allUsers = new ArrayList<>();
+    /** All users in the system, keyed by ID with a view per role */
+    private volatile UserRegistry userRegistry = new UserRegistry();
 
     /** List of all appointments in the system */
-    private ArrayList<Appointment> allAppointments = new ArrayList<>();
+    private volatile AppendOnlyList<Appointment> allAppointments = new AppendOnlyList<>();
 
     /** List of all replenishment requests in the system */
-    private ArrayList<ReplenishmentRequest> allReplenishmentRequests = new ArrayList<>();
+    private volatile AppendOnlyList<ReplenishmentRequest> allReplenishmentRequests = new AppendOnlyList<>();
 
     /** Map of appointment outcomes with appointment ID as key */
-    private Map<String, AppointmentOutcome> allAppointmentOutcomes = new HashMap<>();
+    private volatile Map<String, AppointmentOutcome> allAppointmentOutcomes = new ConcurrentHashMap<>();
 
-    /** Map of prescriptions with appointment ID as key */
-    private Map<String, ArrayList<Prescription>> allPrescriptions = new HashMap<>();
+    /** Map of prescriptions with appointment ID as key, each list is replaced rather than changed once it is in the map */
+    private volatile Map<String, ArrayList<Prescription>> allPrescriptions = new ConcurrentHashMap<>();
 
-    /** Map of medical records with patient ID as key */
-    private Map<String, ArrayList<MedicalRecord>> allMedicalRecords = new HashMap<>();
+    /** Map of medical records with patient ID as key, each list is replaced rather than changed once it is in the map */
+    private volatile Map<String, ArrayList<MedicalRecord>> allMedicalRecords = new ConcurrentHashMap<>();
 
     /** Map of medicines with medicine name as key */
-    private Map<String, Medicine> allMedicines = new HashMap<>();
+    private volatile Map<String, Medicine> allMedicines = new ConcurrentHashMap<>();
+
+    /** Locks for check-then-act sequences, shared by the keys that hash to the same stripe */
+    private final ReentrantLock[] lockStripes = new ReentrantLock[LOCK_STRIPES];
+
+    /** Generations of the snapshot files and their manifests */
+    private final HMSSnapshot snapshot = new HMSSnapshot(new File("."));
+
+    /** Lookups of appointments by doctor, patient, status and slot */
+    private final AppointmentIndex appointmentIndex = new AppointmentIndex();
+
+    /** Prescriptions waiting to be dispensed */
+    private final PrescriptionQueue prescriptionQueue = new PrescriptionQueue();
+
+    /** Replenishment requests waiting for approval */
+    private final ReplenishmentQueue replenishmentQueue = new ReplenishmentQueue();
+
+    /** Allocator of staff and appointment IDs */
+    private final HMSIdAllocator idAllocator = new HMSIdAllocator();
+
+    /** Write-ahead journal of mutations made since the last snapshot */
+    private final HMSJournal journal = new HMSJournal("journal.dat");
+
+    /** Writers of the doctors' appointment changes, overridden with -Dhms.booking.partitions */
+    private final BookingPartitions bookingPartitions = new BookingPartitions(this,
+        Integer.getInteger("hms.booking.partitions", BookingPartitions.DEFAULT_PARTITIONS));
+
+    /** Bounded pool that reads and writes the snapshot files in parallel */
+    private final ExecutorService ioExecutor = Executors.newFixedThreadPool(
+        Math.min(DataFile.values().length, Runtime.getRuntime().availableProcessors()),
+        r -> {
+            Thread t = new Thread(r, "hms-io");
+            t.setDaemon(true);
+            return t;
+        });
+
+    /** Snapshot files whose data changed since the last save, guarded by its own lock */
+    private final EnumSet<DataFile> dirtyFiles = EnumSet.noneOf(DataFile.class);
+
+    /** Snapshot files left untouched by the last save because nothing in them changed */
+    private volatile List<DataFile> lastSkippedFiles = new ArrayList<>();
+
+    /** Lock held for a whole save, so a background checkpoint and the save on exit never overlap */
+    private final Object saveLock = new Object();
+
+    /** Background checkpoint service */
+    private final HMSCheckpointer checkpointer = new HMSCheckpointer(this);
+
+    /**
+     * Snapshot files written by save(), one per entity collection
+     */
+    public static enum DataFile {
+        /** Patients */
+        PATIENT("patient.dat"),
+        /** Doctors */
+        DOCTOR("doctor.dat"),
+        /** Pharmacists */
+        PHARMACIST("pharmacist.dat"),
+        /** Administrators */
+        ADMINISTRATOR("administrator.dat"),
+        /** Appointments */
+        APPOINTMENTS("appointments.dat"),
+        /** Appointment outcomes */
+        APPOINTMENT_OUTCOMES("appointmentOutcomes.dat"),
+        /** Prescriptions */
+        PRESCRIPTIONS("prescriptions.dat"),
+        /** Medical records */
+        MEDICAL_RECORDS("medicalRecords.dat"),
+        /** Medicines */
+        MEDICINES("medicines.dat"),
+        /** Replenishment requests */
+        REPLENISHMENT_REQUESTS("replenishmentRequests.dat"),
+        /** ID allocator counters, missing from snapshots written before it existed */
+        SEQUENCES("sequences.dat", true);
+
+        /** Name of the file on disk */
+        private final String fileName;
+
+        /** Whether a snapshot may lack this file */
+        private final boolean optional;
+
+        DataFile(String fileName) {
+            this(fileName, false);
+        }
+
+        DataFile(String fileName, boolean optional) {
+            this.fileName = fileName;
+            this.optional = optional;
+        }
+
+        /**
+         * Gets the name of the file on disk
+         * @return String The file name
+         */
+        public String getFileName() {
+            return this.fileName;
+        }
+
+        /**
+         * Checks whether a snapshot may lack this file, in which case its data is rebuilt from the other files
+         * @return boolean True if the file is optional
+         */
+        public boolean isOptional() {
+            return this.optional;
+        }
+
+        /**
+         * Gets the file holding users of a role
+         * @param role The user's role
+         * @return DataFile The file the user is saved in
+         */
+        public static DataFile forRole(String role) {
+            if (role.equals("Patient")) {
+                return PATIENT;
+            }
+            else if (role.equals("Doctor")) {
+                return DOCTOR;
+            }
+            else if (role.equals("Pharmacist")) {
+                return PHARMACIST;
+            }
+            return ADMINISTRATOR;
+        }
+    }
 
     /** Private constructor to initialize data structures */
     private HMSDatabase() {
-        allUsers = new ArrayList<>();
-        allAppointments = new ArrayList<>();
-        allReplenishmentRequests = new ArrayList<>();
-        allAppointmentOutcomes = new HashMap<>();
-        allPrescriptions = new HashMap<>();
-        allMedicalRecords = new HashMap<>();
-        allMedicines = new HashMap<>();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            lockStripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Holds the singleton instance, created by the JVM's class initialization the first time getInstance is called,
+     * which also publishes it safely to every thread without locking on each call
+     */
+    private static final class Holder {
+        private static final HMSDatabase INSTANCE = new HMSDatabase();
     }
 
    /**
     * Gets the singleton instance of HMSDatabase.
-    * Creates a new instance if none exists.
+    * Creates the instance on first use.
     *
     * @return The singleton HMSDatabase instance
     */
     public static HMSDatabase getInstance() {
-        if (instance == null) {
-            instance = new HMSDatabase();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 
     /**
-    * Gets the list of all users in the system.
-    * @return ArrayList<User> List containing all system users
+    * Gets all users in the system.
+    * @return Collection<User> Read-only view of all system users
     */
-    public ArrayList<User> getAllUsers() { return allUsers; }
+    public Collection<User> getAllUsers() { return userRegistry.all(); }
     /**
-    * Gets the list of all appointments.
-    * @return ArrayList<Appointment> List containing all appointments
+    * Gets the user registry, for lookups by ID and by role.
+    * @return UserRegistry The user registry
     */
-    public ArrayList<Appointment> getAllAppointments() { return allAppointments; }
+    public UserRegistry getUserRegistry() { return userRegistry; }
     /**
-    * Gets the list of all replenishment requests.
-    * @return ArrayList<ReplenishmentRequest> List containing all replenishment requests
+    * Gets the list of all appointments, which only grows and can be read while other sessions add to it.
+    * @return List<Appointment> List containing all appointments
     */
-    public ArrayList<ReplenishmentRequest> getAllReplenishmentRequests() { return allReplenishmentRequests; }
+    public List<Appointment> getAllAppointments() { return allAppointments; }
+    /**
+    * Gets the list of all replenishment requests, which only grows and can be read while other sessions add to it.
+    * @return List<ReplenishmentRequest> List containing all replenishment requests
+    */
+    public List<ReplenishmentRequest> getAllReplenishmentRequests() { return allReplenishmentRequests; }
     /**
     * Gets the map of appointment outcomes indexed by appointment ID.
     * @return Map<String, AppointmentOutcome> Map of appointment outcomes
@@ -93,191 +238,596 @@ public class HMSDatabase {
     * @return Map<String, Medicine> Map of medicines
     */
     public Map<String, Medicine> getAllMedicines() { return allMedicines; }
+    /**
+    * Gets the write-ahead journal of mutations since the last snapshot.
+    * @return HMSJournal The database journal
+    */
+    public HMSJournal getJournal() { return journal; }
+    /**
+    * Gets the appointment index, for lookups by doctor, patient, status and slot.
+    * @return AppointmentIndex The appointment index
+    */
+    public AppointmentIndex getAppointmentIndex() { return appointmentIndex; }
+    /**
+    * Gets the booking partitions, which make each doctor's appointment changes one at a time.
+    * @return BookingPartitions The booking partitions
+    */
+    public BookingPartitions getBookingPartitions() { return bookingPartitions; }
+    /**
+    * Gets the queue of prescriptions waiting to be dispensed.
+    * @return PrescriptionQueue The pending prescription queue
+    */
+    public PrescriptionQueue getPrescriptionQueue() { return prescriptionQueue; }
+    /**
+    * Gets the queue of replenishment requests waiting for approval.
+    * @return ReplenishmentQueue The pending replenishment request queue
+    */
+    public ReplenishmentQueue getReplenishmentQueue() { return replenishmentQueue; }
+    /**
+    * Gets the allocator of staff, patient and appointment IDs.
+    * @return HMSIdAllocator The ID allocator
+    */
+    public HMSIdAllocator getIdAllocator() { return idAllocator; }
+    /**
+    * Gets the background checkpoint service.
+    * @return HMSCheckpointer The checkpoint service
+    */
+    public HMSCheckpointer getCheckpointer() { return checkpointer; }
+    /**
+    * Gets the files that the last save skipped because their data had not changed.
+    * @return List<DataFile> Files skipped by the last save
+    */
+    public List<DataFile> getLastSkippedFiles() { return lastSkippedFiles; }
+
+    /**
+    * Gets the lock for a check-then-act sequence on an entity, e.g. checking a doctor's calendar before adding a slot.
+    * Keys that hash to the same stripe share a lock, so a session must not hold two stripes at once.
+    * @param key The key of the entity, e.g. a doctor or appointment ID
+    * @return Lock The lock of the key's stripe
+    */
+    public Lock lockFor(String key) {
+        int h = key.hashCode();
+        return lockStripes[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+    * Marks a snapshot file as changed so the next save rewrites it.
+    * @param f The file whose data changed
+    */
+    public void markDirty(DataFile f) {
+        synchronized (dirtyFiles) {
+            dirtyFiles.add(f);
+        }
+    }
+
+    /*
+    * Structural changes to the collections are synchronized on the database, so a checkpoint can copy them consistently
+    * Lists in the maps are replaced by a copy with the new element, so sessions reading the old list are not disturbed
+    * Within a transaction (see HMSTransaction) each addition registers its removal, in case the transaction is undone
+    */
+
+   /**
+    * Adds a new appointment slot and records it in the journal.
+    * @param a The appointment to add
+    */
+    public synchronized void addAppointment(Appointment a) {
+        allAppointments.add(a);
+        appointmentIndex.add(a);
+        journal.logNewAppointment(a);
+    }
+    /**
+    * Adds the outcome of an appointment and records it in the journal.
+    * @param ao The appointment outcome to add
+    */
+    public synchronized void addAppointmentOutcome(AppointmentOutcome ao) {
+        AppointmentOutcome previous = allAppointmentOutcomes.put(ao.getAppointmentId(), ao);
+        journal.logNewOutcome(ao);
+        HMSTransaction.onUndo(() -> {
+            synchronized (this) {
+                if (previous == null) {
+                    allAppointmentOutcomes.remove(ao.getAppointmentId(), ao);
+                }
+                else {
+                    allAppointmentOutcomes.replace(ao.getAppointmentId(), ao, previous);
+                }
+            }
+        });
+    }
+    /**
+    * Adds a prescription to its appointment and records it in the journal.
+    * @param p The prescription to add
+    */
+    public synchronized void addPrescription(Prescription p) {
+        ArrayList<Prescription> previous = allPrescriptions.get(p.getAppointmentId());
+        ArrayList<Prescription> pList = withElement(previous, p);
+        allPrescriptions.put(p.getAppointmentId(), pList);
+        prescriptionQueue.add(p, allAppointmentOutcomes.get(p.getAppointmentId()));
+        journal.logNewPrescription(p, pList.size() - 1);
+        HMSTransaction.onUndo(() -> {
+            synchronized (this) {
+                prescriptionQueue.remove(p);
+                if (previous == null) {
+                    allPrescriptions.remove(p.getAppointmentId(), pList);
+                }
+                else {
+                    allPrescriptions.replace(p.getAppointmentId(), pList, previous);
+                }
+            }
+        });
+    }
+    /**
+    * Adds a medical record to its patient and records it in the journal.
+    * @param mr The medical record to add
+    */
+    public synchronized void addMedicalRecord(MedicalRecord mr) {
+        ArrayList<MedicalRecord> records = withElement(allMedicalRecords.get(mr.getPatientId()), mr);
+        allMedicalRecords.put(mr.getPatientId(), records);
+        journal.logNewMedicalRecord(mr, records.size() - 1);
+    }
+    /**
+    * Copies a list with an element added to its end.
+    */
+    private static <T> ArrayList<T> withElement(ArrayList<T> list, T element) {
+        ArrayList<T> copy = new ArrayList<>(list == null ? 1 : list.size() + 1);
+        if (list != null) {
+            copy.addAll(list);
+        }
+        copy.add(element);
+        return copy;
+    }
+    /**
+    * Adds a replenishment request and records it in the journal.
+    * @param r The replenishment request to add
+    */
+    public synchronized void addReplenishmentRequest(ReplenishmentRequest r) {
+        allReplenishmentRequests.add(r);
+        replenishmentQueue.add(r, allReplenishmentRequests.size() - 1);
+        journal.logNewReplenishmentRequest(r, allReplenishmentRequests.size() - 1);
+    }
+    /**
+    * Adds a staff member and records it in the journal.
+    * @param s The staff member to add
+    */
+    public synchronized void addStaff(Staff s) {
+        userRegistry.add(s);
+        journal.logUserAdd(s);
+    }
+    /**
+    * Removes a user and records it in the journal.
+    * @param u The user to remove
+    */
+    public synchronized void removeUser(User u) {
+        userRegistry.remove(u);
+        journal.logUserRemove(u);
+    }
 
    /**
     * Initializes the database with data from CSV files
+    * The files are streamed through HMSCsvImporter, rows that cannot be imported (e.g. an unknown staff role) are reported and skipped
     * After loading, saves the initialized data through serialization
-    *
-    * @throws FileNotFoundException If any required CSV file is missing
-    * @throws IllegalArgumentException If an unknown staff role is encountered
     */
     public void initialize() {
+        // Each file is imported on its own, so one that is missing or unreadable only loses its own rows
         // Initialize Patient_List.csv
-        ArrayList<Patient> allPatients = new ArrayList<Patient>();
-        try (Scanner scanner = new Scanner(new File("Patient_List.csv"))) {
-            // Skip Title
-            scanner.nextLine();
-            // Set Delimiters
-            scanner.useDelimiter(",|\\n");
-            while (scanner.hasNext()) 
-            {  
-                String p_Id = scanner.next();
-                String p_Name = scanner.next();
-                String p_DOB = scanner.next();
-                LocalDate p_parsedDOB = LocalDate.parse(p_DOB);
-                String p_Gender = scanner.next();
-                String p_BloodType = scanner.next();
-                String p_ContactInformation = scanner.next();
-
-                Patient p = new Patient(p_Id, "Patient", p_Name, p_Gender, p_BloodType, p_parsedDOB, p_ContactInformation);
-                allPatients.add(p);
-            }   
-        } catch (FileNotFoundException e) {
+        try {
+            HMSCsvImporter.importFile(new File("Patient_List.csv"), 6, fields -> {
+                LocalDate p_parsedDOB = LocalDate.parse(fields[2].trim());
+                return new Patient(fields[0].trim(), "Patient", fields[1].trim(), fields[3].trim(), fields[4].trim(), p_parsedDOB, fields[5].trim());
+            }, userRegistry::add, ioExecutor).print();
+        } catch (IOException e) {
             e.printStackTrace();
         }
 
-        // Put Patient_List into Users
-        for (Patient p : allPatients) {
-            allUsers.add((User) p);
-        }
-
         // Initialize Staff_List.csv
-        ArrayList<Staff> allStaff = new ArrayList<Staff>();
-
-        try (Scanner scanner = new Scanner(new File("Staff_List.csv"))) {
-            // Skip Title
-            scanner.nextLine();
-            // Set Delimiters
-            scanner.useDelimiter(",|\\n");
-            while (scanner.hasNext())
-            {  
-                String s_Id = scanner.next();
-                String s_Name = scanner.next();
-                String s_Role = scanner.next();
-                String s_Gender = scanner.next();
-                int s_Age = Integer.parseInt(scanner.next().trim());
-
-                Staff s;
+        try {
+            HMSCsvImporter.importFile(new File("Staff_List.csv"), 5, fields -> {
+                String s_Id = fields[0].trim();
+                String s_Name = fields[1].trim();
+                String s_Role = fields[2].trim();
+                String s_Gender = fields[3].trim();
+                int s_Age = Integer.parseInt(fields[4].trim());
+
                 if (s_Role.equals("Doctor")) {
-                    s = new Doctor(s_Id, s_Role, s_Name, s_Gender, s_Age);
+                    return new Doctor(s_Id, s_Role, s_Name, s_Gender, s_Age);
                 }
                 else if (s_Role.equals("Pharmacist")){
-                    s = new Pharmacist(s_Id, s_Role, s_Name, s_Gender, s_Age);
+                    return new Pharmacist(s_Id, s_Role, s_Name, s_Gender, s_Age);
                 }
                 else if (s_Role.equals("Administrator")){
-                    s = new Administrator(s_Id, s_Role, s_Name, s_Gender, s_Age);
+                    return new Administrator(s_Id, s_Role, s_Name, s_Gender, s_Age);
                 }
                 else {
                     throw new IllegalArgumentException("Unknown staff role: " + s_Role);
                 }
-                allStaff.add(s);
-            }   
-        } catch (FileNotFoundException e) {
+            }, userRegistry::add, ioExecutor).print();
+        } catch (IOException e) {
             e.printStackTrace();
         }
 
-        // Put Staff list into Users
-        for (Staff s : allStaff) {
-            
-            allUsers.add((User) s);
-        }
-
         // Initialize Medicine_List.csv
-        try (Scanner scanner = new Scanner(new File("Medicine_List.csv"))) {
-            // Skip Title
-            scanner.nextLine();
-            // Set Delimiters
-            scanner.useDelimiter(",|\\n");
-            while (scanner.hasNext()) 
-            {  
-                String m_Name = scanner.next();
-                double m_Cost = Double.parseDouble(scanner.next().trim());
-                int m_InitialStock = Integer.parseInt(scanner.next().trim());
-                int m_LowStockAlert = Integer.parseInt(scanner.next().trim());
-
-                Medicine m = new Medicine(m_Name, m_Cost, m_InitialStock, m_LowStockAlert);
-                allMedicines.put(m_Name, m);
-            }   
-        } catch (FileNotFoundException e) {
+        try {
+            HMSCsvImporter.importFile(new File("Medicine_List.csv"), 4, fields -> {
+                String m_Name = fields[0].trim();
+                double m_Cost = Double.parseDouble(fields[1].trim());
+                int m_InitialStock = Integer.parseInt(fields[2].trim());
+                int m_LowStockAlert = Integer.parseInt(fields[3].trim());
+                return new Medicine(m_Name, m_Cost, m_InitialStock, m_LowStockAlert);
+            }, m -> allMedicines.put(m.getMedicineName(), m), ioExecutor).print();
+        } catch (IOException e) {
             e.printStackTrace();
         }
+        idAllocator.observeAll(userRegistry.all(), allAppointments);
 
+        // Everything is new, write every file
+        synchronized (dirtyFiles) {
+            dirtyFiles.addAll(EnumSet.allOf(DataFile.class));
+        }
         save();
     }
 
    /**
-    * Saves all system data through serialization
+    * Saves system data through serialization
+    * Only the files whose data changed since the last save are rewritten, the rest are skipped (see getLastSkippedFiles)
+    * The changed files are written in parallel on the I/O executor
+    * Safe to call from a background thread: the journal is rotated first and the collections are copied under the database lock, so the session can keep working while the files are written
+    * Both wait for running transactions to end. The entities themselves are shared and read while the files are written, so a transaction
+    * running meanwhile may be written and later undone, its undo then records the restored state in the journal after this snapshot (see HMSTransaction.onUndo)
+    * Changed files are written under new names for the next generation, which is committed by writing its manifest once every file is on disk (see HMSSnapshot)
+    * A crash at any point leaves the previous generation intact, and the journal segments before the new one are only deleted after the new generation is committed
     * @return boolean True if save successful, false if any errors occur
     */
     public boolean save() {
-        try {
-            // Populate Staff and Patients
-            ArrayList<Patient> allPatients = new ArrayList<>();
-            ArrayList<Doctor> allDoctor = new ArrayList<>();
-            ArrayList<Pharmacist> allPharmacist = new ArrayList<>();
-            ArrayList<Administrator> allAdministrator = new ArrayList<>();
-            for (User u : allUsers) {
-                if (u.getRole().equals("Patient")) {
-                    allPatients.add((Patient) u);
+        synchronized (saveLock) {
+            long generation = snapshot.nextGenerationNumber();
+            Map<DataFile, File> files = new EnumMap<>(DataFile.class);
+            ArrayList<DataFile> toWrite = new ArrayList<>();
+            ArrayList<DataFile> skipped = new ArrayList<>();
+            Map<DataFile, Callable<Boolean>> writers = new EnumMap<>(DataFile.class);
+            Lock transactions = HMSTransaction.checkpointLock();
+            transactions.lock();
+            try {
+                // Later entries go to a fresh journal segment, the earlier ones are covered by this snapshot
+                journal.rotate(generation);
+
+                // Clear before writing so a change made during the write marks it again
+                synchronized (dirtyFiles) {
+                    for (DataFile f : DataFile.values()) {
+                        if (dirtyFiles.remove(f)) {
+                            toWrite.add(f);
+                        }
+                        else {
+                            skipped.add(f);
+                        }
+                    }
+                }
+                synchronized (this) {
+                    for (DataFile f : toWrite) {
+                        File file = snapshot.newFile(f, generation);
+                        files.put(f, file);
+                        writers.put(f, capture(f, file));
+                    }
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                for (DataFile f : toWrite) {
+                    markDirty(f);
+                }
+                return false;
+            }
+            finally {
+                transactions.unlock();
+            }
+
+            boolean saved = true;
+            Map<DataFile, Future<Boolean>> writes = new EnumMap<>(DataFile.class);
+            for (Map.Entry<DataFile, Callable<Boolean>> writer : writers.entrySet()) {
+                writes.put(writer.getKey(), ioExecutor.submit(writer.getValue()));
+            }
+
+            // Wait for every file, any that failed stays dirty
+            for (Map.Entry<DataFile, Future<Boolean>> write : writes.entrySet()) {
+                boolean written;
+                try {
+                    written = write.getValue().get();
+                }
+                catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    written = false;
                 }
-                else if (u.getRole().equals("Doctor")){
-                    allDoctor.add((Doctor) u);
+                if (!written) {
+                    markDirty(write.getKey());
+                    saved = false;
                 }
-                else if (u.getRole().equals("Pharmacist")){
-                    allPharmacist.add((Pharmacist) u);
+            }
+            // Commit the generation only if every file made it to disk
+            if (saved && !toWrite.isEmpty()) {
+                try {
+                    snapshot.commit(generation, files);
                 }
-                else if (u.getRole().equals("Administrator")){
-                    allAdministrator.add((Administrator) u);
+                catch (IOException e) {
+                    e.printStackTrace();
+                    for (DataFile f : toWrite) {
+                        markDirty(f);
+                    }
+                    saved = false;
                 }
             }
+            lastSkippedFiles = skipped;
+            // Keep the journal segments of every generation still on disk, so loading can fall back to it with nothing lost
+            if (saved && !toWrite.isEmpty()) {
+                journal.discardBefore(snapshot.oldestGenerationNumber());
+            }
+            return saved;
+        }
+    }
 
-            // Serialize
-            Patient.serialize(allPatients);
-            Doctor.serialize(allDoctor);
-            Pharmacist.serialize(allPharmacist);
-            Administrator.serialize(allAdministrator);
-            Appointment.serialize(allAppointments);
-            AppointmentOutcome.serialize(allAppointmentOutcomes); 
-            Prescription.serialize(allPrescriptions);
-            MedicalRecord.serialize(allMedicalRecords);
-            Medicine.serialize(allMedicines);
-            ReplenishmentRequest.serialize(allReplenishmentRequests);
+   /**
+    * Copies the data belonging to one snapshot file, must be called while holding the database lock
+    * @param f The file to capture
+    * @param file The file on disk to write the copy to
+    * @return Callable that serializes the copy and returns true if successful
+    */
+    private Callable<Boolean> capture(DataFile f, File file) {
+        switch (f) {
+            case PATIENT: {
+                ArrayList<Patient> patients = usersWithRole("Patient");
+                return () -> Patient.serialize(patients, file);
+            }
+            case DOCTOR: {
+                ArrayList<Doctor> doctors = usersWithRole("Doctor");
+                return () -> Doctor.serialize(doctors, file);
+            }
+            case PHARMACIST: {
+                ArrayList<Pharmacist> pharmacists = usersWithRole("Pharmacist");
+                return () -> Pharmacist.serialize(pharmacists, file);
+            }
+            case ADMINISTRATOR: {
+                ArrayList<Administrator> administrators = usersWithRole("Administrator");
+                return () -> Administrator.serialize(administrators, file);
+            }
+            case APPOINTMENTS: {
+                ArrayList<Appointment> appointments = new ArrayList<>(allAppointments);
+                return () -> Appointment.serialize(appointments, file);
+            }
+            case APPOINTMENT_OUTCOMES: {
+                Map<String, AppointmentOutcome> appointmentOutcomes = new HashMap<>(allAppointmentOutcomes);
+                return () -> AppointmentOutcome.serialize(appointmentOutcomes, file);
+            }
+            case PRESCRIPTIONS: {
+                Map<String, ArrayList<Prescription>> prescriptions = copyOfLists(allPrescriptions);
+                return () -> Prescription.serialize(prescriptions, file);
+            }
+            case MEDICAL_RECORDS: {
+                Map<String, ArrayList<MedicalRecord>> medicalRecords = copyOfLists(allMedicalRecords);
+                return () -> MedicalRecord.serialize(medicalRecords, file);
+            }
+            case MEDICINES: {
+                Map<String, Medicine> medicines = new HashMap<>(allMedicines);
+                return () -> Medicine.serialize(medicines, file);
+            }
+            case REPLENISHMENT_REQUESTS: {
+                ArrayList<ReplenishmentRequest> replenishmentRequests = new ArrayList<>(allReplenishmentRequests);
+                return () -> ReplenishmentRequest.serialize(replenishmentRequests, file);
+            }
+            case SEQUENCES: {
+                Map<HMSIdAllocator.Sequence, Long> counters = idAllocator.getCounters();
+                return () -> HMSIdAllocator.serialize(counters, file);
+            }
+            default:
+                return () -> false;
         }
-        catch (Exception e) {
-            e.printStackTrace();
-            return false;
+    }
+
+   /**
+    * Copies a map of lists, including the lists themselves
+    * @param map The map to copy
+    * @return Map with copies of every list
+    */
+    private static <T> Map<String, ArrayList<T>> copyOfLists(Map<String, ArrayList<T>> map) {
+        Map<String, ArrayList<T>> copy = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<String, ArrayList<T>> entry : map.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
         }
-        return true;
+        return copy;
+    }
+
+   /**
+    * Copies the users with the given role
+    * @param role The role to copy
+    * @return ArrayList of the users with that role, cast to the role's class
+    */
+    @SuppressWarnings("unchecked")
+    private <T extends User> ArrayList<T> usersWithRole(String role) {
+        return new ArrayList<>((Collection<T>) userRegistry.withRole(role));
     }
 
    /**
-    * Loads all system data from serialized files
+    * Loads all system data from serialized files, then replays the journal on top of the snapshot
+    * Loads the newest generation whose files all match its manifest, falling back to older generations if a file is missing or corrupt
+    * A fallback replays the journal segments since the older generation, and refuses to start if any of them is missing rather than lose the newer changes
+    * The files are read in parallel on the I/O executor, and the database is only replaced once every file has loaded
     * @return boolean True if load successful, false if any errors occur
     */
     public boolean load() {
+        List<HMSSnapshot.Generation> generations = snapshot.listGenerations();
+        if (generations.isEmpty()) {
+            System.out.println("No saved data found");
+            return false;
+        }
+        long newest = snapshot.newestGenerationNumber();
+        for (HMSSnapshot.Generation g : generations) {
+            try {
+                load(g);
+            }
+            catch (Exception e) {
+                System.out.println("Snapshot generation " + g.getNumber() + " is damaged: " + e.getMessage());
+                continue;
+            }
+            if (g.getNumber() < newest) {
+                // Falling back is only safe if the journal holds every change the newer generations hold
+                if (!journal.coversSince(g.getNumber(), newest)) {
+                    System.out.println("Snapshot generation " + newest + " is damaged, and the journal since generation " + g.getNumber()
+                        + " is incomplete, so loading generation " + g.getNumber() + " would lose changes");
+                    System.out.println("Repair or restore manifest." + newest + " and the files it lists, or move them aside to start from generation "
+                        + g.getNumber() + " without those changes");
+                    return false;
+                }
+                System.out.println("Loading generation " + g.getNumber() + " and the journal since, in place of damaged generation " + newest);
+            }
+            snapshot.setCurrent(g);
+            try {
+                // Reapply changes made after the snapshot
+                int replayed = journal.replay(this, g.getNumber());
+                if (replayed > 0) {
+                    System.out.println("Recovered " + replayed + " changes from journal");
+                }
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+                return false;
+            }
+            idAllocator.observeAll(userRegistry.all(), allAppointments);
+            int migrated = migrateAppointmentIds();
+            if (migrated > 0) {
+                // Save straight away, so the journal never mixes old and new IDs
+                System.out.println("Migrated " + migrated + " appointment IDs to sequence numbers");
+                if (!save()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+   /**
+    * Loads the files of one snapshot generation, replacing the database contents only if all of them load
+    * @param g The generation to load
+    * @throws IOException If any file is missing, corrupt or cannot be read
+    */
+    private void load(HMSSnapshot.Generation g) throws IOException {
+        // Read every file at once
+        Future<ArrayList<Patient>> patients = read(g, DataFile.PATIENT, Patient::deserialize);
+        Future<ArrayList<Doctor>> doctors = read(g, DataFile.DOCTOR, Doctor::deserialize);
+        Future<ArrayList<Pharmacist>> pharmacists = read(g, DataFile.PHARMACIST, Pharmacist::deserialize);
+        Future<ArrayList<Administrator>> administrators = read(g, DataFile.ADMINISTRATOR, Administrator::deserialize);
+        Future<ArrayList<Appointment>> appointments = read(g, DataFile.APPOINTMENTS, Appointment::deserialize);
+        Future<Map<String, AppointmentOutcome>> appointmentOutcomes = read(g, DataFile.APPOINTMENT_OUTCOMES, AppointmentOutcome::deserialize);
+        Future<Map<String, ArrayList<Prescription>>> prescriptions = read(g, DataFile.PRESCRIPTIONS, Prescription::deserialize);
+        Future<Map<String, ArrayList<MedicalRecord>>> medicalRecords = read(g, DataFile.MEDICAL_RECORDS, MedicalRecord::deserialize);
+        Future<Map<String, Medicine>> medicines = read(g, DataFile.MEDICINES, Medicine::deserialize);
+        Future<ArrayList<ReplenishmentRequest>> replenishmentRequests = read(g, DataFile.REPLENISHMENT_REQUESTS, ReplenishmentRequest::deserialize);
+        Future<Map<HMSIdAllocator.Sequence, Long>> sequences = g.has(DataFile.SEQUENCES)
+            ? read(g, DataFile.SEQUENCES, HMSIdAllocator::deserialize) : null;
+
+        // Join, failing if any file could not be read
+        UserRegistry loadedUsers = new UserRegistry();
+        join(patients, DataFile.PATIENT).forEach(loadedUsers::add);
+        join(doctors, DataFile.DOCTOR).forEach(loadedUsers::add);
+        join(pharmacists, DataFile.PHARMACIST).forEach(loadedUsers::add);
+        join(administrators, DataFile.ADMINISTRATOR).forEach(loadedUsers::add);
+        ArrayList<Appointment> loadedAppointments = join(appointments, DataFile.APPOINTMENTS);
+        Map<String, AppointmentOutcome> loadedAppointmentOutcomes = join(appointmentOutcomes, DataFile.APPOINTMENT_OUTCOMES);
+        Map<String, ArrayList<Prescription>> loadedPrescriptions = join(prescriptions, DataFile.PRESCRIPTIONS);
+        Map<String, ArrayList<MedicalRecord>> loadedMedicalRecords = join(medicalRecords, DataFile.MEDICAL_RECORDS);
+        Map<String, Medicine> loadedMedicines = join(medicines, DataFile.MEDICINES);
+        ArrayList<ReplenishmentRequest> loadedReplenishmentRequests = join(replenishmentRequests, DataFile.REPLENISHMENT_REQUESTS);
+        Map<HMSIdAllocator.Sequence, Long> loadedSequences = sequences == null ? new EnumMap<>(HMSIdAllocator.Sequence.class) : join(sequences, DataFile.SEQUENCES);
+
+        // Every file loaded, replace the database contents
+        userRegistry = loadedUsers;
+        allAppointments = new AppendOnlyList<>(loadedAppointments);
+        allAppointmentOutcomes = new ConcurrentHashMap<>(loadedAppointmentOutcomes);
+        allPrescriptions = new ConcurrentHashMap<>(loadedPrescriptions);
+        allMedicalRecords = new ConcurrentHashMap<>(loadedMedicalRecords);
+        allMedicines = new ConcurrentHashMap<>(loadedMedicines);
+        allReplenishmentRequests = new AppendOnlyList<>(loadedReplenishmentRequests);
+        appointmentIndex.rebuild(allAppointments);
+        prescriptionQueue.rebuild(allPrescriptions, allAppointmentOutcomes);
+        replenishmentQueue.rebuild(allReplenishmentRequests);
+        idAllocator.setCounters(loadedSequences);
+        if (sequences == null) {
+            // Older snapshot, the counters are rebuilt from the IDs in use and saved next time
+            markDirty(DataFile.SEQUENCES);
+        }
+    }
+
+   /**
+    * Gives appointments that still have UUIDs from before the ID allocator a sequence number, rekeying their outcomes and prescriptions
+    * @return int Number of appointments given a new ID
+    */
+    private synchronized int migrateAppointmentIds() {
+        int migrated = 0;
+        for (Appointment a : allAppointments) {
+            String oldId = a.getAppointmentId();
+            if (HMSIdAllocator.isSequenceId(oldId)) {
+                continue;
+            }
+            String newId = idAllocator.next(HMSIdAllocator.Sequence.APPOINTMENT);
+            a.migrateId(newId);
+            AppointmentOutcome ao = allAppointmentOutcomes.remove(oldId);
+            if (ao != null) {
+                ao.migrateAppointmentId(newId);
+                allAppointmentOutcomes.put(newId, ao);
+            }
+            ArrayList<Prescription> pList = allPrescriptions.remove(oldId);
+            if (pList != null) {
+                for (Prescription p : pList) {
+                    p.migrateAppointmentId(newId);
+                }
+                allPrescriptions.put(newId, pList);
+            }
+            migrated++;
+        }
+        if (migrated > 0) {
+            appointmentIndex.rebuild(allAppointments);
+            prescriptionQueue.rebuild(allPrescriptions, allAppointmentOutcomes);
+            markDirty(DataFile.APPOINTMENTS);
+            markDirty(DataFile.APPOINTMENT_OUTCOMES);
+            markDirty(DataFile.PRESCRIPTIONS);
+        }
+        return migrated;
+    }
+
+   /**
+    * Starts reading one file of a generation on the I/O executor, after checking it against the manifest
+    * @param g The generation being loaded
+    * @param f The file to read
+    * @param reader Deserializes the file, returning null on failure
+    * @return Future holding the loaded data
+    */
+    private <T> Future<T> read(HMSSnapshot.Generation g, DataFile f, Function<File, T> reader) {
+        return ioExecutor.submit(() -> {
+            g.verify(f);
+            return reader.apply(g.fileFor(f));
+        });
+    }
+
+   /**
+    * Waits for a file to finish loading
+    * @param loading The pending load
+    * @param f The file being loaded
+    * @return The loaded data
+    * @throws IOException If the file could not be read
+    */
+    private static <T> T join(Future<T> loading, DataFile f) throws IOException {
+        T loaded;
         try {
-            // Deserialize everyone
-            ArrayList<Patient> allPatients = Patient.deserialize();
-            ArrayList<Doctor> allDoctors = Doctor.deserialize();
-            ArrayList<Pharmacist> allPharmacists = Pharmacist.deserialize();
-            ArrayList<Administrator> allAdministrators = Administrator.deserialize();
-            
-            // Downcast
-            for (Patient p : allPatients) {
-                allUsers.add((User) p);
-            }
-            for (Doctor d : allDoctors) {
-                allUsers.add((User) d);
-            }
-            for (Pharmacist ph : allPharmacists) {
-                allUsers.add((User)(Staff) ph);
-            }
-            for (Administrator a : allAdministrators) {
-                allUsers.add((User)(Staff) a);
-            }
-
-            allAppointments = Appointment.deserialize();
-            allAppointmentOutcomes = AppointmentOutcome.deserialize();
-            allPrescriptions = Prescription.deserialize();
-            allMedicalRecords = MedicalRecord.deserialize();
-            allMedicines = Medicine.deserialize();
-            allReplenishmentRequests = ReplenishmentRequest.deserialize();
+            loaded = loading.get();
         }
-        catch (Exception e) {
-            e.printStackTrace();
-            return false;
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + f.getFileName(), e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Failed to load " + f.getFileName() + ": " + e.getCause().getMessage(), e.getCause());
         }
-        return true;
+        if (loaded == null) {
+            throw new IOException("Failed to load " + f.getFileName());
+        }
+        return loaded;
     }
+
     
 }
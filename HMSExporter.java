@@ -0,0 +1,257 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+* Exports the appointment history, joined with appointment outcomes and prescriptions, for use outside the system
+* Rows are written one appointment at a time through a buffered writer straight from the database collections, so memory use does not grow with the number of rows
+* CSV has one row per prescription (or one row for an appointment without prescriptions), NDJSON has one JSON object per appointment with its prescriptions nested
+*/
+public class HMSExporter {
+    /** Size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Header row of the CSV format */
+    private static final String CSV_HEADER = "Appointment ID,Doctor ID,Doctor Name,Patient ID,Date,Time,Status,"
+        + "Outcome Date Time,Services Provided,Consultation Notes,Cost,Medication,Quantity,Prescription Status";
+
+    /**
+     * Output formats supported by the exporter
+     */
+    public static enum Format {
+        CSV,
+        NDJSON;
+
+        /**
+         * Gets a format by name, ignoring case
+         * @param name The format name, "csv" or "ndjson"
+         * @return Format The matching format
+         * @throws IllegalArgumentException If the name is not a supported format
+         */
+        public static Format parse(String name) {
+            return Format.valueOf(name.toUpperCase());
+        }
+    }
+
+    /**
+     * Exports appointments to a file
+     *
+     * @param db The database to export from
+     * @param format The output format
+     * @param file The file to write
+     * @param from First appointment date to include, or null for no lower bound
+     * @param to Last appointment date to include, or null for no upper bound
+     * @return int Number of appointments exported
+     * @throws IOException If the file cannot be written
+     */
+    public static int export(HMSDatabase db, Format format, File file, LocalDate from, LocalDate to) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return export(db, format, out, from, to);
+        }
+    }
+
+    /**
+     * Exports appointments to a writer
+     *
+     * @param db The database to export from
+     * @param format The output format
+     * @param out The writer to write to, which should be buffered
+     * @param from First appointment date to include, or null for no lower bound
+     * @param to Last appointment date to include, or null for no upper bound
+     * @return int Number of appointments exported
+     * @throws IOException If writing fails
+     */
+    public static int export(HMSDatabase db, Format format, Writer out, LocalDate from, LocalDate to) throws IOException {
+        List<Appointment> appointments = db.getAllAppointments();
+        Map<String, AppointmentOutcome> outcomes = db.getAllAppointmentOutcomes();
+        Map<String, ArrayList<Prescription>> prescriptions = db.getAllPrescriptions();
+
+        if (format == Format.CSV) {
+            out.write(CSV_HEADER);
+            out.write("\r\n");
+        }
+        int exported = 0;
+        StringBuilder row = new StringBuilder(256);
+        for (int i = 0; i < appointments.size(); i++) {
+            Appointment a = appointments.get(i);
+            LocalDate date = a.getAppointmentDate();
+            if ((from != null && date.isBefore(from)) || (to != null && date.isAfter(to))) {
+                continue;
+            }
+            // Render the appointment, its outcome and its prescriptions as one, never halfway through a transaction changing them
+            HMSTransaction.read(a.getAppointmentId(), () -> {
+                row.setLength(0);
+                AppointmentOutcome outcome = outcomes.get(a.getAppointmentId());
+                List<Prescription> pList = prescriptions.get(a.getAppointmentId());
+                if (format == Format.CSV) {
+                    renderCsv(row, a, outcome, pList);
+                }
+                else {
+                    renderJson(row, a, outcome, pList);
+                }
+                return row;
+            });
+            out.append(row);
+            exported++;
+        }
+        out.flush();
+        return exported;
+    }
+
+    /**
+     * Renders the CSV rows of one appointment
+     */
+    private static void renderCsv(StringBuilder row, Appointment a, AppointmentOutcome outcome, List<Prescription> pList) {
+        csv(row, a.getAppointmentId()).append(',');
+        csv(row, a.getDoctorId()).append(',');
+        csv(row, a.getDoctorName()).append(',');
+        csv(row, a.getPatientId()).append(',');
+        row.append(a.getAppointmentDate()).append(',');
+        row.append(a.getAppointmentTime()).append(',');
+        row.append(a.getAppointmentStatus()).append(',');
+        if (outcome != null) {
+            row.append(outcome.getOutcomeDateTime()).append(',');
+            csv(row, outcome.getServicesProvided()).append(',');
+            csv(row, outcome.getConsultationNotes()).append(',');
+            row.append(outcome.getAppointmentCost()).append(',');
+        }
+        else {
+            row.append(",,,,");
+        }
+
+        if (pList == null || pList.isEmpty()) {
+            row.append(",,\r\n");
+            return;
+        }
+        // One row per prescription, repeating the appointment columns
+        String columns = row.toString();
+        for (int i = 0; i < pList.size(); i++) {
+            Prescription p = pList.get(i);
+            if (i > 0) {
+                row.append(columns);
+            }
+            csv(row, p.getMedication()).append(',');
+            row.append(p.getQuantity()).append(',');
+            row.append(p.getStatus()).append("\r\n");
+        }
+    }
+
+    /**
+     * Renders the JSON line of one appointment
+     */
+    private static void renderJson(StringBuilder row, Appointment a, AppointmentOutcome outcome, List<Prescription> pList) {
+        row.append("{\"appointmentId\":");
+        json(row, a.getAppointmentId());
+        row.append(",\"doctorId\":");
+        json(row, a.getDoctorId());
+        row.append(",\"doctorName\":");
+        json(row, a.getDoctorName());
+        row.append(",\"patientId\":");
+        json(row, a.getPatientId());
+        row.append(",\"date\":\"").append(a.getAppointmentDate());
+        row.append("\",\"time\":\"").append(a.getAppointmentTime());
+        row.append("\",\"status\":\"").append(a.getAppointmentStatus()).append('"');
+        row.append(",\"outcome\":");
+        if (outcome != null) {
+            row.append("{\"dateTime\":\"").append(outcome.getOutcomeDateTime());
+            row.append("\",\"servicesProvided\":");
+            json(row, outcome.getServicesProvided());
+            row.append(",\"consultationNotes\":");
+            json(row, outcome.getConsultationNotes());
+            row.append(",\"cost\":").append(outcome.getAppointmentCost()).append('}');
+        }
+        else {
+            row.append("null");
+        }
+        row.append(",\"prescriptions\":[");
+        if (pList != null) {
+            for (int i = 0; i < pList.size(); i++) {
+                Prescription p = pList.get(i);
+                if (i > 0) {
+                    row.append(',');
+                }
+                row.append("{\"medication\":");
+                json(row, p.getMedication());
+                row.append(",\"quantity\":").append(p.getQuantity());
+                row.append(",\"status\":\"").append(p.getStatus()).append("\"}");
+            }
+        }
+        row.append("]}\n");
+    }
+
+    /**
+     * Appends a CSV field, quoting it if it contains a separator, quote or line break
+     */
+    private static StringBuilder csv(StringBuilder out, String value) {
+        if (value == null) {
+            return out;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.append(value);
+            return out;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+        return out;
+    }
+
+    /**
+     * Appends a JSON string, or null, also used by HMSRenderer
+     */
+    static void json(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        out.append('"');
+    }
+}
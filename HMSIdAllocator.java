@@ -0,0 +1,216 @@
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Hands out IDs for new staff and appointments from per-sequence counters
+* Counters only move forward, including past IDs seen in the loaded data and in staff added since the snapshot (replayed from the journal),
+* so an ID is never given out twice even after its user is removed
+* Patients keep the IDs they are registered with (P1001), which share the pharmacists' prefix, so a staff ID that is already a user's is skipped
+* The counters are saved with the snapshot (sequences.dat) and are safe to use from several threads
+*/
+public class HMSIdAllocator {
+    /** Counter of each sequence, holding the last number given out */
+    private final Map<Sequence, AtomicLong> counters = new EnumMap<>(Sequence.class);
+
+    /**
+     * The ID sequences, each with its prefix and the number of digits its IDs are padded to
+     */
+    public static enum Sequence {
+        /** Doctors, D001 */
+        DOCTOR("D", 3),
+        /** Pharmacists, P001 */
+        PHARMACIST("P", 3),
+        /** Administrators, A001 */
+        ADMINISTRATOR("A", 3),
+        /** Appointments, plain numbers */
+        APPOINTMENT("", 1);
+
+        private final String prefix;
+        private final int digits;
+
+        Sequence(String prefix, int digits) {
+            this.prefix = prefix;
+            this.digits = digits;
+        }
+
+        /**
+         * Gets the sequence of a user role
+         * @param role The role name, e.g. "Doctor"
+         * @return Sequence The sequence users of that role take IDs from, or null for patients, who are not given IDs
+         */
+        public static Sequence forRole(String role) {
+            if (role.equals("Doctor")) {
+                return DOCTOR;
+            }
+            else if (role.equals("Pharmacist")) {
+                return PHARMACIST;
+            }
+            else if (role.equals("Administrator")) {
+                return ADMINISTRATOR;
+            }
+            return null;
+        }
+
+        /**
+         * Formats a number as an ID of this sequence
+         * @param number The number
+         * @return String The ID, e.g. D007
+         */
+        String format(long number) {
+            String digitsOnly = Long.toString(number);
+            StringBuilder id = new StringBuilder(prefix.length() + Math.max(digits, digitsOnly.length())).append(prefix);
+            for (int i = digitsOnly.length(); i < digits; i++) {
+                id.append('0');
+            }
+            return id.append(digitsOnly).toString();
+        }
+
+        /**
+         * Reads the number of an ID of this sequence
+         * @param id The ID
+         * @return long The number, or -1 if the ID is not of this sequence's form
+         */
+        long parse(String id) {
+            if (id == null || id.length() <= prefix.length() || !id.startsWith(prefix) || id.length() - prefix.length() > 18) {
+                return -1;
+            }
+            long number = 0;
+            for (int i = prefix.length(); i < id.length(); i++) {
+                char c = id.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                number = number * 10 + (c - '0');
+            }
+            return number;
+        }
+    }
+
+    /**
+     * Constructs an allocator with every counter at zero
+     */
+    public HMSIdAllocator() {
+        for (Sequence s : Sequence.values()) {
+            counters.put(s, new AtomicLong());
+        }
+    }
+
+    /**
+     * Gives out the next ID of a sequence
+     * @param s The sequence
+     * @return String The new ID
+     */
+    public String next(Sequence s) {
+        HMSDatabase db = HMSDatabase.getInstance();
+        String id = s.format(counters.get(s).incrementAndGet());
+        // From P1000 on, pharmacist IDs take the form of patient IDs
+        while (s != Sequence.APPOINTMENT && db.getUserRegistry().get(id) != null) {
+            id = s.format(counters.get(s).incrementAndGet());
+        }
+        db.markDirty(HMSDatabase.DataFile.SEQUENCES);
+        return id;
+    }
+
+    /**
+     * Moves a counter past an ID that is already in use
+     * @param s The sequence the ID belongs to
+     * @param id The ID, ignored if it is not of the sequence's form (e.g. a UUID)
+     */
+    public void observe(Sequence s, String id) {
+        long number = s.parse(id);
+        if (number > 0) {
+            counters.get(s).accumulateAndGet(number, Math::max);
+        }
+    }
+
+    /**
+     * Moves the counters past every ID in use by users and appointments
+     * @param users All users, patients are skipped
+     * @param appointments All appointments
+     */
+    public void observeAll(Iterable<? extends User> users, Iterable<Appointment> appointments) {
+        for (User u : users) {
+            Sequence s = Sequence.forRole(u.getRole());
+            if (s != null) {
+                observe(s, u.getId());
+            }
+        }
+        for (Appointment a : appointments) {
+            observe(Sequence.APPOINTMENT, a.getAppointmentId());
+        }
+    }
+
+    /**
+     * Checks whether an appointment ID was given out by this allocator, rather than a UUID from before it existed
+     * @param appointmentId The appointment ID
+     * @return boolean True if the ID is a sequence number
+     */
+    public static boolean isSequenceId(String appointmentId) {
+        return Sequence.APPOINTMENT.parse(appointmentId) > 0;
+    }
+
+    /**
+     * Gets the last number given out by each sequence
+     * @return Map of each sequence's counter
+     */
+    public Map<Sequence, Long> getCounters() {
+        Map<Sequence, Long> values = new EnumMap<>(Sequence.class);
+        for (Map.Entry<Sequence, AtomicLong> e : counters.entrySet()) {
+            values.put(e.getKey(), e.getValue().get());
+        }
+        return values;
+    }
+
+    /**
+     * Sets the counters, e.g. from a loaded snapshot
+     * @param values The counter of each sequence, sequences missing from the map are set to zero
+     */
+    public void setCounters(Map<Sequence, Long> values) {
+        for (Sequence s : Sequence.values()) {
+            counters.get(s).set(values.getOrDefault(s, 0L));
+        }
+    }
+
+    /**
+     * Deserializes counters from a file
+     *
+     * @param file The file to read
+     * @return Map of each sequence's counter, or null if deserialization fails
+     */
+    protected static Map<Sequence, Long> deserialize(File file) {
+        return HMSCodec.read(file, in -> {
+            Map<Sequence, Long> values = new EnumMap<>(Sequence.class);
+            int count = in.readVarInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readString();
+                long value = in.readVarLong();
+                for (Sequence s : Sequence.values()) {
+                    // Sequences this version does not know about are dropped
+                    if (s.name().equals(name)) {
+                        values.put(s, value);
+                    }
+                }
+            }
+            return values;
+        });
+    }
+
+    /**
+     * Serializes counters to a file
+     *
+     * @param values The counter of each sequence
+     * @param file The file to write
+     * @return true if serialization is successful, false otherwise
+     */
+    protected static boolean serialize(Map<Sequence, Long> values, File file) {
+        return HMSCodec.write(file, out -> {
+            out.writeVarInt(values.size());
+            for (Map.Entry<Sequence, Long> e : values.entrySet()) {
+                out.writeString(e.getKey().name());
+                out.writeVarLong(e.getValue());
+            }
+        });
+    }
+}
@@ -1,32 +1,74 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Scanner;
 /**
 * Manages the Hospital Management System scanner input
+* Console output is flushed before each read of input, so a screen is written out once, just before the system waits for the user
+* A thread serving a terminal session (see HMSServer) binds the session's input, the menus on that thread then read from it instead of System.in
 */
 public class HMSInput {
-    // Singleton instance
-    private static HMSInput instance;
+    // Input of the session served by the current thread, if any
+    private static final ThreadLocal<HMSInput> SESSION = new ThreadLocal<>();
     private final Scanner scanner;
-    
+
     // Private constructor to prevent instantiation
-    private HMSInput() {
-        scanner = new Scanner(System.in);
+    private HMSInput(InputStream in) {
+        scanner = new Scanner(new FlushingInputStream(in));
     }
-    
+
+    // Console instance, created on first use
+    private static final class Console {
+        private static final HMSInput INSTANCE = new HMSInput(System.in);
+    }
+
+    /**
+     * Input stream that writes out buffered console output before reading
+     */
+    private static final class FlushingInputStream extends FilterInputStream {
+        FlushingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            System.out.flush();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            System.out.flush();
+            return super.read(b, off, len);
+        }
+    }
+
    /**
-    * Gets the singleton instance of HMSInput
-    * Creates a new instance with an initialized Scanner if none exists
+    * Gets the HMSInput of the session served by the current thread, or the console singleton instance outside a session
     *
-    * @return The singleton HMSInput instance
+    * @return The HMSInput to read from
     */
     public static HMSInput getInstance() {
-        if (instance == null) {
-            instance = new HMSInput();
-        }
-        return instance;
+        HMSInput session = SESSION.get();
+        return session != null ? session : Console.INSTANCE;
+    }
+   /**
+    * Makes the current thread read a session's input until unbindSession is called
+    *
+    * @param in The session's input, e.g. a socket's input stream
+    */
+    public static void bindSession(InputStream in) {
+        SESSION.set(new HMSInput(in));
+    }
+   /**
+    * Makes the current thread read the console again
+    */
+    public static void unbindSession() {
+        SESSION.remove();
     }
     /**
     * Gets the Scanner instance for reading console input.
-    * The same Scanner instance is used throughout the application
+    * The same Scanner instance is used throughout the application (or session)
     * to prevent multiple System.in readers.
     *
     * @return Scanner The singleton Scanner instance
@@ -41,4 +83,4 @@ public class HMSInput {
     public void closeScanner() {
         scanner.close();
     }
-}
\ No newline at end of file
+}
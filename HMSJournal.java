@@ -0,0 +1,921 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+* Append-only write-ahead journal for HMSDatabase mutations
+* Every change made after the last snapshot is recorded here as a small entry, so the cost of a write is proportional to the change
+* Entries hold the resulting state of the changed entity (not the operation), so replaying the journal over any snapshot taken while it was open converges to the same state
+* The journal is a chain of numbered segment files (journal.1.dat, journal.2.dat, ...), replayed in order
+* A snapshot first rotates the journal to a new segment, so entries written while the snapshot is in progress land in a fresh segment and are never lost
+* Segments are never joined or copied, a torn entry at the end of one segment only loses that entry, and the segments after it are still replayed
+* Segment n holds the changes made after generation n started saving, so the database loaded from generation g is brought up to date by segments g onwards,
+* and segments are kept as long as the generation before them (see discardBefore), so an older generation can still be loaded if a newer one is damaged
+* All methods are synchronized, entries may be appended by the interactive thread while a checkpoint rotates the journal
+* Entries made within a transaction (see HMSTransaction) are held by the transaction's thread and written as one TRANSACTION entry when it commits,
+* so replay applies all of them or, if the entry was torn by a crash, none
+*/
+public class HMSJournal {
+    /** Number of entries after which a checkpoint is requested to compact the journal into a fresh snapshot */
+    public static final int COMPACTION_THRESHOLD = 500;
+
+    /**
+     * Types of entries recorded in the journal.
+     * The ordinal is written to disk, so new types must only be appended.
+     */
+    public static enum EntryType {
+        /** A new appointment slot was created */
+        APPOINTMENT_NEW(HMSDatabase.DataFile.APPOINTMENTS),
+        /** An appointment changed status or patient */
+        APPOINTMENT_STATE(HMSDatabase.DataFile.APPOINTMENTS),
+        /** An appointment outcome was recorded */
+        OUTCOME_NEW(HMSDatabase.DataFile.APPOINTMENT_OUTCOMES),
+        /** The cost of an appointment outcome changed */
+        OUTCOME_COST(HMSDatabase.DataFile.APPOINTMENT_OUTCOMES),
+        /** A prescription was added to an appointment */
+        PRESCRIPTION_NEW(HMSDatabase.DataFile.PRESCRIPTIONS),
+        /** A prescription was dispensed */
+        PRESCRIPTION_DISPENSED(HMSDatabase.DataFile.PRESCRIPTIONS),
+        /** A medical record was added to a patient */
+        MEDICAL_RECORD_NEW(HMSDatabase.DataFile.MEDICAL_RECORDS),
+        /** Stock or alert level of a medicine changed */
+        MEDICINE_STATE(HMSDatabase.DataFile.MEDICINES),
+        /** A replenishment request was submitted */
+        REPLENISHMENT_NEW(HMSDatabase.DataFile.REPLENISHMENT_REQUESTS),
+        /** A replenishment request was approved */
+        REPLENISHMENT_APPROVED(HMSDatabase.DataFile.REPLENISHMENT_REQUESTS),
+        /** A staff member was added */
+        USER_ADD(null),
+        /** A user was removed */
+        USER_REMOVE(null),
+        /** Details or credentials of a user changed */
+        USER_UPDATE(null),
+        /** The entries of a committed transaction, applied together */
+        TRANSACTION(null),
+        /** A prescription was made pending again, when the transaction dispensing it was undone */
+        PRESCRIPTION_PENDING(HMSDatabase.DataFile.PRESCRIPTIONS);
+
+        /** Snapshot file changed by entries of this type, null if it depends on the user's role */
+        private final HMSDatabase.DataFile dataFile;
+
+        EntryType(HMSDatabase.DataFile dataFile) {
+            this.dataFile = dataFile;
+        }
+    }
+
+    /** Largest entry accepted when replaying, anything bigger is treated as corruption */
+    private static final int MAX_ENTRY_SIZE = 1 << 20;
+
+    /** Directory holding the segments */
+    private final File dir;
+
+    /** Segment file names are the base name, the segment number and the extension, e.g. journal.12.dat */
+    private final String baseName;
+    private final String extension;
+
+    /** Journal file of the single-file layout, replayed and then discarded like a segment older than any numbered one */
+    private final File legacyFile;
+
+    /** Rotated journal of the single-file layout, older than legacyFile */
+    private final File legacyRotatedFile;
+
+    /** Number of the segment being appended to, -1 until the first append, replay or rotation */
+    private long segment = -1;
+
+    /** Output stream to the current segment, opened on the first append */
+    private DataOutputStream out;
+
+    /** Number of entries written since the last rotation (or replayed at startup) */
+    private int entryCount;
+
+    /** True while the journal is being replayed or the database is being built, suppresses appends */
+    private boolean suspended;
+
+    /** Entries held by the transaction running on each thread, until it commits */
+    private final ThreadLocal<List<HeldEntry>> transaction = new ThreadLocal<>();
+
+    /**
+     * Creates a journal whose segments are named after the given file
+     *
+     * @param fileName Name of the journal, e.g. journal.dat for segments journal.1.dat, journal.2.dat, ...
+     */
+    public HMSJournal(String fileName) {
+        File file = new File(fileName).getAbsoluteFile();
+        this.dir = file.getParentFile();
+        int dot = file.getName().lastIndexOf('.');
+        this.baseName = dot < 0 ? file.getName() : file.getName().substring(0, dot);
+        this.extension = dot < 0 ? "" : file.getName().substring(dot);
+        this.legacyFile = file;
+        this.legacyRotatedFile = new File(fileName + ".old").getAbsoluteFile();
+    }
+
+    /**
+     * Gets the number of entries recorded since the last snapshot
+     * @return int Number of journal entries
+     */
+    public synchronized int getEntryCount() {
+        return this.entryCount;
+    }
+
+    /**
+     * Suspends or resumes recording of entries
+     * @param suspended True to ignore appends, false to record them
+     */
+    public synchronized void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    /**
+     * Records that a new appointment slot was created
+     * @param a The new appointment
+     */
+    public void logNewAppointment(Appointment a) {
+        append(EntryType.APPOINTMENT_NEW, out -> {
+            out.writeUTF(a.getAppointmentId());
+            out.writeUTF(a.getDoctorId());
+            out.writeUTF(a.getDoctorName());
+            out.writeLong(a.getAppointmentDate().toEpochDay());
+            out.writeInt(a.getAppointmentTime().toSecondOfDay());
+        });
+    }
+
+    /**
+     * Records the current status and patient of an appointment
+     * @param a The changed appointment
+     */
+    public void logAppointmentState(Appointment a) {
+        append(EntryType.APPOINTMENT_STATE, appointmentState(a));
+    }
+
+    /**
+     * Records the current status and patient of several appointments, flushed together
+     * @param appointments The changed appointments
+     */
+    public synchronized void logAppointmentStates(Collection<Appointment> appointments) {
+        if (appointments.isEmpty() || !begin(EntryType.APPOINTMENT_STATE)) {
+            return;
+        }
+        try {
+            for (Appointment a : appointments) {
+                write(EntryType.APPOINTMENT_STATE, appointmentState(a));
+            }
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        checkSize();
+    }
+
+    /**
+     * Writes the body of an appointment state entry
+     */
+    private static EntryWriter appointmentState(Appointment a) {
+        return out -> {
+            // Read while the journal is held, so the last entry for an appointment is always its latest state
+            Appointment.State state = a.getState();
+            out.writeUTF(a.getAppointmentId());
+            out.writeByte(state.status.ordinal());
+            writeNullableUTF(out, state.patientId);
+        };
+    }
+
+    /**
+     * Records that an appointment outcome was created
+     * @param ao The new appointment outcome
+     */
+    public void logNewOutcome(AppointmentOutcome ao) {
+        append(EntryType.OUTCOME_NEW, out -> {
+            out.writeUTF(ao.getAppointmentId());
+            writeDateTime(out, ao.getOutcomeDateTime());
+            out.writeUTF(ao.getServicesProvided());
+            out.writeUTF(ao.getConsultationNotes());
+            out.writeDouble(ao.getAppointmentCost());
+        });
+    }
+
+    /**
+     * Records the current cost of an appointment outcome
+     * @param ao The changed appointment outcome
+     */
+    public void logOutcomeCost(AppointmentOutcome ao) {
+        append(EntryType.OUTCOME_COST, out -> {
+            out.writeUTF(ao.getAppointmentId());
+            out.writeDouble(ao.getAppointmentCost());
+        });
+    }
+
+    /**
+     * Records that a prescription was added at a position in its appointment's list
+     * @param p The new prescription
+     * @param index Position of the prescription in the appointment's prescription list
+     */
+    public void logNewPrescription(Prescription p, int index) {
+        append(EntryType.PRESCRIPTION_NEW, out -> {
+            out.writeUTF(p.getAppointmentId());
+            out.writeInt(index);
+            out.writeUTF(p.getMedication());
+            out.writeInt(p.getQuantity());
+        });
+    }
+
+    /**
+     * Records that a prescription was dispensed
+     * @param p The dispensed prescription
+     * @param index Position of the prescription in the appointment's prescription list
+     */
+    public void logPrescriptionDispensed(Prescription p, int index) {
+        append(EntryType.PRESCRIPTION_DISPENSED, out -> {
+            out.writeUTF(p.getAppointmentId());
+            out.writeInt(index);
+        });
+    }
+
+    /**
+     * Records that a prescription is pending again, after the transaction dispensing it was undone
+     * @param p The prescription
+     * @param index Position of the prescription in the appointment's prescription list
+     */
+    public void logPrescriptionPending(Prescription p, int index) {
+        append(EntryType.PRESCRIPTION_PENDING, out -> {
+            out.writeUTF(p.getAppointmentId());
+            out.writeInt(index);
+        });
+    }
+
+    /**
+     * Records that a medical record was added at a position in its patient's list
+     * @param mr The new medical record
+     * @param index Position of the record in the patient's medical record list
+     */
+    public void logNewMedicalRecord(MedicalRecord mr, int index) {
+        append(EntryType.MEDICAL_RECORD_NEW, out -> {
+            out.writeUTF(mr.getPatientId());
+            out.writeInt(index);
+            out.writeUTF(mr.getDiagnosis());
+            out.writeUTF(mr.getTreatment());
+            writeDateTime(out, mr.getUpdated());
+        });
+    }
+
+    /**
+     * Records the current stock and alert level of a medicine
+     * @param m The changed medicine
+     */
+    public void logMedicineState(Medicine m) {
+        append(EntryType.MEDICINE_STATE, out -> {
+            out.writeUTF(m.getMedicineName());
+            out.writeInt(m.getStock());
+            out.writeInt(m.getAlertLevel());
+        });
+    }
+
+    /**
+     * Records that a replenishment request was submitted
+     * @param r The new replenishment request
+     * @param index Position of the request in the list of all requests
+     */
+    public void logNewReplenishmentRequest(ReplenishmentRequest r, int index) {
+        append(EntryType.REPLENISHMENT_NEW, out -> {
+            out.writeInt(index);
+            out.writeUTF(r.getPharmacistId());
+            out.writeUTF(r.getMedicineName());
+            out.writeInt(r.getRequestAmount());
+            writeDateTime(out, r.getRequestDate());
+        });
+    }
+
+    /**
+     * Records that a replenishment request was approved
+     * @param index Position of the request in the list of all requests
+     */
+    public void logReplenishmentApproved(int index) {
+        append(EntryType.REPLENISHMENT_APPROVED, out -> out.writeInt(index));
+    }
+
+    /**
+     * Records that a staff member was added
+     * @param s The new staff member
+     */
+    public void logUserAdd(Staff s) {
+        HMSDatabase.getInstance().markDirty(HMSDatabase.DataFile.forRole(s.getRole()));
+        append(EntryType.USER_ADD, out -> {
+            out.writeUTF(s.getId());
+            out.writeUTF(s.getRole());
+            out.writeUTF(s.getName());
+            out.writeUTF(s.getGender());
+            out.writeInt(s.getAge());
+        });
+    }
+
+    /**
+     * Records that a user was removed
+     * @param u The removed user
+     */
+    public void logUserRemove(User u) {
+        HMSDatabase.getInstance().markDirty(HMSDatabase.DataFile.forRole(u.getRole()));
+        append(EntryType.USER_REMOVE, out -> out.writeUTF(u.getId()));
+    }
+
+    /**
+     * Records the current details and credentials of a user
+     * @param u The changed user
+     */
+    public void logUserUpdate(User u) {
+        HMSDatabase.getInstance().markDirty(HMSDatabase.DataFile.forRole(u.getRole()));
+        append(EntryType.USER_UPDATE, out -> {
+            out.writeUTF(u.getId());
+            out.writeUTF(u.getName());
+            out.writeUTF(u.getGender());
+            out.writeUTF(u.getPassword());
+            out.writeBoolean(u.getFirstLogin());
+            if (u instanceof Patient) {
+                writeNullableUTF(out, ((Patient) u).getEmail());
+                writeNullableUTF(out, ((Patient) u).getContactNumber());
+            }
+            else if (u instanceof Staff) {
+                out.writeInt(((Staff) u).getAge());
+            }
+        });
+    }
+
+    /**
+     * Writes the body of a journal entry
+     */
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * An entry held back until its transaction commits
+     */
+    private static final class HeldEntry {
+        final EntryType type;
+        final EntryWriter writer;
+
+        HeldEntry(EntryType type, EntryWriter writer) {
+            this.type = type;
+            this.writer = writer;
+        }
+    }
+
+    /**
+     * Starts holding back the entries appended by the current thread, called when it starts a transaction
+     */
+    public void beginTransaction() {
+        transaction.set(new ArrayList<>());
+    }
+
+    /**
+     * Writes the entries held by the current thread's transaction as one TRANSACTION entry and flushes it
+     * The entries are written when the transaction commits rather than when it made its changes, and hold the entities' state as of the commit
+     */
+    public synchronized void commitTransaction() {
+        List<HeldEntry> held = transaction.get();
+        transaction.remove();
+        if (held == null || held.isEmpty() || suspended) {
+            return;
+        }
+        try {
+            if (held.size() == 1) {
+                write(held.get(0).type, held.get(0).writer);
+            }
+            else {
+                write(EntryType.TRANSACTION, out -> {
+                    out.writeInt(held.size());
+                    for (HeldEntry entry : held) {
+                        byte[] payload = payload(entry.type, entry.writer);
+                        out.writeInt(payload.length);
+                        out.write(payload);
+                    }
+                });
+            }
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        checkSize();
+    }
+
+    /**
+     * Drops the entries held by the current thread's transaction, called when it is undone
+     */
+    public void abortTransaction() {
+        transaction.remove();
+    }
+
+    /**
+     * Appends one entry to the journal as [length][type + body][CRC32] and flushes it
+     * Marks the snapshot file the entry belongs to as changed
+     * Requests a checkpoint once the journal grows past COMPACTION_THRESHOLD
+     * Within a transaction the entry is held until the transaction commits instead
+     *
+     * @param type Type of the entry
+     * @param writer Writes the body of the entry
+     */
+    private void append(EntryType type, EntryWriter writer) {
+        List<HeldEntry> held = transaction.get();
+        if (held != null) {
+            if (type.dataFile != null) {
+                HMSDatabase.getInstance().markDirty(type.dataFile);
+            }
+            held.add(new HeldEntry(type, writer));
+            return;
+        }
+        synchronized (this) {
+            if (!begin(type)) {
+                return;
+            }
+            try {
+                write(type, writer);
+                out.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            checkSize();
+        }
+    }
+
+    /**
+     * Marks the snapshot file entries of a type belong to as changed
+     *
+     * @param type Type of the entries about to be appended
+     * @return boolean False if the journal is suspended and nothing should be written
+     */
+    private boolean begin(EntryType type) {
+        if (type.dataFile != null) {
+            HMSDatabase.getInstance().markDirty(type.dataFile);
+        }
+        return !suspended;
+    }
+
+    /**
+     * Writes one entry as [length][type + body][CRC32] without flushing it, called while the journal is held
+     *
+     * @param type Type of the entry
+     * @param writer Writes the body of the entry
+     * @throws IOException If the entry cannot be written
+     */
+    private void write(EntryType type, EntryWriter writer) throws IOException {
+        byte[] payload = payload(type, writer);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        if (out == null) {
+            if (segment < 0) {
+                segment = Math.max(0, lastSegmentNumber());
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile(segment), true)));
+        }
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        entryCount++;
+    }
+
+    /**
+     * Serializes the type and body of an entry
+     */
+    private static byte[] payload(EntryType type, EntryWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream entry = new DataOutputStream(bytes);
+        entry.writeByte(type.ordinal());
+        writer.write(entry);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Requests a checkpoint once the journal grows past COMPACTION_THRESHOLD
+     */
+    private void checkSize() {
+        if (entryCount >= COMPACTION_THRESHOLD) {
+            HMSDatabase.getInstance().getCheckpointer().requestCheckpoint();
+        }
+    }
+
+    /**
+     * Starts a new segment before a snapshot is taken, entries made from now on are written to it
+     * The segment is numbered after the generation being saved, so a failed save leaves it current and the next attempt at that generation keeps using it
+     * The new segment is created straight away, empty if need be, so the chain of segments has no gaps
+     *
+     * @param generation Number of the generation about to be saved
+     * @throws IOException If the new segment cannot be created
+     */
+    public synchronized void rotate(long generation) throws IOException {
+        close();
+        if (generation > segment) {
+            segment = generation;
+            segmentFile(segment).createNewFile();
+        }
+        entryCount = 0;
+    }
+
+    /**
+     * Deletes the segments numbered below a given one, called once a committed snapshot means no generation before it is loaded again
+     * The journal of the single-file layout is older than any segment and is deleted as well
+     *
+     * @param first Number of the oldest segment to keep, that of the oldest generation kept
+     */
+    public synchronized void discardBefore(long first) {
+        try {
+            for (long n : segmentNumbers()) {
+                if (n < first && n != segment) {
+                    Files.deleteIfExists(segmentFile(n).toPath());
+                }
+            }
+            Files.deleteIfExists(legacyRotatedFile.toPath());
+            Files.deleteIfExists(legacyFile.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the current segment
+     */
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Checks that the journal holds every change made since a generation, i.e. that each of the segments from the generation's
+     * up to the newest generation's is on disk, so loading the generation and replaying them loses nothing
+     *
+     * @param generation Number of the generation to be loaded
+     * @param newest Number of the newest generation on disk
+     * @return boolean True if the segments are all there
+     */
+    public synchronized boolean coversSince(long generation, long newest) {
+        // The single-file layout does not record which generation its entries follow
+        if (legacyFile.exists() || legacyRotatedFile.exists()) {
+            return generation >= newest;
+        }
+        for (long n = generation; n <= newest; n++) {
+            if (!segmentFile(n).exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replays all complete entries of the segments from the loaded generation's onwards on top of the loaded snapshot, the oldest segment first
+     * Entries of the single-file layout are replayed before any segment
+     * A torn or corrupt entry at the end of a segment (from a crash midway through an append) is discarded, the later segments are still replayed
+     * New entries are appended to the newest segment, or to a new one numbered after the loaded generation if there is none
+     *
+     * @param db The database holding the loaded snapshot
+     * @param generation Number of the loaded snapshot generation
+     * @return int Number of entries replayed
+     * @throws IOException If the journal cannot be read or truncated
+     */
+    public synchronized int replay(HMSDatabase db, long generation) throws IOException {
+        close();
+        entryCount = 0;
+        suspended = true;
+        try {
+            int replayed = replayFile(legacyRotatedFile, db);
+            replayed += replayFile(legacyFile, db);
+            for (long n : segmentNumbers()) {
+                // Older segments are kept for loading older generations, this one already holds them
+                if (n >= generation) {
+                    replayed += replayFile(segmentFile(n), db);
+                }
+            }
+            segment = Math.max(generation, lastSegmentNumber());
+            entryCount = replayed;
+            return replayed;
+        } finally {
+            suspended = false;
+        }
+    }
+
+    /**
+     * Gets the file of a segment
+     */
+    private File segmentFile(long n) {
+        return new File(dir, baseName + "." + n + extension);
+    }
+
+    /**
+     * Gets the numbers of the segments on disk, in ascending order
+     */
+    private List<Long> segmentNumbers() {
+        List<Long> numbers = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return numbers;
+        }
+        String prefix = baseName + ".";
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.endsWith(extension) && name.length() > prefix.length() + extension.length()) {
+                String number = name.substring(prefix.length(), name.length() - extension.length());
+                if (number.chars().allMatch(Character::isDigit)) {
+                    numbers.add(Long.parseLong(number));
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Gets the number of the newest segment on disk, -1 if there is none
+     */
+    private long lastSegmentNumber() {
+        List<Long> numbers = segmentNumbers();
+        return numbers.isEmpty() ? -1 : numbers.get(numbers.size() - 1);
+    }
+
+    /**
+     * Replays the complete entries of one journal file and truncates anything after them
+     *
+     * @return int Number of entries replayed
+     */
+    private int replayFile(File journalFile, HMSDatabase db) throws IOException {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+        int replayed = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_ENTRY_SIZE) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    int storedCrc = in.readInt();
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != storedCrc) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(db, new DataInputStream(new ByteArrayInputStream(payload)));
+                validLength += 4 + payload.length + 4;
+                replayed++;
+            }
+        }
+
+        // Drop any torn tail so new entries follow the last complete one
+        if (validLength < journalFile.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Applies a single entry to the database, skipping anything already present in the snapshot
+     */
+    private void apply(HMSDatabase db, DataInputStream in) throws IOException {
+        EntryType type = EntryType.values()[in.readByte()];
+        // The loaded snapshot no longer matches the file for this entry
+        if (type.dataFile != null) {
+            db.markDirty(type.dataFile);
+        }
+        switch (type) {
+            case APPOINTMENT_NEW: {
+                String appointmentId = in.readUTF();
+                String doctorId = in.readUTF();
+                String doctorName = in.readUTF();
+                LocalDate date = LocalDate.ofEpochDay(in.readLong());
+                LocalTime time = LocalTime.ofSecondOfDay(in.readInt());
+                if (db.getAppointmentIndex().get(appointmentId) == null) {
+                    Appointment a = new Appointment(appointmentId, doctorId, doctorName, date, time);
+                    db.getAllAppointments().add(a);
+                    db.getAppointmentIndex().add(a);
+                }
+                break;
+            }
+            case APPOINTMENT_STATE: {
+                Appointment a = db.getAppointmentIndex().get(in.readUTF());
+                Appointment.AppointmentStatus status = Appointment.AppointmentStatus.values()[in.readByte()];
+                String patientId = readNullableUTF(in);
+                if (a != null) {
+                    a.restoreState(status, patientId);
+                }
+                break;
+            }
+            case OUTCOME_NEW: {
+                String appointmentId = in.readUTF();
+                LocalDateTime outcomeDateTime = readDateTime(in);
+                String servicesProvided = in.readUTF();
+                String consultationNotes = in.readUTF();
+                double cost = in.readDouble();
+                if (!db.getAllAppointmentOutcomes().containsKey(appointmentId)) {
+                    AppointmentOutcome ao = new AppointmentOutcome(appointmentId, outcomeDateTime, servicesProvided, consultationNotes);
+                    ao.setAppointmentCost(cost);
+                    db.getAllAppointmentOutcomes().put(appointmentId, ao);
+                }
+                break;
+            }
+            case OUTCOME_COST: {
+                AppointmentOutcome ao = db.getAllAppointmentOutcomes().get(in.readUTF());
+                double cost = in.readDouble();
+                if (ao != null) {
+                    ao.setAppointmentCost(cost);
+                }
+                break;
+            }
+            case PRESCRIPTION_NEW: {
+                String appointmentId = in.readUTF();
+                int index = in.readInt();
+                String medication = in.readUTF();
+                int quantity = in.readInt();
+                ArrayList<Prescription> pList = db.getAllPrescriptions().computeIfAbsent(appointmentId, k -> new ArrayList<>());
+                if (pList.size() == index) {
+                    Prescription p = new Prescription(appointmentId, medication, quantity);
+                    pList.add(p);
+                    db.getPrescriptionQueue().add(p, db.getAllAppointmentOutcomes().get(appointmentId));
+                }
+                break;
+            }
+            case PRESCRIPTION_DISPENSED: {
+                ArrayList<Prescription> pList = db.getAllPrescriptions().get(in.readUTF());
+                int index = in.readInt();
+                if (pList != null && index < pList.size()) {
+                    pList.get(index).dispensePrescription();
+                }
+                break;
+            }
+            case PRESCRIPTION_PENDING: {
+                ArrayList<Prescription> pList = db.getAllPrescriptions().get(in.readUTF());
+                int index = in.readInt();
+                if (pList != null && index < pList.size()) {
+                    pList.get(index).restorePending();
+                }
+                break;
+            }
+            case MEDICAL_RECORD_NEW: {
+                String patientId = in.readUTF();
+                int index = in.readInt();
+                String diagnosis = in.readUTF();
+                String treatment = in.readUTF();
+                LocalDateTime updated = readDateTime(in);
+                ArrayList<MedicalRecord> records = db.getAllMedicalRecords().computeIfAbsent(patientId, k -> new ArrayList<>());
+                if (records.size() == index) {
+                    records.add(new MedicalRecord(patientId, diagnosis, treatment, updated));
+                }
+                break;
+            }
+            case MEDICINE_STATE: {
+                Medicine m = db.getAllMedicines().get(in.readUTF());
+                int stock = in.readInt();
+                int alertBelow = in.readInt();
+                if (m != null) {
+                    m.restoreStock(stock);
+                    m.setAlertLevel(alertBelow);
+                }
+                break;
+            }
+            case REPLENISHMENT_NEW: {
+                int index = in.readInt();
+                String pharmacistId = in.readUTF();
+                String medicineName = in.readUTF();
+                int requestAmount = in.readInt();
+                LocalDateTime requestDate = readDateTime(in);
+                if (db.getAllReplenishmentRequests().size() == index) {
+                    ReplenishmentRequest r = new ReplenishmentRequest(pharmacistId, medicineName, requestAmount, requestDate);
+                    db.getAllReplenishmentRequests().add(r);
+                    db.getReplenishmentQueue().add(r, index);
+                }
+                break;
+            }
+            case REPLENISHMENT_APPROVED: {
+                int index = in.readInt();
+                if (index < db.getAllReplenishmentRequests().size()) {
+                    db.getAllReplenishmentRequests().get(index).approveRequest();
+                }
+                break;
+            }
+            case USER_ADD: {
+                String id = in.readUTF();
+                String role = in.readUTF();
+                String name = in.readUTF();
+                String gender = in.readUTF();
+                int age = in.readInt();
+                if (db.getUserRegistry().get(id) == null) {
+                    Staff s;
+                    if (role.equals("Doctor")) {
+                        s = new Doctor(id, role, name, gender, age);
+                    }
+                    else if (role.equals("Pharmacist")) {
+                        s = new Pharmacist(id, role, name, gender, age);
+                    }
+                    else {
+                        s = new Administrator(id, role, name, gender, age);
+                    }
+                    db.getUserRegistry().add(s);
+                }
+                db.markDirty(HMSDatabase.DataFile.forRole(role));
+                // The counter moves past the ID even if the staff member was removed later, so the ID is not given out again
+                db.getIdAllocator().observe(HMSIdAllocator.Sequence.forRole(role), id);
+                db.markDirty(HMSDatabase.DataFile.SEQUENCES);
+                break;
+            }
+            case USER_REMOVE: {
+                User u = db.getUserRegistry().get(in.readUTF());
+                if (u != null) {
+                    db.getUserRegistry().remove(u);
+                    db.markDirty(HMSDatabase.DataFile.forRole(u.getRole()));
+                }
+                break;
+            }
+            case USER_UPDATE: {
+                User u = db.getUserRegistry().get(in.readUTF());
+                String name = in.readUTF();
+                String gender = in.readUTF();
+                String password = in.readUTF();
+                boolean firstLogin = in.readBoolean();
+                if (u == null) {
+                    break;
+                }
+                db.markDirty(HMSDatabase.DataFile.forRole(u.getRole()));
+                u.setName(name);
+                u.setGender(gender);
+                u.setPassword(password);
+                if (!firstLogin) {
+                    u.setFirstLoginFalse();
+                }
+                if (u instanceof Patient) {
+                    ((Patient) u).setEmail(readNullableUTF(in));
+                    ((Patient) u).setContactNumber(readNullableUTF(in));
+                }
+                else if (u instanceof Staff) {
+                    ((Staff) u).setAge(in.readInt());
+                }
+                break;
+            }
+            case TRANSACTION: {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    apply(db, new DataInputStream(new ByteArrayInputStream(payload)));
+                }
+                break;
+            }
+        }
+    }
+
+    /** Writes a string that may be null */
+    private static void writeNullableUTF(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    /** Reads a string written by writeNullableUTF */
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /** Writes a date and time as epoch seconds and nanoseconds */
+    private static void writeDateTime(DataOutputStream out, LocalDateTime dateTime) throws IOException {
+        out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(dateTime.getNano());
+    }
+
+    /** Reads a date and time written by writeDateTime */
+    private static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+    }
+}
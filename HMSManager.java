@@ -20,20 +20,17 @@ public class HMSManager implements IChangePassword{
         String loginId = scanner.nextLine();
         System.out.println("Enter your password: ");
         String password = scanner.nextLine();
-        // Loop all users
-        for (User u : db.getAllUsers()) {
-            if (loginId.equals(u.getId())) {
-                if (verifyPassword(password,u.getPassword())) {
-                    // First Login must change password
-                    if (u.getFirstLogin()) {
-                        System.out.println("This is your first time logging in");
-                        changePassword(u, password);
-                        u.setFirstLoginFalse();
-                    }
-                    System.out.println("Successful login!");
-                    return u;
-                }
+        // Find user by id
+        User u = db.getUserRegistry().get(loginId);
+        if (u != null && verifyPassword(password,u.getPassword())) {
+            // First Login must change password
+            if (u.getFirstLogin()) {
+                System.out.println("This is your first time logging in");
+                changePassword(u, password);
+                u.setFirstLoginFalse();
             }
+            System.out.println("Successful login!");
+            return u;
         }
         System.out.println("Unsuccessful login, please try again");
         return null;
@@ -0,0 +1,140 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+/**
+* Manages the Hospital Management System console output
+* Console output is buffered and written once per screen, when the system waits for input (see HMSInput) or exits, instead of once per line
+* A thread serving a terminal session (see HMSServer) binds the session's output, and System.out then writes to the session of the thread printing
+*/
+public class HMSOutput {
+    // Size of the console output buffer
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Size of a session's output buffer, kept small as idle sessions hold on to it
+    private static final int SESSION_BUFFER_SIZE = 1 << 12;
+    // Output of the session served by the current thread, if any
+    private static final ThreadLocal<HMSOutput> SESSION = new ThreadLocal<>();
+    // System.out once installed, writes to the output of the current thread
+    private static final PrintStream ROUTER = new SessionPrintStream();
+    private final PrintStream console;
+    private final HMSRenderer text;
+
+    // Private constructor to prevent instantiation
+    private HMSOutput(OutputStream out, int bufferSize) {
+        console = new PrintStream(new BufferedOutputStream(out, bufferSize), false);
+        text = HMSRenderer.text(console);
+    }
+
+    // Console instance, created on first use
+    private static final class Console {
+        private static final HMSOutput INSTANCE = new HMSOutput(new FileOutputStream(FileDescriptor.out), BUFFER_SIZE);
+    }
+
+   /**
+    * Gets the HMSOutput of the session served by the current thread, or the console singleton instance outside a session
+    *
+    * @return The HMSOutput to write to
+    */
+    public static HMSOutput getInstance() {
+        HMSOutput session = SESSION.get();
+        return session != null ? session : Console.INSTANCE;
+    }
+   /**
+    * Makes System.out on the current thread write to a session's output until unbindSession is called
+    *
+    * @param out The session's output, e.g. a socket's output stream
+    */
+    public static void bindSession(OutputStream out) {
+        SESSION.set(new HMSOutput(out, SESSION_BUFFER_SIZE));
+    }
+   /**
+    * Writes out what is left of the current thread's session output, and makes the thread write to the console again
+    */
+    public static void unbindSession() {
+        HMSOutput session = SESSION.get();
+        if (session != null) {
+            session.console.flush();
+            SESSION.remove();
+        }
+    }
+   /**
+    * Routes System.out through the buffered console, flushing whatever is left when the program exits
+    */
+    public void install() {
+        System.out.flush();
+        System.setOut(ROUTER);
+        Runtime.getRuntime().addShutdownHook(new Thread(Console.INSTANCE.console::flush, "hms-output-flush"));
+    }
+   /**
+    * Prints an entity to the console in the "Label: value" format
+    *
+    * @param entity The entity to print
+    */
+    public synchronized void print(IRenderable entity) {
+        if (System.out == ROUTER) {
+            text.render(entity);
+        }
+        else {
+            // Not installed (e.g. the benchmarks), keep to whatever System.out is
+            HMSRenderer.text(System.out).render(entity);
+        }
+    }
+   /**
+    * Writes out everything printed so far
+    */
+    public void flush() {
+        System.out.flush();
+    }
+
+    /**
+     * System.out for the whole process, each call goes to the output of the thread making it
+     * Every method is passed on, so sessions never share PrintStream's lock or encoder
+     */
+    private static final class SessionPrintStream extends PrintStream {
+        SessionPrintStream() {
+            super(OutputStream.nullOutputStream());
+        }
+
+        private static PrintStream target() {
+            return getInstance().console;
+        }
+
+        @Override public void flush() { target().flush(); }
+        // Sessions and the console are closed by their owners
+        @Override public void close() { target().flush(); }
+        @Override public boolean checkError() { return target().checkError(); }
+        @Override public void write(int b) { target().write(b); }
+        @Override public void write(byte[] buf, int off, int len) { target().write(buf, off, len); }
+        @Override public void write(byte[] buf) throws IOException { target().write(buf); }
+        @Override public void writeBytes(byte[] buf) { target().writeBytes(buf); }
+        @Override public void print(boolean b) { target().print(b); }
+        @Override public void print(char c) { target().print(c); }
+        @Override public void print(int i) { target().print(i); }
+        @Override public void print(long l) { target().print(l); }
+        @Override public void print(float f) { target().print(f); }
+        @Override public void print(double d) { target().print(d); }
+        @Override public void print(char[] s) { target().print(s); }
+        @Override public void print(String s) { target().print(s); }
+        @Override public void print(Object obj) { target().print(obj); }
+        @Override public void println() { target().println(); }
+        @Override public void println(boolean x) { target().println(x); }
+        @Override public void println(char x) { target().println(x); }
+        @Override public void println(int x) { target().println(x); }
+        @Override public void println(long x) { target().println(x); }
+        @Override public void println(float x) { target().println(x); }
+        @Override public void println(double x) { target().println(x); }
+        @Override public void println(char[] x) { target().println(x); }
+        @Override public void println(String x) { target().println(x); }
+        @Override public void println(Object x) { target().println(x); }
+        @Override public PrintStream printf(String format, Object... args) { target().printf(format, args); return this; }
+        @Override public PrintStream printf(Locale l, String format, Object... args) { target().printf(l, format, args); return this; }
+        @Override public PrintStream format(String format, Object... args) { target().format(format, args); return this; }
+        @Override public PrintStream format(Locale l, String format, Object... args) { target().format(l, format, args); return this; }
+        @Override public PrintStream append(CharSequence csq) { target().append(csq); return this; }
+        @Override public PrintStream append(CharSequence csq, int start, int end) { target().append(csq, start, end); return this; }
+        @Override public PrintStream append(char c) { target().append(c); return this; }
+    }
+}
@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.ObjIntConsumer;
+
+/**
+* Shows a long listing one page at a time in the console
+* The pager keeps a cursor into a page source and only asks it for the page on screen, so a listing of years of data prints (and builds) one page at a time
+*
+* @param <T> Type of the items listed
+*/
+public class HMSPager<T> {
+    /** Number of items shown per page unless a view asks for another size */
+    public static final int DEFAULT_PAGE_SIZE = 10;
+
+    /** Where the items come from */
+    private final PageSource<T> source;
+
+    /** Number of items per page */
+    private final int pageSize;
+
+    /** Position of the first item of the current page */
+    private int cursor;
+
+    /**
+     * Produces the items of a listing a page at a time
+     *
+     * @param <T> Type of the items listed
+     */
+    public interface PageSource<T> {
+        /**
+         * Gets the number of items in the listing
+         * @return int Number of items
+         */
+        int size();
+
+        /**
+         * Gets a page of items
+         * @param offset Number of items before the page
+         * @param limit Maximum number of items to return
+         * @return List of up to limit items starting at offset
+         */
+        List<T> page(int offset, int limit);
+    }
+
+    /**
+     * Constructs a pager at the first page of a source
+     * @param source Where the items come from
+     * @param pageSize Number of items per page
+     */
+    public HMSPager(PageSource<T> source, int pageSize) {
+        this.source = source;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Makes a page source over a list, whose pages are views of the list
+     * @param <T> Type of the items listed
+     * @param list The list to page through
+     * @return PageSource over the list
+     */
+    public static <T> PageSource<T> of(List<T> list) {
+        return new PageSource<T>() {
+            @Override
+            public int size() {
+                return list.size();
+            }
+
+            @Override
+            public List<T> page(int offset, int limit) {
+                int size = list.size();
+                if (offset >= size) {
+                    return Collections.emptyList();
+                }
+                return list.subList(offset, Math.min(size, offset + limit));
+            }
+        };
+    }
+
+    /**
+     * Makes a page source over a collection without a position lookup, e.g. the values of a map, stepping an iterator to each page
+     * @param <T> Type of the items listed
+     * @param collection The collection to page through
+     * @return PageSource over the collection, in iteration order
+     */
+    public static <T> PageSource<T> of(Collection<T> collection) {
+        if (collection instanceof List) {
+            return of((List<T>) collection);
+        }
+        return new PageSource<T>() {
+            @Override
+            public int size() {
+                return collection.size();
+            }
+
+            @Override
+            public List<T> page(int offset, int limit) {
+                List<T> page = new ArrayList<>(Math.min(limit, DEFAULT_PAGE_SIZE));
+                Iterator<T> it = collection.iterator();
+                for (int i = 0; i < offset && it.hasNext(); i++) {
+                    it.next();
+                }
+                while (page.size() < limit && it.hasNext()) {
+                    page.add(it.next());
+                }
+                return page;
+            }
+        };
+    }
+
+    /**
+     * Gets the number of items in the listing
+     * @return int Number of items
+     */
+    public int getTotal() {
+        return source.size();
+    }
+
+    /**
+     * Gets the position of the first item of the current page
+     * @return int Number of items before the current page
+     */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Gets the items of the current page, moving back to the last page if the listing shrank below the cursor
+     * @return List of the items on the current page
+     */
+    public List<T> currentPage() {
+        int total = source.size();
+        if (cursor >= total) {
+            cursor = total == 0 ? 0 : (total - 1) / pageSize * pageSize;
+        }
+        return source.page(cursor, pageSize);
+    }
+
+    /**
+     * Moves to the next page
+     * @return boolean True if there was a next page, false if already on the last page
+     */
+    public boolean next() {
+        if (cursor + pageSize >= source.size()) {
+            return false;
+        }
+        cursor += pageSize;
+        return true;
+    }
+
+    /**
+     * Moves to the previous page
+     * @return boolean True if there was a previous page, false if already on the first page
+     */
+    public boolean previous() {
+        if (cursor == 0) {
+            return false;
+        }
+        cursor = Math.max(0, cursor - pageSize);
+        return true;
+    }
+
+    /**
+     * Describes which items a page holds, e.g. "(11-20 of 42)"
+     * @param page The current page
+     * @return String The position of the page in the listing
+     */
+    public String describe(List<T> page) {
+        return "(" + (cursor + 1) + "-" + (cursor + page.size()) + " of " + source.size() + ")";
+    }
+
+    /**
+     * Prints the items of the current page with their positions in the listing
+     * @param page The current page
+     * @param printer Prints one item, given with its position in the listing starting from 1
+     */
+    public void print(List<T> page, ObjIntConsumer<T> printer) {
+        for (int i = 0; i < page.size(); i++) {
+            printer.accept(page.get(i), cursor + i + 1);
+        }
+    }
+
+    /**
+     * Lists items a page at a time, letting the user move between pages until they return
+     * A listing that fits on one page is printed without asking anything
+     *
+     * @param <T> Type of the items listed
+     * @param title Heading printed above each page
+     * @param source Where the items come from
+     * @param printer Prints one item, given with its position in the listing starting from 1
+     */
+    public static <T> void browse(String title, PageSource<T> source, ObjIntConsumer<T> printer) {
+        Scanner scanner = HMSInput.getInstance().getScanner();
+        HMSPager<T> pager = new HMSPager<>(source, DEFAULT_PAGE_SIZE);
+        while (true) {
+            List<T> page = pager.currentPage();
+            int total = pager.getTotal();
+            if (total <= DEFAULT_PAGE_SIZE) {
+                System.out.println(title);
+                pager.print(page, printer);
+                return;
+            }
+            System.out.println(title + " " + pager.describe(page));
+            pager.print(page, printer);
+
+            while (true) {
+                System.out.print("Enter n for next page, p for previous page, or 0 to return: ");
+                String choice = scanner.nextLine().trim();
+                if (choice.equalsIgnoreCase("n")) {
+                    if (!pager.next()) {
+                        System.out.println("This is the last page");
+                    }
+                    break;
+                }
+                else if (choice.equalsIgnoreCase("p")) {
+                    if (!pager.previous()) {
+                        System.out.println("This is the first page");
+                    }
+                    break;
+                }
+                else if (choice.equals("0") || choice.isEmpty()) {
+                    return;
+                }
+                System.out.println("Invalid input. Please enter a valid choice");
+            }
+        }
+    }
+}
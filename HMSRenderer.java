@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+* Renders entities field by field into an output, either as the console's "Label: value" lines or as one JSON object per line
+* Each entity is built up in a reusable buffer and written to the output in one call when it ends
+*/
+public abstract class HMSRenderer {
+    /** Format of dates shown in the console */
+    public static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("dd/MM/yy");
+
+    /** Format of timestamps shown in the console */
+    public static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("dd/MM/yy HH:mm:ss");
+
+    /** Where rendered entities are written */
+    protected final Appendable out;
+
+    /** The entity being rendered */
+    protected final StringBuilder buffer = new StringBuilder(256);
+
+    /**
+     * Constructs a renderer writing to an output
+     * @param out Where rendered entities are written, which should be buffered
+     */
+    protected HMSRenderer(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * Makes a renderer of the console format, one "Label: value" line per field
+     * @param out Where rendered entities are written
+     * @return HMSRenderer The text renderer
+     */
+    public static HMSRenderer text(Appendable out) {
+        return new Text(out);
+    }
+
+    /**
+     * Makes a renderer of JSON lines, one object per entity with the field labels as camel case keys
+     * @param out Where rendered entities are written
+     * @return HMSRenderer The JSON renderer
+     */
+    public static HMSRenderer json(Appendable out) {
+        return new Json(out);
+    }
+
+    /**
+     * Renders an entity
+     * @param entity The entity to render
+     */
+    public void render(IRenderable entity) {
+        render(entity, null);
+    }
+
+    /**
+     * Renders an entity with its ID as the first field, for output the entity is referred to from later (e.g. the HTTP API)
+     * @param entity The entity to render
+     * @param id The ID to render, or null for none
+     */
+    public void render(IRenderable entity, String id) {
+        buffer.setLength(0);
+        begin(entity.getClass().getSimpleName());
+        if (id != null) {
+            field("Id", id);
+        }
+        entity.render(this);
+        end();
+        try {
+            out.append(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts an entity
+     * @param type The kind of entity, e.g. "Appointment"
+     */
+    protected abstract void begin(String type);
+
+    /**
+     * Ends the entity started by begin
+     */
+    protected abstract void end();
+
+    /**
+     * Renders a text field
+     * @param label The field's label, e.g. "Blood Type"
+     * @param value The value, or null
+     */
+    public abstract void field(String label, String value);
+
+    /**
+     * Renders a number field
+     * @param label The field's label
+     * @param value The value
+     */
+    public abstract void field(String label, long value);
+
+    /**
+     * Renders a date field
+     * @param label The field's label
+     * @param value The value, or null
+     */
+    public abstract void field(String label, LocalDate value);
+
+    /**
+     * Renders a timestamp field
+     * @param label The field's label
+     * @param value The value, or null
+     */
+    public abstract void field(String label, LocalDateTime value);
+
+    /**
+     * Renders a time field
+     * @param label The field's label
+     * @param value The value, or null
+     */
+    public void field(String label, LocalTime value) {
+        field(label, value == null ? null : value.toString());
+    }
+
+    /**
+     * Renders an enum field by its name
+     * @param label The field's label
+     * @param value The value, or null
+     */
+    public void field(String label, Enum<?> value) {
+        field(label, value == null ? null : value.name());
+    }
+
+    /**
+     * Console format, "Label: value" on each line
+     */
+    private static final class Text extends HMSRenderer {
+        Text(Appendable out) {
+            super(out);
+        }
+
+        @Override
+        protected void begin(String type) {
+        }
+
+        @Override
+        protected void end() {
+        }
+
+        @Override
+        public void field(String label, String value) {
+            buffer.append(label).append(": ").append(value).append('\n');
+        }
+
+        @Override
+        public void field(String label, long value) {
+            buffer.append(label).append(": ").append(value).append('\n');
+        }
+
+        @Override
+        public void field(String label, LocalDate value) {
+            field(label, value == null ? null : DATE.format(value));
+        }
+
+        @Override
+        public void field(String label, LocalDateTime value) {
+            field(label, value == null ? null : DATE_TIME.format(value));
+        }
+    }
+
+    /**
+     * JSON lines, with ISO dates and the type of entity under "type"
+     */
+    private static final class Json extends HMSRenderer {
+        /** JSON key of each label seen so far */
+        private static final Map<String, String> KEYS = new ConcurrentHashMap<>();
+
+        Json(Appendable out) {
+            super(out);
+        }
+
+        @Override
+        protected void begin(String type) {
+            buffer.append("{\"type\":");
+            HMSExporter.json(buffer, type);
+        }
+
+        @Override
+        protected void end() {
+            buffer.append("}\n");
+        }
+
+        @Override
+        public void field(String label, String value) {
+            key(label);
+            HMSExporter.json(buffer, value);
+        }
+
+        @Override
+        public void field(String label, long value) {
+            key(label);
+            buffer.append(value);
+        }
+
+        @Override
+        public void field(String label, LocalDate value) {
+            field(label, value == null ? null : value.toString());
+        }
+
+        @Override
+        public void field(String label, LocalDateTime value) {
+            field(label, value == null ? null : value.toString());
+        }
+
+        /** Appends the key of a field, e.g. "bloodType" for "Blood Type" */
+        private void key(String label) {
+            buffer.append(",\"").append(KEYS.computeIfAbsent(label, Json::camelCase)).append("\":");
+        }
+
+        /** Turns a label into a camel case key */
+        private static String camelCase(String label) {
+            StringBuilder key = new StringBuilder(label.length());
+            boolean upper = false;
+            for (int i = 0; i < label.length(); i++) {
+                char c = label.charAt(i);
+                if (!Character.isLetterOrDigit(c)) {
+                    upper = key.length() > 0;
+                }
+                else {
+                    key.append(key.length() == 0 ? Character.toLowerCase(c) : upper ? Character.toUpperCase(c) : c);
+                    upper = false;
+                }
+            }
+            return key.toString();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+* Serves HMS terminal sessions over a local TCP socket, all sharing the one HMSDatabase
+* Each connection gets its own HMSUI, reading and writing the connection through HMSInput and HMSOutput, so the menus work unchanged
+* Sessions run on virtual threads when the Java runtime has them (Java 21 and later), so idle terminals cost little more than their socket,
+* otherwise each session has a platform thread from a cached pool
+*/
+public class HMSServer {
+    /** Default port, overridden on the command line */
+    public static final int DEFAULT_PORT = 5050;
+
+    /** Number of connections waiting to be accepted before new ones are refused */
+    private static final int BACKLOG = 1024;
+
+    /** Socket accepting connections, bound to the loopback address only */
+    private final ServerSocket serverSocket;
+
+    /** Runs one task per session */
+    private final ExecutorService sessions;
+
+    /** True if sessions run on virtual threads */
+    private final boolean virtualThreads;
+
+    /** Connections with a session in progress */
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    /** Number of sessions served since the server started */
+    private final AtomicInteger served = new AtomicInteger();
+
+    /** Thread accepting connections */
+    private Thread acceptor;
+
+    /**
+     * Opens the server socket
+     * @param port The port to listen on, or 0 for any free port
+     * @throws IOException If the port cannot be opened
+     */
+    public HMSServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        ExecutorService virtual = newVirtualThreadExecutor();
+        virtualThreads = virtual != null;
+        sessions = virtualThreads ? virtual : Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "hms-session");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task, looked up by reflection as they are not in Java 17
+     * @return ExecutorService The executor, or null if the runtime has no virtual threads
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the port the server listens on
+     * @return int The port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Checks whether sessions run on virtual threads
+     * @return boolean True for virtual threads, false for platform threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Gets the number of sessions in progress
+     * @return int Number of connected sessions
+     */
+    public int getSessionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Gets the number of sessions served since the server started, including those in progress
+     * @return int Number of sessions
+     */
+    public int getServedCount() {
+        return served.get();
+    }
+
+    /**
+     * Starts accepting connections in the background
+     */
+    public void start() {
+        acceptor = new Thread(this::accept, "hms-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Accepts connections until the server socket is closed
+     */
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.add(socket);
+                served.incrementAndGet();
+                sessions.execute(() -> serve(socket));
+            }
+            catch (SocketException e) {
+                // Closed by stop
+            }
+            catch (IOException e) {
+                System.err.println("Could not accept a connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs the HMS menus for one connection, until the user exits or disconnects
+     * @param socket The connection
+     */
+    private void serve(Socket socket) {
+        try {
+            HMSInput.bindSession(socket.getInputStream());
+            HMSOutput.bindSession(socket.getOutputStream());
+            new HMSUI().launchMenu();
+        }
+        catch (NoSuchElementException | IllegalStateException e) {
+            // Disconnected while the menus waited for input
+        }
+        catch (IOException e) {
+            System.err.println("Session failed: " + e.getMessage());
+        }
+        finally {
+            HMSOutput.unbindSession();
+            HMSInput.unbindSession();
+            connections.remove(socket);
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and disconnects the sessions in progress, waiting briefly for them to finish
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        }
+        catch (IOException e) {
+            // Already closed
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                // Already closed
+            }
+        }
+        sessions.shutdown();
+        try {
+            sessions.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
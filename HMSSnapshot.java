@@ -0,0 +1,446 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+* Manages generations of the multi-file database snapshot
+* Each save writes its changed files under new generation-specific names, then commits a manifest listing the file, size and checksum for every snapshot file
+* The manifest is written to a temporary file, synced and atomically renamed, so a generation either exists completely or not at all
+* Loading picks the newest generation whose manifest and files are all intact
+*/
+public class HMSSnapshot {
+    /** Magic number at the start of every manifest ("HMSM") */
+    private static final int MANIFEST_MAGIC = 0x484D534D;
+
+    /** Prefix of manifest file names, followed by the generation number */
+    private static final String MANIFEST_PREFIX = "manifest.";
+
+    /** Number of committed generations kept on disk, older ones are deleted */
+    private static final int GENERATIONS_KEPT = 2;
+
+    /** Checksum recorded for files whose checksum is not known (files written before manifests existed) */
+    private static final long UNKNOWN_CHECKSUM = -1;
+
+    /** Directory holding the snapshot files */
+    private final File dir;
+
+    /** Newest committed (or loaded) generation, null if there is none */
+    private Generation current;
+
+    /**
+     * Size and checksum of one snapshot file within a generation
+     */
+    public static class Entry {
+        private final String fileName;
+        private final long size;
+        private final long checksum;
+
+        Entry(String fileName, long size, long checksum) {
+            this.fileName = fileName;
+            this.size = size;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * A complete set of snapshot files, as listed by one manifest
+     */
+    public class Generation {
+        private final long number;
+        private final Map<HMSDatabase.DataFile, Entry> entries;
+
+        Generation(long number, Map<HMSDatabase.DataFile, Entry> entries) {
+            this.number = number;
+            this.entries = entries;
+        }
+
+        /**
+         * Gets the generation number, 0 for files written before manifests existed
+         * @return long The generation number
+         */
+        public long getNumber() {
+            return this.number;
+        }
+
+        /**
+         * Checks whether this generation holds a snapshot file, which only optional files may be missing from
+         * @param f The snapshot file
+         * @return boolean True if the generation has the file
+         */
+        public boolean has(HMSDatabase.DataFile f) {
+            return entries.containsKey(f);
+        }
+
+        /**
+         * Gets the file holding a snapshot file's data in this generation
+         * @param f The snapshot file
+         * @return File The file on disk
+         */
+        public File fileFor(HMSDatabase.DataFile f) {
+            return new File(dir, entries.get(f).fileName);
+        }
+
+        /**
+         * Checks that a file is intact, i.e. its size and checksum match the manifest
+         * @param f The snapshot file to check
+         * @throws IOException If the file is missing, truncated or corrupt
+         */
+        public void verify(HMSDatabase.DataFile f) throws IOException {
+            Entry e = entries.get(f);
+            File file = fileFor(f);
+            if (!file.exists()) {
+                throw new IOException(e.fileName + " is missing");
+            }
+            if (e.checksum == UNKNOWN_CHECKSUM) {
+                return;
+            }
+            if (file.length() != e.size || checksum(file) != e.checksum) {
+                throw new IOException(e.fileName + " does not match manifest " + MANIFEST_PREFIX + number);
+            }
+        }
+    }
+
+    /**
+     * Creates a snapshot manager for a directory
+     * @param dir Directory holding the snapshot files
+     */
+    public HMSSnapshot(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Gets the newest committed (or loaded) generation
+     * @return Generation The current generation, or null if there is none
+     */
+    public Generation getCurrent() {
+        return this.current;
+    }
+
+    /**
+     * Sets the generation the database was loaded from, later saves build on it
+     * @param g The loaded generation
+     */
+    public void setCurrent(Generation g) {
+        this.current = g;
+    }
+
+    /**
+     * Lists the generations on disk whose manifests are readable, newest first
+     * If there are no manifests but files from before manifests existed, they are returned as generation 0
+     *
+     * @return List of generations, newest first
+     */
+    public List<Generation> listGenerations() {
+        return listGenerations(true);
+    }
+
+    /**
+     * Lists the generations on disk, optionally reporting damaged manifests
+     */
+    private List<Generation> listGenerations(boolean report) {
+        List<Generation> generations = new ArrayList<>();
+        for (long number : manifestNumbers()) {
+            try {
+                generations.add(readManifest(number));
+            } catch (IOException e) {
+                // Unreadable manifest, fall back to an older generation
+                if (report) {
+                    System.out.println("Ignoring damaged " + MANIFEST_PREFIX + number + ": " + e.getMessage());
+                }
+            }
+        }
+        generations.sort((a, b) -> Long.compare(b.number, a.number));
+
+        if (generations.isEmpty()) {
+            Map<HMSDatabase.DataFile, Entry> legacy = new EnumMap<>(HMSDatabase.DataFile.class);
+            for (HMSDatabase.DataFile f : HMSDatabase.DataFile.values()) {
+                File file = new File(dir, f.getFileName());
+                if (!file.exists()) {
+                    if (f.isOptional()) {
+                        continue;
+                    }
+                    return generations;
+                }
+                legacy.put(f, new Entry(f.getFileName(), file.length(), UNKNOWN_CHECKSUM));
+            }
+            generations.add(new Generation(0, legacy));
+        }
+        return generations;
+    }
+
+    /**
+     * Gets the number of the newest generation on disk, including one whose manifest is damaged
+     * @return long The newest generation number, 0 if there are no manifests
+     */
+    public long newestGenerationNumber() {
+        long newest = 0;
+        for (long number : manifestNumbers()) {
+            newest = Math.max(newest, number);
+        }
+        return newest;
+    }
+
+    /**
+     * Gets the number of the oldest generation kept on disk, which loading may fall back to
+     * @return long The oldest kept generation number, that of the current generation if no other is kept
+     */
+    public long oldestGenerationNumber() {
+        long oldest = current == null ? 0 : current.number;
+        for (Generation g : listGenerations(false)) {
+            oldest = Math.min(oldest, g.number);
+        }
+        return oldest;
+    }
+
+    /**
+     * Gets the number for the next generation, above any generation on disk
+     * @return long The next generation number
+     */
+    public long nextGenerationNumber() {
+        long highest = current == null ? 0 : current.number;
+        for (long number : manifestNumbers()) {
+            highest = Math.max(highest, number);
+        }
+        return highest + 1;
+    }
+
+    /**
+     * Gets the file to write a snapshot file's data to in a new generation
+     * @param f The snapshot file
+     * @param generation The new generation number
+     * @return File The file on disk, e.g. appointments.12.dat
+     */
+    public File newFile(HMSDatabase.DataFile f, long generation) {
+        String name = f.getFileName();
+        int dot = name.lastIndexOf('.');
+        return new File(dir, name.substring(0, dot) + "." + generation + name.substring(dot));
+    }
+
+    /**
+     * Commits a new generation made of the files written for it plus the unchanged files of the current generation
+     * Once the manifest is in place, generations older than the last GENERATIONS_KEPT and their files are deleted
+     *
+     * @param generation The new generation number
+     * @param written Files written for this generation
+     * @throws IOException If the manifest cannot be written
+     */
+    public void commit(long generation, Map<HMSDatabase.DataFile, File> written) throws IOException {
+        Map<HMSDatabase.DataFile, Entry> entries = new EnumMap<>(HMSDatabase.DataFile.class);
+        for (HMSDatabase.DataFile f : HMSDatabase.DataFile.values()) {
+            File file = written.get(f);
+            if (file != null) {
+                entries.put(f, new Entry(file.getName(), file.length(), checksum(file)));
+                continue;
+            }
+            if (current == null) {
+                throw new IOException("No data for " + f.getFileName() + " in generation " + generation);
+            }
+            Entry previous = current.entries.get(f);
+            if (previous == null && f.isOptional()) {
+                continue;
+            }
+            if (previous == null) {
+                throw new IOException("No data for " + f.getFileName() + " in generation " + generation);
+            }
+            if (previous.checksum == UNKNOWN_CHECKSUM) {
+                File previousFile = current.fileFor(f);
+                previous = new Entry(previous.fileName, previousFile.length(), checksum(previousFile));
+            }
+            entries.put(f, previous);
+        }
+
+        // Manifest body followed by its own checksum
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(MANIFEST_MAGIC);
+        body.writeLong(generation);
+        body.writeInt(entries.size());
+        for (Map.Entry<HMSDatabase.DataFile, Entry> e : entries.entrySet()) {
+            body.writeUTF(e.getKey().name());
+            body.writeUTF(e.getValue().fileName);
+            body.writeLong(e.getValue().size);
+            body.writeLong(e.getValue().checksum);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        body.writeLong(crc.getValue());
+
+        File manifest = new File(dir, MANIFEST_PREFIX + generation);
+        File temp = new File(dir, manifest.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            bytes.writeTo(fos);
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dir);
+
+        current = new Generation(generation, entries);
+        deleteOldGenerations();
+    }
+
+    /**
+     * Reads and checks a manifest
+     */
+    private Generation readManifest(long number) throws IOException {
+        byte[] bytes = Files.readAllBytes(new File(dir, MANIFEST_PREFIX + number).toPath());
+        if (bytes.length < 8) {
+            throw new IOException("manifest is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MANIFEST_MAGIC) {
+            throw new IOException("not a manifest");
+        }
+        long generation;
+        Map<HMSDatabase.DataFile, Entry> entries = new EnumMap<>(HMSDatabase.DataFile.class);
+        try {
+            generation = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                HMSDatabase.DataFile f = HMSDatabase.DataFile.valueOf(in.readUTF());
+                entries.put(f, new Entry(in.readUTF(), in.readLong(), in.readLong()));
+            }
+            if (in.readLong() != crc.getValue()) {
+                throw new IOException("manifest checksum mismatch");
+            }
+        } catch (EOFException | IllegalArgumentException e) {
+            throw new IOException("manifest is truncated or corrupt");
+        }
+        if (generation != number) {
+            throw new IOException("manifest is incomplete");
+        }
+        for (HMSDatabase.DataFile f : HMSDatabase.DataFile.values()) {
+            if (!f.isOptional() && !entries.containsKey(f)) {
+                throw new IOException("manifest is incomplete");
+            }
+        }
+        return new Generation(generation, entries);
+    }
+
+    /**
+     * Gets the generation numbers of all manifests on disk
+     */
+    private List<Long> manifestNumbers() {
+        List<Long> numbers = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return numbers;
+        }
+        for (String name : names) {
+            if (name.startsWith(MANIFEST_PREFIX) && !name.endsWith(".tmp")) {
+                try {
+                    numbers.add(Long.parseLong(name.substring(MANIFEST_PREFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a manifest
+                }
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Deletes manifests beyond the newest GENERATIONS_KEPT, and snapshot files no kept manifest refers to
+     */
+    private void deleteOldGenerations() {
+        List<Generation> generations = listGenerations(false);
+        Set<Long> kept = new HashSet<>();
+        Set<String> referenced = new HashSet<>();
+        for (Generation g : generations.subList(0, Math.min(GENERATIONS_KEPT, generations.size()))) {
+            kept.add(g.number);
+            for (Entry e : g.entries.values()) {
+                referenced.add(e.fileName);
+            }
+        }
+        // Older and damaged manifests
+        for (long number : manifestNumbers()) {
+            if (!kept.contains(number)) {
+                new File(dir, MANIFEST_PREFIX + number).delete();
+            }
+        }
+
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (isSnapshotFile(name) && !referenced.contains(name)) {
+                new File(dir, name).delete();
+            }
+        }
+    }
+
+    /**
+     * Checks whether a file name belongs to a snapshot file of any generation, including leftover temporary files
+     */
+    private static boolean isSnapshotFile(String name) {
+        if (name.endsWith(".tmp")) {
+            name = name.substring(0, name.length() - 4);
+            if (name.startsWith(MANIFEST_PREFIX)) {
+                return true;
+            }
+        }
+        for (HMSDatabase.DataFile f : HMSDatabase.DataFile.values()) {
+            String fileName = f.getFileName();
+            String base = fileName.substring(0, fileName.lastIndexOf('.'));
+            if (name.equals(fileName)) {
+                return true;
+            }
+            if (name.startsWith(base + ".") && name.endsWith(".dat")) {
+                String number = name.substring(base.length() + 1, name.length() - 4);
+                if (!number.isEmpty() && number.chars().allMatch(Character::isDigit)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the CRC32 checksum of a file
+     * @param file The file to check
+     * @return long The checksum
+     * @throws IOException If the file cannot be read
+     */
+    static long checksum(File file) throws IOException {
+        try (InputStream in = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16), new CRC32())) {
+            byte[] buffer = new byte[1 << 16];
+            while (in.read(buffer) != -1) {
+                // Reading updates the checksum
+            }
+            return ((CheckedInputStream) in).getChecksum().getValue();
+        }
+    }
+
+    /**
+     * Syncs a directory so renames inside it survive a crash (not supported on every platform)
+     * @param dir The directory to sync
+     */
+    static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened for syncing on some platforms, the rename is still atomic
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+* Makes a compound change to the entities of one appointment (e.g. its outcome, prescriptions and status) in full or not at all
+* A transaction holds the lock of its appointment, so transactions on different appointments run in parallel and those on the same one
+* take turns. Each change made within it registers how to undo itself (see onUndo), and if the transaction fails or gives up,
+* its changes are undone newest first (undo log)
+* The journal entries of the changes are held back and written as one entry when the transaction commits (see HMSJournal.beginTransaction),
+* so a crash never leaves half of them on disk, and checkpoints wait for running transactions before they rotate the journal and copy the collections
+* The entities are shared with a snapshot being written, which may hold a change that is later undone, so undoing a change to an entity records the restored state
+* Readers see all of a transaction or none of it by reading through read: each lock has a version that is odd while a transaction holds it,
+* and a read is tried again if the version changed meanwhile (seqlock)
+*
+* Transactions take their locks after any doctor's lock or booking partition (see BookingPartitions), never before,
+* so a transaction must not call BookingPartitions.apply or another session's code that does
+*/
+public final class HMSTransaction {
+    /** Number of striped locks, appointments whose IDs hash to the same stripe take turns */
+    private static final int STRIPES = 64;
+
+    /** Number of times a read is tried without locking before it waits for the lock */
+    private static final int OPTIMISTIC_READS = 4;
+
+    /** Lock of each stripe, held by the transaction running on it */
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+    /** Version of each stripe, odd while a transaction runs on it */
+    private static final AtomicLongArray VERSIONS = new AtomicLongArray(STRIPES);
+
+    /** Shared by running transactions, taken exclusively by checkpoints */
+    private static final ReentrantReadWriteLock CHECKPOINT = new ReentrantReadWriteLock();
+
+    /** Transaction running on the current thread, if any */
+    private static final ThreadLocal<HMSTransaction> CURRENT = new ThreadLocal<>();
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    /** Undo actions of the changes made so far, the newest first */
+    private final ArrayDeque<Runnable> undoLog = new ArrayDeque<>();
+
+    private HMSTransaction() {
+    }
+
+    /**
+     * Runs a compound change to an appointment's entities as a transaction
+     * The changes are kept if the change returns true, and undone if it returns false or throws
+     * A transaction started within another on the same appointment becomes part of it, and is kept or undone with it
+     *
+     * @param key ID of the appointment whose entities are changed
+     * @param change The change, returning false if it could not be made in full
+     * @return boolean The change's result
+     * @throws IllegalStateException If called within a transaction on another appointment's stripe
+     */
+    public static boolean run(String key, BooleanSupplier change) {
+        int stripe = stripeOf(key);
+        if (CURRENT.get() != null) {
+            if (!LOCKS[stripe].isHeldByCurrentThread()) {
+                throw new IllegalStateException("A transaction on " + key + " cannot run within a transaction on another appointment");
+            }
+            return change.getAsBoolean();
+        }
+        HMSJournal journal = HMSDatabase.getInstance().getJournal();
+        HMSTransaction tx = new HMSTransaction();
+        CHECKPOINT.readLock().lock();
+        LOCKS[stripe].lock();
+        VERSIONS.incrementAndGet(stripe);
+        CURRENT.set(tx);
+        journal.beginTransaction();
+        boolean committed = false;
+        try {
+            committed = change.getAsBoolean();
+            return committed;
+        }
+        finally {
+            CURRENT.remove();
+            try {
+                if (committed) {
+                    journal.commitTransaction();
+                }
+                else {
+                    // Undo actions that must be recorded (see onUndo) are written straight to the journal
+                    journal.abortTransaction();
+                    tx.rollback();
+                }
+            }
+            finally {
+                VERSIONS.incrementAndGet(stripe);
+                LOCKS[stripe].unlock();
+                CHECKPOINT.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Registers how to undo a change just made, if the current thread is running a transaction
+     * Undo actions run after the transaction's journal entries are dropped, so one that restores an entity already in the data
+     * (e.g. a medicine's stock or a prescription's status) must record the restored state in the journal, as a snapshot being written may hold the change,
+     * while one that removes an entity the transaction added restores it without a journal entry
+     *
+     * @param undo Reverses the change
+     */
+    static void onUndo(Runnable undo) {
+        HMSTransaction tx = CURRENT.get();
+        if (tx != null) {
+            tx.undoLog.push(undo);
+        }
+    }
+
+    /**
+     * Checks whether the current thread is running a transaction
+     * @return boolean True within a transaction
+     */
+    static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Reads an appointment's entities as a whole, never seeing part of a transaction on the appointment
+     * The read is made without locking and made again if a transaction ran meanwhile, so it must have no side effects,
+     * and after a few tries it waits for the lock instead
+     *
+     * @param <T> Type of the result
+     * @param key ID of the appointment whose entities are read
+     * @param reader Reads the entities, e.g. rendering them into a string
+     * @return T The result of a read no transaction ran during
+     */
+    public static <T> T read(String key, Supplier<T> reader) {
+        int stripe = stripeOf(key);
+        if (!LOCKS[stripe].isHeldByCurrentThread()) {
+            for (int i = 0; i < OPTIMISTIC_READS; i++) {
+                long version = VERSIONS.get(stripe);
+                if ((version & 1) == 0) {
+                    T result;
+                    try {
+                        result = reader.get();
+                    }
+                    catch (RuntimeException e) {
+                        // A transaction changed the entities under the reader
+                        if (VERSIONS.get(stripe) != version) {
+                            continue;
+                        }
+                        throw e;
+                    }
+                    // Keeps the reader's loads before the version is checked again
+                    VarHandle.acquireFence();
+                    if (VERSIONS.get(stripe) == version) {
+                        return result;
+                    }
+                }
+                Thread.onSpinWait();
+            }
+        }
+        LOCKS[stripe].lock();
+        try {
+            return reader.get();
+        }
+        finally {
+            LOCKS[stripe].unlock();
+        }
+    }
+
+    /**
+     * Gets the lock a checkpoint holds while it rotates the journal and copies the data, so no transaction is running meanwhile
+     * @return Lock The exclusive checkpoint lock
+     */
+    static Lock checkpointLock() {
+        return CHECKPOINT.writeLock();
+    }
+
+    /**
+     * Undoes the changes made so far, the newest first
+     */
+    private void rollback() {
+        while (!undoLog.isEmpty()) {
+            undoLog.pop().run();
+        }
+    }
+
+    /**
+     * Gets the stripe of an appointment ID
+     */
+    private static int stripeOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,11 @@
+/**
+ * This interface lets an entity be shown through an HMSRenderer, in the console or as machine-readable output
+ */
+public interface IRenderable {
+    /**
+     * Renders the entity's fields, in the order they are shown
+     *
+     * @param r The renderer to render the fields with
+     */
+    void render(HMSRenderer r);
+}
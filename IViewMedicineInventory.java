@@ -3,15 +3,12 @@
 */
 public interface IViewMedicineInventory {
    /**
-    * Includes all medicines in the inventory regardless of stock level or status
+    * Includes all medicines in the inventory regardless of stock level or status, a page at a time
     */
     default void viewMedicineInventory() {
         // Use database singleton
         HMSDatabase db = HMSDatabase.getInstance();
         
-        System.out.println("\n----MEDICATION INVENTORY----");
-        for (Medicine medicine : db.getAllMedicines().values()) {
-            medicine.print();
-        }
+        HMSPager.browse("\n----MEDICATION INVENTORY----", HMSPager.of(db.getAllMedicines().values()), (medicine, n) -> medicine.print());
     }
 }
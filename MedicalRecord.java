@@ -1,11 +1,6 @@
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.File;
 import java.io.Serializable;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -14,7 +9,12 @@ import java.util.Map;
  * Represents a medical record (contains patient diagnosis, treatment info and tracking of updates)
  * Implements Serializable for persistent storage.
  */
-public class MedicalRecord implements Serializable {
+public class MedicalRecord implements Serializable, IRenderable {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = 3218862691661524583L;
+
     /**
      * ID of the patient. Empty string indicates available slot.
      */
@@ -46,37 +46,96 @@ public class MedicalRecord implements Serializable {
         this.updated = LocalDateTime.now();
     }
 
+    /**
+     * Creates a medical record with a known update time, used when replaying the journal
+     * 
+     * @param patientId The ID of the patient this record belongs to
+     * @param diagnosis The medical diagnosis
+     * @param treatment The prescribed treatment
+     * @param updated The time the record was created
+     */
+    MedicalRecord(String patientId, String diagnosis, String treatment, LocalDateTime updated) {
+        this.patientId = patientId;
+        this.diagnosis = diagnosis;
+        this.treatment = treatment;
+        this.updated = updated;
+    }
+
     /**
      * Deserializes medical records from a file.
      * 
+     * @param file The file to read
      * @return Map of patient IDs to their list of medical records, or null if deserialization fails
      */
-    protected static Map<String, ArrayList<MedicalRecord>> deserialize() {
-        Map<String, ArrayList<MedicalRecord>> allMedicalRecords = null;
-        try (FileInputStream fis = new FileInputStream("medicalRecords.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allMedicalRecords = (Map<String, ArrayList<MedicalRecord>>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        return allMedicalRecords;
+    protected static Map<String, ArrayList<MedicalRecord>> deserialize(File file) {
+        return HMSCodec.read(file, in -> {
+            int count = in.readVarInt();
+            Map<String, ArrayList<MedicalRecord>> allMedicalRecords = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String patientId = in.readString();
+                int listSize = in.readVarInt();
+                ArrayList<MedicalRecord> records = new ArrayList<>(listSize);
+                for (int j = 0; j < listSize; j++) {
+                    records.add(new MedicalRecord(patientId, in.readString(), in.readString(), in.readDateTime()));
+                }
+                allMedicalRecords.put(patientId, records);
+            }
+            return allMedicalRecords;
+        });
     }
 
     /**
-     * Using a new HashMap to serialize medical records to a file
+     * Serializes medical records to a file
      * 
      * @param allMedicalRecords Map of medical records to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(Map<String, ArrayList<MedicalRecord>> allMedicalRecords) {
-        try (FileOutputStream fos = new FileOutputStream("medicalRecords.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(new HashMap<>(allMedicalRecords));
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(Map<String, ArrayList<MedicalRecord>> allMedicalRecords, File file) {
+        return HMSCodec.write(file, out -> {
+            out.writeVarInt(allMedicalRecords.size());
+            for (Map.Entry<String, ArrayList<MedicalRecord>> entry : allMedicalRecords.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeVarInt(entry.getValue().size());
+                for (MedicalRecord mr : entry.getValue()) {
+                    out.writeString(mr.diagnosis);
+                    out.writeString(mr.treatment);
+                    out.writeDateTime(mr.updated);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the ID of the patient this record belongs to
+     * @return String The patient ID
+     */
+    public String getPatientId() {
+        return this.patientId;
+    }
+
+    /**
+     * Gets the diagnosis
+     * @return String The diagnosis
+     */
+    public String getDiagnosis() {
+        return this.diagnosis;
+    }
+
+    /**
+     * Gets the treatment
+     * @return String The treatment
+     */
+    public String getTreatment() {
+        return this.treatment;
+    }
+
+    /**
+     * Gets the time the record was created
+     * @return LocalDateTime The update time
+     */
+    public LocalDateTime getUpdated() {
+        return this.updated;
     }
 
     /**
@@ -95,8 +154,17 @@ public class MedicalRecord implements Serializable {
      * Prints details of the medical record (diagnosis, treatment, update date, etc.)
      */
     public void print() {
-        System.out.println("Updated: " + this.updated.format(DateTimeFormatter.ofPattern("dd/MM/yy HH:mm:ss")));
-        System.out.println("Diagnosis: " + this.diagnosis);
-        System.out.println("Treatment: " + this.treatment);
+        HMSOutput.getInstance().print(this);
+    }
+
+    /**
+     * Renders the medical record details that print shows
+     * @param r The renderer to render the fields with
+     */
+    @Override
+    public void render(HMSRenderer r) {
+        r.field("Updated", this.updated);
+        r.field("Diagnosis", this.diagnosis);
+        r.field("Treatment", this.treatment);
     }
 }
@@ -1,8 +1,4 @@
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.File;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
@@ -11,7 +7,12 @@ import java.util.Map;
  * Tracks and prints medicine details (name, quantity, stock level alert) to the console
  * Implements Serializable for persistent storage.
  */
-public class Medicine implements Serializable {
+public class Medicine implements Serializable, IRenderable {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = 6542097846800191543L;
+
     /**
      * Name of medicine
      */
@@ -23,11 +24,11 @@ public class Medicine implements Serializable {
     /**
      * Current stock quantity of medicine
      */
-    private int stock;
+    private volatile int stock;
     /**
      * Low stock level alert threshold of medicine
      */
-    private int alertBelow;
+    private volatile int alertBelow;
 
    /**
     * Constructs a new Medicine with the specified details.
@@ -47,35 +48,67 @@ public class Medicine implements Serializable {
     /**
      * Deserializes medicine data from a file.
      * 
+     * @param file The file to read
      * @return Map of medicine names to Medicine objects, or null if deserialization fails
      */
-    protected static Map<String, Medicine> deserialize() {
-        Map<String, Medicine> allMedicines = null;
-        try (FileInputStream fis = new FileInputStream("medicines.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allMedicines = (Map<String, Medicine>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        return allMedicines;
+    protected static Map<String, Medicine> deserialize(File file) {
+        return HMSCodec.read(file, in -> {
+            int count = in.readVarInt();
+            Map<String, Medicine> allMedicines = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                Medicine m = new Medicine(in.readString(), in.readDouble(), in.readSignedVarInt(), in.readSignedVarInt());
+                allMedicines.put(m.medicineName, m);
+            }
+            return allMedicines;
+        });
     }
 
     /**
-     * Using a new HashMap to serialize medical records to a file
+     * Serializes medicines to a file
      * 
      * @param allMedicines Map of medicines to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(Map<String, Medicine> allMedicines) {
-        try (FileOutputStream fos = new FileOutputStream("medicines.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(new HashMap<>(allMedicines));
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(Map<String, Medicine> allMedicines, File file) {
+        return HMSCodec.write(file, out -> {
+            out.writeVarInt(allMedicines.size());
+            for (Medicine m : allMedicines.values()) {
+                out.writeString(m.medicineName);
+                out.writeDouble(m.medicineCost);
+                out.writeSignedVarInt(m.stock);
+                out.writeSignedVarInt(m.alertBelow);
+            }
+        });
+    }
+
+   /**
+    * Gets the name of the medicine.
+    *
+    * @return String The medicine name
+    */
+    public String getMedicineName() {
+        return this.medicineName;
+    }
+
+   /**
+    * Gets the current stock quantity.
+    *
+    * @return int The stock quantity
+    */
+    public int getStock() {
+        return this.stock;
+    }
+
+   /**
+    * Gets the low stock alert threshold.
+    *
+    * @return int The alert threshold
+    */
+    public int getAlertLevel() {
+        return this.alertBelow;
     }
+
    /**
     * Gets the cost per unit of the medicine.
     *
@@ -90,16 +123,30 @@ public class Medicine implements Serializable {
      *
      * @param replenishAmount The amount to add to current stock
      */
-    public void replenishStock(int replenishAmount) {
+    public synchronized void replenishStock(int replenishAmount) {
         this.stock += replenishAmount;
+        HMSDatabase.getInstance().getJournal().logMedicineState(this);
     }
    /**
     * Decreases the stock quantity by the specified amount.
+    * Within a transaction the amount is given back if the transaction is undone, and the restored stock recorded,
+    * as other sessions may have taken from the same stock meanwhile.
     *
     * @param decreaseAmount The amount to subtract from current stock
     */
-    public void decreaseStock(int decreaseAmount) {
+    public synchronized void decreaseStock(int decreaseAmount) {
         this.stock -= decreaseAmount;
+        HMSDatabase.getInstance().getJournal().logMedicineState(this);
+        HMSTransaction.onUndo(() -> replenishStock(decreaseAmount));
+    }
+
+   /**
+    * Restores the stock quantity recorded in the journal.
+    *
+    * @param stock The recorded stock quantity
+    */
+    synchronized void restoreStock(int stock) {
+        this.stock = stock;
     }
 
     /**
@@ -107,8 +154,9 @@ public class Medicine implements Serializable {
      *
      * @param alertBelow The new threshold for low stock alerts
      */
-    public void setAlertLevel(int alertBelow) {
+    public synchronized void setAlertLevel(int alertBelow) {
         this.alertBelow = alertBelow;
+        HMSDatabase.getInstance().getJournal().logMedicineState(this);
     }
    /**
     * Checks if current stock is at or below alert threshold.
@@ -127,13 +175,17 @@ public class Medicine implements Serializable {
      * Prints medicine details (name, quantity, stock level alert) to the console
      */
     public void print() {
-        System.out.println("Medicine Name: " + this.medicineName);
-        System.out.println("Stock: " + this.stock);
-        if (this.stock < this.alertBelow) {
-            System.out.println("Stock Level: Low");
-        }
-        else {
-            System.out.println("Stock Level: Healthy");
-        }
+        HMSOutput.getInstance().print(this);
+    }
+
+    /**
+     * Renders the medicine details that print shows
+     * @param r The renderer to render the fields with
+     */
+    @Override
+    public void render(HMSRenderer r) {
+        r.field("Medicine Name", this.medicineName);
+        r.field("Stock", this.stock);
+        r.field("Stock Level", this.stock < this.alertBelow ? "Low" : "Healthy");
     }
 }
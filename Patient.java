@@ -1,13 +1,17 @@
 import java.io.*;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 /**
  * Represents a patient in the healthcare system
  * Includes personal and medical information such as blood type and contact details
  */
-public class Patient extends User {
+public class Patient extends User implements IRenderable {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = 8381992236016330249L;
+
     /**
      * Blood type of patient
      */
@@ -45,39 +49,90 @@ public class Patient extends User {
         this.contactNumber = "";
     }
     
+    /**
+     * Constructs a Patient with existing credentials and contact details, used when loading saved data
+     *
+     * @param id The unique identifier for the patient
+     * @param role The role in the system (typically "Patient")
+     * @param name The full name of the patient
+     * @param gender The gender of the patient
+     * @param password The stored password hash
+     * @param firstLogin Whether the patient has yet to log in for the first time
+     * @param bloodType The patient's blood type
+     * @param dateOfBirth The patient's date of birth
+     * @param email The patient's email address
+     * @param contactNumber The patient's contact number
+     */
+    Patient(String id, String role, String name, String gender, String password, boolean firstLogin,
+            String bloodType, LocalDate dateOfBirth, String email, String contactNumber) {
+        super(id, role, name, gender, password, firstLogin);
+        this.bloodType = bloodType;
+        this.dateOfBirth = dateOfBirth;
+        this.email = email;
+        this.contactNumber = contactNumber;
+    }
+
     /**
      * Deserializes patient data from a file.
      * 
+     * @param file The file to read
      * @return ArrayList of Patient objects, or null if deserialization fails
      */
-    protected static ArrayList<Patient> deserialize() {
-        ArrayList<Patient> allPatients = null;
-        try (FileInputStream fis = new FileInputStream("patient.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allPatients = (ArrayList<Patient>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        return allPatients;
+    protected static ArrayList<Patient> deserialize(File file) {
+        return HMSCodec.read(file, in -> {
+            int count = in.readVarInt();
+            ArrayList<Patient> allPatients = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                allPatients.add(new Patient(in.readString(), in.readRef(), in.readString(), in.readRef(), in.readString(), in.readBoolean(),
+                    in.readRef(), in.readDate(), in.readString(), in.readString()));
+            }
+            return allPatients;
+        });
     }
 
     /**
      * Serializes patient data to a file.
      * 
      * @param allPatients List of patients to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(ArrayList<Patient> allPatients) {
-        try (FileOutputStream fos = new FileOutputStream("patient.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(allPatients);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(ArrayList<Patient> allPatients, File file) {
+        return HMSCodec.write(file, out -> {
+            out.writeVarInt(allPatients.size());
+            for (Patient p : allPatients) {
+                p.encode(out);
+            }
+        });
+    }
+
+    @Override
+    void encode(HMSCodec.Writer out) throws IOException {
+        super.encode(out);
+        out.writeRef(this.bloodType);
+        out.writeDate(this.dateOfBirth);
+        out.writeString(this.email);
+        out.writeString(this.contactNumber);
     }
     
+    /**
+     * Gets the patient's email
+     * 
+     * @return The email address
+     */
+    public String getEmail() {
+        return this.email;
+    }
+
+    /**
+     * Gets the patient's contact number
+     * 
+     * @return The contact number
+     */
+    public String getContactNumber() {
+        return this.contactNumber;
+    }
+
     /**
      * Updates the patient's email
      * 
@@ -85,6 +140,7 @@ public class Patient extends User {
      */
     public void setEmail(String email) {
         this.email = email;
+        HMSDatabase.getInstance().getJournal().logUserUpdate(this);
     }
     /**
      * Updates the patient's contact nummber
@@ -93,19 +149,29 @@ public class Patient extends User {
      */
     public void setContactNumber(String contactNumber) {
         this.contactNumber = contactNumber;
+        HMSDatabase.getInstance().getJournal().logUserUpdate(this);
     }
 
     /**
      * Prints patient details (patient ID, role, name, gender, blood type, date of birth, email, etc.)
      */
     public void print() {
-        System.out.println("Id: " + this.getId());
-        System.out.println("Role: " + this.getRole());
-        System.out.println("Name: " + this.getName());
-        System.out.println("Gender: " + this.getGender());
-        System.out.println("Blood Type: " + this.bloodType);
-        System.out.println("DOB: " + this.dateOfBirth.format(DateTimeFormatter.ofPattern("dd/MM/yy")));
-        System.out.println("Email: " + this.email);
-        System.out.println("Contact: " + this.contactNumber);
+        HMSOutput.getInstance().print(this);
+    }
+
+    /**
+     * Renders the patient details that print shows
+     * @param r The renderer to render the fields with
+     */
+    @Override
+    public void render(HMSRenderer r) {
+        r.field("Id", this.getId());
+        r.field("Role", this.getRole());
+        r.field("Name", this.getName());
+        r.field("Gender", this.getGender());
+        r.field("Blood Type", this.bloodType);
+        r.field("DOB", this.dateOfBirth);
+        r.field("Email", this.email);
+        r.field("Contact", this.contactNumber);
     }
 }
@@ -3,10 +3,11 @@ import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
-import java.util.stream.Collectors;
 /**
 * Manages patient-specific operations (medical record viewing, appointment management, personal info updates) by implementing multiple interfaces
 */
@@ -15,6 +16,8 @@ public class PatientManager implements IViewMedicalRecord, IAuthChangePassword,
     private final HMSDatabase db = HMSDatabase.getInstance();
     // Use scanner singleton
     private final Scanner scanner = HMSInput.getInstance().getScanner();
+    // Number of slots shown for a slot search
+    private static final int SLOT_SEARCH_LIMIT = 10;
    /**
     * Displays the medical record for a specific patient.
     * Shows the patient's personal details and complete medical history.
@@ -30,9 +33,7 @@ public class PatientManager implements IViewMedicalRecord, IAuthChangePassword,
             System.out.println("You have no medical history");
         }
         else {
-            for (MedicalRecord mr : medRecords) {
-                mr.print();
-            }
+            HMSPager.browse("----YOUR MEDICAL HISTORY----", HMSPager.of(medRecords), (mr, n) -> mr.print());
         }
     }
    /**
@@ -51,14 +52,11 @@ public class PatientManager implements IViewMedicalRecord, IAuthChangePassword,
         
     }
    /**
-    * Displays available (open) appointment slots in the system
+    * Displays the earliest available (open) appointment slots matching the patient's search
     * Shows appointments that have not been booked or requested by any patient
     */
     public void viewAppointmentSlots() {
-        List<Appointment> openAppointments = db.getAllAppointments()
-            .stream()
-            .filter(a -> a.getAppointmentStatus().equals(Appointment.AppointmentStatus.OPEN))
-            .collect(Collectors.toList());
+        List<Appointment> openAppointments = searchAppointmentSlots();
 
         if (openAppointments.isEmpty()) {
             System.out.println("There are no appointment slots available");
@@ -72,6 +70,77 @@ public class PatientManager implements IViewMedicalRecord, IAuthChangePassword,
             }
         }
     }
+   /**
+    * Asks for a date range, doctor and time of day, and finds the earliest open slots that match
+    * Blank answers leave that part of the search open
+    *
+    * @return List of up to SLOT_SEARCH_LIMIT open appointments, earliest first
+    */
+    private List<Appointment> searchAppointmentSlots() {
+        LocalDate from = readOptionalDate("Search from which date? (dd/MM/yy, blank for today):", LocalDate.now());
+        LocalDate to = readOptionalDate("Search up to which date? (dd/MM/yy, blank for no limit):", null);
+
+        System.out.println("Which doctor? (id, Male or Female, blank for any doctor):");
+        String doctor = scanner.nextLine().trim();
+        Collection<String> doctorIds = null;
+        if (doctor.equalsIgnoreCase("Male") || doctor.equalsIgnoreCase("Female")) {
+            doctorIds = new ArrayList<>();
+            for (User u : db.getUserRegistry().withRole("Doctor")) {
+                if (doctor.equalsIgnoreCase(u.getGender())) {
+                    doctorIds.add(u.getId());
+                }
+            }
+        }
+        else if (!doctor.isEmpty()) {
+            doctorIds = Collections.singletonList(doctor);
+        }
+
+        LocalTime earliest = null;
+        LocalTime latest = null;
+        while (true) {
+            System.out.println("Between which times? (HH:mm-HH:mm, blank for any time):");
+            String window = scanner.nextLine().trim();
+            if (window.isEmpty()) {
+                break;
+            }
+            try {
+                String[] times = window.split("-", 2);
+                earliest = LocalTime.parse(times[0].trim(), DateTimeFormatter.ofPattern("HH:mm"));
+                latest = LocalTime.parse(times[1].trim(), DateTimeFormatter.ofPattern("HH:mm"));
+                if (earliest.isAfter(latest)) {
+                    System.out.println("The first time must not be after the second time");
+                }
+                else {
+                    break;
+                }
+            } catch (DateTimeParseException | ArrayIndexOutOfBoundsException e) {
+                System.out.println("Invalid time range. Please use HH:mm-HH:mm (e.g., 09:00-12:00)");
+            }
+        }
+
+        return db.getAppointmentIndex().earliestOpen(from, to, earliest, latest, doctorIds, SLOT_SEARCH_LIMIT);
+    }
+   /**
+    * Reads a date, or returns a default if the answer is blank
+    *
+    * @param prompt The question to ask
+    * @param defaultDate The date to use for a blank answer
+    * @return LocalDate The date entered, or defaultDate
+    */
+    private LocalDate readOptionalDate(String prompt, LocalDate defaultDate) {
+        while (true) {
+            System.out.println(prompt);
+            String date = scanner.nextLine().trim();
+            if (date.isEmpty()) {
+                return defaultDate;
+            }
+            try {
+                return LocalDate.parse(date, DateTimeFormatter.ofPattern("dd/MM/yy"));
+            } catch (DateTimeParseException e) {
+                System.out.println("Invalid date format. Please use dd/MM/yy (e.g., 25/12/23)");
+            }
+        }
+    }
    /**
     * Schedules an appointment for a patient with a specified doctor.
     * Validation added for Doctor ID existence, date validity, time validity, etc.
@@ -81,8 +150,12 @@ public class PatientManager implements IViewMedicalRecord, IAuthChangePassword,
     */
     public void scheduleAppointment(Patient p) {
         // Choose doctor
-        System.out.println("Which doctor do you want to schedule with? (id):");
+        System.out.println("Which doctor do you want to schedule with? (id, blank to search for the earliest available slots):");
         String doctorId = scanner.nextLine();
+        if (doctorId.trim().isEmpty()) {
+            scheduleFromSearch(p);
+            return;
+        }
 
         // Choose date
         String date;
@@ -116,27 +189,64 @@ public class PatientManager implements IViewMedicalRecord, IAuthChangePassword,
         final LocalTime finalParsedTime = parsedTime;
 
         // Find slot
-        Appointment appointment = db.getAllAppointments()
-            .stream()
-            .filter(a -> 
-                a.getAppointmentStatus().equals(Appointment.AppointmentStatus.OPEN) 
-                && a.getDoctorId().equals(doctorId) 
-                && a.getAppointmentDate().equals(finalParsedDate) 
-                && a.getAppointmentTime().equals(finalParsedTime))
-            .findFirst()
-            .orElse(null);
+        Appointment appointment = db.getAppointmentIndex().atSlot(doctorId, finalParsedDate, finalParsedTime, Appointment.AppointmentStatus.OPEN);
 
         if (appointment == null) {
             System.out.println("No appointment slot found for this doctor");
             return;
         }
+        else if (!db.getBookingPartitions().apply(doctorId, () -> appointment.schedulePatient(p.getId()))) {
+            // Another patient requested it first
+            System.out.println("That appointment slot is no longer available");
+        }
         else {
-            // Schedule slot
-            appointment.schedulePatient(p.getId());
             System.out.println("Appointment slot successfully requested");
         }
     }
 
+   /**
+    * Schedules an appointment chosen from the earliest open slots matching the patient's search
+    *
+    * @param p The Patient scheduling the appointment
+    */
+    private void scheduleFromSearch(Patient p) {
+        List<Appointment> openAppointments = searchAppointmentSlots();
+        if (openAppointments.isEmpty()) {
+            System.out.println("There are no appointment slots available");
+            return;
+        }
+        System.out.println("----AVAILABLE APPOINTMENT SLOTS----");
+        int count = 1;
+        for (Appointment a : openAppointments) {
+            System.out.println("SLOT " + count++);
+            a.print();
+        }
+
+        int choice;
+        while (true) {
+            try {
+                System.out.println("Which slot do you want to request? (1-" + openAppointments.size() + ", 0 to cancel):");
+                choice = Integer.parseInt(scanner.nextLine().trim());
+                if (choice >= 0 && choice <= openAppointments.size()) {
+                    break;
+                }
+                System.out.println("Invalid slot number");
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid input. Please enter a number");
+            }
+        }
+        if (choice == 0) {
+            return;
+        }
+
+        Appointment appointment = openAppointments.get(choice - 1);
+        if (!db.getBookingPartitions().apply(appointment.getDoctorId(), () -> appointment.schedulePatient(p.getId()))) {
+            System.out.println("That appointment slot is no longer available");
+            return;
+        }
+        System.out.println("Appointment slot successfully requested");
+    }
+
    /**
     * Cancels a scheduled or pending appointment for a patient
     *
@@ -181,12 +291,11 @@ public class PatientManager implements IViewMedicalRecord, IAuthChangePassword,
         final LocalTime finalParsedTime = parsedTime;
 
         // Find scheduled appointment
-        Appointment appointment = db.getAllAppointments()
+        Appointment appointment = db.getAppointmentIndex()
+            .forPatient(p.getId(), Appointment.AppointmentStatus.PENDING, Appointment.AppointmentStatus.SCHEDULED)
             .stream()
             .filter(a -> 
-                Objects.equals(a.getPatientId(), p.getId()) 
-                && Objects.equals(a.getDoctorId(), doctorId)
-                && (a.getAppointmentStatus().equals(Appointment.AppointmentStatus.PENDING) || a.getAppointmentStatus().equals(Appointment.AppointmentStatus.SCHEDULED))
+                Objects.equals(a.getDoctorId(), doctorId)
                 && a.getAppointmentDate().equals(finalParsedDate) 
                 && a.getAppointmentTime().equals(finalParsedTime))
             .findFirst()
@@ -196,9 +305,12 @@ public class PatientManager implements IViewMedicalRecord, IAuthChangePassword,
             System.out.println("No appointment slot found to cancel");   
             return false;
         }
+        else if (!db.getBookingPartitions().apply(doctorId, () -> appointment.resetSlot(p.getId()))) {
+            // The doctor completed or declined it in the meantime
+            System.out.println("That appointment can no longer be cancelled");
+            return false;
+        }
         else {
-            // Reset slot
-            appointment.resetSlot();
             System.out.println("Appointment slot successfully cancelled");
             return true;
         }
@@ -210,59 +322,58 @@ public class PatientManager implements IViewMedicalRecord, IAuthChangePassword,
     * @param p The patient User object whose appointments should be shown
     */
     public void viewScheduledAppointments(User p) {
-        List<Appointment> scheduledAppointments = db.getAllAppointments()
-            .stream()
-            .filter(a -> a.getPatientId() != null)  // Check null first
-            .filter(a -> a.getPatientId().equals(p.getId()))  // Then check equality
-            .filter(a -> a.getAppointmentStatus().equals(Appointment.AppointmentStatus.SCHEDULED) 
-                || a.getAppointmentStatus().equals(Appointment.AppointmentStatus.PENDING))        
-            .collect(Collectors.toList());
+        List<Appointment> scheduledAppointments = db.getAppointmentIndex()
+            .forPatient(p.getId(), Appointment.AppointmentStatus.SCHEDULED, Appointment.AppointmentStatus.PENDING);
 
         if (scheduledAppointments.isEmpty()) {
             System.out.println("You have no scheduled appointments");
         }
         else {
-            System.out.println("----YOUR SCHEDULED APPOINTMENT SLOTS----");
-            int count = 1;
-            for (Appointment a : scheduledAppointments) {
-                System.out.println("SLOT " + count++ + "");
+            HMSPager.browse("----YOUR SCHEDULED APPOINTMENT SLOTS----", HMSPager.of(scheduledAppointments), (a, n) -> {
+                System.out.println("SLOT " + n + "");
                 a.print();
-            }
+            });
         }
     }
    /**
-    * Displays details of all completed appointments (date and time, services provided, etc.) for a patient
+    * Displays details of completed appointments (date and time, services provided, etc.) for a patient, optionally within a date range
     *
     * @param p The Patient whose appointment outcomes should be displayed
     */
     public void viewAppointmentOutcomeRecords(Patient p) {
-        List<Appointment> completedAppointments = db.getAllAppointments()
-            .stream()
-            .filter(a -> a.getPatientId() != null)
-            .filter(a -> Objects.equals(a.getPatientId(), p.getId())
-                && a.getAppointmentStatus().equals(Appointment.AppointmentStatus.COMPLETED))
-            .collect(Collectors.toList());
+        LocalDate from = readOptionalDate("Show outcomes from which date? (dd/MM/yy, blank for all):", null);
+        LocalDate to = readOptionalDate("Show outcomes up to which date? (dd/MM/yy, blank for all):", null);
+        List<Appointment> completedAppointments = db.getAppointmentIndex().forPatient(p.getId(), Appointment.AppointmentStatus.COMPLETED);
+        completedAppointments.removeIf(a -> (from != null && a.getAppointmentDate().isBefore(from)) || (to != null && a.getAppointmentDate().isAfter(to)));
 
         if (completedAppointments.isEmpty()) {
             System.out.println("You have no completed appointments");
             }
         else {
-            System.out.println("----YOUR APPOINTMENT OUTCOMES----");
-            for (Appointment a : completedAppointments) {
-                AppointmentOutcome ao = db.getAllAppointmentOutcomes().get(a.getAppointmentId());
-                ArrayList<Prescription> pList = db.getAllPrescriptions().get(a.getAppointmentId());
-
-                System.out.println(ao.getOutcomeDateTime());
-                System.out.println("Services Provided: " + ao.getServicesProvided());
-                System.out.println("Prescriptions: ");
-                for (Prescription pre : pList) {
-                    pre.print();
-                }
-
-                System.out.println("Cost of Appointment: " + ao.getAppointmentCost());
-                System.out.println("Consultation Notes: " + ao.getConsultationNotes());
-                
-            }
+            HMSPager.browse("----YOUR APPOINTMENT OUTCOMES----", HMSPager.of(completedAppointments), (a, n) -> {
+                // Read the outcome, its prescriptions and cost as one, never halfway through a transaction recording or dispensing them
+                String outcome = HMSTransaction.read(a.getAppointmentId(), () -> {
+                    AppointmentOutcome ao = db.getAllAppointmentOutcomes().get(a.getAppointmentId());
+                    if (ao == null) {
+                        return "This appointment has no outcome recorded\n";
+                    }
+                    ArrayList<Prescription> pList = db.getAllPrescriptions().get(a.getAppointmentId());
+                    StringBuilder text = new StringBuilder();
+                    text.append(ao.getOutcomeDateTime()).append('\n');
+                    text.append("Services Provided: ").append(ao.getServicesProvided()).append('\n');
+                    text.append("Prescriptions: \n");
+                    if (pList != null) {
+                        HMSRenderer r = HMSRenderer.text(text);
+                        for (Prescription pre : pList) {
+                            r.render(pre);
+                        }
+                    }
+                    text.append("Cost of Appointment: ").append(ao.getAppointmentCost()).append('\n');
+                    text.append("Consultation Notes: ").append(ao.getConsultationNotes()).append('\n');
+                    return text.toString();
+                });
+                System.out.print(outcome);
+            });
         }
     }
 }
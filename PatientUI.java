@@ -92,6 +92,8 @@ public class PatientUI extends AbstractAuthMenu{
                     newPatientManager.changePassword((User) p);
                     break;
                 case 10:
+                    // Save this session's changes in the background
+                    HMSDatabase.getInstance().getCheckpointer().requestCheckpoint();
                     return;
                 default:
                     System.out.println("Invalid choice");
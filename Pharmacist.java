@@ -6,6 +6,11 @@ import java.util.*;
  * Implements Serializable for persistent storage
  */
 public class Pharmacist extends Staff {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = -5672884175983048698L;
+
     
     /**
      * Constructs a new Pharmacist with the specified attributes
@@ -20,36 +25,39 @@ public class Pharmacist extends Staff {
         super(id, role, name, gender, age);
     }
 
+    /**
+     * Constructs a Pharmacist with existing credentials, used when loading saved data
+     *
+     * @param id The unique identifier for the pharmacist
+     * @param role The role/position of the pharmacist
+     * @param name The full name of the pharmacist
+     * @param gender The gender of the pharmacist
+     * @param age The age of the pharmacist
+     * @param password The stored password hash
+     * @param firstLogin Whether the pharmacist has yet to log in for the first time
+     */
+    Pharmacist(String id, String role, String name, String gender, int age, String password, boolean firstLogin) {
+        super(id, role, name, gender, age, password, firstLogin);
+    }
+
     /**
      * Deserializes pharmacist data from a file.
      * 
+     * @param file The file to read
      * @return ArrayList of Pharmacist objects, or null if deserialization fails
      */
-    protected static ArrayList<Pharmacist> deserialize() {
-        ArrayList<Pharmacist> allPharmacists = null;
-        try (FileInputStream fis = new FileInputStream("pharmacist.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allPharmacists = (ArrayList<Pharmacist>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        return allPharmacists;
+    protected static ArrayList<Pharmacist> deserialize(File file) {
+        return Staff.decodeAll(file, Pharmacist::new);
     }
 
     /**
      * Serializes pharmacist data to a file.
      * 
      * @param allPharmacists List of pharmacists to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(ArrayList<Pharmacist> allPharmacists) {
-        try (FileOutputStream fos = new FileOutputStream("pharmacist.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(allPharmacists);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(ArrayList<Pharmacist> allPharmacists, File file) {
+        return Staff.encodeAll(file, allPharmacists);
     }
 }
\ No newline at end of file
@@ -1,7 +1,6 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
-import java.util.stream.Collectors;
 /**
 * Manages pharmacist-specific operations in the hospital management system.
 * Implements multiple interfaces to handle various pharmacy tasks (prescription management, medicine inventory, and replenishment requests)
@@ -11,69 +10,112 @@ public class PharmacistManager implements IViewMedicineInventory, ICheckMedicine
     private final HMSDatabase db = HMSDatabase.getInstance();
     // Use scanner singleton
     private final Scanner scanner = HMSInput.getInstance().getScanner();
+    // Number of pending prescriptions shown per page
+    private static final int PRESCRIPTION_PAGE_SIZE = 10;
+
+    /**
+     * Results of dispensing a prescription, each with the message shown for it
+     */
+    public static enum DispenseResult {
+        /** The prescription was dispensed */
+        DISPENSED("Prescription dispensed"),
+        /** Another session had already dispensed the prescription */
+        ALREADY_DISPENSED("This prescription has already been dispensed"),
+        /** The prescribed medicine is no longer in the inventory */
+        NO_MEDICINE("The prescribed medicine is not in the inventory"),
+        /** The prescription's appointment has no outcome to charge */
+        NO_OUTCOME("The prescription's appointment has no outcome");
+
+        private final String message;
+
+        DispenseResult(String message) {
+            this.message = message;
+        }
+
+        /**
+         * Gets the message shown for this result
+         * @return String The message
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
    /**
-    * Displays outcomes of all completed appointments including prescriptions.
+    * Displays outcomes of all completed appointments including prescriptions, a page at a time.
     */
     public void viewAppointmentOutcomeRecords() {
         // View appointment outcome records
-        List<Appointment> completedAppointments = db.getAllAppointments()
-            .stream()
-            .filter(a -> 
-                a.getAppointmentStatus().equals(Appointment.AppointmentStatus.COMPLETED))
-            .collect(Collectors.toList());
+        List<Appointment> completedAppointments = db.getAppointmentIndex().withStatus(Appointment.AppointmentStatus.COMPLETED);
 
         if (completedAppointments.isEmpty()) {
             System.out.println("There are no completed appointments");
         }
         else {
-            System.out.println("----APPOINTMENT OUTCOMES----");
-            for (Appointment a : completedAppointments) {
-                AppointmentOutcome ao = db.getAllAppointmentOutcomes().get(a.getAppointmentId());
-                ArrayList<Prescription> pList = db.getAllPrescriptions().get(a.getAppointmentId());
-                System.out.println(ao.getOutcomeDateTime());
-                System.out.println("Services Provided: " + ao.getServicesProvided());
-                System.out.println("Prescriptions: ");
-                for (Prescription pre : pList) {
-                    pre.print();
-                }
-                System.out.println("Consultation Notes: " + ao.getConsultationNotes());
-            }
+            HMSPager.browse("----APPOINTMENT OUTCOMES----", HMSPager.of(completedAppointments), (a, n) -> {
+                // Read the outcome and its prescriptions as one, never halfway through a transaction recording or dispensing them
+                String outcome = HMSTransaction.read(a.getAppointmentId(), () -> {
+                    AppointmentOutcome ao = db.getAllAppointmentOutcomes().get(a.getAppointmentId());
+                    if (ao == null) {
+                        return "This appointment has no outcome recorded\n";
+                    }
+                    ArrayList<Prescription> pList = db.getAllPrescriptions().get(a.getAppointmentId());
+                    StringBuilder text = new StringBuilder();
+                    text.append(ao.getOutcomeDateTime()).append('\n');
+                    text.append("Services Provided: ").append(ao.getServicesProvided()).append('\n');
+                    text.append("Prescriptions: \n");
+                    if (pList != null) {
+                        HMSRenderer r = HMSRenderer.text(text);
+                        for (Prescription pre : pList) {
+                            r.render(pre);
+                        }
+                    }
+                    text.append("Consultation Notes: ").append(ao.getConsultationNotes()).append('\n');
+                    return text.toString();
+                });
+                System.out.print(outcome);
+            });
         }
     }
 
    /**
-    * Manages the dispensing of pending prescriptions, allowing selection of prescriptions to dispense
+    * Manages the dispensing of pending prescriptions, allowing selection of prescriptions to dispense from the pending queue one page at a time
     * Updates prescription status and medicine inventory as well
     *
     * @throws NumberFormatException Caught internally for invalid numeric input
     */
     public void updatePrescriptionStatus() {
-        // Update prescription status
+        // Update prescription status, one page of the pending queue at a time
+        HMSPager<Prescription> pager = new HMSPager<>(db.getPrescriptionQueue(), PRESCRIPTION_PAGE_SIZE);
         while (true) {
-            List<Prescription> pendingPrescriptions = db.getAllPrescriptions().values()
-                .stream()
-                .flatMap(List::stream)
-                .filter(p -> p.getStatus().equals(Prescription.Status.PENDING))
-                .collect(Collectors.toList());
-
+            List<Prescription> pendingPrescriptions = pager.currentPage();
             if (pendingPrescriptions.isEmpty()) {
                 System.out.println("There are no pending prescriptions");
                 break;
             }
-            System.out.println("\n----PENDING PRESCRIPTIONS----");
+            int offset = pager.getCursor();
+            System.out.println("\n----PENDING PRESCRIPTIONS " + pager.describe(pendingPrescriptions) + "----");
 
-            // Display all pending prescriptions with index numbers
-            for (int i = 0; i < pendingPrescriptions.size(); i++) {
-                System.out.println("\nPrescription " + (i + 1) + ":");
-                pendingPrescriptions.get(i).print();
-            }
+            // Display the page with index numbers
+            pager.print(pendingPrescriptions, (prescription, n) -> {
+                System.out.println("\nPrescription " + n + ":");
+                prescription.print();
+            });
 
             int prescriptionNum;
             while (true) {
                 try {
-                    System.out.print("Enter prescription number to dispense (1-" + pendingPrescriptions.size() + ", 0 to quit): ");
-                    String enteredChoice = scanner.nextLine();
-                    prescriptionNum = Integer.parseInt(enteredChoice);
+                    System.out.print("Enter prescription number to dispense (" + (offset + 1) + "-" + (offset + pendingPrescriptions.size())
+                        + ", n for next page, p for previous page, 0 to quit): ");
+                    String enteredChoice = scanner.nextLine().trim();
+                    if (enteredChoice.equalsIgnoreCase("n")) {
+                        prescriptionNum = -1;
+                    }
+                    else if (enteredChoice.equalsIgnoreCase("p")) {
+                        prescriptionNum = -2;
+                    }
+                    else {
+                        prescriptionNum = Integer.parseInt(enteredChoice);
+                    }
                     break;
                 } catch (NumberFormatException e) {
                     System.out.println("Invalid input. Please enter a valid choice");
@@ -83,14 +125,26 @@ public class PharmacistManager implements IViewMedicineInventory, ICheckMedicine
             if (prescriptionNum == 0) {
                 break;
             }
+            // Next page
+            else if (prescriptionNum == -1) {
+                if (!pager.next()) {
+                    System.out.println("This is the last page");
+                }
+            }
+            // Previous page
+            else if (prescriptionNum == -2) {
+                if (!pager.previous()) {
+                    System.out.println("This is the first page");
+                }
+            }
             // Invalid
-            else if (prescriptionNum < 1 || prescriptionNum > pendingPrescriptions.size()) {
+            else if (prescriptionNum <= offset || prescriptionNum > offset + pendingPrescriptions.size()) {
                 System.out.println("Invalid prescription number");
                 break;
             }
             // Charge prescription to user
             else {
-                Prescription prescription = pendingPrescriptions.get(prescriptionNum - 1);
+                Prescription prescription = pendingPrescriptions.get(prescriptionNum - offset - 1);
                 chargePrescriptions(prescription);
             }
         }
@@ -129,7 +183,7 @@ public class PharmacistManager implements IViewMedicineInventory, ICheckMedicine
             }
 
             ReplenishmentRequest newRequest = ReplenishmentRequest.createReplenishmentRequest(ph.getId(), medicine, replenishAmount);
-            db.getAllReplenishmentRequests().add(newRequest);
+            db.addReplenishmentRequest(newRequest);
         }
         else {
             System.out.println("This medicine does not have low stock level");
@@ -141,17 +195,45 @@ public class PharmacistManager implements IViewMedicineInventory, ICheckMedicine
     * Prescription is also marked as dispensed
     *
     * @param prescription The Prescription to be charged and dispensed
+    * @return boolean True if the prescription was dispensed, false if it was not (e.g. it had already been dispensed)
     */
-    public void chargePrescriptions(Prescription prescription) {
-        Medicine medicine = db.getAllMedicines().get(prescription.getMedication());
-        double cost = medicine.getMedicineCost() * prescription.getQuantity();
-        
-        AppointmentOutcome appointmentOutcome = db.getAllAppointmentOutcomes().get(prescription.getAppointmentId());
-        
-        // Use up medicine, set cost of appointment and set prescriptionStatus to dispensed
-        medicine.decreaseStock(prescription.getQuantity());
-        appointmentOutcome.setAppointmentCost(cost + appointmentOutcome.getAppointmentCost());
-        prescription.dispensePrescription();
-        System.out.println("Prescription dispensed");
+    public boolean chargePrescriptions(Prescription prescription) {
+        DispenseResult result = dispense(prescription);
+        System.out.println(result.getMessage());
+        return result == DispenseResult.DISPENSED;
+    }
+   /**
+    * Dispenses a prescription, taking the medicine from stock and adding its cost to the appointment outcome
+    * Runs as a transaction on the appointment (see HMSTransaction), so a prescription another session has just dispensed is not charged twice,
+    * and the stock, cost and status change together or not at all
+    *
+    * @param prescription The Prescription to be charged and dispensed
+    * @return DispenseResult DISPENSED, or why the prescription could not be dispensed
+    */
+    public DispenseResult dispense(Prescription prescription) {
+        DispenseResult[] result = { DispenseResult.DISPENSED };
+        HMSTransaction.run(prescription.getAppointmentId(), () -> {
+            Medicine medicine = db.getAllMedicines().get(prescription.getMedication());
+            AppointmentOutcome appointmentOutcome = db.getAllAppointmentOutcomes().get(prescription.getAppointmentId());
+            if (medicine == null) {
+                result[0] = DispenseResult.NO_MEDICINE;
+                return false;
+            }
+            if (appointmentOutcome == null) {
+                result[0] = DispenseResult.NO_OUTCOME;
+                return false;
+            }
+            if (!prescription.dispensePrescription()) {
+                result[0] = DispenseResult.ALREADY_DISPENSED;
+                return false;
+            }
+            double cost = medicine.getMedicineCost() * prescription.getQuantity();
+
+            // Use up medicine and set cost of appointment
+            medicine.decreaseStock(prescription.getQuantity());
+            appointmentOutcome.setAppointmentCost(cost + appointmentOutcome.getAppointmentCost());
+            return true;
+        });
+        return result[0];
     }
 }
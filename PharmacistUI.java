@@ -72,6 +72,8 @@ public class PharmacistUI extends AbstractAuthMenu{
                     newPharmacistManager.changePassword((User) ph);
                     break;
                 case 6:
+                    // Save this session's changes in the background
+                    HMSDatabase.getInstance().getCheckpointer().requestCheckpoint();
                     loggedIn = false;
                     return;
                 default:
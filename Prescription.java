@@ -1,8 +1,4 @@
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -12,7 +8,12 @@ import java.util.Map;
  * Tracks medication details, quantity, and dispensing status
  * Implements Serializable for persistent storage
  */
-public class Prescription implements Serializable {
+public class Prescription implements Serializable, IRenderable {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = -1149691911368194168L;
+
     /**
      * Appointment ID for the prescription
      */
@@ -28,7 +29,7 @@ public class Prescription implements Serializable {
     /**
      * Prescription status (i.e. DISPENSED)
      */
-    private Status prescriptionStatus;
+    private volatile Status prescriptionStatus;
 
     /**
      * Status of prescriptions.
@@ -62,34 +63,48 @@ public class Prescription implements Serializable {
     /**
      * Deserializes prescriptions from a file.
      * 
+     * @param file The file to read
      * @return Map of appointment IDs to their list of prescriptions, or null if deserialization fails
      */
-    protected static Map<String, ArrayList<Prescription>> deserialize() {
-        Map<String, ArrayList<Prescription>> allPrescriptions = null;
-        try (FileInputStream fis = new FileInputStream("prescriptions.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allPrescriptions = (Map<String, ArrayList<Prescription>>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        return allPrescriptions;
+    protected static Map<String, ArrayList<Prescription>> deserialize(File file) {
+        return HMSCodec.read(file, in -> {
+            int count = in.readVarInt();
+            Map<String, ArrayList<Prescription>> allPrescriptions = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String appointmentId = in.readString();
+                int listSize = in.readVarInt();
+                ArrayList<Prescription> pList = new ArrayList<>(listSize);
+                for (int j = 0; j < listSize; j++) {
+                    Prescription p = new Prescription(appointmentId, in.readRef(), in.readSignedVarInt());
+                    p.prescriptionStatus = Status.values()[in.readByte()];
+                    pList.add(p);
+                }
+                allPrescriptions.put(appointmentId, pList);
+            }
+            return allPrescriptions;
+        });
     }
 
     /**
      * Serializes prescriptions to a file.
      * 
      * @param allPrescriptions Map of prescriptions to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(Map<String, ArrayList<Prescription>> allPrescriptions) {
-        try (FileOutputStream fos = new FileOutputStream("prescriptions.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(new HashMap<>(allPrescriptions));
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(Map<String, ArrayList<Prescription>> allPrescriptions, File file) {
+        return HMSCodec.write(file, out -> {
+            out.writeVarInt(allPrescriptions.size());
+            for (Map.Entry<String, ArrayList<Prescription>> entry : allPrescriptions.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeVarInt(entry.getValue().size());
+                for (Prescription p : entry.getValue()) {
+                    out.writeRef(p.medication);
+                    out.writeSignedVarInt(p.quantity);
+                    out.writeByte(p.prescriptionStatus.ordinal());
+                }
+            }
+        });
     }
     
     /**
@@ -126,6 +141,15 @@ public class Prescription implements Serializable {
         return this.appointmentId;
     }
 
+   /**
+    * Points the prescription at its appointment's new ID after an ID migration.
+    *
+    * @param appointmentId The new appointment ID
+    */
+    void migrateAppointmentId(String appointmentId) {
+        this.appointmentId = appointmentId;
+    }
+
     /**
      * Creates a new prescription for a specific appointment.
      * 
@@ -139,18 +163,59 @@ public class Prescription implements Serializable {
     }
 
     /**
-     * Marks the prescription as dispensed by changing its status to DISPENSED.
+     * Marks the prescription as dispensed by changing its status to DISPENSED, and removes it from the pending prescription queue.
+     * A prescription is dispensed once, if another session has already dispensed it nothing changes
+     * Within a transaction it is pending and queued again if the transaction is undone, which is recorded in the journal
+     * as a snapshot written meanwhile may already hold it as dispensed
+     *
+     * @return boolean True if the prescription was dispensed, false if it had already been dispensed
      */
-    public void dispensePrescription() {
+    public synchronized boolean dispensePrescription() {
+        if (this.prescriptionStatus == Status.DISPENSED) {
+            return false;
+        }
         this.prescriptionStatus = Status.DISPENSED;
+        HMSDatabase db = HMSDatabase.getInstance();
+        db.getPrescriptionQueue().remove(this);
+        ArrayList<Prescription> pList = db.getAllPrescriptions().get(this.appointmentId);
+        if (pList != null) {
+            db.getJournal().logPrescriptionDispensed(this, pList.indexOf(this));
+        }
+        HMSTransaction.onUndo(() -> {
+            restorePending();
+            if (pList != null) {
+                db.getJournal().logPrescriptionPending(this, pList.indexOf(this));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Makes the prescription pending again and queues it, when the transaction dispensing it is undone or its undo is replayed
+     */
+    void restorePending() {
+        synchronized (this) {
+            this.prescriptionStatus = Status.PENDING;
+        }
+        HMSDatabase db = HMSDatabase.getInstance();
+        db.getPrescriptionQueue().add(this, db.getAllAppointmentOutcomes().get(this.appointmentId));
     }
 
     /**
      * Prints the details of the prescription to the console.
      */
     public void print() {
-        System.out.println("Medication: " + this.medication);
-        System.out.println("Quantity: " + this.quantity);
-        System.out.println("Status: " + this.prescriptionStatus);
+        HMSOutput.getInstance().print(this);
+    }
+
+    /**
+     * Renders the prescription details that print shows.
+     * @param r The renderer to render the fields with
+     */
+    @Override
+    public void render(HMSRenderer r) {
+        r.field("Medication", this.medication);
+        r.field("Quantity", this.quantity);
+        r.field("Status", this.prescriptionStatus);
     }
 }
@@ -0,0 +1,110 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Work queue of prescriptions waiting to be dispensed, oldest appointment outcome first
+ * Prescriptions join the queue when they are added to HMSDatabase and leave it when dispensed, so the pharmacist view never scans the prescription history
+ */
+public class PrescriptionQueue implements HMSPager.PageSource<Prescription> {
+    /** Queued prescriptions, ordered by outcome time and then by when they were queued */
+    private final TreeSet<Entry> pending = new TreeSet<>(
+        Comparator.comparing((Entry e) -> e.outcomeDateTime).thenComparingLong(e -> e.order));
+
+    /** Queue entry of each queued prescription */
+    private final Map<Prescription, Entry> entries = new IdentityHashMap<>();
+
+    /** Order given to the next prescription queued */
+    private long nextOrder = 1;
+
+    /**
+     * A queued prescription with its sort key
+     */
+    private static final class Entry {
+        private final Prescription prescription;
+        private final LocalDateTime outcomeDateTime;
+        private final long order;
+
+        Entry(Prescription prescription, LocalDateTime outcomeDateTime, long order) {
+            this.prescription = prescription;
+            this.outcomeDateTime = outcomeDateTime;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Replaces the queue with the pending prescriptions of the database, used after loading
+     * @param prescriptions All prescriptions, by appointment ID
+     * @param outcomes All appointment outcomes, by appointment ID
+     */
+    public synchronized void rebuild(Map<String, ArrayList<Prescription>> prescriptions, Map<String, AppointmentOutcome> outcomes) {
+        pending.clear();
+        entries.clear();
+        nextOrder = 1;
+        for (Map.Entry<String, ArrayList<Prescription>> pList : prescriptions.entrySet()) {
+            AppointmentOutcome outcome = outcomes.get(pList.getKey());
+            for (Prescription p : pList.getValue()) {
+                add(p, outcome);
+            }
+        }
+    }
+
+    /**
+     * Queues a prescription if it is pending
+     * @param p The prescription
+     * @param outcome The outcome of the prescription's appointment, or null if it is not known (queued last)
+     */
+    public synchronized void add(Prescription p, AppointmentOutcome outcome) {
+        if (p.getStatus() != Prescription.Status.PENDING || entries.containsKey(p)) {
+            return;
+        }
+        Entry e = new Entry(p, outcome == null ? LocalDateTime.MAX : outcome.getOutcomeDateTime(), nextOrder++);
+        pending.add(e);
+        entries.put(p, e);
+    }
+
+    /**
+     * Removes a prescription from the queue, e.g. once it is dispensed
+     * @param p The prescription
+     */
+    public synchronized void remove(Prescription p) {
+        Entry e = entries.remove(p);
+        if (e != null) {
+            pending.remove(e);
+        }
+    }
+
+    /**
+     * Gets the number of prescriptions waiting to be dispensed
+     * @return int Number of pending prescriptions
+     */
+    @Override
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Gets a page of pending prescriptions in queue order
+     * @param offset Number of prescriptions before the page
+     * @param limit Maximum number of prescriptions to return
+     * @return List of up to limit prescriptions starting at offset
+     */
+    @Override
+    public synchronized List<Prescription> page(int offset, int limit) {
+        List<Prescription> page = new ArrayList<>(Math.max(0, Math.min(limit, pending.size() - offset)));
+        int position = 0;
+        for (Entry e : pending) {
+            if (page.size() == limit) {
+                break;
+            }
+            if (position++ >= offset) {
+                page.add(e.prescription);
+            }
+        }
+        return page;
+    }
+}
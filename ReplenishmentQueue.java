@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Work queue of replenishment requests waiting for approval, oldest request first
+ * Requests join the queue when they are added to HMSDatabase and leave it when approved, so the administrator view never scans the request history
+ */
+public class ReplenishmentQueue implements HMSPager.PageSource<ReplenishmentRequest> {
+    /** Pending requests by their position in the database's request list */
+    private final TreeMap<Integer, ReplenishmentRequest> pending = new TreeMap<>();
+
+    /** Position of each pending request */
+    private final Map<ReplenishmentRequest, Integer> positions = new IdentityHashMap<>();
+
+    /**
+     * Replaces the queue with the pending requests of the database, used after loading
+     * @param requests All replenishment requests, in the order they were made
+     */
+    public synchronized void rebuild(List<ReplenishmentRequest> requests) {
+        pending.clear();
+        positions.clear();
+        for (int i = 0; i < requests.size(); i++) {
+            add(requests.get(i), i);
+        }
+    }
+
+    /**
+     * Queues a request if it is pending
+     * @param r The replenishment request
+     * @param position Position of the request in the database's request list
+     */
+    public synchronized void add(ReplenishmentRequest r, int position) {
+        if (r.getStatus() != ReplenishmentRequest.ReplenishmentRequestStatus.PENDING || positions.containsKey(r)) {
+            return;
+        }
+        pending.put(position, r);
+        positions.put(r, position);
+    }
+
+    /**
+     * Removes a request from the queue, e.g. once it is approved
+     * @param r The replenishment request
+     */
+    public synchronized void remove(ReplenishmentRequest r) {
+        Integer position = positions.remove(r);
+        if (position != null) {
+            pending.remove(position);
+        }
+    }
+
+    /**
+     * Gets the number of requests waiting for approval
+     * @return int Number of pending requests
+     */
+    @Override
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Gets a page of pending requests, oldest first
+     * @param offset Number of requests before the page
+     * @param limit Maximum number of requests to return
+     * @return List of up to limit requests starting at offset
+     */
+    @Override
+    public synchronized List<ReplenishmentRequest> page(int offset, int limit) {
+        List<ReplenishmentRequest> page = new ArrayList<>(Math.max(0, Math.min(limit, pending.size() - offset)));
+        int position = 0;
+        for (ReplenishmentRequest r : pending.values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            if (position++ >= offset) {
+                page.add(r);
+            }
+        }
+        return page;
+    }
+}
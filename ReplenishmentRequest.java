@@ -1,18 +1,18 @@
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.File;
 import java.io.Serializable;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 
 /**
  * Tracks details about the requested medicine, quantity, requesting pharmacist, and request status.
  * Implements Serializable for persistent storage.
  */
-public class ReplenishmentRequest implements Serializable {
+public class ReplenishmentRequest implements Serializable, IRenderable {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = 3560847152250224404L;
+
     /**
      * Pharmacist ID of Pharmacist doing the replenishment request
      */
@@ -32,7 +32,7 @@ public class ReplenishmentRequest implements Serializable {
     /**
      * Status of the replenishment request
      */
-    private ReplenishmentRequestStatus replenishmentStatus;
+    private volatile ReplenishmentRequestStatus replenishmentStatus;
 
     /**
      * Status of replenishment requests.
@@ -65,37 +65,56 @@ public class ReplenishmentRequest implements Serializable {
         this.replenishmentStatus = ReplenishmentRequestStatus.PENDING;
     }
 
+    /**
+     * Constructs a pending ReplenishmentRequest with a known request date, used when replaying the journal.
+     *
+     * @param pharmacistId The ID of the pharmacist making the request
+     * @param medicineName The name of the medicine to be replenished
+     * @param requestAmount The quantity of medicine requested
+     * @param requestDate The date and time the request was made
+     */
+    ReplenishmentRequest(String pharmacistId, String medicineName, int requestAmount, LocalDateTime requestDate) {
+        this(pharmacistId, medicineName, requestAmount);
+        this.requestDate = requestDate;
+    }
+
     /**
      * Deserializes replenishment requests from a file.
      * 
+     * @param file The file to read
      * @return ArrayList of ReplenishmentRequest objects, or null if deserialization fails
      */
-    protected static ArrayList<ReplenishmentRequest> deserialize() {
-        ArrayList<ReplenishmentRequest> allReplenishmentRequests = null;
-        try (FileInputStream fis = new FileInputStream("replenishmentRequests.dat");
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            allReplenishmentRequests = (ArrayList<ReplenishmentRequest>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        return allReplenishmentRequests;
+    protected static ArrayList<ReplenishmentRequest> deserialize(File file) {
+        return HMSCodec.read(file, in -> {
+            int count = in.readVarInt();
+            ArrayList<ReplenishmentRequest> allReplenishmentRequests = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ReplenishmentRequest r = new ReplenishmentRequest(in.readRef(), in.readRef(), in.readSignedVarInt(), in.readDateTime());
+                r.replenishmentStatus = ReplenishmentRequestStatus.values()[in.readByte()];
+                allReplenishmentRequests.add(r);
+            }
+            return allReplenishmentRequests;
+        });
     }
 
     /**
      * Serializes replenishment requests to a file.
      * 
      * @param allReplenishmentRequests List of requests to serialize
+     * @param file The file to write
      * @return true if serialization is successful, false otherwise
      */
-    protected static boolean serialize(ArrayList<ReplenishmentRequest> allReplenishmentRequests) {
-        try (FileOutputStream fos = new FileOutputStream("replenishmentRequests.dat");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(allReplenishmentRequests);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    protected static boolean serialize(ArrayList<ReplenishmentRequest> allReplenishmentRequests, File file) {
+        return HMSCodec.write(file, out -> {
+            out.writeVarInt(allReplenishmentRequests.size());
+            for (ReplenishmentRequest r : allReplenishmentRequests) {
+                out.writeRef(r.pharmacistId);
+                out.writeRef(r.medicineName);
+                out.writeSignedVarInt(r.requestAmount);
+                out.writeDateTime(r.requestDate);
+                out.writeByte(r.replenishmentStatus.ordinal());
+            }
+        });
     }
 
     /**
@@ -158,19 +177,38 @@ public class ReplenishmentRequest implements Serializable {
 
     /**
      * Approves the replenishment request by changing its status to APPROVED.
+     * A request is approved once, if another session has already approved it nothing changes
+     *
+     * @return boolean True if the request was approved, false if it was no longer pending
      */
-    public void approveRequest() {
+    public synchronized boolean approveRequest() {
+        if (this.replenishmentStatus != ReplenishmentRequestStatus.PENDING) {
+            return false;
+        }
         this.replenishmentStatus = ReplenishmentRequestStatus.APPROVED;
+        HMSDatabase db = HMSDatabase.getInstance();
+        db.getReplenishmentQueue().remove(this);
+        db.getJournal().logReplenishmentApproved(db.getAllReplenishmentRequests().indexOf(this));
+        return true;
     }
 
     /**
      * Prints all details of the replenishment request to the console
      */
     public void print() {
-        System.out.println("Medication: " + this.medicineName);
-        System.out.println("Request Amount: " + this.requestAmount);
-        System.out.println("Request Date: " + this.requestDate.format(DateTimeFormatter.ofPattern("dd/MM/yy HH:mm:ss")));
-        System.out.println("Request By: " + this.pharmacistId);
-        System.out.println("Status: " + this.replenishmentStatus);
+        HMSOutput.getInstance().print(this);
+    }
+
+    /**
+     * Renders the replenishment request details that print shows
+     * @param r The renderer to render the fields with
+     */
+    @Override
+    public void render(HMSRenderer r) {
+        r.field("Medication", this.medicineName);
+        r.field("Request Amount", this.requestAmount);
+        r.field("Request Date", this.requestDate);
+        r.field("Request By", this.pharmacistId);
+        r.field("Status", this.replenishmentStatus);
     }
 }
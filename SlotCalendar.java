@@ -0,0 +1,146 @@
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One doctor's appointment calendar, with the day divided into 48 half-hour slots
+ * Each day keeps one 48-bit bitmap per appointment status, so checking a slot or reading a day's free/busy is a few bit operations
+ * The calendar is kept up to date by AppointmentIndex as appointments are created and change status
+ */
+public class SlotCalendar {
+    /** Number of half-hour slots in a day */
+    public static final int SLOTS_PER_DAY = 48;
+
+    /** Bits of a bitmap that stand for a slot of the day */
+    public static final long ALL_SLOTS = (1L << SLOTS_PER_DAY) - 1;
+
+    /** Statuses that take up a slot, every status except CANCELLED */
+    private static final Appointment.AppointmentStatus[] OCCUPYING = {
+        Appointment.AppointmentStatus.OPEN, Appointment.AppointmentStatus.PENDING,
+        Appointment.AppointmentStatus.SCHEDULED, Appointment.AppointmentStatus.COMPLETED
+    };
+
+    /** Slot bitmaps of each day, indexed by status ordinal */
+    private final Map<LocalDate, long[]> days = new HashMap<>();
+
+    /**
+     * Gets the slot of the day a time falls in
+     * @param time The time
+     * @return int Slot number, 0 for 00:00 up to 47 for 23:30
+     */
+    public static int slotOf(LocalTime time) {
+        return time.getHour() * 2 + time.getMinute() / 30;
+    }
+
+    /**
+     * Gets the start time of a slot
+     * @param slot Slot number, 0 to 47
+     * @return LocalTime Time the slot starts at
+     */
+    public static LocalTime timeOf(int slot) {
+        return LocalTime.of(slot / 2, (slot % 2) * 30);
+    }
+
+    /**
+     * Marks a slot as having an appointment with a status
+     * @param date The appointment date
+     * @param time The appointment time
+     * @param status The appointment's status
+     */
+    void set(LocalDate date, LocalTime time, Appointment.AppointmentStatus status) {
+        days.computeIfAbsent(date, k -> new long[Appointment.AppointmentStatus.values().length])[status.ordinal()] |= 1L << slotOf(time);
+    }
+
+    /**
+     * Clears a status from a slot
+     * @param date The appointment date
+     * @param time The appointment time
+     * @param status The status to clear
+     */
+    void clear(LocalDate date, LocalTime time, Appointment.AppointmentStatus status) {
+        long[] day = days.get(date);
+        if (day == null) {
+            return;
+        }
+        day[status.ordinal()] &= ~(1L << slotOf(time));
+        for (long bits : day) {
+            if (bits != 0) {
+                return;
+            }
+        }
+        days.remove(date);
+    }
+
+    /**
+     * Gets the slots of a day that are taken by an appointment that is not cancelled
+     * @param date The date
+     * @return long Bitmap with bit n set if slot n is taken
+     */
+    public long occupancy(LocalDate date) {
+        long[] day = days.get(date);
+        if (day == null) {
+            return 0;
+        }
+        long occupied = 0;
+        for (Appointment.AppointmentStatus status : OCCUPYING) {
+            occupied |= day[status.ordinal()];
+        }
+        return occupied;
+    }
+
+    /**
+     * Gets the slots of a day that have an appointment with a status
+     * @param date The date
+     * @param status The status
+     * @return long Bitmap with bit n set if slot n has an appointment with that status
+     */
+    public long withStatus(LocalDate date, Appointment.AppointmentStatus status) {
+        long[] day = days.get(date);
+        return day == null ? 0 : day[status.ordinal()];
+    }
+
+    /**
+     * Checks whether a slot is taken by an appointment that is not cancelled
+     * @param date The date
+     * @param time The time
+     * @return boolean True if the slot is taken, false otherwise
+     */
+    public boolean isOccupied(LocalDate date, LocalTime time) {
+        return (occupancy(date) & (1L << slotOf(time))) != 0;
+    }
+
+    /**
+     * Gets the status of a slot, preferring an appointment that is not cancelled
+     * @param date The date
+     * @param time The time
+     * @return AppointmentStatus Status of the slot, or null if it has no appointment
+     */
+    public Appointment.AppointmentStatus statusAt(LocalDate date, LocalTime time) {
+        long[] day = days.get(date);
+        if (day == null) {
+            return null;
+        }
+        long bit = 1L << slotOf(time);
+        for (Appointment.AppointmentStatus status : OCCUPYING) {
+            if ((day[status.ordinal()] & bit) != 0) {
+                return status;
+            }
+        }
+        return (day[Appointment.AppointmentStatus.CANCELLED.ordinal()] & bit) != 0 ? Appointment.AppointmentStatus.CANCELLED : null;
+    }
+
+    /**
+     * Gets the taken slots of every day of a month
+     * @param month The month
+     * @return long[] Occupancy bitmap of each day, index 0 for the first of the month
+     */
+    public long[] occupancy(YearMonth month) {
+        long[] result = new long[month.lengthOfMonth()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = occupancy(month.atDay(i + 1));
+        }
+        return result;
+    }
+}
@@ -1,7 +1,16 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
 /**
  * Represents a staff member in the system
  */
-public class Staff extends User {
+public class Staff extends User implements IRenderable {
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = -8507629217560657551L;
+
     /**
      * Represents a staff's age
      */
@@ -21,6 +30,75 @@ public class Staff extends User {
         this.Age = age;
     }
 
+    /**
+     * Constructs a Staff member with existing credentials, used when loading saved data
+     *
+     * @param id         The unique identifier for the staff member
+     * @param role       The role/position of the staff member
+     * @param name       The full name of the staff member
+     * @param gender     The gender of the staff member
+     * @param age        The age of the staff member
+     * @param password   The stored password hash
+     * @param firstLogin Whether the staff member has yet to log in for the first time
+     */
+    Staff(String id, String role, String name, String gender, int age, String password, boolean firstLogin) {
+        super(id, role, name, gender, password, firstLogin);
+        this.Age = age;
+    }
+
+    /**
+     * Creates a staff member of a specific role from decoded fields
+     */
+    interface Factory<T extends Staff> {
+        T create(String id, String role, String name, String gender, int age, String password, boolean firstLogin);
+    }
+
+    /**
+     * Writes a list of staff members in the binary snapshot format
+     *
+     * @param file The file to write
+     * @param allStaff List of staff members to serialize
+     * @return true if serialization is successful, false otherwise
+     */
+    protected static boolean encodeAll(File file, ArrayList<? extends Staff> allStaff) {
+        return HMSCodec.write(file, out -> {
+            out.writeVarInt(allStaff.size());
+            for (Staff s : allStaff) {
+                s.encode(out);
+            }
+        });
+    }
+
+    /**
+     * Reads a list of staff members written by encodeAll
+     *
+     * @param file The file to read
+     * @param factory Creates the staff member for the file's role
+     * @return ArrayList of staff members, or null if deserialization fails
+     */
+    protected static <T extends Staff> ArrayList<T> decodeAll(File file, Factory<T> factory) {
+        return HMSCodec.read(file, in -> {
+            int count = in.readVarInt();
+            ArrayList<T> allStaff = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = in.readString();
+                String role = in.readRef();
+                String name = in.readString();
+                String gender = in.readRef();
+                String password = in.readString();
+                boolean firstLogin = in.readBoolean();
+                allStaff.add(factory.create(id, role, name, gender, in.readSignedVarInt(), password, firstLogin));
+            }
+            return allStaff;
+        });
+    }
+
+    @Override
+    void encode(HMSCodec.Writer out) throws IOException {
+        super.encode(out);
+        out.writeSignedVarInt(this.Age);
+    }
+
     /**
      * Creates and returns a new Staff instance with the specified attributes.
      *
@@ -36,6 +114,14 @@ public class Staff extends User {
         return newStaff;
     }
 
+    /**
+     * Gets the age of the staff member
+     * @return The staff member's age
+     */
+    public int getAge() {
+        return this.Age;
+    }
+
     /**
      * @param updatedName The new name to set for the staff member
      */
@@ -56,16 +142,26 @@ public class Staff extends User {
      */
     public void setAge(int updatedAge) {
         this.Age = updatedAge;
+        HMSDatabase.getInstance().getJournal().logUserUpdate(this);
     }
 
     /**
      * Prints all details of the staff member to the console.
      */
     public void print() {
-        System.out.println("Id: " + this.getId());
-        System.out.println("Role: " + this.getRole());
-        System.out.println("Name: " + this.getName());
-        System.out.println("Gender: " + this.getGender());
-        System.out.println("Age: " + this.Age);
+        HMSOutput.getInstance().print(this);
+    }
+
+    /**
+     * Renders the staff member's details that print shows.
+     * @param r The renderer to render the fields with
+     */
+    @Override
+    public void render(HMSRenderer r) {
+        r.field("Id", this.getId());
+        r.field("Role", this.getRole());
+        r.field("Name", this.getName());
+        r.field("Gender", this.getGender());
+        r.field("Age", this.Age);
     }
 }
\ No newline at end of file
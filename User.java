@@ -5,6 +5,11 @@ import java.io.*;
  * Implements Serializable for persistent storage
  */
 public class User implements Serializable, IHashPassword{
+    /**
+     * Fixed to the UID of data files written with ObjectOutputStream, so they can still be read after the class changes
+     */
+    private static final long serialVersionUID = -5950650086203765493L;
+
     /**
      * The unique identifier for the user
      */
@@ -29,6 +34,11 @@ public class User implements Serializable, IHashPassword{
      * A boolean that is true if this is the user's first login, false otherwise
      */
     private boolean firstLogin;
+
+    /**
+     * Hash of the default password, shared by every new user instead of hashing it again for each one
+     */
+    private static volatile String defaultPasswordHash;
     
     /**
      * Constructs a new User with specified attributes (Default password is "password", changes upon first login, denoted by FirstLogin flag)
@@ -43,9 +53,47 @@ public class User implements Serializable, IHashPassword{
         this.role = role;
         this.name = name;
         this.gender = gender;
-        this.password = hashPassword("password");
+        if (defaultPasswordHash == null) {
+            defaultPasswordHash = hashPassword("password");
+        }
+        this.password = defaultPasswordHash;
         this.firstLogin = true;
     }
+
+    /**
+     * Constructs a User with existing credentials, used when loading saved data
+     *
+     * @param id         The unique identifier for the user
+     * @param role       The role/permission level of the user
+     * @param name       The full name of the user
+     * @param gender     The gender of the user
+     * @param password   The stored password hash
+     * @param firstLogin Whether the user has yet to log in for the first time
+     */
+    User(String id, String role, String name, String gender, String password, boolean firstLogin) {
+        this.id = id;
+        this.role = role;
+        this.name = name;
+        this.gender = gender;
+        this.password = password;
+        this.firstLogin = firstLogin;
+    }
+
+    /**
+     * Writes this user in the binary snapshot format
+     * Subclasses append their own fields after these
+     *
+     * @param out The writer to write to
+     * @throws IOException If writing fails
+     */
+    void encode(HMSCodec.Writer out) throws IOException {
+        out.writeString(this.id);
+        out.writeRef(this.role);
+        out.writeString(this.name);
+        out.writeRef(this.gender);
+        out.writeString(this.password);
+        out.writeBoolean(this.firstLogin);
+    }
     /**
      * Gets user ID
      * @return user ID
@@ -76,6 +124,7 @@ public class User implements Serializable, IHashPassword{
      */
     public void setName(String name) {
         this.name = name;
+        HMSDatabase.getInstance().getJournal().logUserUpdate(this);
     }
 
     /**
@@ -92,6 +141,7 @@ public class User implements Serializable, IHashPassword{
      */
     public void setGender(String gender) {
         this.gender = gender;
+        HMSDatabase.getInstance().getJournal().logUserUpdate(this);
     }
 
     /**
@@ -108,6 +158,7 @@ public class User implements Serializable, IHashPassword{
      */
     public void setPassword(String newPasswordHash) {
         this.password = newPasswordHash;
+        HMSDatabase.getInstance().getJournal().logUserUpdate(this);
     }
 
     /**
@@ -123,5 +174,6 @@ public class User implements Serializable, IHashPassword{
      */
     public void setFirstLoginFalse() {
         this.firstLogin = false;
+        HMSDatabase.getInstance().getJournal().logUserUpdate(this);
     }
 }
\ No newline at end of file
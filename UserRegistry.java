@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * All users of the system keyed by ID, with a view of the users of each role
+ * Lookups by ID are constant time however many users there are, and listing a role does not go through the other roles
+ * Users keep the order they were added in, both overall and within their role
+ * Lookups share a read lock with each other, and listings are copies, so sessions can list users while another session adds one
+ */
+public class UserRegistry {
+    /** Guards both maps, lookups share the read lock */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** All users by ID */
+    private final Map<String, User> byId = new LinkedHashMap<>();
+
+    /** Users of each role by ID, keyed by role name (Patient, Doctor, Pharmacist, Administrator) */
+    private final Map<String, Map<String, User>> byRole = new HashMap<>();
+
+    /**
+     * Adds a user, replacing any user with the same ID
+     * @param u The user to add
+     */
+    public void add(User u) {
+        lock.writeLock().lock();
+        try {
+            User previous = byId.put(u.getId(), u);
+            if (previous != null && !previous.getRole().equals(u.getRole())) {
+                byRole.get(previous.getRole()).remove(previous.getId());
+            }
+            byRole.computeIfAbsent(u.getRole(), k -> new LinkedHashMap<>()).put(u.getId(), u);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a user
+     * @param u The user to remove
+     * @return boolean True if the user was registered, false otherwise
+     */
+    public boolean remove(User u) {
+        lock.writeLock().lock();
+        try {
+            if (byId.get(u.getId()) != u) {
+                return false;
+            }
+            byId.remove(u.getId());
+            byRole.get(u.getRole()).remove(u.getId());
+            return true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets a user by ID
+     * @param id The user's ID
+     * @return User The user, or null if there is no user with that ID
+     */
+    public User get(String id) {
+        lock.readLock().lock();
+        try {
+            return byId.get(id);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets all users
+     * @return Collection Read-only copy of all users, in the order they were added
+     */
+    public Collection<User> all() {
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(byId.values()));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the users of a role
+     * @param role The role name, e.g. "Doctor"
+     * @return Collection Read-only copy of the users with that role, in the order they were added
+     */
+    public Collection<User> withRole(String role) {
+        lock.readLock().lock();
+        try {
+            Map<String, User> users = byRole.get(role);
+            return users == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(users.values()));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of users
+     * @return int Number of users
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+}